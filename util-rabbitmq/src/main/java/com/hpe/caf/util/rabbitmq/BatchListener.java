@@ -0,0 +1,30 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+/**
+ * May be implemented by the event handler of an EventPoller that wants to know where each batch of events ends,
+ * for instance to flush work it has been accumulating or to record how large the batches are.
+ */
+public interface BatchListener
+{
+    /**
+     * Called by the EventPoller thread after it has handled a batch of events.
+     * @param size the number of events in the batch, which is at least 1
+     */
+    void batchComplete(int size);
+}
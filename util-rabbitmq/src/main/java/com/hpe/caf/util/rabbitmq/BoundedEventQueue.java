@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * An event queue for use with an EventPoller that limits how many events can be waiting, so that a stalled
+ * consumer of events cannot cause memory to grow without bound. What happens when an event is added to a full queue
+ * is decided by its OverflowPolicy. Only add() and put() apply the policy; offer() keeps its usual contract.
+ * @param <T> the sort of Event this queue holds
+ */
+public class BoundedEventQueue<T> extends LinkedBlockingQueue<Event<T>>
+{
+    /**
+     * Notified when a queue with the PAUSE policy fills up, and again once it has drained to half its capacity.
+     */
+    public interface PauseListener
+    {
+        void pause();
+
+
+        void resume();
+    }
+
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final AtomicLong blockedNanos = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final Object pauseLock = new Object();
+    private volatile PauseListener pauseListener;
+    private volatile boolean paused;
+    private volatile long pausedSince;
+
+
+    /**
+     * Create a new BoundedEventQueue.
+     * @param capacity the maximum number of events to hold, which must be at least 1
+     * @param policy what to do when an event is added while the queue is full
+     */
+    public BoundedEventQueue(final int capacity, final OverflowPolicy policy)
+    {
+        // with the PAUSE policy events are still accepted while the producer reacts to being paused
+        super(policy == OverflowPolicy.PAUSE ? Integer.MAX_VALUE : capacity);
+        if ( capacity < 1 ) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.policy = Objects.requireNonNull(policy);
+    }
+
+
+    /**
+     * @param listener the listener to notify when a queue with the PAUSE policy fills up or drains
+     */
+    public void setPauseListener(final PauseListener listener)
+    {
+        this.pauseListener = listener;
+    }
+
+
+    /**
+     * Add an event, applying the overflow policy if the queue is full.
+     * @param event the event to add
+     * @return true
+     * @throws IllegalStateException if the queue is full and the policy is REJECT, or the thread was interrupted while
+     * waiting for space with the BLOCK policy
+     */
+    @Override
+    public boolean add(final Event<T> event)
+    {
+        switch (policy) {
+            case BLOCK:
+                try {
+                    put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for space in event queue", e);
+                }
+                return true;
+            case REJECT:
+                if ( !offer(event) ) {
+                    rejected.incrementAndGet();
+                    throw new IllegalStateException("Event queue full");
+                }
+                return true;
+            default:
+                super.add(event);
+                if ( size() >= capacity ) {
+                    changePaused(true);
+                }
+                return true;
+        }
+    }
+
+
+    @Override
+    public void put(final Event<T> event)
+        throws InterruptedException
+    {
+        if ( policy == OverflowPolicy.PAUSE ) {
+            add(event);
+            return;
+        }
+        if ( offer(event) ) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            super.put(event);
+        } finally {
+            blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+
+    @Override
+    public Event<T> poll(final long timeout, final TimeUnit unit)
+        throws InterruptedException
+    {
+        return drained(super.poll(timeout, unit));
+    }
+
+
+    @Override
+    public Event<T> poll()
+    {
+        return drained(super.poll());
+    }
+
+
+    @Override
+    public Event<T> take()
+        throws InterruptedException
+    {
+        return drained(super.take());
+    }
+
+
+    @Override
+    public int drainTo(final Collection<? super Event<T>> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+
+    @Override
+    public int drainTo(final Collection<? super Event<T>> c, final int maxElements)
+    {
+        int count = super.drainTo(c, maxElements);
+        if ( count > 0 && paused && size() <= capacity / 2 ) {
+            changePaused(false);
+        }
+        return count;
+    }
+
+
+    /**
+     * @return the maximum number of events the queue is intended to hold
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    /**
+     * @return the total time in milliseconds that producers have been blocked waiting for space, or for the PAUSE
+     * policy, the total time that the producer has been paused
+     */
+    public long getBlockedTime()
+    {
+        long current = paused ? System.nanoTime() - pausedSince : 0;
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get() + current);
+    }
+
+
+    /**
+     * @return the number of events refused because the queue was full
+     */
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+
+    /**
+     * @return whether the producer has been asked to pause
+     */
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+
+    private Event<T> drained(final Event<T> event)
+    {
+        if ( event != null && paused && size() <= capacity / 2 ) {
+            changePaused(false);
+        }
+        return event;
+    }
+
+
+    private void changePaused(final boolean pause)
+    {
+        synchronized (pauseLock) {
+            if ( pause == paused ) {
+                return;
+            }
+            PauseListener listener = pauseListener;
+            if ( pause ) {
+                pausedSince = System.nanoTime();
+                paused = true;
+                if ( listener != null ) {
+                    listener.pause();
+                }
+            } else {
+                blockedNanos.addAndGet(System.nanoTime() - pausedSince);
+                paused = false;
+                if ( listener != null ) {
+                    listener.resume();
+                }
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package com.hpe.caf.util.rabbitmq;
 
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Envelope;
 
 import java.util.Map;
@@ -42,6 +43,26 @@ public class DefaultRabbitConsumer extends RabbitConsumer<QueueConsumer>
     }
 
 
+    /**
+     * Create a new DefaultRabbitConsumer.
+     * @param events the queue of events to handle
+     * @param consumer the implementation of the QueueConsumer
+     * @param waitStrategy how to wait for events while the queue is empty
+     * @param batchSize the maximum number of events to take from the queue at once
+     */
+    public DefaultRabbitConsumer(BlockingQueue<Event<QueueConsumer>> events, QueueConsumer consumer, WaitStrategy waitStrategy, int batchSize)
+    {
+        super(POLL_PERIOD, events, consumer, waitStrategy, batchSize);
+    }
+
+
+    @Override
+    protected final Event<QueueConsumer> getDeliverEvent(Envelope envelope, byte[] data, AMQP.BasicProperties properties)
+    {
+        return new ConsumerDeliverEvent(new Delivery(envelope, data, getHeaders(properties), properties.getPriority()));
+    }
+
+
     @Override
     protected final Event<QueueConsumer> getDeliverEvent(Envelope envelope, byte[] data, Map<String, Object> headers)
     {
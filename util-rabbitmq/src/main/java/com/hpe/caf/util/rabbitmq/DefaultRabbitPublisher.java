@@ -37,4 +37,18 @@ public class DefaultRabbitPublisher extends EventPoller<QueuePublisher>
     {
         super(POLL_PERIOD, events, pubImpl);
     }
+
+
+    /**
+     * Create a new DefaultRabbitPublisher
+     * @param events the internal queue of events to handle
+     * @param pubImpl the implementation of the QueuePublisher
+     * @param waitStrategy how to wait for events while the queue is empty
+     * @param batchSize the maximum number of events to take from the queue at once
+     */
+    public DefaultRabbitPublisher(final BlockingQueue<Event<QueuePublisher>> events, final QueuePublisher pubImpl,
+                                  final WaitStrategy waitStrategy, final int batchSize)
+    {
+        super(POLL_PERIOD, events, pubImpl, waitStrategy, batchSize);
+    }
 }
@@ -18,6 +18,7 @@ package com.hpe.caf.util.rabbitmq;
 
 import com.rabbitmq.client.Envelope;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
@@ -31,19 +32,34 @@ public class Delivery
     private final Envelope envelope;
     private final byte[] messageData;
     private final Map<String, Object> headers;
+    private final Integer priority;
 
 
     /**
-     * Create a new Delivery, with specific headers.
+     * Create a new Delivery, with specific headers and a priority.
      * @param env the RabbitMQ message envelope
      * @param data the RabbitMQ message body
      * @param headers the string-mapped key/value headers
+     * @param priority the priority of the message, or null if it was published without one
      */
-    public Delivery(Envelope env, byte[] data, Map<String, Object> headers)
+    public Delivery(Envelope env, byte[] data, Map<String, Object> headers, Integer priority)
     {
         this.envelope = Objects.requireNonNull(env);
         this.messageData = Objects.requireNonNull(data);
         this.headers = Objects.requireNonNull(headers);
+        this.priority = priority;
+    }
+
+
+    /**
+     * Create a new Delivery, with specific headers.
+     * @param env the RabbitMQ message envelope
+     * @param data the RabbitMQ message body
+     * @param headers the string-mapped key/value headers
+     */
+    public Delivery(Envelope env, byte[] data, Map<String, Object> headers)
+    {
+        this(env, data, headers, null);
     }
 
 
@@ -76,6 +92,15 @@ public class Delivery
     }
 
 
+    /**
+     * @return a read-only buffer over the message delivery, which shares the delivered data rather than copying it
+     */
+    public ByteBuffer getMessageBuffer()
+    {
+        return ByteBuffer.wrap(messageData).asReadOnlyBuffer();
+    }
+
+
     /**
      * @return headers for the message
      */
@@ -83,4 +108,13 @@ public class Delivery
     {
         return headers;
     }
+
+
+    /**
+     * @return the priority of the message, or null if it was published without one
+     */
+    public Integer getPriority()
+    {
+        return priority;
+    }
 }
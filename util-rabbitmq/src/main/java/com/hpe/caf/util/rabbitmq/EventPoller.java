@@ -16,18 +16,42 @@
 package com.hpe.caf.util.rabbitmq;
 
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
  * An abstract class to poll a BlockingQueue for events and defer them for handling.
+ * To limit the number of events that can build up, use a BoundedEventQueue.
+ * Once an event has arrived, any others already waiting are drained from the queue in a single batch, so a burst
+ * of events costs one acquisition of the queue's lock rather than one per event. How the poller waits for events
+ * while the queue is empty is decided by its WaitStrategy. If the event handler is a BatchListener it is told
+ * the size of each batch once it has been handled.
  * @param <T> the sort of Event this EventPoller will use
  */
 public class EventPoller<T> implements Runnable
 {
+    /**
+     * The default maximum number of events to drain from the queue at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    /**
+     * The number of times a YIELDING poller checks the queue before it falls back to blocking.
+     */
+    private static final int YIELD_ATTEMPTS = 100;
+    /**
+     * The number of times a BUSY_SPIN poller checks the queue before it parks for SPIN_PARK_NANOS.
+     */
+    private static final int SPIN_ATTEMPTS = 10_000;
+    /**
+     * How long a BUSY_SPIN poller parks for once it has found the queue empty SPIN_ATTEMPTS times in a row.
+     */
+    private static final long SPIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
     private final int pollPeriod;
     /**
      * All events for the Thread to handle.
@@ -35,35 +59,68 @@ public class EventPoller<T> implements Runnable
     private final BlockingQueue<Event<T>> eventQueue;
     private final AtomicBoolean running = new AtomicBoolean(true);
     private final T eventHandler;
+    private final WaitStrategy waitStrategy;
+    private final int batchSize;
+    private final List<Event<T>> batch;
+    private final BatchListener batchListener;
 
 
     /**
-     * Create a new EventPoller.
+     * Create a new EventPoller that blocks while waiting for events and drains them in batches of up to
+     * DEFAULT_BATCH_SIZE.
      * @param pollPeriod the period in which to poll the event queue, which will also affect the shutdown time
      * @param eventQueue the object to use for storing and polling events
      * @param eventHandler the implementation to handle events
      */
     public EventPoller(final int pollPeriod, final BlockingQueue<Event<T>> eventQueue, final T eventHandler)
+    {
+        this(pollPeriod, eventQueue, eventHandler, WaitStrategy.BLOCKING, DEFAULT_BATCH_SIZE);
+    }
+
+
+    /**
+     * Create a new EventPoller.
+     * @param pollPeriod the period in which to poll the event queue, which will also affect the shutdown time
+     * @param eventQueue the object to use for storing and polling events
+     * @param eventHandler the implementation to handle events
+     * @param waitStrategy how to wait for events while the queue is empty
+     * @param batchSize the maximum number of events to take from the queue at once, where 1 disables batching
+     */
+    public EventPoller(final int pollPeriod, final BlockingQueue<Event<T>> eventQueue, final T eventHandler,
+                       final WaitStrategy waitStrategy, final int batchSize)
     {
         this.eventQueue = Objects.requireNonNull(eventQueue);
         this.pollPeriod = pollPeriod;
         this.eventHandler = Objects.requireNonNull(eventHandler);
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+        if ( batchSize < 1 ) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize - 1);
+        this.batchListener = eventHandler instanceof BatchListener ? (BatchListener)eventHandler : null;
     }
 
 
     /**
      * Start a thread that will poll with the period specified when the object was created.
      * Each event received will be handed off to the event handler which inheriting classes
-     * specify. This thread will properly query and re-raise the interrupt flag.
+     * specify. This thread will properly query and re-raise the interrupt flag. Events that
+     * have already been drained from the queue are always handled, even if the poller is
+     * shut down part way through a batch.
      */
     @Override
     public void run()
     {
         while ( running.get() && !Thread.currentThread().isInterrupted() ) {
             try {
-                Event<T> event = eventQueue.poll(pollPeriod, TimeUnit.SECONDS);
+                Event<T> event = nextEvent();
                 if ( event != null ) {
                     event.handleEvent(eventHandler);
+                    int handled = batchSize > 1 ? 1 + handleBatch() : 1;
+                    if ( batchListener != null ) {
+                        batchListener.batchComplete(handled);
+                    }
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -72,6 +129,67 @@ public class EventPoller<T> implements Runnable
     }
 
 
+    /**
+     * @return the strategy this poller uses to wait for events
+     */
+    public final WaitStrategy getWaitStrategy()
+    {
+        return waitStrategy;
+    }
+
+
+    /**
+     * @return the maximum number of events this poller takes from the queue at once
+     */
+    public final int getBatchSize()
+    {
+        return batchSize;
+    }
+
+
+    private Event<T> nextEvent()
+        throws InterruptedException
+    {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                for ( int i = 0; i < SPIN_ATTEMPTS; i++ ) {
+                    Event<T> event = eventQueue.poll();
+                    if ( event != null ) {
+                        return event;
+                    }
+                }
+                LockSupport.parkNanos(SPIN_PARK_NANOS);
+                return eventQueue.poll();
+            case YIELDING:
+                for ( int i = 0; i < YIELD_ATTEMPTS; i++ ) {
+                    Event<T> event = eventQueue.poll();
+                    if ( event != null ) {
+                        return event;
+                    }
+                    Thread.yield();
+                }
+                return eventQueue.poll(pollPeriod, TimeUnit.SECONDS);
+            case BLOCKING:
+            default:
+                return eventQueue.poll(pollPeriod, TimeUnit.SECONDS);
+        }
+    }
+
+
+    private int handleBatch()
+    {
+        int count = eventQueue.drainTo(batch, batchSize - 1);
+        try {
+            for ( Event<T> event : batch ) {
+                event.handleEvent(eventHandler);
+            }
+        } finally {
+            batch.clear();
+        }
+        return count;
+    }
+
+
     /**
      * @return the internal event queue
      */
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Compression of message bodies, signalled by the AMQP content encoding of the message. Only the "deflate" encoding
+ * (the zlib format, as in HTTP) is supported, since it needs nothing beyond the JDK.
+ */
+public final class MessageCompression
+{
+    /**
+     * The content encoding of a message compressed with deflate.
+     */
+    public static final String DEFLATE = "deflate";
+    /**
+     * The default limit on the size of a decompressed message body, which stops a small message that inflates to an
+     * enormous size from exhausting memory. This is the largest message RabbitMQ accepts by default.
+     */
+    public static final int DEFAULT_MAX_INFLATED_SIZE = 128 * 1024 * 1024;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+
+
+    private MessageCompression() { }
+
+
+    /**
+     * Compress a message body with deflate.
+     * @param data the message body
+     * @param level the compression level, from 1 (fastest) to 9 (smallest)
+     * @return the compressed message body
+     */
+    public static byte[] deflate(byte[] data, int level)
+    {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[Math.min(65536, Math.max(64, data.length))];
+            while ( !deflater.finished() ) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+
+    /**
+     * Decompress a message body compressed with deflate, up to the default maximum size.
+     * @param data the compressed message body
+     * @return the original message body
+     * @throws IOException if the data is not valid deflate compressed data, or inflates to more than the maximum size
+     */
+    public static byte[] inflate(byte[] data)
+        throws IOException
+    {
+        return inflate(data, DEFAULT_MAX_INFLATED_SIZE);
+    }
+
+
+    /**
+     * Decompress a message body compressed with deflate.
+     * @param data the compressed message body
+     * @param maxSize the maximum size in bytes of the original message body
+     * @return the original message body
+     * @throws IOException if the data is not valid deflate compressed data, or inflates to more than maxSize bytes
+     */
+    public static byte[] inflate(byte[] data, int maxSize)
+        throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int expectedSize = (int)Math.min(Math.min(data.length * 4L, 1 << 20), maxSize);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(expectedSize);
+            byte[] buffer = new byte[Math.min(65536, Math.max(64, expectedSize))];
+            while ( !inflater.finished() ) {
+                int length = inflater.inflate(buffer);
+                if ( length == 0 && (inflater.needsInput() || inflater.needsDictionary()) ) {
+                    throw new IOException("Compressed message body is truncated");
+                }
+                if ( length > maxSize - out.size() ) {
+                    throw new IOException("Compressed message body inflates to more than " + maxSize + " bytes");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed message body is invalid", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+
+    /**
+     * Only deflate is treated as compression. Producers often set other content encodings, such as a character set
+     * like UTF-8, that describe the body rather than compress it, so those bodies are used as they are.
+     * @param contentEncoding the content encoding of a message, which may be null
+     * @return true if the message body has to be decompressed before it is used
+     */
+    public static boolean isCompressed(String contentEncoding)
+    {
+        return DEFLATE.equalsIgnoreCase(contentEncoding);
+    }
+
+
+    /**
+     * Decompress a message body according to its content encoding, up to the default maximum size. A body that is
+     * not compressed with deflate is returned as it is.
+     * @param data the message body
+     * @param contentEncoding the content encoding of the message, which may be null
+     * @return the original message body
+     * @throws IOException if the data is not validly compressed, or it decompresses to more than the maximum size
+     */
+    public static byte[] decode(byte[] data, String contentEncoding)
+        throws IOException
+    {
+        return decode(data, contentEncoding, DEFAULT_MAX_INFLATED_SIZE);
+    }
+
+
+    /**
+     * Decompress a message body according to its content encoding. A body that is not compressed with deflate is
+     * returned as it is.
+     * @param data the message body
+     * @param contentEncoding the content encoding of the message, which may be null
+     * @param maxSize the maximum size in bytes of the original message body
+     * @return the original message body
+     * @throws IOException if the data is not validly compressed, or it decompresses to more than maxSize bytes
+     */
+    public static byte[] decode(byte[] data, String contentEncoding, int maxSize)
+        throws IOException
+    {
+        return isCompressed(contentEncoding) ? inflate(data, maxSize) : data;
+    }
+
+
+    /**
+     * @return the CPU time used by the current thread in nanoseconds, or the elapsed time if the JVM does not measure
+     * CPU time, for timing compression
+     */
+    public static long getCpuTime()
+    {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+}
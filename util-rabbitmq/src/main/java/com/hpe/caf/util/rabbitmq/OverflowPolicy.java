@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+/**
+ * What a BoundedEventQueue should do when an event is added while it is full.
+ */
+public enum OverflowPolicy
+{
+    /**
+     * Block the thread adding the event until there is space for it.
+     */
+    BLOCK,
+    /**
+     * Accept the event, but ask the producer of events to pause until the queue has drained to half its capacity.
+     */
+    PAUSE,
+    /**
+     * Refuse the event by throwing an IllegalStateException, as per BlockingQueue.add().
+     */
+    REJECT;
+}
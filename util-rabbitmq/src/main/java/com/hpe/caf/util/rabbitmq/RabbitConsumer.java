@@ -32,7 +32,8 @@ import java.util.concurrent.BlockingQueue;
 /**
  * A basic framework for handling consumption of messages from a RabbitMQ queue.
  * It decouples the RabbitMQ client threads delivering messages from the handling
- * and dispatching of these messages.
+ * and dispatching of these messages. Message bodies that were compressed when they were published, as indicated by
+ * their content encoding, are decompressed before they are handed on.
  */
 public abstract class RabbitConsumer<T> extends EventPoller<T> implements Consumer
 {
@@ -51,10 +52,69 @@ public abstract class RabbitConsumer<T> extends EventPoller<T> implements Consum
     }
 
 
+    /**
+     * Create a new RabbitConsumer.
+     * @param pollPeriod the polling period to look for events
+     * @param events the object to use for storing and polling events
+     * @param consumerImpl the event handler implementation
+     * @param waitStrategy how to wait for events while the queue is empty
+     * @param batchSize the maximum number of events to take from the queue at once
+     */
+    public RabbitConsumer(int pollPeriod, BlockingQueue<Event<T>> events, T consumerImpl, WaitStrategy waitStrategy, int batchSize)
+    {
+        super(pollPeriod, events, consumerImpl, waitStrategy, batchSize);
+    }
+
+
     @Override
     public final void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body)
     {
-        getEventQueue().add(getDeliverEvent(envelope, body, properties.getHeaders() == null ? Collections.emptyMap() : properties.getHeaders()));
+        getEventQueue().add(getDeliverEvent(envelope, decode(envelope, properties, body), properties));
+    }
+
+
+    /**
+     * Called after the body of a compressed message has been decompressed, on the thread that delivered it. By
+     * default this does nothing, but implementations can override it to record metrics.
+     * @param compressedSize the size of the message body as it was delivered
+     * @param size the size of the decompressed message body
+     * @param cpuNanos the CPU time taken to decompress the body, in nanoseconds
+     */
+    protected void messageDecompressed(int compressedSize, int size, long cpuNanos)
+    {
+    }
+
+
+    /**
+     * @return the maximum size in bytes a compressed message body may decompress to, which by default is
+     * MessageCompression.DEFAULT_MAX_INFLATED_SIZE
+     */
+    protected int getMaxDecompressedSize()
+    {
+        return MessageCompression.DEFAULT_MAX_INFLATED_SIZE;
+    }
+
+
+    /**
+     * If the message body is compressed with deflate, decompress it. Bodies with any other content encoding are
+     * handed on as they are. If it cannot be decompressed, including when it would exceed the maximum decompressed
+     * size, it is handed on as it is, so it is rejected like any other message that cannot be understood.
+     */
+    private byte[] decode(Envelope envelope, AMQP.BasicProperties properties, byte[] body)
+    {
+        String contentEncoding = properties.getContentEncoding();
+        if ( !MessageCompression.isCompressed(contentEncoding) ) {
+            return body;
+        }
+        try {
+            long start = MessageCompression.getCpuTime();
+            byte[] data = MessageCompression.decode(body, contentEncoding, getMaxDecompressedSize());
+            messageDecompressed(body.length, data.length, MessageCompression.getCpuTime() - start);
+            return data;
+        } catch (IOException e) {
+            LOG.error("Failed to decode message {} with content encoding {}", envelope.getDeliveryTag(), contentEncoding, e);
+            return body;
+        }
     }
 
 
@@ -94,6 +154,30 @@ public abstract class RabbitConsumer<T> extends EventPoller<T> implements Consum
     }
 
 
+    /**
+     * Get a new delivery event for internal handling of new messages. By default only the headers are taken from the
+     * message properties, so implementations that need any of the other properties should override this.
+     * @param envelope the envelope, containing metadata about the message delivery
+     * @param data the actual message delivery
+     * @param properties the message properties
+     * @return an instance of this implementation's QueueEvent indicating a delivery
+     */
+    protected Event<T> getDeliverEvent(Envelope envelope, byte[] data, AMQP.BasicProperties properties)
+    {
+        return getDeliverEvent(envelope, data, getHeaders(properties));
+    }
+
+
+    /**
+     * @param properties the message properties
+     * @return the message headers, which are empty rather than null if the message has none
+     */
+    protected static Map<String, Object> getHeaders(AMQP.BasicProperties properties)
+    {
+        return properties.getHeaders() == null ? Collections.emptyMap() : properties.getHeaders();
+    }
+
+
     /**
      * Get a new delivery event for internal handling of new messages
      * @param envelope the envelope, containing metadata about the message delivery
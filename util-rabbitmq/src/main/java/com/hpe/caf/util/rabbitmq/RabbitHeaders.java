@@ -24,4 +24,23 @@ public class RabbitHeaders
     public static final String RABBIT_HEADER_CAF_WORKER_REJECTED = "x-caf-worker-rejected";
     public static final String RABBIT_HEADER_CAF_WORKER_RETRY = "x-caf-worker-retry";
     public static final String RABBIT_HEADER_CAF_WORKER_RETRY_LIMIT = "x-caf-worker-retry-limit";
+    public static final String RABBIT_HEADER_CAF_WORKER_DELAYED = "x-caf-worker-delayed";
+    public static final String RABBIT_HEADER_CAF_WORKER_PRIORITY = "x-caf-worker-priority";
+    /**
+     * Marks a message whose body is an envelope holding several task messages, with the number of messages it holds.
+     */
+    public static final String RABBIT_HEADER_CAF_WORKER_ENVELOPE = "x-caf-worker-envelope";
+    /**
+     * Added by a WorkerQueue to the headers it hands to worker-core with a message, with the name of the queue the
+     * message was consumed from. It is not published.
+     */
+    public static final String RABBIT_HEADER_CAF_WORKER_INPUT_QUEUE = "x-caf-worker-input-queue";
+    /**
+     * Added by RabbitMQ to messages redelivered from a quorum queue, with the number of previous deliveries.
+     */
+    public static final String RABBIT_HEADER_DELIVERY_COUNT = "x-delivery-count";
+    /**
+     * Added by RabbitMQ to dead-lettered messages, with a list of tables describing each time they were dead-lettered.
+     */
+    public static final String RABBIT_HEADER_DEATH = "x-death";
 }
\ No newline at end of file
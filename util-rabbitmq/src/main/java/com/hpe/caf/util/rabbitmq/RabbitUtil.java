@@ -27,6 +27,7 @@ import net.jodah.lyra.util.Duration;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeoutException;
@@ -37,6 +38,12 @@ import java.util.concurrent.TimeoutException;
  */
 public final class RabbitUtil
 {
+    private static final String QUEUE_ARG_MAX_PRIORITY = "x-max-priority";
+    private static final String QUEUE_ARG_MESSAGE_TTL = "x-message-ttl";
+    private static final String QUEUE_ARG_DEAD_LETTER_EXCHANGE = "x-dead-letter-exchange";
+    private static final String QUEUE_ARG_DEAD_LETTER_ROUTING_KEY = "x-dead-letter-routing-key";
+
+
     private RabbitUtil() { }
 
 
@@ -121,6 +128,25 @@ public final class RabbitUtil
     }
 
 
+    /**
+     * Ensure a queue for a worker has been declared, supporting message priorities up to the specified maximum.
+     * A queue cannot be redeclared with a different maximum priority, so all users of the queue must agree on it.
+     * @param channel the channel to use to declare the queue
+     * @param queueName the name of the worker queue
+     * @param maxPriority the highest message priority the queue supports, or 0 if messages should not be prioritised
+     * @throws IOException if the queue is not valid and cannot be used, this is likely NOT retryable
+     */
+    public static void declareWorkerQueue(Channel channel, String queueName, int maxPriority)
+        throws IOException
+    {
+        if ( maxPriority < 0 || maxPriority > 255 ) {
+            throw new IllegalArgumentException("Maximum priority must be between 0 and 255");
+        }
+        Map<String, Object> queueProps = maxPriority == 0 ? Collections.emptyMap() : Collections.singletonMap(QUEUE_ARG_MAX_PRIORITY, maxPriority);
+        declareQueue(channel, queueName, Durability.DURABLE, Exclusivity.NON_EXCLUSIVE, EmptyAction.LEAVE_EMPTY, queueProps);
+    }
+
+
     /**
      * Declare a queue with arbitrary parameters and default queue properties.
      * @param channel the channel to use to declare the queue
@@ -157,4 +183,40 @@ public final class RabbitUtil
         Objects.requireNonNull(queueProps);
         channel.queueDeclare(queueName, dur == Durability.DURABLE, excl == Exclusivity.EXCLUSIVE, act == EmptyAction.AUTO_REMOVE, queueProps);
     }
+
+
+    /**
+     * Get the name of the delay queue that holds messages for a worker queue for a period of time.
+     * @param queueName the name of the worker queue
+     * @param delayMillis how long, in milliseconds, the delay queue holds messages
+     * @return the name of the delay queue
+     */
+    public static String getDelayQueueName(String queueName, long delayMillis)
+    {
+        return Objects.requireNonNull(queueName) + "-delay-" + delayMillis;
+    }
+
+
+    /**
+     * Declare a queue that holds messages for a fixed period of time and then dead-letters them, through the default
+     * exchange, to a worker queue. Nothing should consume from a delay queue.
+     * @param channel the channel to use to declare the queue
+     * @param queueName the name of the delay queue
+     * @param targetQueue the name of the worker queue messages are returned to
+     * @param delayMillis how long, in milliseconds, messages are held before they are returned
+     * @throws IOException if the queue already exists AND the parameter settings do not match the existing queue
+     */
+    public static void declareDelayQueue(Channel channel, String queueName, String targetQueue, long delayMillis)
+        throws IOException
+    {
+        Objects.requireNonNull(targetQueue);
+        if ( delayMillis < 1 ) {
+            throw new IllegalArgumentException("Delay must be at least 1 millisecond");
+        }
+        Map<String, Object> queueProps = new HashMap<>();
+        queueProps.put(QUEUE_ARG_MESSAGE_TTL, delayMillis);
+        queueProps.put(QUEUE_ARG_DEAD_LETTER_EXCHANGE, "");
+        queueProps.put(QUEUE_ARG_DEAD_LETTER_ROUTING_KEY, targetQueue);
+        declareQueue(channel, queueName, Durability.DURABLE, Exclusivity.NON_EXCLUSIVE, EmptyAction.LEAVE_EMPTY, queueProps);
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+/**
+ * How an EventPoller waits for the next event once its queue is empty.
+ */
+public enum WaitStrategy
+{
+    /**
+     * Block on the queue for up to the poll period. This uses no CPU while idle, but every event that arrives at an
+     * empty queue has to wake the polling thread.
+     */
+    BLOCKING,
+    /**
+     * Poll the queue in a loop, yielding between attempts, for a short time before falling back to blocking. This
+     * keeps the thread awake through a burst of events at the cost of some CPU at the end of each burst.
+     */
+    YIELDING,
+    /**
+     * Poll the queue in a tight loop, only parking the thread for a few tens of microseconds at a time once the queue
+     * has stayed empty for thousands of attempts. This gives the lowest latency but keeps a core almost fully busy
+     * for as long as the poller is running, even while idle, so should only be used where a core can be dedicated to
+     * each poller that uses it.
+     */
+    BUSY_SPIN;
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class BoundedEventQueueTest
+{
+    private static final Event<QueueConsumer> EVENT = new ConsumerAckEvent(1);
+    private static final int TEST_TIMEOUT_MS = 5000;
+
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReject()
+    {
+        BoundedEventQueue<QueueConsumer> q = new BoundedEventQueue<>(2, OverflowPolicy.REJECT);
+        q.add(EVENT);
+        q.add(EVENT);
+        try {
+            q.add(EVENT);
+        } finally {
+            Assert.assertEquals(q.getRejectedCount(), 1);
+            Assert.assertEquals(q.size(), 2);
+        }
+    }
+
+
+    @Test
+    public void testBlock()
+        throws InterruptedException
+    {
+        BoundedEventQueue<QueueConsumer> q = new BoundedEventQueue<>(1, OverflowPolicy.BLOCK);
+        q.add(EVENT);
+        CountDownLatch added = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            q.add(EVENT);
+            added.countDown();
+        });
+        t.start();
+        Assert.assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+        Assert.assertNotNull(q.poll(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(added.await(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(q.size(), 1);
+        Assert.assertTrue(q.getBlockedTime() > 0);
+    }
+
+
+    @Test
+    public void testPause()
+        throws InterruptedException
+    {
+        AtomicInteger pauses = new AtomicInteger();
+        AtomicInteger resumes = new AtomicInteger();
+        BoundedEventQueue<QueueConsumer> q = new BoundedEventQueue<>(4, OverflowPolicy.PAUSE);
+        q.setPauseListener(new BoundedEventQueue.PauseListener()
+        {
+            @Override
+            public void pause()
+            {
+                pauses.incrementAndGet();
+            }
+
+
+            @Override
+            public void resume()
+            {
+                resumes.incrementAndGet();
+            }
+        });
+        for ( int i = 0; i < 6; i++ ) {
+            q.add(EVENT);
+        }
+        Assert.assertEquals(q.size(), 6);
+        Assert.assertTrue(q.isPaused());
+        Assert.assertEquals(pauses.get(), 1);
+        for ( int i = 0; i < 3; i++ ) {
+            q.poll(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        Assert.assertTrue(q.isPaused());
+        q.poll(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        Assert.assertFalse(q.isPaused());
+        Assert.assertEquals(resumes.get(), 1);
+    }
+}
@@ -29,6 +29,7 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 import org.testng.internal.junit.ArrayAsserts;
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Envelope;
 
 
@@ -55,6 +56,26 @@ public class DefaultRabbitConsumerTest
     }
 
 
+    @Test
+    public void testHandleCompressedDelivery()
+        throws InterruptedException
+    {
+        BlockingQueue<Event<QueueConsumer>> events = new LinkedBlockingQueue<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        TestQueueConsumerImpl impl = new TestQueueConsumerImpl(latch);
+        DefaultRabbitConsumer con = new DefaultRabbitConsumer(events, impl);
+        byte[] body = "data data data data data data".getBytes(StandardCharsets.UTF_8);
+        Envelope env = Mockito.mock(Envelope.class);
+        AMQP.BasicProperties properties = Mockito.mock(AMQP.BasicProperties.class);
+        Mockito.when(properties.getContentEncoding()).thenReturn(MessageCompression.DEFLATE);
+        con.handleDelivery("consumer", env, properties, MessageCompression.deflate(body, 6));
+        Event<QueueConsumer> event = events.poll(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(event);
+        event.handleEvent(impl);
+        ArrayAsserts.assertArrayEquals(body, impl.getLastDelivery().getMessageData());
+    }
+
+
     @Test
     public void testProcessAck()
         throws InterruptedException
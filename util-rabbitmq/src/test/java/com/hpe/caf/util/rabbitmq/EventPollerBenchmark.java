@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Compares the wait strategies of EventPoller, with and without batching. The burst benchmark hands the poller a
+ * burst of events at a time and measures its throughput, which is where batching helps. The single benchmark hands
+ * it one event at a time and measures how long each takes to be handled, which is where the spinning strategies help.
+ * Run with the perfnorm profiler to see the context switches per event as well.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class EventPollerBenchmark
+{
+    private static final int BURST_SIZE = 1000;
+
+    @Param({"BLOCKING", "YIELDING", "BUSY_SPIN"})
+    public WaitStrategy waitStrategy;
+
+    @Param({"1", "64"})
+    public int batchSize;
+
+    private final AtomicLong handled = new AtomicLong();
+    private final Event<AtomicLong> event = AtomicLong::incrementAndGet;
+    private BlockingQueue<Event<AtomicLong>> queue;
+    private EventPoller<AtomicLong> poller;
+    private Thread pollerThread;
+
+
+    @Setup(Level.Trial)
+    public void startPoller()
+    {
+        queue = new LinkedBlockingQueue<>();
+        poller = new EventPoller<>(1, queue, handled, waitStrategy, batchSize);
+        pollerThread = new Thread(poller);
+        pollerThread.start();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void stopPoller()
+        throws InterruptedException
+    {
+        poller.shutdown();
+        pollerThread.join();
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @OperationsPerInvocation(BURST_SIZE)
+    public void burst()
+    {
+        long target = handled.get() + BURST_SIZE;
+        for ( int i = 0; i < BURST_SIZE; i++ ) {
+            queue.add(event);
+        }
+        awaitHandled(target);
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void single()
+    {
+        long target = handled.get() + 1;
+        queue.add(event);
+        awaitHandled(target);
+    }
+
+
+    private void awaitHandled(final long target)
+    {
+        while ( handled.get() < target ) {
+            Thread.yield();
+        }
+    }
+}
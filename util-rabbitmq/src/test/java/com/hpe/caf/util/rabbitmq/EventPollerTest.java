@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+public class EventPollerTest
+{
+    private static final int EVENTS = 1000;
+    private static final int TEST_TIMEOUT_MS = 5000;
+
+
+    @Test
+    public void testBlocking()
+        throws InterruptedException
+    {
+        verifyStrategy(WaitStrategy.BLOCKING, EventPoller.DEFAULT_BATCH_SIZE);
+    }
+
+
+    @Test
+    public void testYielding()
+        throws InterruptedException
+    {
+        verifyStrategy(WaitStrategy.YIELDING, EventPoller.DEFAULT_BATCH_SIZE);
+    }
+
+
+    @Test
+    public void testBusySpin()
+        throws InterruptedException
+    {
+        verifyStrategy(WaitStrategy.BUSY_SPIN, EventPoller.DEFAULT_BATCH_SIZE);
+    }
+
+
+    @Test
+    public void testNoBatching()
+        throws InterruptedException
+    {
+        verifyStrategy(WaitStrategy.BLOCKING, 1);
+    }
+
+
+    @Test
+    public void testBatchHandledAfterShutdown()
+        throws InterruptedException
+    {
+        BlockingQueue<Event<List<Integer>>> events = new LinkedBlockingQueue<>();
+        List<Integer> handled = new ArrayList<>();
+        EventPoller<List<Integer>> poller = new EventPoller<>(1, events, handled, WaitStrategy.BLOCKING, 10);
+        events.add(target -> {
+            target.add(0);
+            poller.shutdown();
+        });
+        for ( int i = 1; i < 5; i++ ) {
+            int value = i;
+            events.add(target -> target.add(value));
+        }
+        poller.run();
+        Assert.assertEquals(handled.size(), 5);
+        Assert.assertTrue(events.isEmpty());
+    }
+
+
+    @Test
+    public void testDrainResumesPausedQueue()
+    {
+        BoundedEventQueue<List<Integer>> events = new BoundedEventQueue<>(4, OverflowPolicy.PAUSE);
+        for ( int i = 0; i < 4; i++ ) {
+            events.add(target -> target.add(0));
+        }
+        Assert.assertTrue(events.isPaused());
+        List<Event<List<Integer>>> batch = new ArrayList<>();
+        Assert.assertEquals(events.drainTo(batch, 2), 2);
+        Assert.assertFalse(events.isPaused());
+    }
+
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidBatchSize()
+    {
+        new EventPoller<>(1, new LinkedBlockingQueue<Event<List<Integer>>>(), new ArrayList<Integer>(), WaitStrategy.BLOCKING, 0);
+    }
+
+
+    private void verifyStrategy(WaitStrategy strategy, int batchSize)
+        throws InterruptedException
+    {
+        BlockingQueue<Event<List<Integer>>> events = new LinkedBlockingQueue<>();
+        List<Integer> handled = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(EVENTS);
+        EventPoller<List<Integer>> poller = new EventPoller<>(1, events, handled, strategy, batchSize);
+        Thread t = new Thread(poller);
+        t.start();
+        for ( int i = 0; i < EVENTS; i++ ) {
+            int value = i;
+            events.add(target -> {
+                target.add(value);
+                latch.countDown();
+            });
+        }
+        Assert.assertTrue(latch.await(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        poller.shutdown();
+        t.join(TEST_TIMEOUT_MS);
+        Assert.assertFalse(t.isAlive());
+        for ( int i = 0; i < EVENTS; i++ ) {
+            Assert.assertEquals(handled.get(i).intValue(), i);
+        }
+    }
+}
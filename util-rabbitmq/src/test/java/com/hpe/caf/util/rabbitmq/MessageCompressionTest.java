@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.util.rabbitmq;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+public class MessageCompressionTest
+{
+    @Test
+    public void testDeflateAndInflate()
+        throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < 10000; i++ ) {
+            text.append("{\"field\":\"value ").append(i % 10).append("\"}");
+        }
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = MessageCompression.deflate(body, 6);
+        Assert.assertTrue(compressed.length < body.length / 10);
+        Assert.assertEquals(MessageCompression.inflate(compressed), body);
+        Assert.assertEquals(MessageCompression.decode(compressed, "Deflate"), body);
+    }
+
+
+    @Test
+    public void testDecodeUncompressed()
+        throws IOException
+    {
+        byte[] body = "data".getBytes(StandardCharsets.UTF_8);
+        Assert.assertSame(MessageCompression.decode(body, null), body);
+        Assert.assertSame(MessageCompression.decode(body, "identity"), body);
+        Assert.assertFalse(MessageCompression.isCompressed(""));
+    }
+
+
+    @Test
+    public void testDecodeOtherEncoding()
+        throws IOException
+    {
+        byte[] body = "data".getBytes(StandardCharsets.UTF_8);
+        Assert.assertFalse(MessageCompression.isCompressed("UTF-8"));
+        Assert.assertSame(MessageCompression.decode(body, "UTF-8"), body);
+        Assert.assertSame(MessageCompression.decode(body, "br"), body);
+    }
+
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInflateTruncated()
+        throws IOException
+    {
+        byte[] compressed = MessageCompression.deflate("data data data data".getBytes(StandardCharsets.UTF_8), 6);
+        MessageCompression.inflate(Arrays.copyOf(compressed, compressed.length - 3));
+    }
+
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInflateTooLarge()
+        throws IOException
+    {
+        byte[] compressed = MessageCompression.deflate(new byte[1 << 20], 9);
+        Assert.assertEquals(MessageCompression.inflate(compressed, 1 << 20).length, 1 << 20);
+        MessageCompression.decode(compressed, MessageCompression.DEFLATE, (1 << 20) - 1);
+    }
+
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInflateInvalid()
+        throws IOException
+    {
+        MessageCompression.inflate("not compressed".getBytes(StandardCharsets.UTF_8));
+    }
+}
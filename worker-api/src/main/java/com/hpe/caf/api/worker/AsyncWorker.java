@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.api.worker;
+
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * A Worker that performs its task asynchronously, for instance by using non-blocking HTTP or storage clients, so that
+ * it does not hold one of the framework's threads while it waits. The framework calls doWorkAsync() instead of
+ * doWork(), and completes the task when the returned stage completes. Many such tasks can be in progress at once on
+ * a handful of threads, up to the limit set by WorkerFactory.getMaxInFlightTasks().
+ */
+public interface AsyncWorker extends Worker
+{
+    /**
+     * Start the work for this task. The returned stage should complete with the response to the task, or
+     * exceptionally with a TaskRejectedException or InvalidTaskException in the same circumstances as doWork() would
+     * throw them. Any other exception is treated as a failure of the task. The framework may cancel the stage, by
+     * way of its CompletableFuture, if the task times out or is aborted.
+     * @return a stage that completes with the response to the task
+     * @throws TaskRejectedException if the task cannot be started at this time
+     * @throws InvalidTaskException if the task cannot possibly be performed
+     */
+    CompletionStage<WorkerResponse> doWorkAsync()
+        throws TaskRejectedException, InvalidTaskException;
+
+
+    /**
+     * @return the time in milliseconds the task is allowed to take once it has started, after which the framework
+     * cancels it and reports it as failed, or 0 to allow it as long as it needs
+     */
+    default long getTimeout()
+    {
+        return 0;
+    }
+
+
+    /**
+     * Perform the work synchronously, by waiting for the stage returned by doWorkAsync() to complete. This is used
+     * where the framework cannot run the task asynchronously.
+     */
+    @Override
+    default WorkerResponse doWork()
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        try {
+            return doWorkAsync().toCompletableFuture().get();
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            if ( cause instanceof TaskRejectedException ) {
+                throw (TaskRejectedException) cause;
+            } else if ( cause instanceof InvalidTaskException ) {
+                throw (InvalidTaskException) cause;
+            } else if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            } else if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw new TaskFailedException("Asynchronous work failed", cause);
+        } catch (CancellationException e) {
+            throw new InterruptedException("Asynchronous work cancelled");
+        }
+    }
+}
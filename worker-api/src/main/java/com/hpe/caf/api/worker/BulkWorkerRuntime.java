@@ -15,6 +15,9 @@
  */
 package com.hpe.caf.api.worker;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This object is supplied to CAF Workers which are able to process multiple
  * tasks together.  It allows them to request additional tasks.
@@ -39,4 +42,30 @@ public interface BulkWorkerRuntime {
      * @throws InterruptedException if the thread is interrupted while blocking
      */
     WorkerTask getNextWorkerTask(long millis) throws InterruptedException;
+
+    /**
+     * Retrieves a batch of tasks to be processed, formed according to the
+     * maxBatchTasks, maxBatchBytes and batchLingerTime settings of the
+     * WorkerConfiguration.  The batch is returned as soon as it holds
+     * maxBatchTasks tasks or maxBatchBytes bytes of task data, or otherwise
+     * once batchLingerTime milliseconds have passed.  A task that would take
+     * the batch over maxBatchBytes is left for the next batch, unless the batch
+     * would otherwise be empty.
+     *
+     * The default implementation, for runtimes that do not know these
+     * settings, does not wait: it builds the batch from the tasks that
+     * getNextWorkerTask(0) returns until it returns null.
+     * @return the tasks to be processed, which is empty if no tasks became
+     * available within the linger time
+     * @throws InterruptedException if the thread is interrupted while blocking
+     */
+    default List<WorkerTask> getNextBatch() throws InterruptedException {
+        final List<WorkerTask> batch = new ArrayList<>();
+        WorkerTask task = getNextWorkerTask(0);
+        while (task != null) {
+            batch.add(task);
+            task = getNextWorkerTask(0);
+        }
+        return batch;
+    }
 }
@@ -16,7 +16,9 @@
 package com.hpe.caf.api.worker;
 
 
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * A callback interface used to announce the arrival of a new task for a worker
@@ -38,10 +40,42 @@ public interface TaskCallback
         throws TaskRejectedException, InvalidTaskException;
 
 
+    /**
+     * Announce to the worker core that a new task has been picked off the queue for
+     * processing, where the task data is available as a buffer. This lets an implementation
+     * that can decode straight from the buffer avoid copying it into an array first. The
+     * default implementation copies the remaining bytes of the buffer and calls
+     * {@link #registerNewTask(String, byte[], Map)}.
+     * @param taskId an arbitrary task reference
+     * @param taskData a read-only buffer of the task data, which must not be retained once this call returns
+     * @param headers supplies the map of key/value paired headers on the message when it is needed
+     * @throws TaskRejectedException if the worker framework rejected execution of the task at this time
+     * @throws InvalidTaskException if the worker framework indicates this task is invalid and cannot possibly be executed
+     */
+    default void registerNewTask(String taskId, ByteBuffer taskData, Supplier<Map<String, Object>> headers)
+        throws TaskRejectedException, InvalidTaskException
+    {
+        byte[] data = new byte[taskData.remaining()];
+        taskData.duplicate().get(data);
+        registerNewTask(taskId, data, headers.get());
+    }
+
+
     /**
      * Signal that any tasks queued or in operation should be aborted. This usually
      * means there was a problem with the queue and any accepted messages should be
      * considered void.
      */
     void abortTasks();
+
+
+    /**
+     * Get the number of tasks that have been accepted but are waiting for a thread to run them. A WorkerQueue may
+     * use this to judge how many messages it should request from its queue.
+     * @return the number of waiting tasks, or -1 if this is not known
+     */
+    default int getBacklogSize()
+    {
+        return -1;
+    }
 }
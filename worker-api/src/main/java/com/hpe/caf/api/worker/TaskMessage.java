@@ -86,6 +86,11 @@ public final class TaskMessage
      */
     private TaskSourceInfo sourceInfo;
 
+    /**
+     * The priority of the task, where higher values are handled first. Null if the task has no priority.
+     */
+    private Integer priority;
+
 
     public TaskMessage(){ }
 
@@ -238,4 +243,14 @@ public final class TaskMessage
     public void setSourceInfo(TaskSourceInfo sourceInfo) {
         this.sourceInfo = sourceInfo;
     }
+
+
+    public Integer getPriority() {
+        return priority;
+    }
+
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.api.worker;
+
+/**
+ * This interface should be implemented by the WorkerFactory of CAF Workers
+ * whose tasks spend most of their time blocked, for instance waiting on the
+ * DataStore or on other services, rather than using the CPU.
+ *
+ * Each task of such a Worker is run on a thread of its own, which is a
+ * virtual thread where the Java runtime supports them, rather than on a fixed
+ * pool of threads. The number returned by getWorkerThreads() is then the
+ * maximum number of tasks that are run at once, and can be set far higher
+ * than the number of threads it would be reasonable to keep in a pool.
+ *
+ * Virtual threads need Java 21 or later. On an earlier runtime each task is
+ * run on a platform thread instead, and a warning is logged at start up, so
+ * getWorkerThreads() should then be kept to a number of threads the host can
+ * support.
+ */
+public interface ThreadPerTaskWorker {
+}
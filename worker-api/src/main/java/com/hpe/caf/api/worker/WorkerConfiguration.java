@@ -17,12 +17,49 @@ package com.hpe.caf.api.worker;
 
 import com.hpe.caf.api.Configuration;
 
+import java.util.Collections;
+import java.util.Map;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
 @Configuration
 public class WorkerConfiguration {
     private String workerName;
 
     private String workerVersion;
 
+    /**
+     * The time in milliseconds a task may run for before it is interrupted and failed, or 0 for no limit.
+     */
+    @Min(0)
+    private long taskTimeout;
+
+    /**
+     * Task timeouts in milliseconds for particular task classifiers, which take the place of taskTimeout.
+     */
+    @NotNull
+    private Map<String, Long> classifierTaskTimeouts = Collections.emptyMap();
+
+    /**
+     * The most tasks a BulkWorker is given in one batch by BulkWorkerRuntime.getNextBatch().
+     */
+    @Min(1)
+    private int maxBatchTasks = 100;
+
+    /**
+     * The most task data in bytes a BulkWorker is given in one batch, or 0 for no limit.
+     */
+    @Min(0)
+    private long maxBatchBytes;
+
+    /**
+     * The time in milliseconds BulkWorkerRuntime.getNextBatch() waits for more tasks before returning a batch that is
+     * not full.
+     */
+    @Min(0)
+    private long batchLingerTime;
+
     public String getWorkerName() {
         return workerName;
     }
@@ -38,4 +75,44 @@ public class WorkerConfiguration {
     public void setWorkerVersion(String workerVersion) {
         this.workerVersion = workerVersion;
     }
+
+    public long getTaskTimeout() {
+        return taskTimeout;
+    }
+
+    public void setTaskTimeout(long taskTimeout) {
+        this.taskTimeout = taskTimeout;
+    }
+
+    public Map<String, Long> getClassifierTaskTimeouts() {
+        return classifierTaskTimeouts;
+    }
+
+    public void setClassifierTaskTimeouts(Map<String, Long> classifierTaskTimeouts) {
+        this.classifierTaskTimeouts = classifierTaskTimeouts;
+    }
+
+    public int getMaxBatchTasks() {
+        return maxBatchTasks;
+    }
+
+    public void setMaxBatchTasks(int maxBatchTasks) {
+        this.maxBatchTasks = maxBatchTasks;
+    }
+
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public long getBatchLingerTime() {
+        return batchLingerTime;
+    }
+
+    public void setBatchLingerTime(long batchLingerTime) {
+        this.batchLingerTime = batchLingerTime;
+    }
 }
@@ -66,6 +66,15 @@ public interface WorkerFactory extends HealthReporter
     int getWorkerThreads();
 
 
+    /**
+     * @return the maximum number of tasks to have in progress at once. This only needs to be more than the number of
+     * threads for a factory of AsyncWorkers, as their tasks do not hold a thread while they wait.
+     */
+    default int getMaxInFlightTasks() {
+        return getWorkerThreads();
+    }
+
+
     /**
      * Perform necessary cleanup of resources that the WorkerFactory was using.
      * After this point, the factory can assume it will no longer be called.
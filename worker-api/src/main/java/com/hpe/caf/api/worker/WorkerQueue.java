@@ -16,6 +16,8 @@
 package com.hpe.caf.api.worker;
 
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -62,4 +64,26 @@ public interface WorkerQueue
      * @return the name of the input queue
      */
     String getInputQueue();
+
+
+    /**
+     * Return the names of all the queues tasks are consumed from. By default this is just the input queue.
+     * @return the names of the input queues
+     */
+    default Collection<String> getInputQueues()
+    {
+        return Collections.singletonList(getInputQueue());
+    }
+
+
+    /**
+     * Return the weight of an input queue. While tasks from several input queues are waiting to be run, each queue
+     * gets a share of the worker's threads in proportion to its weight. By default every queue has a weight of 1.
+     * @param inputQueue the name of one of the input queues
+     * @return the weight of the queue, which is at least 1
+     */
+    default int getInputQueueWeight(String inputQueue)
+    {
+        return 1;
+    }
 }
@@ -16,6 +16,11 @@
 package com.hpe.caf.api.worker;
 
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+
+
 /**
  * Provides metrics for a WorkerQueue.
  */
@@ -49,4 +54,15 @@ public interface WorkerQueueMetricsReporter
      * @return the number of messages that have been dropped by the WorkerQueue so far
      */
     int getMessagesDropped();
+
+
+    /**
+     * Implementations may expose metrics beyond the standard counters here. The map is read once when the worker
+     * registers its metrics, and each supplier is then sampled whenever the metric is reported.
+     * @return additional implementation specific metrics, keyed by name
+     */
+    default Map<String, Supplier<? extends Number>> getAdditionalMetrics()
+    {
+        return Collections.emptyMap();
+    }
 }
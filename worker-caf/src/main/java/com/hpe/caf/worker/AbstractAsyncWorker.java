@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker;
+
+
+import com.hpe.caf.api.Codec;
+import com.hpe.caf.api.worker.AsyncWorker;
+import com.hpe.caf.api.worker.InvalidTaskException;
+
+
+/**
+ * A partial AsyncWorker implementation with utility methods. Implementations start their work in doWorkAsync() and
+ * complete the returned stage with a result created by the utility methods inherited from AbstractWorker.
+ *
+ * @param <T> the task class for this Worker
+ * @param <V> the result class for this Worker
+ */
+public abstract class AbstractAsyncWorker<T,V> extends AbstractWorker<T,V> implements AsyncWorker
+{
+    private final long timeout;
+
+
+    /**
+     * Create an AsyncWorker with no timeout. The input task will be validated.
+     *
+     * @param task the input task for this Worker to operate on
+     * @param resultQueue the reference to the queue that should take results from this type of
+     *        Worker.  This can be null if no resultQueue is provided for this type of worker
+     * @param codec used to serialising result data
+     * @throws InvalidTaskException if the input task does not validate successfully
+     */
+    public AbstractAsyncWorker(final T task, final String resultQueue, final Codec codec)
+        throws InvalidTaskException
+    {
+        this(task, resultQueue, codec, 0);
+    }
+
+
+    /**
+     * Create an AsyncWorker. The input task will be validated.
+     *
+     * @param task the input task for this Worker to operate on
+     * @param resultQueue the reference to the queue that should take results from this type of
+     *        Worker.  This can be null if no resultQueue is provided for this type of worker
+     * @param codec used to serialising result data
+     * @param timeout the time in milliseconds the task is allowed to take, or 0 for no limit
+     * @throws InvalidTaskException if the input task does not validate successfully
+     */
+    public AbstractAsyncWorker(final T task, final String resultQueue, final Codec codec, final long timeout)
+        throws InvalidTaskException
+    {
+        super(task, resultQueue, codec);
+        if ( timeout < 0 ) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.timeout = timeout;
+    }
+
+
+    @Override
+    public final long getTimeout()
+    {
+        return this.timeout;
+    }
+}
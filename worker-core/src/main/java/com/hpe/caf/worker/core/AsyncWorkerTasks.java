@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import com.codahale.metrics.Timer;
+import com.hpe.caf.api.worker.AsyncWorker;
+import com.hpe.caf.api.worker.InvalidTaskException;
+import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.api.worker.WorkerResponse;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the tasks of AsyncWorkers that have been started but whose stages have not yet completed. A thread
+ * that starts a task waits for a permit first, so that no more than the maximum number of tasks are in flight at once,
+ * and the permit is released when the task's response has been set. Tasks that take longer than their worker's timeout
+ * are cancelled and reported as failed, and aborted tasks are cancelled without a response, as an interrupted
+ * synchronous task would be. Responses are set on a completion executor of the framework's own, rather than on
+ * whichever thread completes the stage, so that a worker's I/O threads are never held up passing responses on.
+ */
+final class AsyncWorkerTasks {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncWorkerTasks.class);
+
+    private final Semaphore permits;
+    private final Map<CompletableFuture<WorkerResponse>, CompletionStage<WorkerResponse>> tasks;
+    private final Executor completionExecutor;
+    private ScheduledExecutorService timer;
+
+    public AsyncWorkerTasks(final int maxInFlightTasks) {
+        this(maxInFlightTasks, createCompletionExecutor());
+    }
+
+    AsyncWorkerTasks(final int maxInFlightTasks, final Executor completionExecutor) {
+        if (maxInFlightTasks < 1) {
+            throw new IllegalArgumentException("At least one task must be allowed in flight");
+        }
+        this.permits = new Semaphore(maxInFlightTasks);
+        this.tasks = new ConcurrentHashMap<>();
+        this.completionExecutor = Objects.requireNonNull(completionExecutor);
+    }
+
+    /**
+     * Start the task, waiting for a permit if the maximum number of tasks are already in flight. The response to the
+     * task is set on the completion executor when the stage returned by the worker completes.
+     * @param worker the worker to start
+     * @param workerTask the task the worker is performing
+     * @throws InterruptedException if the thread is interrupted while waiting for a permit
+     * @throws TaskRejectedException if the worker cannot start the task at this time
+     * @throws InvalidTaskException if the worker finds the task is not valid
+     */
+    public void start(final AsyncWorker worker, final WorkerTaskImpl workerTask)
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        permits.acquire();
+        final CompletionStage<WorkerResponse> stage;
+        final Timer.Context timerContext = StreamingWorkerWrapper.getTimer().time();
+        try {
+            stage = worker.doWorkAsync();
+        } catch (TaskRejectedException | InvalidTaskException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        final CompletableFuture<WorkerResponse> result = new CompletableFuture<>();
+        tasks.put(result, stage);
+        final long timeout = worker.getTimeout() > 0 ? worker.getTimeout() : workerTask.getTimeout();
+        final ScheduledFuture<?> timeoutFuture = timeout > 0
+            ? getTimer().schedule(() -> timeOut(result, workerTask, timeout), timeout, TimeUnit.MILLISECONDS)
+            : null;
+        result.whenCompleteAsync((response, throwable) -> {
+            try {
+                timerContext.stop();
+                if (timeoutFuture != null) {
+                    timeoutFuture.cancel(false);
+                }
+                tasks.remove(result);
+                setResponse(worker, workerTask, response, throwable);
+            } finally {
+                permits.release();
+            }
+        }, completionExecutor);
+        stage.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                result.complete(response);
+            } else {
+                result.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    /**
+     * Cancel all the tasks in flight. Their stages are cancelled where the worker allows it, and no response is set
+     * for them.
+     * @return the number of tasks cancelled
+     */
+    public int abortTasks() {
+        int count = 0;
+        for (final Map.Entry<CompletableFuture<WorkerResponse>, CompletionStage<WorkerResponse>> task : tasks.entrySet()) {
+            if (task.getKey().cancel(true)) {
+                cancelStage(task.getValue());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of tasks in flight
+     */
+    public int getInFlightCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Wait for the tasks in flight to complete.
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void awaitCompletion(final long timeout, final TimeUnit unit)
+        throws InterruptedException
+    {
+        final CompletableFuture<?>[] pending = tasks.keySet().toArray(new CompletableFuture<?>[0]);
+        try {
+            CompletableFuture.allOf(pending).handle((ignored, throwable) -> null).get(timeout, unit);
+        } catch (TimeoutException e) {
+            LOG.warn("{} asynchronous tasks still in flight", getInFlightCount());
+        } catch (ExecutionException e) {
+            // the handler above does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void timeOut(final CompletableFuture<WorkerResponse> result, final WorkerTaskImpl workerTask, final long timeout) {
+        final CompletionStage<WorkerResponse> stage = tasks.get(result);
+        if (result.completeExceptionally(new TimeoutException("Task did not complete within " + timeout + " milliseconds"))) {
+            workerTask.recordTimeout();
+            cancelStage(stage);
+        }
+    }
+
+    private void setResponse(final AsyncWorker worker, final WorkerTaskImpl workerTask, final WorkerResponse response,
+                             final Throwable throwable) {
+        if (throwable == null) {
+            workerTask.setResponse(response);
+            return;
+        }
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+            ? throwable.getCause()
+            : throwable;
+        if (cause instanceof CancellationException) {
+            workerTask.logInterruptedException(new InterruptedException("Asynchronous task cancelled"));
+        } else if (cause instanceof TaskRejectedException) {
+            workerTask.setResponse((TaskRejectedException) cause);
+        } else if (cause instanceof InvalidTaskException) {
+            workerTask.setResponse((InvalidTaskException) cause);
+        } else {
+            LOG.warn("Asynchronous worker failed with unhandled exception", cause);
+            workerTask.setResponse(worker.getGeneralFailureResult(cause));
+        }
+    }
+
+    /**
+     * Tell the worker's stage to stop, if it supports cancellation.
+     */
+    private static void cancelStage(final CompletionStage<WorkerResponse> stage) {
+        if (stage != null) {
+            try {
+                stage.toCompletableFuture().cancel(true);
+            } catch (UnsupportedOperationException e) {
+                LOG.debug("Asynchronous task cannot be cancelled", e);
+            }
+        }
+    }
+
+    /**
+     * The completion threads only pass responses on, so there need be no more of them than there are processors, and
+     * they are let go when no tasks are completing.
+     */
+    private static Executor createCompletionExecutor() {
+        final int nThreads = Runtime.getRuntime().availableProcessors();
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread t = new Thread(r, "async-worker-completion-" + threadCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "async-worker-timeout");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return timer;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import com.hpe.caf.api.worker.WorkerConfiguration;
+import com.hpe.caf.api.worker.WorkerFactory;
+
+/**
+ * The limits on the batches of tasks returned by BulkWorkerRuntime.getNextBatch(), taken from the WorkerConfiguration.
+ */
+final class BatchPolicy
+{
+    private final int maxTasks;
+    private final long maxBytes;
+    private final long lingerTime;
+
+    public BatchPolicy
+    (
+        final int maxTasks,
+        final long maxBytes,
+        final long lingerTime
+    ) {
+        if (maxTasks < 1) {
+            throw new IllegalArgumentException("A batch must be allowed at least one task");
+        }
+        this.maxTasks = maxTasks;
+        this.maxBytes = maxBytes;
+        this.lingerTime = lingerTime;
+    }
+
+    /**
+     * @param workerFactory the factory whose configuration gives the limits
+     * @return the batch policy for the factory, or the default one if it has no configuration
+     */
+    public static BatchPolicy create(final WorkerFactory workerFactory)
+    {
+        final WorkerConfiguration workerConfig = workerFactory.getWorkerConfiguration();
+        final WorkerConfiguration config = workerConfig == null ? new WorkerConfiguration() : workerConfig;
+        return new BatchPolicy(config.getMaxBatchTasks(), config.getMaxBatchBytes(), config.getBatchLingerTime());
+    }
+
+    /**
+     * @return the most tasks in a batch
+     */
+    public int getMaxTasks()
+    {
+        return maxTasks;
+    }
+
+    /**
+     * @return the most task data in bytes in a batch, or 0 for no limit
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * @return the time in milliseconds to wait for a batch to fill
+     */
+    public long getLingerTime()
+    {
+        return lingerTime;
+    }
+}
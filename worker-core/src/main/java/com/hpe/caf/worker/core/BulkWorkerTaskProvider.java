@@ -19,23 +19,32 @@ import com.hpe.caf.api.worker.BulkWorkerRuntime;
 import com.hpe.caf.api.worker.WorkerTask;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 final class BulkWorkerTaskProvider implements BulkWorkerRuntime
 {
-    private WorkerTaskImpl firstTask;
-    private final BlockingQueue<WorkerTaskImpl> workQueue;
+    /**
+     * The task to be returned before any from the work queue: the first task, or one held back from a batch
+     */
+    private WorkerTaskImpl nextTask;
+    private final WorkStealingTaskQueue workQueue;
+    private final int queueIndex;
+    private final BatchPolicy batchPolicy;
     private final ArrayList<WorkerTaskImpl> consumedTasks;
 
     public BulkWorkerTaskProvider
     (
         final WorkerTaskImpl firstTask,
-        final BlockingQueue<WorkerTaskImpl> workQueue
+        final WorkStealingTaskQueue workQueue,
+        final int queueIndex,
+        final BatchPolicy batchPolicy
     ) {
-        this.firstTask = Objects.requireNonNull(firstTask);
+        this.nextTask = Objects.requireNonNull(firstTask);
         this.workQueue = Objects.requireNonNull(workQueue);
+        this.queueIndex = queueIndex;
+        this.batchPolicy = Objects.requireNonNull(batchPolicy);
         this.consumedTasks = new ArrayList<>();
     }
 
@@ -45,34 +54,65 @@ final class BulkWorkerTaskProvider implements BulkWorkerRuntime
     }
 
     private WorkerTaskImpl getNextWorkerTaskImpl() {
-        final WorkerTaskImpl task = firstTask;
+        final WorkerTaskImpl task = nextTask;
         if (task == null) {
-            return workQueue.poll();
+            return workQueue.poll(queueIndex);
         } else {
-            firstTask = null;
+            nextTask = null;
             return task;
         }
     }
 
     @Override
     public WorkerTask getNextWorkerTask(long millis) throws InterruptedException {
-        return registerTaskConsumed(getNextWorkerTaskImpl(millis));
+        return registerTaskConsumed(getNextWorkerTaskImpl(millis, TimeUnit.MILLISECONDS));
     }
 
-    private WorkerTaskImpl getNextWorkerTaskImpl(long millis)
+    private WorkerTaskImpl getNextWorkerTaskImpl(long timeout, TimeUnit unit)
         throws InterruptedException
     {
-        final WorkerTaskImpl task = firstTask;
+        final WorkerTaskImpl task = nextTask;
         if (task == null) {
-            return workQueue.poll(millis, TimeUnit.MILLISECONDS);
+            return workQueue.poll(queueIndex, timeout, unit);
         } else {
-            firstTask = null;
+            nextTask = null;
             return task;
         }
     }
 
-    public boolean isFirstTaskConsumed() {
-        return firstTask == null;
+    @Override
+    public List<WorkerTask> getNextBatch() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchPolicy.getLingerTime());
+        final long maxBytes = batchPolicy.getMaxBytes();
+        final List<WorkerTask> batch = new ArrayList<>();
+        long batchBytes = 0;
+        while (batch.size() < batchPolicy.getMaxTasks() && (maxBytes == 0 || batchBytes < maxBytes)) {
+            final WorkerTaskImpl task = getNextWorkerTaskImpl(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (task == null) {
+                break;
+            }
+            final byte[] data = task.getData();
+            final long taskBytes = data == null ? 0 : data.length;
+            if (maxBytes != 0 && !batch.isEmpty() && batchBytes + taskBytes > maxBytes) {
+                // Hold the task back for the next batch rather than overfill this one
+                nextTask = task;
+                break;
+            }
+            batch.add(registerTaskConsumed(task));
+            batchBytes += taskBytes;
+        }
+        return batch;
+    }
+
+    /**
+     * @return the first task if it was not consumed, or a task held back from a batch, or null
+     */
+    public WorkerTaskImpl getUnconsumedTask() {
+        return nextTask;
+    }
+
+    public int getConsumedTaskCount() {
+        return consumedTasks.size();
     }
 
     public Iterable<WorkerTaskImpl> getConsumedTasks() {
@@ -19,18 +19,21 @@ import com.hpe.caf.api.worker.BulkWorker;
 import com.hpe.caf.api.worker.TaskRejectedException;
 import com.hpe.caf.api.worker.WorkerFactory;
 import java.util.ArrayList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Runs bulk worker tasks in batches. Each thread has a deque of its own in a WorkStealingTaskQueue, and builds each
+ * batch from its own deque, stealing from the others when its own is empty.
+ */
 final class BulkWorkerThreadPool implements WorkerThreadPool
 {
     private static final Logger LOG = LoggerFactory.getLogger(BulkWorkerThreadPool.class);
 
     private final BulkWorker bulkWorker;
-    private final BlockingQueue<WorkerTaskImpl> workQueue;
+    private final WorkStealingTaskQueue workQueue;
+    private final BatchPolicy batchPolicy;
     private final BulkWorkerThread[] bulkWorkerThreads;
     private final Runnable throwableHandler;
     private final StreamingWorkerThreadPool backupThreadPool;
@@ -45,14 +48,15 @@ final class BulkWorkerThreadPool implements WorkerThreadPool
         final int nThreads = workerFactory.getWorkerThreads();
 
         this.bulkWorker = (BulkWorker) workerFactory;
-        this.workQueue = new LinkedBlockingQueue<>();
+        this.workQueue = new WorkStealingTaskQueue(nThreads);
+        this.batchPolicy = BatchPolicy.create(workerFactory);
         this.bulkWorkerThreads = new BulkWorkerThread[nThreads];
         this.throwableHandler = handler;
         this.backupThreadPool = new StreamingWorkerThreadPool(1, handler);
         this.isActive = true;
 
         for (int i = 0; i < nThreads; i++) {
-            BulkWorkerThread bulkWorkerThread = new BulkWorkerThread();
+            BulkWorkerThread bulkWorkerThread = new BulkWorkerThread(i);
             bulkWorkerThreads[i] = bulkWorkerThread;
             bulkWorkerThread.start();
         }
@@ -60,6 +64,12 @@ final class BulkWorkerThreadPool implements WorkerThreadPool
 
     private final class BulkWorkerThread extends Thread
     {
+        private final int queueIndex;
+
+        public BulkWorkerThread(final int queueIndex) {
+            this.queueIndex = queueIndex;
+        }
+
         @Override
         public void run() {
             try {
@@ -80,9 +90,9 @@ final class BulkWorkerThreadPool implements WorkerThreadPool
         private void execute()
             throws InterruptedException
         {
-            final WorkerTaskImpl task = workQueue.take();
+            final WorkerTaskImpl task = workQueue.take(queueIndex);
             final BulkWorkerTaskProvider taskProvider =
-                new BulkWorkerTaskProvider(task, workQueue);
+                new BulkWorkerTaskProvider(task, workQueue, queueIndex, batchPolicy);
 
             try {
                 bulkWorker.processTasks(taskProvider);
@@ -91,14 +101,22 @@ final class BulkWorkerThreadPool implements WorkerThreadPool
                 LOG.warn("Bulk Worker threw unhandled exception", ex);
             }
             finally {
+                task.recordBatchSize(taskProvider.getConsumedTaskCount());
+
                 // Re-submit the first task if it has not been consumed
                 // NB: It's really faulty Worker logic to not consume at least
                 // the one task.
-                if (!taskProvider.isFirstTaskConsumed()) {
+                final WorkerTaskImpl unconsumedTask = taskProvider.getUnconsumedTask();
+                if (unconsumedTask == task) {
                     LOG.warn("Bulk Worker did not consume even the first task; "
                            + "re-submitting it...");
                     resubmitWorkerTask(task);
                 }
+                else if (unconsumedTask != null) {
+                    // The task was held back from a batch, so return it to
+                    // the queue for the next one
+                    requeueWorkerTask(unconsumedTask);
+                }
 
                 // Re-submit any consumed tasks that have not been responded to
                 resubmitIgnoredWorkerTasks(taskProvider);
@@ -187,6 +205,17 @@ final class BulkWorkerThreadPool implements WorkerThreadPool
         }
     }
 
+    /**
+     * Returns the specified task to the work queue, or submits it to the
+     * backup thread pool if the queue will not take it.
+     */
+    private void requeueWorkerTask(final WorkerTaskImpl workerTask)
+    {
+        if (!workQueue.offer(workerTask)) {
+            resubmitWorkerTask(workerTask);
+        }
+    }
+
     /**
      * Submits the specified task to the backup thread pool, where is will be
      * processed using the traditional one-by-one Worker interfaces.
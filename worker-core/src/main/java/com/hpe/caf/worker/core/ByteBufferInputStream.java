@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+
+/**
+ * An InputStream that reads the remaining bytes of a ByteBuffer, so that a codec can decode a buffer without it
+ * first being copied into an array. Reading advances a private view of the buffer, not the buffer itself.
+ */
+final class ByteBufferInputStream extends InputStream
+{
+    private final ByteBuffer buffer;
+
+
+    ByteBufferInputStream(final ByteBuffer buffer)
+    {
+        this.buffer = Objects.requireNonNull(buffer).duplicate();
+    }
+
+
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+    {
+        Objects.requireNonNull(b);
+        if ( off < 0 || len < 0 || len > b.length - off ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if ( len == 0 ) {
+            return 0;
+        }
+        if ( !buffer.hasRemaining() ) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+
+    @Override
+    public long skip(final long n)
+    {
+        int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+}
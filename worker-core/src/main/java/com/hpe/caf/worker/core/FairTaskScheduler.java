@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Orders the tasks waiting in a worker thread pool. Tasks are ordered by priority, so that higher priority tasks
+ * overtake a backlog of lower priority ones. Tasks of equal priority are shared between the input queues they arrived
+ * on by weighted fair queueing: each task is given a virtual finish time, which advances more slowly for queues with a
+ * higher weight, and tasks are started in order of finish time. A queue with a large backlog therefore cannot starve
+ * the others, and tasks from a single queue run in the order they were submitted.
+ */
+final class FairTaskScheduler {
+
+    private final AtomicLong sequence;
+    private final Map<String, Double> lastFinishTimes;
+    private double virtualTime;
+
+    public FairTaskScheduler() {
+        this.sequence = new AtomicLong();
+        this.lastFinishTimes = new HashMap<>();
+    }
+
+    /**
+     * Create a task to be queued, giving it its virtual finish time and its place in the order of submission.
+     * @param runnable the work to be done
+     * @param value the result of the task once the work is done
+     * @param priority the priority of the task, with higher priorities started first
+     * @param inputQueue the input queue the task arrived on, or null if it is not known
+     * @param weight the weight of the input queue
+     * @return a task that can be ordered against the other tasks created here
+     */
+    public <T> PrioritisedTask<T> newTask(final Runnable runnable, final T value, final int priority,
+                                          final String inputQueue, final int weight) {
+        return new PrioritisedTask<>(runnable, value, priority, getFinishTime(inputQueue, weight), sequence.getAndIncrement());
+    }
+
+    /**
+     * Record that a task has been taken from the queue to be started, which advances the virtual time to its finish time.
+     * @param task the task being started
+     */
+    public synchronized void taskStarted(final PrioritisedTask<?> task) {
+        if (task.finishTime > virtualTime) {
+            virtualTime = task.finishTime;
+        }
+    }
+
+    /**
+     * A task starts at the later of the current virtual time and the finish time of the previous task from the
+     * same input queue, so an idle queue does not build up credit, and finishes 1/weight later.
+     */
+    private synchronized double getFinishTime(final String inputQueue, final int weight) {
+        final String key = inputQueue == null ? "" : inputQueue;
+        final double start = Math.max(virtualTime, lastFinishTimes.getOrDefault(key, 0.0));
+        final double finish = start + 1.0 / Math.max(1, weight);
+        lastFinishTimes.put(key, finish);
+        return finish;
+    }
+
+    /**
+     * A task that is ordered by its priority, then by its virtual finish time, and then by the order it was submitted in.
+     */
+    static final class PrioritisedTask<T> extends FutureTask<T> implements Comparable<PrioritisedTask<?>> {
+
+        private final int priority;
+        private final double finishTime;
+        private final long sequence;
+
+        private PrioritisedTask(final Runnable runnable, final T value, final int priority, final double finishTime, final long sequence) {
+            super(runnable, value);
+            this.priority = priority;
+            this.finishTime = finishTime;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(final PrioritisedTask<?> other) {
+            int result = Integer.compare(other.priority, priority);
+            if (result == 0) {
+                result = Double.compare(finishTime, other.finishTime);
+            }
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
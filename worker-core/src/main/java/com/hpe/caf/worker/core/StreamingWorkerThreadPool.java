@@ -17,11 +17,12 @@ package com.hpe.caf.worker.core;
 
 import com.hpe.caf.api.worker.InvalidTaskException;
 import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.worker.core.FairTaskScheduler.PrioritisedTask;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -29,17 +30,34 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Runs streaming workers on a fixed number of threads. The tasks of asynchronous workers only hold a thread while they
+ * are being started, so more of them than there are threads can be in flight at once. Tasks waiting for a thread are
+ * ordered by the FairTaskScheduler: by priority, then by weighted fair queueing between the input queues they arrived
+ * on, so that neither a backlog of lower priority tasks nor a busy input queue can hold up the others.
+ */
 final class StreamingWorkerThreadPool implements WorkerThreadPool {
 
     private final BlockingQueue<Runnable> workQueue;
     private final PrivateWorkerThreadPoolExecutor threadPoolExecutor;
+    private final AsyncWorkerTasks asyncTasks;
 
     public StreamingWorkerThreadPool
     (
         final int nThreads,
         final Runnable handler
     ) {
-        workQueue = new LinkedBlockingQueue<>();
+        this(nThreads, nThreads, handler);
+    }
+
+    public StreamingWorkerThreadPool
+    (
+        final int nThreads,
+        final int maxInFlightTasks,
+        final Runnable handler
+    ) {
+        asyncTasks = new AsyncWorkerTasks(maxInFlightTasks);
+        workQueue = new PriorityBlockingQueue<>();
         threadPoolExecutor = new PrivateWorkerThreadPoolExecutor(
             nThreads, workQueue, handler);
     }
@@ -53,7 +71,9 @@ final class StreamingWorkerThreadPool implements WorkerThreadPool {
     public void awaitTermination(long timeout, TimeUnit unit)
         throws InterruptedException
     {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
         threadPoolExecutor.awaitTermination(timeout, unit);
+        asyncTasks.awaitCompletion(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -62,7 +82,7 @@ final class StreamingWorkerThreadPool implements WorkerThreadPool {
      */
     @Override
     public boolean isIdle() {
-        return threadPoolExecutor.getActiveCount() == 0;
+        return threadPoolExecutor.getActiveCount() == 0 && asyncTasks.getInFlightCount() == 0;
     }
 
     @Override
@@ -80,7 +100,7 @@ final class StreamingWorkerThreadPool implements WorkerThreadPool {
         throws TaskRejectedException
     {
         try {
-            StreamingWorkerWrapper wrapper = new StreamingWorkerWrapper(workerTask);
+            StreamingWorkerWrapper wrapper = new StreamingWorkerWrapper(workerTask, asyncTasks);
             threadPoolExecutor.submit(wrapper);
         } catch (InvalidTaskException e) {
             workerTask.setResponse(e);
@@ -89,7 +109,7 @@ final class StreamingWorkerThreadPool implements WorkerThreadPool {
 
     @Override
     public int abortTasks() {
-        return threadPoolExecutor.abortTasks();
+        return threadPoolExecutor.abortTasks() + asyncTasks.abortTasks();
     }
 
     private static class PrivateWorkerThreadPoolExecutor extends ThreadPoolExecutor {
@@ -98,6 +118,7 @@ final class StreamingWorkerThreadPool implements WorkerThreadPool {
 
         private final Runnable throwableHandler;
         private final Map<RunnableFuture<?>, Runnable> tasks;
+        private final FairTaskScheduler scheduler;
 
         public PrivateWorkerThreadPoolExecutor
         (
@@ -113,6 +134,15 @@ final class StreamingWorkerThreadPool implements WorkerThreadPool {
 
             throwableHandler = Objects.requireNonNull(handler);
             tasks = new ConcurrentHashMap<>();
+            scheduler = new FairTaskScheduler();
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            if (r instanceof PrioritisedTask) {
+                scheduler.taskStarted((PrioritisedTask<?>) r);
+            }
         }
 
         @Override
@@ -131,7 +161,13 @@ final class StreamingWorkerThreadPool implements WorkerThreadPool {
 
         @Override
         protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
-            RunnableFuture<T> runnableFuture = super.newTaskFor(runnable, value);
+            final RunnableFuture<T> runnableFuture;
+            if (runnable instanceof StreamingWorkerWrapper) {
+                final StreamingWorkerWrapper wrapper = (StreamingWorkerWrapper) runnable;
+                runnableFuture = scheduler.newTask(runnable, value, wrapper.getPriority(), wrapper.getInputQueue(), wrapper.getWeight());
+            } else {
+                runnableFuture = scheduler.newTask(runnable, value, 0, null, 1);
+            }
             tasks.put(runnableFuture, runnable);
             return runnableFuture;
         }
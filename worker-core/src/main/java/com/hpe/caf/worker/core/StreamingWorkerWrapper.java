@@ -17,6 +17,7 @@ package com.hpe.caf.worker.core;
 
 import com.codahale.metrics.Timer;
 import com.hpe.caf.api.worker.*;
+import java.util.concurrent.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,21 +25,31 @@ import org.slf4j.LoggerFactory;
  * A wrapper for a worker used internally by the worker core. It is a Runnable that
  * executes a worker but ensures that a result is always returned, even if the task
  * throws some unhandled exception. The wrapper will use a CompleteTaskCallback once
- * the worker has terminated.
+ * the worker has terminated. An AsyncWorker is only started by the wrapper, if it is given somewhere to track
+ * asynchronous tasks, and its response is set when the work it started completes.
  */
 class StreamingWorkerWrapper implements Runnable
 {
     private final Worker worker;
     private final WorkerTaskImpl workerTask;
+    private final AsyncWorkerTasks asyncTasks;
     private static final Timer TIMER = new Timer();
     private static final Logger LOG = LoggerFactory.getLogger(StreamingWorkerWrapper.class);
 
 
     public StreamingWorkerWrapper(final WorkerTaskImpl workerTask)
         throws InvalidTaskException, TaskRejectedException
+    {
+        this(workerTask, null);
+    }
+
+
+    public StreamingWorkerWrapper(final WorkerTaskImpl workerTask, final AsyncWorkerTasks asyncTasks)
+        throws InvalidTaskException, TaskRejectedException
     {
         this.worker = workerTask.createWorker();
         this.workerTask = workerTask;
+        this.asyncTasks = asyncTasks;
     }
 
 
@@ -56,9 +67,12 @@ class StreamingWorkerWrapper implements Runnable
                 LOG.warn("Worker [" + worker.getWorkerIdentifier() + "] did not handle poisoned message, when it was passed for processing.");
                 throw new RuntimeException("Worker [" + worker.getWorkerIdentifier() + "] did not handle poisoned message, when it was passed for processing.");
             }
+            else if (asyncTasks != null && worker instanceof AsyncWorker) {
+                asyncTasks.start((AsyncWorker) worker, workerTask);
+            }
             else{
                 Timer.Context t = TIMER.time();
-                WorkerResponse response = worker.doWork();
+                WorkerResponse response = doWork();
                 t.stop();
                 workerTask.setResponse(response);
             }
@@ -75,6 +89,38 @@ class StreamingWorkerWrapper implements Runnable
     }
 
 
+    /**
+     * Run the worker, interrupting it if it has not finished by the time the task's timeout has elapsed. A task that
+     * overruns its timeout is failed, whatever the worker did once it was interrupted.
+     */
+    private WorkerResponse doWork()
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        final long timeout = workerTask.getTimeout();
+        if (timeout <= 0) {
+            return worker.doWork();
+        }
+        final TaskWatchdog.Deadline deadline = TaskWatchdog.start(timeout);
+        final WorkerResponse response;
+        try {
+            response = worker.doWork();
+        } catch (final Throwable e) {
+            if (deadline.stop() && !(e instanceof Error)) {
+                return getTimeoutResult(timeout);
+            }
+            throw e;
+        }
+        return deadline.stop() ? getTimeoutResult(timeout) : response;
+    }
+
+
+    private WorkerResponse getTimeoutResult(final long timeout)
+    {
+        workerTask.recordTimeout();
+        return worker.getGeneralFailureResult(new TimeoutException("Task did not complete within " + timeout + " milliseconds"));
+    }
+
+
     /**
      * @return the timer used for keeping statistics on worker run times
      */
@@ -82,4 +128,31 @@ class StreamingWorkerWrapper implements Runnable
     {
         return TIMER;
     }
+
+
+    /**
+     * @return the priority of the task the worker is running
+     */
+    public int getPriority()
+    {
+        return workerTask.getPriority();
+    }
+
+
+    /**
+     * @return the input queue the task arrived on, or null if it is not known
+     */
+    public String getInputQueue()
+    {
+        return workerTask.getInputQueue();
+    }
+
+
+    /**
+     * @return the weight of the input queue the task arrived on
+     */
+    public int getWeight()
+    {
+        return workerTask.getWeight();
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interrupts worker threads whose tasks overrun their deadlines. All of the deadlines share a single timer thread, and
+ * a deadline that is stopped in time is removed from the timer straight away, so that the timer only ever holds the
+ * deadlines of the tasks that are running.
+ */
+final class TaskWatchdog {
+
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private TaskWatchdog() {
+    }
+
+    /**
+     * Start a deadline for the task running on the current thread.
+     * @param timeoutMillis the time in milliseconds after which the thread is interrupted
+     * @return the deadline, which the thread must stop once its task has finished
+     */
+    public static Deadline start(final long timeoutMillis) {
+        final Deadline deadline = new Deadline(Thread.currentThread());
+        deadline.future = TIMER.schedule(deadline::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+        return deadline;
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        final AtomicLong threadCount = new AtomicLong();
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread t = new Thread(r, "task-watchdog-" + threadCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * The deadline of a single task. Whether it expires or is stopped first is decided under its lock, so a thread is
+     * never interrupted after its task has finished.
+     */
+    static final class Deadline {
+
+        private final Thread thread;
+        private ScheduledFuture<?> future;
+        private boolean finished;
+        private boolean expired;
+
+        private Deadline(final Thread thread) {
+            this.thread = thread;
+        }
+
+        private synchronized void expire() {
+            if (!finished) {
+                finished = true;
+                expired = true;
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Stop the deadline. This must be called on the thread running the task. If the deadline has expired the
+         * interrupt it caused is cleared, in case the worker did not respond to it.
+         * @return true if the deadline expired before it was stopped
+         */
+        public boolean stop() {
+            future.cancel(false);
+            synchronized (this) {
+                finished = true;
+                if (expired) {
+                    Thread.interrupted();
+                }
+                return expired;
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import com.hpe.caf.api.worker.InvalidTaskException;
+import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.worker.core.FairTaskScheduler.PrioritisedTask;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs each streaming worker task on a thread of its own, which is a virtual thread if the Java runtime supports them.
+ * The number of tasks running at once is limited by a semaphore rather than by the number of threads, so it can be set
+ * high for workers that spend most of their time blocked on I/O. Tasks waiting for a permit are ordered by the
+ * FairTaskScheduler, in the same way as by StreamingWorkerThreadPool.
+ */
+final class ThreadPerTaskWorkerThreadPool implements WorkerThreadPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadPerTaskWorkerThreadPool.class);
+
+    private final Semaphore permits;
+    private final AsyncWorkerTasks asyncTasks;
+    private final PriorityBlockingQueue<PrioritisedTask<Void>> workQueue;
+    private final Map<PrioritisedTask<Void>, Boolean> tasks;
+    private final ThreadFactory threadFactory;
+    private final Runnable throwableHandler;
+    private final AtomicInteger activeCount;
+    private final FairTaskScheduler scheduler;
+    private final CountDownLatch terminated;
+    private volatile boolean isShutdown;
+
+    public ThreadPerTaskWorkerThreadPool
+    (
+        final int maxConcurrentTasks,
+        final Runnable handler
+    ) {
+        this(maxConcurrentTasks, maxConcurrentTasks, handler);
+    }
+
+    public ThreadPerTaskWorkerThreadPool
+    (
+        final int maxConcurrentTasks,
+        final int maxInFlightTasks,
+        final Runnable handler
+    ) {
+        this(maxConcurrentTasks, maxInFlightTasks, handler, createThreadFactory());
+    }
+
+    ThreadPerTaskWorkerThreadPool
+    (
+        final int maxConcurrentTasks,
+        final int maxInFlightTasks,
+        final Runnable handler,
+        final ThreadFactory threadFactory
+    ) {
+        if (maxConcurrentTasks < 1) {
+            throw new IllegalArgumentException("At least one task must be allowed to run at once");
+        }
+        this.permits = new Semaphore(maxConcurrentTasks);
+        this.asyncTasks = new AsyncWorkerTasks(maxInFlightTasks);
+        this.workQueue = new PriorityBlockingQueue<>();
+        this.tasks = new ConcurrentHashMap<>();
+        this.threadFactory = Objects.requireNonNull(threadFactory);
+        this.throwableHandler = Objects.requireNonNull(handler);
+        this.activeCount = new AtomicInteger();
+        this.scheduler = new FairTaskScheduler();
+        this.terminated = new CountDownLatch(1);
+    }
+
+    /**
+     * Tasks that have already been accepted are still run, but no more are accepted.
+     */
+    @Override
+    public void shutdown() {
+        isShutdown = true;
+        checkTerminated();
+    }
+
+    @Override
+    public void awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (terminated.await(timeout, unit)) {
+            asyncTasks.awaitCompletion(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Returns whether or not any threads are active
+     * @return true if there are no active threads
+     */
+    @Override
+    public boolean isIdle() {
+        return activeCount.get() == 0 && asyncTasks.getInFlightCount() == 0;
+    }
+
+    @Override
+    public int getBacklogSize() {
+        return workQueue.size();
+    }
+
+    /**
+     * Execute the specified task at some point in the future
+     * @param workerTask the task to be run
+     * @throws TaskRejectedException if no more tasks can be accepted
+     */
+    @Override
+    public void submitWorkerTask(final WorkerTaskImpl workerTask)
+        throws TaskRejectedException
+    {
+        if (isShutdown) {
+            throw new TaskRejectedException("The worker thread pool has been shut down");
+        }
+        final StreamingWorkerWrapper wrapper;
+        try {
+            wrapper = new StreamingWorkerWrapper(workerTask, asyncTasks);
+        } catch (InvalidTaskException e) {
+            workerTask.setResponse(e);
+            return;
+        }
+        final PrioritisedTask<Void> task = scheduler.newTask(wrapper, null, wrapper.getPriority(), wrapper.getInputQueue(),
+                                                             wrapper.getWeight());
+        tasks.put(task, Boolean.TRUE);
+        workQueue.add(task);
+        startTasks();
+    }
+
+    /**
+     * Cancel every task that has been accepted. Tasks that are running are interrupted, tasks that are waiting
+     * for a permit are never started, and the stages of asynchronous tasks in flight are cancelled.
+     */
+    @Override
+    public int abortTasks() {
+        AtomicInteger count = new AtomicInteger();
+
+        tasks.forEach((key, value) -> {
+            key.cancel(true);
+            workQueue.remove(key);
+            count.incrementAndGet();
+        });
+        tasks.clear();
+        checkTerminated();
+
+        return count.get() + asyncTasks.abortTasks();
+    }
+
+    /**
+     * Start as many waiting tasks as there are permits for. A task that finishes releases its permit before calling
+     * this again, so a task that is added while every permit is taken is started when one is released, and a task
+     * added just as the last permit is released sees the permit when it calls this itself.
+     */
+    private void startTasks() {
+        while (!workQueue.isEmpty() && permits.tryAcquire()) {
+            final PrioritisedTask<Void> task = workQueue.poll();
+            if (task == null || task.isCancelled()) {
+                permits.release();
+                continue;
+            }
+            scheduler.taskStarted(task);
+            activeCount.incrementAndGet();
+            try {
+                threadFactory.newThread(() -> runTask(task)).start();
+            } catch (RuntimeException | OutOfMemoryError e) {
+                activeCount.decrementAndGet();
+                permits.release();
+                tasks.remove(task);
+                LOG.error("Failed to start a thread for a worker task, terminating service", e);
+                throwableHandler.run();
+                return;
+            }
+        }
+    }
+
+    private void runTask(final PrioritisedTask<Void> task) {
+        try {
+            task.run();
+            task.get();
+        } catch (ExecutionException e) {
+            LOG.error("Worker thread terminated with unhandled throwable, terminating service", e.getCause());
+            throwableHandler.run();
+        } catch (CancellationException e) {
+            LOG.debug("Worker task cancelled");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            tasks.remove(task);
+            activeCount.decrementAndGet();
+            permits.release();
+            checkTerminated();
+            startTasks();
+        }
+    }
+
+    /**
+     * Aborted tasks are forgotten straight away, but the pool has not terminated until their threads have finished.
+     */
+    private void checkTerminated() {
+        if (isShutdown && tasks.isEmpty() && activeCount.get() == 0) {
+            terminated.countDown();
+        }
+    }
+
+    /**
+     * Virtual threads are created through reflection, so that the framework can still be built for, and run on,
+     * Java runtimes that do not have them. Without them every running task holds a platform thread, so the fallback
+     * is logged as a warning: a high limit on concurrent tasks then needs as many platform threads.
+     */
+    private static ThreadFactory createThreadFactory() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "worker-task-", 0L);
+            final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            LOG.debug("Running worker tasks on virtual threads");
+            return factory;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Virtual threads are not available on this Java runtime, running worker tasks on platform threads");
+            final AtomicLong threadCount = new AtomicLong();
+            return runnable -> new Thread(runnable, "worker-task-" + threadCount.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the tasks waiting for the bulk worker threads. Each thread has a deque of its own, which submitted tasks are
+ * shared between in turn, so that a thread builds its batch from its own deque without contending with the others.
+ * A thread whose deque is empty steals half of the tasks from the back of another thread's deque, so that the stolen
+ * tasks also form a batch rather than being picked off one at a time by every idle thread. Steals and drains both hold
+ * the queue lock, so that a drain cannot miss the tasks a steal is moving between deques.
+ */
+final class WorkStealingTaskQueue
+{
+    private final LinkedBlockingDeque<WorkerTaskImpl>[] deques;
+    private final AtomicInteger nextDeque;
+    private final AtomicInteger count;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+
+    @SuppressWarnings("unchecked")
+    public WorkStealingTaskQueue(final int nDeques)
+    {
+        if (nDeques < 1) {
+            throw new IllegalArgumentException("At least one deque is required");
+        }
+        this.deques = new LinkedBlockingDeque[nDeques];
+        for (int i = 0; i < nDeques; i++) {
+            deques[i] = new LinkedBlockingDeque<>();
+        }
+        this.nextDeque = new AtomicInteger();
+        this.count = new AtomicInteger();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+    }
+
+    /**
+     * Adds a task to the back of the next deque in turn, and wakes a thread waiting for one.
+     * @param task the task to add
+     * @return true if the task was added
+     */
+    public boolean offer(final WorkerTaskImpl task)
+    {
+        final int index = (nextDeque.getAndIncrement() & Integer.MAX_VALUE) % deques.length;
+        count.incrementAndGet();
+        if (!deques[index].offerLast(task)) {
+            count.decrementAndGet();
+            return false;
+        }
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Takes a task from the front of the specified deque, or steals one if it is empty.
+     * @param index the deque of the calling thread
+     * @return the task, or null if there are none waiting
+     */
+    public WorkerTaskImpl poll(final int index)
+    {
+        WorkerTaskImpl task = deques[index].pollFirst();
+        if (task == null) {
+            task = steal(index);
+        }
+        if (task != null) {
+            count.decrementAndGet();
+        }
+        return task;
+    }
+
+    /**
+     * Takes a task as poll(int) does, waiting up to the specified time for one to be submitted if there are none.
+     * @param index the deque of the calling thread
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return the task, or null if none was submitted in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public WorkerTaskImpl poll(final int index, final long timeout, final TimeUnit unit)
+        throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        while (true) {
+            final WorkerTaskImpl task = poll(index);
+            if (task != null) {
+                return task;
+            }
+            if (nanos <= 0) {
+                return null;
+            }
+            nanos = awaitTask(nanos);
+        }
+    }
+
+    /**
+     * Takes a task as poll(int) does, waiting for one to be submitted if there are none.
+     * @param index the deque of the calling thread
+     * @return the task
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public WorkerTaskImpl take(final int index)
+        throws InterruptedException
+    {
+        while (true) {
+            final WorkerTaskImpl task = poll(index);
+            if (task != null) {
+                return task;
+            }
+            awaitTask(Long.MAX_VALUE);
+        }
+    }
+
+    public int size()
+    {
+        return count.get();
+    }
+
+    public boolean isEmpty()
+    {
+        return count.get() == 0;
+    }
+
+    /**
+     * Removes all of the waiting tasks.
+     * @param tasks the collection to add the removed tasks to
+     * @return the number of tasks removed
+     */
+    public int drainTo(final Collection<? super WorkerTaskImpl> tasks)
+    {
+        lock.lock();
+        try {
+            int drained = 0;
+            for (final LinkedBlockingDeque<WorkerTaskImpl> deque : deques) {
+                drained += deque.drainTo(tasks);
+            }
+            count.addAndGet(-drained);
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a task may be available. A task that is still being added, or is being moved between deques by a
+     * steal, is counted but cannot be polled, so the caller should be prepared to find nothing and wait again.
+     * @return the time left to wait, in nanoseconds
+     */
+    private long awaitTask(long nanos)
+        throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try {
+            if (count.get() > 0) {
+                Thread.yield();
+                return nanos;
+            }
+            return nanos == Long.MAX_VALUE ? awaitForever() : notEmpty.awaitNanos(nanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long awaitForever()
+        throws InterruptedException
+    {
+        notEmpty.await();
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Moves half of the tasks at the back of the first non-empty deque after the specified one to the front of it,
+     * keeping them in their original order, and returns the oldest of them.
+     */
+    private WorkerTaskImpl steal(final int index)
+    {
+        lock.lock();
+        try {
+            for (int i = 1; i < deques.length; i++) {
+                final LinkedBlockingDeque<WorkerTaskImpl> victim = deques[(index + i) % deques.length];
+                final int available = victim.size();
+                if (available == 0) {
+                    continue;
+                }
+                final ArrayList<WorkerTaskImpl> stolen = new ArrayList<>((available + 1) / 2);
+                for (int n = 0; n < (available + 1) / 2; n++) {
+                    final WorkerTaskImpl task = victim.pollLast();
+                    if (task == null) {
+                        break;
+                    }
+                    stolen.add(task);
+                }
+                if (stolen.isEmpty()) {
+                    continue;
+                }
+                final LinkedBlockingDeque<WorkerTaskImpl> own = deques[index];
+                for (int n = 0; n < stolen.size() - 1; n++) {
+                    own.offerFirst(stolen.get(n));
+                }
+                return stolen.get(stolen.size() - 1);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -108,8 +108,8 @@ public final class WorkerApplication extends Application<WorkerConfiguration>
         ManagedDataStore store = ModuleLoader.getService(DataStoreProvider.class).getDataStore(config);
         WorkerFactory workerFactory = workerProvider.getWorkerFactory(config, store, codec);
         WorkerThreadPool wtp = WorkerThreadPool.create(workerFactory);
-        final int nThreads = workerFactory.getWorkerThreads();
-        ManagedWorkerQueue workerQueue = queueProvider.getWorkerQueue(config, nThreads);
+        final int maxTasks = workerFactory.getMaxInFlightTasks();
+        ManagedWorkerQueue workerQueue = queueProvider.getWorkerQueue(config, maxTasks);
         WorkerCore core = new WorkerCore(codec, wtp, workerQueue, workerFactory, path);
         Runtime.getRuntime().addShutdownHook(new Thread()
         {
@@ -153,9 +153,11 @@ public final class WorkerApplication extends Application<WorkerConfiguration>
         metrics.register(MetricRegistry.name("core.tasksAborted"), (Gauge<Long>) core.getStats()::getTasksAborted);
         metrics.register(MetricRegistry.name("core.tasksForwarded"), (Gauge<Long>) core.getStats()::getTasksForwarded);
         metrics.register(MetricRegistry.name("core.tasksDiscarded"), (Gauge<Long>) core.getStats()::getTasksDiscarded);
+        metrics.register(MetricRegistry.name("core.tasksTimedOut"), (Gauge<Long>) core.getStats()::getTasksTimedOut);
         metrics.register(MetricRegistry.name("core.currentIdleTime"), (Gauge<Long>) core::getCurrentIdleTime);
         metrics.register(MetricRegistry.name("core.inputSizes"), core.getStats().getInputSizes());
         metrics.register(MetricRegistry.name("core.outputSizes"), core.getStats().getOutputSizes());
+        metrics.register(MetricRegistry.name("core.bulkBatchSizes"), core.getStats().getBulkBatchSizes());
     }
 
 
@@ -175,6 +177,8 @@ public final class WorkerApplication extends Application<WorkerConfiguration>
             metrics.register(MetricRegistry.name("queue.rejected"), (Gauge<Integer>) core.getWorkerQueue().getMetrics()::getMessagesRejected);
             metrics.register(MetricRegistry.name("queue.dropped"), (Gauge<Integer>) core.getWorkerQueue().getMetrics()::getMessagesDropped);
             metrics.register(MetricRegistry.name("queue.errors"), (Gauge<Integer>) core.getWorkerQueue().getMetrics()::getQueueErrors);
+            core.getWorkerQueue().getMetrics().getAdditionalMetrics().forEach(
+                (name, supplier) -> metrics.register(MetricRegistry.name("queue", name), (Gauge<Number>) supplier::get));
         }
     }
 }
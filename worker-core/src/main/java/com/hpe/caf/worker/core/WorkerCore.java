@@ -30,7 +30,9 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.Supplier;
 
 
 /**
@@ -52,7 +54,7 @@ final class WorkerCore
     {
         WorkerCallback taskCallback =  new CoreWorkerCallback(codec, queue, stats);
         this.threadPool = Objects.requireNonNull(pool);
-        this.callback = new CoreTaskCallback(codec, stats, new WorkerExecutor(path, taskCallback, factory, pool), pool, queue);
+        this.callback = new CoreTaskCallback(codec, stats, new WorkerExecutor(path, taskCallback, factory, pool, stats), pool, queue);
         this.workerQueue = Objects.requireNonNull(queue);
     }
 
@@ -141,38 +143,78 @@ final class WorkerCore
             stats.getInputSizes().update(taskMessage.length);
 
             try {
-                registerNewTaskImpl(queueMsgId, taskMessage, headers);
+                registerNewTaskImpl(queueMsgId, deserialise(taskMessage), headers);
             } catch (InvalidTaskException e) {
                 stats.incrementTasksRejected();
                 throw e;
             }
         }
 
-        private void registerNewTaskImpl(final String queueMsgId, final byte[] taskMessage, Map<String, Object> headers)
+
+        /**
+         * {@inheritDoc}
+         *
+         * Decode the task message straight from the buffer rather than copying it into an array first.
+         */
+        @Override
+        public void registerNewTask(final String queueMsgId, final ByteBuffer taskMessage, final Supplier<Map<String, Object>> headers)
+                throws InvalidTaskException, TaskRejectedException
+        {
+            Objects.requireNonNull(queueMsgId);
+            stats.incrementTasksReceived();
+            stats.getInputSizes().update(taskMessage.remaining());
+
+            try {
+                registerNewTaskImpl(queueMsgId, deserialise(taskMessage), headers.get());
+            } catch (InvalidTaskException e) {
+                stats.incrementTasksRejected();
+                throw e;
+            }
+        }
+
+        private TaskMessage deserialise(final byte[] taskMessage)
+                throws InvalidTaskException
+        {
+            try {
+                return codec.deserialise(taskMessage, TaskMessage.class, DecodeMethod.LENIENT);
+            } catch (CodecException e) {
+                throw new InvalidTaskException("Queue data did not deserialise to a TaskMessage", e);
+            }
+        }
+
+        private TaskMessage deserialise(final ByteBuffer taskMessage)
+                throws InvalidTaskException
+        {
+            try {
+                return codec.deserialise(new ByteBufferInputStream(taskMessage), TaskMessage.class, DecodeMethod.LENIENT);
+            } catch (CodecException e) {
+                throw new InvalidTaskException("Queue data did not deserialise to a TaskMessage", e);
+            }
+        }
+
+        private void registerNewTaskImpl(final String queueMsgId, final TaskMessage tm, Map<String, Object> headers)
                  throws InvalidTaskException, TaskRejectedException
         {
             try {
-                TaskMessage tm = codec.deserialise(taskMessage, TaskMessage.class, DecodeMethod.LENIENT);
-                
                 LOG.debug("Received task {} (message id: {})", tm.getTaskId(), queueMsgId);
                 
                 boolean poison = isTaskPoisoned(headers);
+                applyPriority(tm, headers);
                 validateTaskMessage(tm);
                 boolean taskIsActive = checkStatus(tm);
                 if (taskIsActive) {
-                    if (tm.getTo() != null && tm.getTo().equalsIgnoreCase(workerQueue.getInputQueue())) {
+                    if (tm.getTo() != null && isInputQueue(workerQueue, tm.getTo())) {
                         LOG.debug("Task {} (message id: {}) on input queue {} {}", tm.getTaskId(), queueMsgId, workerQueue.getInputQueue(), (tm.getTo() != null) ? "is intended for this worker" : "has no explicit destination, therefore assuming it is intended for this worker");
-                        executor.executeTask(tm, queueMsgId, poison);
+                        String inputQueue = getSourceQueue(tm, headers);
+                        executor.executeTask(tm, queueMsgId, poison, inputQueue, workerQueue.getInputQueueWeight(inputQueue));
                     } else {
                         LOG.debug("Task {} (message id: {}) is not intended for this worker: input queue {} does not match message destination queue {}", tm.getTaskId(), queueMsgId, workerQueue.getInputQueue(), tm.getTo());
-                        executor.forwardTask(tm, queueMsgId, headers);
+                        executor.forwardTask(tm, queueMsgId, getForwardHeaders(headers));
                     }
                 } else {
                     LOG.debug("Task {} is no longer active. The task message (message id: {}) will not be executed", tm.getTaskId(), queueMsgId);
                     executor.discardTask(tm, queueMsgId);
                 }
-            } catch (CodecException e) {
-                throw new InvalidTaskException("Queue data did not deserialise to a TaskMessage", e);
             } catch (InvalidJobTaskIdException ijte) {
                 throw new InvalidTaskException("TaskMessage contains an invalid job task identifier", ijte);
             }
@@ -201,6 +243,45 @@ final class WorkerCore
             return poison;
         }
 
+        /**
+         * Take the priority of the task from the priority of the message it arrived on, if the queue supplied one.
+         * Otherwise the task keeps any priority set in the task message itself.
+         * @param tm the task message to set the priority of
+         * @param headers Map&lt;String, Object&gt; of headers associated with the current message
+         */
+        private void applyPriority(TaskMessage tm, Map<String, Object> headers)
+        {
+            Object priority = headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_PRIORITY);
+            if (priority != null) {
+                tm.setPriority(Integer.parseInt(priority.toString()));
+            }
+        }
+
+        /**
+         * @param tm the task message
+         * @param headers Map&lt;String, Object&gt; of headers associated with the current message
+         * @return the queue the message was consumed from if the queue supplied it, otherwise the destination of the task message
+         */
+        private static String getSourceQueue(TaskMessage tm, Map<String, Object> headers)
+        {
+            Object inputQueue = headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_INPUT_QUEUE);
+            return inputQueue != null ? inputQueue.toString() : tm.getTo();
+        }
+
+        /**
+         * @param headers Map&lt;String, Object&gt; of headers associated with the current message
+         * @return the headers to forward the message with, which do not include the queue it was consumed from
+         */
+        private static Map<String, Object> getForwardHeaders(Map<String, Object> headers)
+        {
+            if (!headers.containsKey(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_INPUT_QUEUE)) {
+                return headers;
+            }
+            Map<String, Object> forwardHeaders = new HashMap<>(headers);
+            forwardHeaders.remove(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_INPUT_QUEUE);
+            return forwardHeaders;
+        }
+
         private void validateTaskMessage(TaskMessage tm) throws InvalidTaskException {
             // The task message must be present so that the framework can
             // callback with a valid message
@@ -224,6 +305,13 @@ final class WorkerCore
         }
 
 
+        @Override
+        public int getBacklogSize()
+        {
+            return threadPool.getBacklogSize();
+        }
+
+
         /**
          * Checks whether a task is still active.
          * If a status check cannot be performed then the task is assumed to be active.
@@ -396,7 +484,7 @@ final class WorkerCore
                     // **** Normal Worker ****                    
                     // A worker with an input and output queue.
                     byte[] output = codec.serialise(responseMessage);
-                    workerQueue.publish(queueMsgId, output, targetQueue, Collections.emptyMap());
+                    workerQueue.publish(queueMsgId, output, targetQueue, getPriorityHeaders(responseMessage));
                     stats.getOutputSizes().update(output.length);
                 }
                 stats.updatedLastTaskFinishedTime();
@@ -456,6 +544,16 @@ final class WorkerCore
         }
 
 
+        /**
+         * @param tm the task message being published
+         * @return the headers that carry the priority of the task message to the queue, which are empty if it has none
+         */
+        private static Map<String, Object> getPriorityHeaders(final TaskMessage tm) {
+            Integer priority = tm.getPriority();
+            return priority == null ? Collections.emptyMap() : Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_PRIORITY, priority);
+        }
+
+
         /**
          * Checks whether tracking of this task message should end when publishing to the specified queue.
          * If tracking is to end then this method removes and returns the tracking info from the task message.
@@ -504,7 +602,21 @@ final class WorkerCore
 
 
         private boolean isInputQueue(final String queue) {
-            return queue == null ? false : queue.equalsIgnoreCase(workerQueue.getInputQueue());
+            return queue == null ? false : WorkerCore.isInputQueue(workerQueue, queue);
+        }
+    }
+
+
+    /**
+     * @return true if the queue is one of the queues the worker consumes tasks from
+     */
+    private static boolean isInputQueue(final WorkerQueue workerQueue, final String queue)
+    {
+        for (String inputQueue : workerQueue.getInputQueues()) {
+            if (queue.equalsIgnoreCase(inputQueue)) {
+                return true;
+            }
         }
+        return false;
     }
 }
@@ -32,6 +32,7 @@ final class WorkerExecutor
     private final WorkerCallback callback;
     private final WorkerFactory factory;
     private final WorkerThreadPool threadPool;
+    private final WorkerStats stats;
     private static final Logger LOG = LoggerFactory.getLogger(WorkerExecutor.class);
 
 
@@ -49,11 +50,32 @@ final class WorkerExecutor
         final WorkerFactory workerFactory,
         final WorkerThreadPool pool
     )
+    {
+        this(path, callback, workerFactory, pool, null);
+    }
+
+
+    /**
+     * Create a WorkerWrapperFactory whose tasks record their timeouts in the worker statistics.
+     * @param path the service path of this worker service
+     * @param callback the callback the wrappers use when a task completes
+     * @param workerFactory the origin of the Worker objects themselves
+     * @param stats the statistics tasks that time out are recorded in, may be null
+     */
+    public WorkerExecutor
+    (
+        final ServicePath path,
+        final WorkerCallback callback,
+        final WorkerFactory workerFactory,
+        final WorkerThreadPool pool,
+        final WorkerStats stats
+    )
     {
         this.servicePath = Objects.requireNonNull(path);
         this.callback = Objects.requireNonNull(callback);
         this.factory = Objects.requireNonNull(workerFactory);
         this.threadPool = Objects.requireNonNull(pool);
+        this.stats = stats;
     }
 
 
@@ -67,7 +89,23 @@ final class WorkerExecutor
     public void executeTask(final TaskMessage tm, final String queueMessageId, boolean poison)
         throws TaskRejectedException
     {
-        final WorkerTaskImpl workerTask = createWorkerTask(queueMessageId, tm, poison);
+        executeTask(tm, queueMessageId, poison, tm.getTo(), 1);
+    }
+
+
+    /**
+     * Get a new Worker for a TaskMessage and hand it off to a thread pool to execute, sharing the threads between the
+     * input queues according to their weights.
+     * @param tm the task message
+     * @param queueMessageId the reference to the message this task arrived on
+     * @param inputQueue the input queue the task arrived on
+     * @param weight the weight of the input queue the task arrived on
+     * @throws TaskRejectedException if the WorkerFactory indicates the task cannot be handled at this time
+     */
+    public void executeTask(final TaskMessage tm, final String queueMessageId, boolean poison, final String inputQueue, int weight)
+        throws TaskRejectedException
+    {
+        final WorkerTaskImpl workerTask = createWorkerTask(queueMessageId, tm, poison, inputQueue, weight);
 
         threadPool.submitWorkerTask(workerTask);
     }
@@ -104,8 +142,9 @@ final class WorkerExecutor
     /**
      * Creates a WorkerTask for the specified message
      */
-    private WorkerTaskImpl createWorkerTask(final String messageId, final TaskMessage taskMessage, boolean poison)
+    private WorkerTaskImpl createWorkerTask(final String messageId, final TaskMessage taskMessage, boolean poison,
+                                            final String inputQueue, int weight)
     {
-        return new WorkerTaskImpl(servicePath, callback, factory, messageId, taskMessage, poison);
+        return new WorkerTaskImpl(servicePath, callback, factory, messageId, taskMessage, poison, inputQueue, weight, stats);
     }
 }
@@ -34,9 +34,11 @@ class WorkerStats
     private final AtomicLong tasksAborted = new AtomicLong(0);
     private final AtomicLong tasksForwarded = new AtomicLong(0);
     private final AtomicLong tasksDiscarded = new AtomicLong(0);
+    private final AtomicLong tasksTimedOut = new AtomicLong(0);
     private final AtomicLong lastTaskFinished = new AtomicLong(System.currentTimeMillis());
     private final Histogram inputSizes = new Histogram(new ExponentiallyDecayingReservoir());
     private final Histogram outputSizes = new Histogram(new ExponentiallyDecayingReservoir());
+    private final Histogram bulkBatchSizes = new Histogram(new ExponentiallyDecayingReservoir());
 
 
     /**
@@ -150,6 +152,21 @@ class WorkerStats
     }
 
 
+    /**
+     * @return the number of tasks that were failed because they did not complete within their timeout
+     */
+    public long getTasksTimedOut()
+    {
+        return tasksTimedOut.get();
+    }
+
+
+    public void incrementTasksTimedOut()
+    {
+        tasksTimedOut.incrementAndGet();
+    }
+
+
 
     /**
      * @return the time (in milliseconds) the most recent task completed (or the startup time, if no task has been done yet)
@@ -176,4 +193,13 @@ class WorkerStats
     {
         return outputSizes;
     }
+
+
+    /**
+     * @return the histogram of the number of tasks consumed by each call to a Bulk Worker
+     */
+    public Histogram getBulkBatchSizes()
+    {
+        return bulkBatchSizes;
+    }
 }
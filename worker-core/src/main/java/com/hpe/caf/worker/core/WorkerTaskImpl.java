@@ -37,6 +37,9 @@ class WorkerTaskImpl implements WorkerTask
     private final TaskMessage taskMessage;
     private final AtomicBoolean isResponseSet;
     private final boolean poison;
+    private final String inputQueue;
+    private final int weight;
+    private final WorkerStats stats;
     
     public WorkerTaskImpl
     (
@@ -46,6 +49,21 @@ class WorkerTaskImpl implements WorkerTask
         final String messageId,
         final TaskMessage taskMessage,
         final boolean poison
+    ) {
+        this(servicePath, workerCallback, workerFactory, messageId, taskMessage, poison, null, 1, null);
+    }
+
+    public WorkerTaskImpl
+    (
+        final ServicePath servicePath,
+        final WorkerCallback workerCallback,
+        final WorkerFactory workerFactory,
+        final String messageId,
+        final TaskMessage taskMessage,
+        final boolean poison,
+        final String inputQueue,
+        final int weight,
+        final WorkerStats stats
     ) {
         this.servicePath = servicePath;
         this.workerCallback = workerCallback;
@@ -54,6 +72,9 @@ class WorkerTaskImpl implements WorkerTask
         this.taskMessage = taskMessage;
         this.isResponseSet = new AtomicBoolean();
         this.poison = poison;
+        this.inputQueue = inputQueue;
+        this.weight = weight;
+        this.stats = stats;
     }
 
     @Override
@@ -109,6 +130,7 @@ class WorkerTaskImpl implements WorkerTask
             response.getTaskStatus(), responseContext,
             response.getQueueReference(), taskMessage.getTracking(),
             new TaskSourceInfo(getWorkerName(responseMessageType), getWorkerVersion()));
+        responseMessage.setPriority(taskMessage.getPriority());
 
         workerCallback.complete(
             messageId, response.getQueueReference(), responseMessage);
@@ -152,6 +174,7 @@ class WorkerTaskImpl implements WorkerTask
                 workerFactory.getInvalidTaskQueue(),
                 taskMessage.getTracking(),
                 new TaskSourceInfo(getWorkerName(taskClassifier), getWorkerVersion()));
+        invalidResponse.setPriority(taskMessage.getPriority());
 
         workerCallback.complete(
                 messageId, workerFactory.getInvalidTaskQueue(), invalidResponse);
@@ -186,6 +209,72 @@ class WorkerTaskImpl implements WorkerTask
         return poison;
     }
 
+    /**
+     * @return the priority of the task, where tasks without a priority have the lowest priority of 0
+     */
+    public int getPriority()
+    {
+        final Integer priority = taskMessage.getPriority();
+        return priority == null ? 0 : priority;
+    }
+
+    /**
+     * @return the input queue the task arrived on, or the destination of the task message if that is not known
+     */
+    public String getInputQueue()
+    {
+        return inputQueue != null ? inputQueue : taskMessage.getTo();
+    }
+
+    /**
+     * @return the weight of the input queue the task arrived on
+     */
+    public int getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * @return the time in milliseconds the task may run for, which is the timeout configured for its classifier if
+     * there is one and otherwise the worker's task timeout, or 0 if it may run for as long as it needs
+     */
+    public long getTimeout()
+    {
+        final com.hpe.caf.api.worker.WorkerConfiguration workerConfig = workerFactory.getWorkerConfiguration();
+
+        if (workerConfig == null) {
+            return 0;
+        }
+
+        final Map<String, Long> classifierTimeouts = workerConfig.getClassifierTaskTimeouts();
+        final Long classifierTimeout = classifierTimeouts == null ? null : classifierTimeouts.get(getClassifier());
+
+        return classifierTimeout != null ? classifierTimeout : workerConfig.getTaskTimeout();
+    }
+
+    /**
+     * Record that the task has been failed because it did not complete within its timeout.
+     */
+    public void recordTimeout()
+    {
+        LOG.warn("Task {} (message id: {}) did not complete within its timeout, failing it",
+            taskMessage.getTaskId(), messageId);
+
+        if (stats != null) {
+            stats.incrementTasksTimedOut();
+        }
+    }
+
+    /**
+     * Record the number of tasks a Bulk Worker consumed in the batch that started with this task.
+     */
+    public void recordBatchSize(final int batchSize)
+    {
+        if (stats != null) {
+            stats.getBulkBatchSizes().update(batchSize);
+        }
+    }
+
     private String getWorkerName(final String defaultName)
     {
         final com.hpe.caf.api.worker.WorkerConfiguration workerConfig = workerFactory.getWorkerConfiguration();
@@ -17,6 +17,7 @@ package com.hpe.caf.worker.core;
 
 import com.hpe.caf.api.worker.BulkWorker;
 import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.api.worker.ThreadPerTaskWorker;
 import com.hpe.caf.api.worker.WorkerFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -36,8 +37,11 @@ interface WorkerThreadPool
         if (workerFactory instanceof BulkWorker) {
             return new BulkWorkerThreadPool(workerFactory, handler);
         }
+        else if (workerFactory instanceof ThreadPerTaskWorker) {
+            return new ThreadPerTaskWorkerThreadPool(workerFactory.getWorkerThreads(), workerFactory.getMaxInFlightTasks(), handler);
+        }
         else {
-            return create(workerFactory.getWorkerThreads(), handler);
+            return new StreamingWorkerThreadPool(workerFactory.getWorkerThreads(), workerFactory.getMaxInFlightTasks(), handler);
         }
     }
 
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import com.hpe.caf.api.worker.AsyncWorker;
+import com.hpe.caf.api.worker.InvalidTaskException;
+import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.api.worker.TaskStatus;
+import com.hpe.caf.api.worker.WorkerResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class AsyncWorkerTasksTest
+{
+    private final WorkerResponse successResponse = new WorkerResponse("out", TaskStatus.RESULT_SUCCESS, new byte[]{}, "test", 1, null);
+    private final WorkerResponse failureResponse = new WorkerResponse("out", TaskStatus.RESULT_EXCEPTION, new byte[]{}, "test", 1, null);
+
+    @Test
+    public void testResponseSetWhenStageCompletes()
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        AsyncWorkerTasks tasks = new AsyncWorkerTasks(10, Runnable::run);
+        CompletableFuture<WorkerResponse> stage = new CompletableFuture<>();
+        WorkerTaskImpl workerTask = Mockito.mock(WorkerTaskImpl.class);
+
+        tasks.start(new TestAsyncWorker(stage, 0), workerTask);
+        Assert.assertEquals(tasks.getInFlightCount(), 1);
+        Mockito.verify(workerTask, Mockito.never()).setResponse(Mockito.any(WorkerResponse.class));
+
+        stage.complete(successResponse);
+        Mockito.verify(workerTask).setResponse(successResponse);
+        Assert.assertEquals(tasks.getInFlightCount(), 0);
+    }
+
+    @Test
+    public void testResponseSetOnCompletionExecutor()
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        AsyncWorkerTasks tasks = new AsyncWorkerTasks(10);
+        CompletableFuture<WorkerResponse> stage = new CompletableFuture<>();
+        CountDownLatch responded = new CountDownLatch(1);
+        AtomicReference<Thread> responseThread = new AtomicReference<>();
+        WorkerTaskImpl workerTask = Mockito.mock(WorkerTaskImpl.class);
+        Mockito.doAnswer(invocation -> {
+            responseThread.set(Thread.currentThread());
+            responded.countDown();
+            return null;
+        }).when(workerTask).setResponse(Mockito.any(WorkerResponse.class));
+
+        tasks.start(new TestAsyncWorker(stage, 0), workerTask);
+        stage.complete(successResponse);
+        Assert.assertTrue(responded.await(5, TimeUnit.SECONDS));
+        Assert.assertNotSame(responseThread.get(), Thread.currentThread());
+        Mockito.verify(workerTask).setResponse(successResponse);
+    }
+
+    @Test
+    public void testExceptionalCompletion()
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        AsyncWorkerTasks tasks = new AsyncWorkerTasks(10, Runnable::run);
+        CompletableFuture<WorkerResponse> rejected = new CompletableFuture<>();
+        CompletableFuture<WorkerResponse> failed = new CompletableFuture<>();
+        WorkerTaskImpl rejectedTask = Mockito.mock(WorkerTaskImpl.class);
+        WorkerTaskImpl failedTask = Mockito.mock(WorkerTaskImpl.class);
+
+        tasks.start(new TestAsyncWorker(rejected, 0), rejectedTask);
+        tasks.start(new TestAsyncWorker(failed, 0), failedTask);
+        TaskRejectedException rejection = new TaskRejectedException("busy");
+        rejected.completeExceptionally(rejection);
+        failed.completeExceptionally(new IllegalStateException("whoops"));
+
+        Mockito.verify(rejectedTask).setResponse(rejection);
+        Mockito.verify(failedTask).setResponse(failureResponse);
+    }
+
+    @Test
+    public void testTimeout()
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        AsyncWorkerTasks tasks = new AsyncWorkerTasks(10, Runnable::run);
+        CompletableFuture<WorkerResponse> stage = new CompletableFuture<>();
+        CountDownLatch responded = new CountDownLatch(1);
+        WorkerTaskImpl workerTask = Mockito.mock(WorkerTaskImpl.class);
+        Mockito.doAnswer(invocation -> {
+            responded.countDown();
+            return null;
+        }).when(workerTask).setResponse(Mockito.any(WorkerResponse.class));
+
+        tasks.start(new TestAsyncWorker(stage, 50), workerTask);
+        Assert.assertTrue(responded.await(5, TimeUnit.SECONDS));
+        Mockito.verify(workerTask).setResponse(failureResponse);
+        Assert.assertTrue(stage.isCancelled());
+        Assert.assertEquals(tasks.getInFlightCount(), 0);
+    }
+
+    @Test
+    public void testAbort()
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        AsyncWorkerTasks tasks = new AsyncWorkerTasks(1, Runnable::run);
+        CompletableFuture<WorkerResponse> stage = new CompletableFuture<>();
+        WorkerTaskImpl workerTask = Mockito.mock(WorkerTaskImpl.class);
+
+        tasks.start(new TestAsyncWorker(stage, 0), workerTask);
+        Assert.assertEquals(tasks.abortTasks(), 1);
+        Assert.assertTrue(stage.isCancelled());
+        Mockito.verify(workerTask).logInterruptedException(Mockito.any());
+        Mockito.verify(workerTask, Mockito.never()).setResponse(Mockito.any(WorkerResponse.class));
+
+        // the permit of the aborted task has been released
+        CompletableFuture<WorkerResponse> next = CompletableFuture.completedFuture(successResponse);
+        WorkerTaskImpl nextTask = Mockito.mock(WorkerTaskImpl.class);
+        tasks.start(new TestAsyncWorker(next, 0), nextTask);
+        Mockito.verify(nextTask).setResponse(successResponse);
+    }
+
+    @Test
+    public void testInFlightLimit()
+        throws InterruptedException, TaskRejectedException, InvalidTaskException
+    {
+        AsyncWorkerTasks tasks = new AsyncWorkerTasks(1, Runnable::run);
+        CompletableFuture<WorkerResponse> first = new CompletableFuture<>();
+        tasks.start(new TestAsyncWorker(first, 0), Mockito.mock(WorkerTaskImpl.class));
+
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        Thread starter = new Thread(() -> {
+            try {
+                tasks.start(new TestAsyncWorker(new CompletableFuture<>(), 0), Mockito.mock(WorkerTaskImpl.class));
+                secondStarted.countDown();
+            } catch (InterruptedException | TaskRejectedException | InvalidTaskException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        starter.start();
+        Assert.assertFalse(secondStarted.await(100, TimeUnit.MILLISECONDS));
+        first.complete(successResponse);
+        Assert.assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(tasks.getInFlightCount(), 1);
+    }
+
+    private final class TestAsyncWorker implements AsyncWorker
+    {
+        private final CompletionStage<WorkerResponse> stage;
+        private final long timeout;
+
+        public TestAsyncWorker(final CompletionStage<WorkerResponse> stage, final long timeout)
+        {
+            this.stage = stage;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public CompletionStage<WorkerResponse> doWorkAsync()
+        {
+            return stage;
+        }
+
+        @Override
+        public long getTimeout()
+        {
+            return timeout;
+        }
+
+        @Override
+        public String getWorkerIdentifier()
+        {
+            return "test";
+        }
+
+        @Override
+        public int getWorkerApiVersion()
+        {
+            return 1;
+        }
+
+        @Override
+        public WorkerResponse getGeneralFailureResult(final Throwable t)
+        {
+            return failureResponse;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import com.hpe.caf.api.worker.TaskMessage;
+import com.hpe.caf.api.worker.WorkerTask;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BulkWorkerTaskProviderTest
+{
+    @Test
+    public void testBatchLimitedByTasks()
+        throws InterruptedException
+    {
+        WorkStealingTaskQueue queue = new WorkStealingTaskQueue(1);
+        WorkerTaskImpl first = createTask(10);
+        List<WorkerTaskImpl> tasks = Arrays.asList(createTask(10), createTask(10), createTask(10));
+        tasks.forEach(queue::offer);
+        BulkWorkerTaskProvider provider = new BulkWorkerTaskProvider(first, queue, 0, new BatchPolicy(3, 0, 0));
+        Assert.assertEquals(provider.getNextBatch(), Arrays.asList(first, tasks.get(0), tasks.get(1)));
+        Assert.assertEquals(provider.getNextBatch(), Arrays.asList(tasks.get(2)));
+        Assert.assertTrue(provider.getNextBatch().isEmpty());
+        Assert.assertNull(provider.getUnconsumedTask());
+        Assert.assertEquals(provider.getConsumedTaskCount(), 4);
+    }
+
+
+    @Test
+    public void testBatchLimitedByBytes()
+        throws InterruptedException
+    {
+        WorkStealingTaskQueue queue = new WorkStealingTaskQueue(1);
+        WorkerTaskImpl first = createTask(40);
+        List<WorkerTaskImpl> tasks = Arrays.asList(createTask(40), createTask(40), createTask(150));
+        tasks.forEach(queue::offer);
+        BulkWorkerTaskProvider provider = new BulkWorkerTaskProvider(first, queue, 0, new BatchPolicy(10, 100, 0));
+        Assert.assertEquals(provider.getNextBatch(), Arrays.asList(first, tasks.get(0)));
+        // the task that would have overfilled the batch is held for the next one
+        Assert.assertSame(provider.getUnconsumedTask(), tasks.get(1));
+        Assert.assertEquals(provider.getNextBatch(), Arrays.asList(tasks.get(1)));
+        // a task larger than the limit is given in a batch of its own
+        Assert.assertEquals(provider.getNextBatch(), Arrays.asList(tasks.get(2)));
+        Assert.assertNull(provider.getUnconsumedTask());
+    }
+
+
+    @Test
+    public void testBatchWaitsForLingerTime()
+        throws InterruptedException
+    {
+        WorkStealingTaskQueue queue = new WorkStealingTaskQueue(1);
+        WorkerTaskImpl first = createTask(10);
+        WorkerTaskImpl late = createTask(10);
+        BulkWorkerTaskProvider provider = new BulkWorkerTaskProvider(first, queue, 0, new BatchPolicy(10, 0, 500));
+        Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.offer(late);
+        });
+        long start = System.nanoTime();
+        t.start();
+        List<WorkerTask> batch = provider.getNextBatch();
+        Assert.assertEquals(batch, Arrays.asList(first, late));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+        t.join();
+    }
+
+
+    private static WorkerTaskImpl createTask(final int dataLength)
+    {
+        TaskMessage taskMessage = new TaskMessage();
+        taskMessage.setTaskData(new byte[dataLength]);
+        return new WorkerTaskImpl(null, null, null, "msg", taskMessage, false);
+    }
+}
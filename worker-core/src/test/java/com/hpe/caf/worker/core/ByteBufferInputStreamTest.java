@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+
+public class ByteBufferInputStreamTest
+{
+    @Test
+    public void testRead()
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 2, (byte)0xFF, 4, 5 }).asReadOnlyBuffer();
+        buffer.position(1);
+        ByteBufferInputStream stream = new ByteBufferInputStream(buffer);
+        Assert.assertEquals(stream.available(), 4);
+        Assert.assertEquals(stream.read(), 2);
+        Assert.assertEquals(stream.read(), 255);
+        byte[] rest = new byte[10];
+        Assert.assertEquals(stream.read(rest, 1, 10 - 1), 2);
+        Assert.assertEquals(rest[1], 4);
+        Assert.assertEquals(rest[2], 5);
+        Assert.assertEquals(stream.read(), -1);
+        Assert.assertEquals(stream.read(rest, 0, 1), -1);
+        // the buffer passed in is not consumed
+        Assert.assertEquals(buffer.position(), 1);
+    }
+
+
+    @Test
+    public void testSkip()
+    {
+        ByteBufferInputStream stream = new ByteBufferInputStream(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        Assert.assertEquals(stream.skip(2), 2);
+        Assert.assertEquals(stream.skip(5), 1);
+        Assert.assertEquals(stream.read(), -1);
+    }
+}
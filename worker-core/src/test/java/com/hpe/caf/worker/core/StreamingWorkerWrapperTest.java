@@ -192,6 +192,41 @@ public class StreamingWorkerWrapperTest
     }
 
 
+    @Test
+    public void testTimeout()
+        throws WorkerException, InterruptedException, InvalidNameException, CodecException
+    {
+        Codec codec = new JsonCodec();
+        com.hpe.caf.api.worker.WorkerConfiguration config = new com.hpe.caf.api.worker.WorkerConfiguration();
+        config.setTaskTimeout(200);
+        WorkerFactory slowWorkerFactory = Mockito.mock(WorkerFactory.class);
+        Mockito.when(slowWorkerFactory.getWorkerConfiguration()).thenReturn(config);
+        Worker slowWorker = Mockito.spy(getWorker(new TestWorkerTask(), codec));
+        Mockito.when(slowWorkerFactory.getWorker(Mockito.any())).thenReturn(slowWorker);
+        Mockito.when(slowWorker.doWork()).thenAnswer(invocationOnMock -> {
+            Thread.sleep(10000);
+            return null;
+        });
+        String queueMsgId = "timeout";
+        CountDownLatch latch = new CountDownLatch(1);
+        TestCallback callback = new TestCallback(latch);
+        TaskMessage m = new TaskMessage();
+        m.setTaskId(TASK_ID);
+        ServicePath path = new ServicePath(SERVICE_NAME);
+        WorkerStats stats = new WorkerStats();
+        WorkerTaskImpl workerTask = new WorkerTaskImpl(path, callback, slowWorkerFactory, queueMsgId, m, false, null, 1, stats);
+        StreamingWorkerWrapper wrapper = new StreamingWorkerWrapper(workerTask);
+        Thread t = new Thread(wrapper);
+        t.start();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(queueMsgId, callback.getQueueMsgId());
+        Assert.assertEquals(TaskStatus.RESULT_EXCEPTION, callback.getStatus());
+        String s = codec.deserialise(callback.getResultData(), String.class);
+        Assert.assertTrue(s.contains("TimeoutException"));
+        Assert.assertEquals(1, stats.getTasksTimedOut());
+    }
+
+
     private Worker getWorker(final TestWorkerTask task, final Codec codec)
         throws InvalidTaskException
     {
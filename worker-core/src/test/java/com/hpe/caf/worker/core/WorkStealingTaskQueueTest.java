@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class WorkStealingTaskQueueTest
+{
+    @Test
+    public void testOwnDequeBeforeStealing()
+    {
+        WorkStealingTaskQueue queue = new WorkStealingTaskQueue(2);
+        List<WorkerTaskImpl> tasks = offerTasks(queue, 4);
+        // tasks are shared between the deques in turn
+        Assert.assertSame(queue.poll(0), tasks.get(0));
+        Assert.assertSame(queue.poll(1), tasks.get(1));
+        Assert.assertSame(queue.poll(0), tasks.get(2));
+        Assert.assertSame(queue.poll(1), tasks.get(3));
+        Assert.assertNull(queue.poll(0));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+
+    @Test
+    public void testStealHalfInOrder()
+    {
+        WorkStealingTaskQueue queue = new WorkStealingTaskQueue(2);
+        List<WorkerTaskImpl> tasks = offerTasks(queue, 8);
+        for (int i = 0; i < 8; i += 2) {
+            Assert.assertSame(queue.poll(0), tasks.get(i));
+        }
+        // deque 0 is now empty, so it steals the newer half of deque 1 and keeps it in order
+        Assert.assertSame(queue.poll(0), tasks.get(5));
+        Assert.assertSame(queue.poll(0), tasks.get(7));
+        Assert.assertSame(queue.poll(1), tasks.get(1));
+        Assert.assertSame(queue.poll(1), tasks.get(3));
+        Assert.assertNull(queue.poll(1));
+        Assert.assertEquals(queue.size(), 0);
+    }
+
+
+    @Test
+    public void testWaitForTask()
+        throws InterruptedException
+    {
+        WorkStealingTaskQueue queue = new WorkStealingTaskQueue(3);
+        Assert.assertNull(queue.poll(0, 50, TimeUnit.MILLISECONDS));
+        WorkerTaskImpl task = Mockito.mock(WorkerTaskImpl.class);
+        Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.offer(task);
+        });
+        t.start();
+        Assert.assertSame(queue.poll(2, 5, TimeUnit.SECONDS), task);
+        t.join();
+    }
+
+
+    @Test
+    public void testDrain()
+    {
+        WorkStealingTaskQueue queue = new WorkStealingTaskQueue(3);
+        offerTasks(queue, 5);
+        Assert.assertEquals(queue.size(), 5);
+        List<WorkerTaskImpl> drained = new ArrayList<>();
+        Assert.assertEquals(queue.drainTo(drained), 5);
+        Assert.assertEquals(drained.size(), 5);
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll(1));
+    }
+
+
+    private static List<WorkerTaskImpl> offerTasks(final WorkStealingTaskQueue queue, final int count)
+    {
+        List<WorkerTaskImpl> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            WorkerTaskImpl task = Mockito.mock(WorkerTaskImpl.class);
+            tasks.add(task);
+            Assert.assertTrue(queue.offer(task));
+        }
+        return tasks;
+    }
+}
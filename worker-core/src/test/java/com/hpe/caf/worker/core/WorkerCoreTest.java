@@ -30,6 +30,7 @@ import org.mockito.Mockito;
 import org.testng.internal.junit.ArrayAsserts;
 
 import javax.naming.InvalidNameException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
@@ -82,6 +83,31 @@ public class WorkerCoreTest
     }
 
 
+    /** Send a message through WorkerCore as a read-only buffer and verify the result output message **/
+    @Test
+    public void testWorkerCoreBuffer()
+        throws CodecException, InterruptedException, WorkerException, ConfigurationException, QueueException, InvalidNameException
+    {
+        BlockingQueue<byte[]> q = new LinkedBlockingQueue<>();
+        Codec codec = new JsonCodec();
+        WorkerThreadPool wtp = WorkerThreadPool.create(5);
+        ConfigurationSource config = Mockito.mock(ConfigurationSource.class);
+        ServicePath path = new ServicePath(SERVICE_PATH);
+        TestWorkerTask task = new TestWorkerTask();
+        TestWorkerQueue queue = new TestWorkerQueueProvider(q).getWorkerQueue(config, 50);
+        WorkerCore core = new WorkerCore(codec, wtp, queue, getWorkerFactory(task, codec), path);
+        core.start();
+        byte[] stuff = codec.serialise(getTaskMessage(task, codec, WORKER_NAME));
+        queue.submitTask(QUEUE_MSG_ID, ByteBuffer.wrap(stuff).asReadOnlyBuffer());
+        byte[] result = q.poll(5000, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(result);
+        TaskMessage taskMessage = codec.deserialise(result, TaskMessage.class);
+        Assert.assertEquals(TaskStatus.RESULT_SUCCESS, taskMessage.getTaskStatus());
+        TestWorkerResult workerResult = codec.deserialise(taskMessage.getTaskData(), TestWorkerResult.class);
+        Assert.assertEquals(SUCCESS, workerResult.getResultString());
+    }
+
+
     /** Send a message with tracking info **/
     @Test
     public void testWorkerCoreWithTracking()
@@ -399,6 +425,13 @@ public class WorkerCoreTest
             callback.registerNewTask(taskId, stuff, new HashMap<>());
         }
 
+
+        public void submitTask(final String taskId, final ByteBuffer stuff)
+            throws WorkerException
+        {
+            callback.registerNewTask(taskId, stuff, HashMap::new);
+        }
+
     }
 
 
@@ -20,9 +20,14 @@ import com.hpe.caf.api.worker.TaskRejectedException;
 import com.hpe.caf.api.worker.Worker;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.mockito.Mockito;
+import org.testng.Assert;
 
 public class WorkerThreadPoolTest
 {
@@ -42,4 +47,179 @@ public class WorkerThreadPoolTest
         wtp.submitWorkerTask(mockWorkerTask);
         latch.await(1, TimeUnit.SECONDS);
     }
+
+    @Test
+    public void testWorkerThreadPoolPriority()
+        throws TaskRejectedException, InterruptedException, InvalidTaskException
+    {
+        WorkerThreadPool wtp = WorkerThreadPool.create(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(4);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        wtp.submitWorkerTask(createTask(0, () -> {
+            started.countDown();
+            release.await();
+            finished.countDown();
+        }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (String name : Arrays.asList("low1:0", "high:5", "low2:0")) {
+            String[] parts = name.split(":");
+            wtp.submitWorkerTask(createTask(Integer.parseInt(parts[1]), () -> {
+                order.add(parts[0]);
+                finished.countDown();
+            }));
+        }
+        Assert.assertEquals(wtp.getBacklogSize(), 3);
+        release.countDown();
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(order, Arrays.asList("high", "low1", "low2"));
+        wtp.shutdown();
+    }
+
+    @Test
+    public void testWorkerThreadPoolWeightedInputQueues()
+        throws TaskRejectedException, InterruptedException, InvalidTaskException
+    {
+        WorkerThreadPool wtp = WorkerThreadPool.create(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(7);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        wtp.submitWorkerTask(createTask(0, () -> {
+            started.countDown();
+            release.await();
+            finished.countDown();
+        }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (String name : Arrays.asList("a1", "a2", "a3", "a4", "b1", "b2")) {
+            final boolean queueA = name.startsWith("a");
+            wtp.submitWorkerTask(createTask(0, queueA ? "queueA" : "queueB", queueA ? 2 : 1, () -> {
+                order.add(name);
+                finished.countDown();
+            }));
+        }
+        release.countDown();
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        // queueA has twice the weight of queueB, so gets two tasks started for each one of queueB's
+        Assert.assertEquals(order, Arrays.asList("a1", "a2", "b1", "a3", "a4", "b2"));
+        wtp.shutdown();
+    }
+
+    @Test
+    public void testThreadPerTaskPoolLimitsConcurrentTasks()
+        throws TaskRejectedException, InterruptedException, InvalidTaskException
+    {
+        WorkerThreadPool wtp = new ThreadPerTaskWorkerThreadPool(3, () -> { });
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(20);
+
+        for (int i = 0; i < 20; i++) {
+            wtp.submitWorkerTask(createTask(0, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(10);
+                running.decrementAndGet();
+                finished.countDown();
+            }));
+        }
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(maxRunning.get(), 3);
+        wtp.shutdown();
+        wtp.awaitTermination(5, TimeUnit.SECONDS);
+        Assert.assertTrue(wtp.isIdle());
+    }
+
+    @Test
+    public void testThreadPerTaskPoolPriority()
+        throws TaskRejectedException, InterruptedException, InvalidTaskException
+    {
+        WorkerThreadPool wtp = new ThreadPerTaskWorkerThreadPool(1, () -> { });
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(4);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        wtp.submitWorkerTask(createTask(0, () -> {
+            started.countDown();
+            release.await();
+            finished.countDown();
+        }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (String name : Arrays.asList("low1:0", "high:5", "low2:0")) {
+            String[] parts = name.split(":");
+            wtp.submitWorkerTask(createTask(Integer.parseInt(parts[1]), () -> {
+                order.add(parts[0]);
+                finished.countDown();
+            }));
+        }
+        Assert.assertEquals(wtp.getBacklogSize(), 3);
+        release.countDown();
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(order, Arrays.asList("high", "low1", "low2"));
+        wtp.shutdown();
+    }
+
+    @Test
+    public void testThreadPerTaskPoolAbort()
+        throws TaskRejectedException, InterruptedException, InvalidTaskException
+    {
+        WorkerThreadPool wtp = new ThreadPerTaskWorkerThreadPool(2, () -> { });
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+        AtomicInteger queuedRun = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            wtp.submitWorkerTask(createTask(0, () -> {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+            }));
+        }
+        for (int i = 0; i < 3; i++) {
+            wtp.submitWorkerTask(createTask(0, queuedRun::incrementAndGet));
+        }
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(wtp.abortTasks(), 5);
+        Assert.assertEquals(wtp.getBacklogSize(), 0);
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        wtp.shutdown();
+        wtp.awaitTermination(5, TimeUnit.SECONDS);
+        Assert.assertEquals(queuedRun.get(), 0);
+    }
+
+    private static WorkerTaskImpl createTask(final int priority, final Work work)
+        throws InvalidTaskException, TaskRejectedException, InterruptedException
+    {
+        return createTask(priority, null, 1, work);
+    }
+
+    private static WorkerTaskImpl createTask(final int priority, final String inputQueue, final int weight, final Work work)
+        throws InvalidTaskException, TaskRejectedException, InterruptedException
+    {
+        Worker mockWorker = Mockito.mock(Worker.class);
+        Mockito.when(mockWorker.doWork()).thenAnswer(invocation -> {
+            work.run();
+            return null;
+        });
+
+        WorkerTaskImpl mockWorkerTask = Mockito.mock(WorkerTaskImpl.class);
+        Mockito.when(mockWorkerTask.createWorker()).thenReturn(mockWorker);
+        Mockito.when(mockWorkerTask.getPriority()).thenReturn(priority);
+        Mockito.when(mockWorkerTask.getInputQueue()).thenReturn(inputQueue);
+        Mockito.when(mockWorkerTask.getWeight()).thenReturn(weight);
+        return mockWorkerTask;
+    }
+
+    @FunctionalInterface
+    private interface Work
+    {
+        void run() throws InterruptedException;
+    }
 }
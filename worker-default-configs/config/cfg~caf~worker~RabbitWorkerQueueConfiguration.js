@@ -19,5 +19,31 @@
             || (getenv("CAF_WORKER_BASE_QUEUE_NAME") || getenv("CAF_WORKER_NAME") || "worker") + "-in",
     retryQueue: getenv("CAF_WORKER_RETRY_QUEUE") || undefined,
     rejectedQueue: "worker-rejected",
-    retryLimit: getenv("CAF_WORKER_RETRY_LIMIT") || 10
+    retryLimit: getenv("CAF_WORKER_RETRY_LIMIT") || 10,
+    ackBatchSize: getenv("CAF_RABBITMQ_ACK_BATCH_SIZE") || 1,
+    ackBatchTimeout: getenv("CAF_RABBITMQ_ACK_BATCH_TIMEOUT") || 100,
+    publishEnvelopeSize: getenv("CAF_RABBITMQ_PUBLISH_ENVELOPE_SIZE") || 1,
+    publishEnvelopeBytes: getenv("CAF_RABBITMQ_PUBLISH_ENVELOPE_BYTES") || 65536,
+    compressionThreshold: getenv("CAF_RABBITMQ_COMPRESSION_THRESHOLD") || 0,
+    compressionLevel: getenv("CAF_RABBITMQ_COMPRESSION_LEVEL") || 6,
+    maxDecompressedSize: getenv("CAF_RABBITMQ_MAX_DECOMPRESSED_SIZE") || 134217728,
+    declareMode: getenv("CAF_RABBITMQ_DECLARE_MODE") || "ACTIVE",
+    consumerChannels: getenv("CAF_RABBITMQ_CONSUMER_CHANNELS") || 1,
+    decodeThreads: getenv("CAF_RABBITMQ_DECODE_THREADS") || 0,
+    publisherChannels: getenv("CAF_RABBITMQ_PUBLISHER_CHANNELS") || 1,
+    publisherSelection: getenv("CAF_RABBITMQ_PUBLISHER_SELECTION") || "TARGET_QUEUE",
+    publisherQueueCapacity: getenv("CAF_RABBITMQ_PUBLISHER_QUEUE_CAPACITY") || 0,
+    publisherOverflowPolicy: getenv("CAF_RABBITMQ_PUBLISHER_OVERFLOW_POLICY") || "BLOCK",
+    pollStrategy: getenv("CAF_RABBITMQ_POLL_STRATEGY") || "BLOCKING",
+    pollBatchSize: getenv("CAF_RABBITMQ_POLL_BATCH_SIZE") || 64,
+    prefetchMode: getenv("CAF_RABBITMQ_PREFETCH_MODE") || "FIXED",
+    prefetchMin: getenv("CAF_RABBITMQ_PREFETCH_MIN") || 1,
+    prefetchMax: getenv("CAF_RABBITMQ_PREFETCH_MAX") || 1000,
+    prefetchTuningInterval: getenv("CAF_RABBITMQ_PREFETCH_TUNING_INTERVAL") || 5000,
+    prefetchTargetWait: getenv("CAF_RABBITMQ_PREFETCH_TARGET_WAIT") || 1000,
+    retryStrategy: getenv("CAF_RABBITMQ_RETRY_STRATEGY") || "REPUBLISH",
+    rejectedTaskDelays: getenv("CAF_RABBITMQ_REJECTED_TASK_DELAYS") ? getenv("CAF_RABBITMQ_REJECTED_TASK_DELAYS").split(",").map(Number) : [],
+    maxPriority: getenv("CAF_RABBITMQ_MAX_PRIORITY") || 0,
+    inputQueueWeight: getenv("CAF_RABBITMQ_INPUT_QUEUE_WEIGHT") || 1,
+    additionalInputQueues: []
 });
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import com.hpe.caf.api.worker.WorkerQueueMetricsReporter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+
+final class FileMetricsReporter implements WorkerQueueMetricsReporter
+{
+    private final AtomicInteger queueErrors = new AtomicInteger(0);
+    private final AtomicInteger msgRx = new AtomicInteger(0);
+    private final AtomicInteger msgTx = new AtomicInteger(0);
+    private final AtomicInteger msgRejected = new AtomicInteger(0);
+    private final AtomicInteger msgDropped = new AtomicInteger(0);
+    private final AtomicInteger msgRetried = new AtomicInteger(0);
+    private final Map<String, Supplier<? extends Number>> additionalMetrics = new LinkedHashMap<>();
+
+
+    FileMetricsReporter()
+    {
+        additionalMetrics.put("retries", msgRetried::get);
+    }
+
+
+    void incrementErrors()
+    {
+        queueErrors.incrementAndGet();
+    }
+
+
+    @Override
+    public int getQueueErrors()
+    {
+        return queueErrors.get();
+    }
+
+
+    void incrementReceived()
+    {
+        msgRx.incrementAndGet();
+    }
+
+
+    @Override
+    public int getMessagesReceived()
+    {
+        return msgRx.get();
+    }
+
+
+    void incrementPublished()
+    {
+        msgTx.incrementAndGet();
+    }
+
+
+    @Override
+    public int getMessagesPublished()
+    {
+        return msgTx.get();
+    }
+
+
+    void incrementRejected()
+    {
+        msgRejected.incrementAndGet();
+    }
+
+
+    @Override
+    public int getMessagesRejected()
+    {
+        return msgRejected.get();
+    }
+
+
+    void incrementDropped()
+    {
+        msgDropped.incrementAndGet();
+    }
+
+
+    @Override
+    public int getMessagesDropped()
+    {
+        return msgDropped.get();
+    }
+
+
+    void incrementRetried()
+    {
+        msgRetried.incrementAndGet();
+    }
+
+
+    /**
+     * Add a metric to those returned by getAdditionalMetrics(). This is only called while the WorkerQueue is being
+     * constructed, before the metrics are registered by the worker.
+     * @param name the name of the metric
+     * @param supplier samples the current value of the metric
+     */
+    void addMetric(String name, Supplier<? extends Number> supplier)
+    {
+        additionalMetrics.put(name, supplier);
+    }
+
+
+    @Override
+    public Map<String, Supplier<? extends Number>> getAdditionalMetrics()
+    {
+        return Collections.unmodifiableMap(additionalMetrics);
+    }
+}
@@ -0,0 +1,624 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A durable queue stored as a log of Segments in a directory of its own. Messages are appended to the last segment,
+ * and a new segment is started when it is full. The sequence number of the next message to deliver is kept in a
+ * memory-mapped offset file, and each segment records which of its messages have been acknowledged.
+ *
+ * When a queue is reopened, any message before the consumer offset that was never acknowledged was in progress when
+ * the process stopped, so it is delivered again, ahead of the rest of the queue, marked as redelivered.
+ *
+ * Segments are deleted once all their messages are acknowledged. A segment that is kept alive by only a few long
+ * running messages is compacted: the messages still in progress are copied to the end of the log, with their
+ * deliveries pointed at the copies, and the old segment is deleted. The copies are skipped when the consumer reaches
+ * them, unless the process has restarted in the meantime, in which case they are redelivered.
+ *
+ * Any number of processes may append to a queue, but only one may consume from it, as the state of its deliveries is
+ * held in memory. Appending takes a short-lived lock on the queue's append.lock file, and first reads any messages and
+ * segments other processes have appended, so every process appends at the true end of the log. Consuming holds an
+ * exclusive lock on the queue.lock file from startConsuming() until stopConsuming(), and producers never take it.
+ *
+ * All methods are synchronized, and consumers waiting for a message are woken by each append in this process.
+ * Messages appended by other processes are picked up whenever the consumer finds nothing left to deliver.
+ */
+final class FileQueue
+{
+    private final String name;
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean forceWrites;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final MappedByteBuffer offsetFile;
+    private final FileChannel appendLockChannel;
+    private FileChannel consumerLockChannel;
+    private FileLock consumerLock;
+    private int consumers;
+    private final Deque<Long> redeliveries = new ArrayDeque<>();
+    private final Map<Long, Long> inFlight = new HashMap<>();
+    private final Set<Long> relocated = new HashSet<>();
+    private long consumerOffset;
+    private long nextDeliveryId;
+    private static final Logger LOG = LoggerFactory.getLogger(FileQueue.class);
+
+
+    /**
+     * Open a queue for appending, creating it if it does not exist.
+     * @param name the name of the queue
+     * @param directory the directory holding the queue's files
+     * @param segmentSize the size of each segment file in bytes
+     * @param forceWrites whether to flush every change to disk before returning
+     * @throws IOException if the queue's files cannot be read or created
+     */
+    FileQueue(String name, Path directory, int segmentSize, boolean forceWrites)
+        throws IOException
+    {
+        this.name = Objects.requireNonNull(name);
+        this.directory = Objects.requireNonNull(directory);
+        this.segmentSize = segmentSize;
+        this.forceWrites = forceWrites;
+        Files.createDirectories(directory);
+        appendLockChannel = FileChannel.open(directory.resolve("append.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            try (FileChannel channel = FileChannel.open(directory.resolve("consumer.offset"), StandardOpenOption.CREATE,
+                                                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                offsetFile = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+            }
+            consumerOffset = offsetFile.getLong(0);
+            try (FileLock ignored = appendLockChannel.lock()) {
+                openSegments();
+            }
+        } catch (IOException | RuntimeException e) {
+            appendLockChannel.close();
+            throw e;
+        }
+        // until it is consumed from, the queue is only appended to, which only needs the last segment
+        segments.headMap(segments.lastKey()).clear();
+    }
+
+
+    String getName()
+    {
+        return name;
+    }
+
+
+    Path getDirectory()
+    {
+        return directory;
+    }
+
+
+    /**
+     * Start consuming from the queue. The first consumer in this process takes the exclusive consumer lock, and reads
+     * the consumer offset and the state of the log afresh, so any message before the offset that was never
+     * acknowledged is delivered again, marked as redelivered. Later consumers in this process share its deliveries.
+     * @throws IOException if another process is consuming from the queue, or the queue's files cannot be read
+     */
+    synchronized void startConsuming()
+        throws IOException
+    {
+        if ( consumers > 0 ) {
+            consumers++;
+            return;
+        }
+        FileChannel channel = FileChannel.open(directory.resolve("queue.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if ( fileLock == null ) {
+            channel.close();
+            throw new IOException("Queue " + name + " in " + directory + " is already being consumed");
+        }
+        try {
+            consumerOffset = offsetFile.getLong(0);
+            try (FileLock ignored = appendLockChannel.lock()) {
+                openSegments();
+            }
+            queueRedeliveries();
+        } catch (IOException | RuntimeException e) {
+            fileLock.release();
+            channel.close();
+            throw e;
+        }
+        consumerLockChannel = channel;
+        consumerLock = fileLock;
+        consumers = 1;
+    }
+
+
+    /**
+     * Stop consuming from the queue. Once the last consumer in this process has stopped, every delivery in progress
+     * is forgotten, to be delivered again to the next consumer, and the consumer lock is released so that another
+     * process may consume from the queue.
+     */
+    synchronized void stopConsuming()
+        throws IOException
+    {
+        if ( consumers == 0 || --consumers > 0 ) {
+            return;
+        }
+        inFlight.clear();
+        redeliveries.clear();
+        relocated.clear();
+        offsetFile.force();
+        consumerLock.release();
+        consumerLockChannel.close();
+        consumerLock = null;
+        consumerLockChannel = null;
+    }
+
+
+    /**
+     * Append a message to the end of the queue.
+     * @return the sequence number of the message
+     * @throws IOException if a new segment is needed and cannot be created
+     */
+    synchronized long append(byte[] body, Map<String, Object> headers, boolean redelivered)
+        throws IOException
+    {
+        byte[] headerBytes = Segment.serialiseHeaders(headers == null ? Collections.emptyMap() : headers);
+        if ( headerBytes.length + body.length > Segment.getMaxPayloadSize(segmentSize) ) {
+            throw new IOException("Message of " + body.length + " bytes is too large for a segment of " + segmentSize + " bytes");
+        }
+        byte flags = redelivered ? Segment.FLAG_REDELIVERED : 0;
+        long sequence;
+        try (FileLock ignored = appendLockChannel.lock()) {
+            refresh();
+            Segment segment = segments.lastEntry().getValue();
+            sequence = segment.append(flags, headerBytes, body);
+            if ( sequence < 0 ) {
+                segment.seal();
+                segment.force();
+                segment = addSegment(segment.getNextSequence());
+                sequence = segment.append(flags, headerBytes, body);
+            }
+            if ( forceWrites ) {
+                segment.force();
+            }
+        }
+        notifyAll();
+        return sequence;
+    }
+
+
+    /**
+     * Take the next message to deliver, waiting for one to be appended if there is none.
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return the delivery, or null if there was no message before the timeout expired
+     * @throws IOException if the message cannot be read
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    synchronized Delivery take(long timeout, TimeUnit unit)
+        throws IOException, InterruptedException
+    {
+        if ( consumers == 0 ) {
+            throw new IllegalStateException("Not consuming from queue " + name);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while ( true ) {
+            FileQueueRecord record = next();
+            if ( record == null ) {
+                // pick up anything appended by another process
+                try (FileLock ignored = appendLockChannel.lock()) {
+                    refresh();
+                }
+                record = next();
+            }
+            if ( record != null ) {
+                long deliveryId = ++nextDeliveryId;
+                inFlight.put(deliveryId, record.getSequence());
+                return new Delivery(deliveryId, record);
+            }
+            long remaining = deadline - System.nanoTime();
+            if ( remaining <= 0 ) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+
+    /**
+     * Acknowledge a delivered message, removing it from the queue.
+     * @return false if the delivery was not in progress
+     */
+    synchronized boolean ack(long deliveryId)
+        throws IOException
+    {
+        Long sequence = inFlight.remove(deliveryId);
+        if ( sequence == null ) {
+            return false;
+        }
+        ackSequence(sequence);
+        return true;
+    }
+
+
+    /**
+     * Return a delivered message to the end of the queue.
+     * @param deliveryId the delivery of the message
+     * @param redelivered whether to mark the message as redelivered
+     * @return false if the delivery was not in progress
+     */
+    synchronized boolean requeue(long deliveryId, boolean redelivered)
+        throws IOException
+    {
+        Long sequence = inFlight.get(deliveryId);
+        if ( sequence == null ) {
+            return false;
+        }
+        FileQueueRecord record = getSegment(sequence).read(sequence);
+        append(record.getBody(), record.getHeaders(), redelivered);
+        inFlight.remove(deliveryId);
+        ackSequence(sequence);
+        return true;
+    }
+
+
+    /**
+     * Forget a delivery in progress, so that the message is delivered again, marked as redelivered. Unlike requeue(),
+     * this only changes the state held in memory, so it cannot fail.
+     * @return false if the delivery was not in progress
+     */
+    synchronized boolean release(long deliveryId)
+    {
+        Long sequence = inFlight.remove(deliveryId);
+        if ( sequence == null ) {
+            return false;
+        }
+        redeliveries.add(sequence);
+        notifyAll();
+        return true;
+    }
+
+
+    /**
+     * Forget every delivery in progress, so that the messages are delivered again, as if the queue had been reopened.
+     */
+    synchronized void releaseAll()
+    {
+        List<Long> sequences = new ArrayList<>(inFlight.values());
+        Collections.sort(sequences);
+        for ( int i = sequences.size() - 1; i >= 0; i-- ) {
+            redeliveries.addFirst(sequences.get(i));
+        }
+        inFlight.clear();
+        notifyAll();
+    }
+
+
+    /**
+     * Delete every segment whose messages have all been acknowledged, and compact sealed segments whose proportion of
+     * messages still in progress is below the threshold.
+     * @param threshold the proportion of live messages, between 0 and 1, below which a segment is compacted
+     * @throws IOException if a segment cannot be compacted or deleted
+     */
+    synchronized void compact(double threshold)
+        throws IOException
+    {
+        if ( consumers == 0 ) {
+            throw new IllegalStateException("Not consuming from queue " + name);
+        }
+        List<Segment> sealed = new ArrayList<>();
+        for ( Segment segment : segments.values() ) {
+            if ( segment.isSealed() ) {
+                sealed.add(segment);
+            }
+        }
+        for ( Segment segment : sealed ) {
+            if ( segment.getLiveCount() > 0 && segment.getLiveCount() < threshold * segment.getRecordCount() ) {
+                relocate(segment);
+            }
+            if ( segment.getLiveCount() == 0 ) {
+                LOG.debug("Deleting segment {} of queue {}", segment.getBaseSequence(), name);
+                segments.remove(segment.getBaseSequence());
+                segment.delete();
+            }
+        }
+    }
+
+
+    /**
+     * @return the number of messages waiting to be delivered
+     */
+    synchronized long getDepth()
+    {
+        // relocated copies are always ahead of the consumer offset, and are skipped rather than delivered
+        long pending = segments.lastEntry().getValue().getNextSequence() - consumerOffset - relocated.size();
+        return redeliveries.size() + Math.max(0, pending);
+    }
+
+
+    /**
+     * @return the number of messages delivered but not yet acknowledged or requeued
+     */
+    synchronized int getInFlightCount()
+    {
+        return inFlight.size();
+    }
+
+
+    /**
+     * @return the number of segments in the log
+     */
+    synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+
+    /**
+     * Flush everything to disk.
+     */
+    synchronized void force()
+    {
+        for ( Segment segment : segments.values() ) {
+            segment.force();
+        }
+        offsetFile.force();
+    }
+
+
+    /**
+     * Flush everything to disk, stop consuming if this process still is, and close the queue's files.
+     */
+    synchronized void close()
+        throws IOException
+    {
+        force();
+        if ( consumers > 0 ) {
+            consumers = 1;
+            stopConsuming();
+        }
+        appendLockChannel.close();
+    }
+
+
+    private FileQueueRecord next()
+        throws IOException
+    {
+        while ( !redeliveries.isEmpty() ) {
+            long sequence = redeliveries.poll();
+            Segment segment = getSegment(sequence);
+            if ( segment != null && !segment.isAcked(sequence) ) {
+                FileQueueRecord record = segment.read(sequence);
+                return new FileQueueRecord(sequence, record.getBody(), record.getHeaders(), true);
+            }
+        }
+        while ( true ) {
+            Segment segment = getSegment(consumerOffset);
+            if ( segment == null ) {
+                Map.Entry<Long, Segment> following = segments.higherEntry(consumerOffset);
+                if ( following == null ) {
+                    return null;
+                }
+                // the consumer offset was in a segment that has since been deleted, or at the end of a sealed one
+                setConsumerOffset(following.getKey());
+                continue;
+            }
+            long sequence = consumerOffset;
+            setConsumerOffset(sequence + 1);
+            if ( relocated.remove(sequence) || segment.isAcked(sequence) ) {
+                continue;
+            }
+            return segment.read(sequence);
+        }
+    }
+
+
+    /**
+     * Copy the messages still in progress in a segment to the end of the log, and acknowledge the originals.
+     * Messages that are waiting to be redelivered are left where they are, so the segment is kept until they have
+     * been delivered.
+     */
+    private void relocate(Segment segment)
+        throws IOException
+    {
+        Map<Long, Long> deliveries = new HashMap<>();
+        for ( Map.Entry<Long, Long> delivery : inFlight.entrySet() ) {
+            if ( segment.contains(delivery.getValue()) ) {
+                deliveries.put(delivery.getValue(), delivery.getKey());
+            }
+        }
+        for ( Map.Entry<Long, Long> delivery : deliveries.entrySet() ) {
+            long sequence = delivery.getKey();
+            FileQueueRecord record = segment.read(sequence);
+            long copy = append(record.getBody(), record.getHeaders(), true);
+            relocated.add(copy);
+            inFlight.put(delivery.getValue(), copy);
+            ackSequence(sequence);
+        }
+        if ( !deliveries.isEmpty() ) {
+            LOG.debug("Compacted segment {} of queue {}, moving {} messages in progress", segment.getBaseSequence(), name,
+                      deliveries.size());
+        }
+    }
+
+
+    private void ackSequence(long sequence)
+    {
+        Segment segment = getSegment(sequence);
+        if ( segment != null && segment.ack(sequence) && forceWrites ) {
+            segment.force();
+        }
+    }
+
+
+    private void setConsumerOffset(long offset)
+    {
+        consumerOffset = offset;
+        offsetFile.putLong(0, offset);
+        if ( forceWrites ) {
+            offsetFile.force();
+        }
+    }
+
+
+    private Segment getSegment(long sequence)
+    {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+        return entry != null && entry.getValue().contains(sequence) ? entry.getValue() : null;
+    }
+
+
+    /**
+     * Read any messages appended to the last segment by other processes, and open any segments they have started
+     * since. The caller must hold the append lock.
+     */
+    private void refresh()
+        throws IOException
+    {
+        Segment last = segments.lastEntry().getValue();
+        last.refresh();
+        // a segment is only started once the one before it is full, so an empty segment is always the last
+        while ( last.getRecordCount() > 0 && Segment.exists(directory, last.getNextSequence()) ) {
+            last.seal();
+            last = addSegment(last.getNextSequence());
+            last.refresh();
+        }
+    }
+
+
+    /**
+     * Open a segment and make it the last in the log. A queue that is only appended to has no use for the segments
+     * before it, so they are dropped, leaving them to the consumer to delete.
+     */
+    private Segment addSegment(long baseSequence)
+        throws IOException
+    {
+        Segment segment = Segment.open(directory, baseSequence, segmentSize);
+        segments.put(baseSequence, segment);
+        if ( consumers == 0 ) {
+            segments.headMap(baseSequence).clear();
+        }
+        return segment;
+    }
+
+
+    /**
+     * Open the existing segments, starting a segment at the consumer offset if there are none. The caller must hold
+     * the append lock.
+     */
+    private void openSegments()
+        throws IOException
+    {
+        segments.clear();
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+            for ( Path file : files ) {
+                String fileName = file.getFileName().toString();
+                bases.add(Long.parseLong(fileName.substring(0, fileName.length() - 4)));
+            }
+        }
+        Collections.sort(bases);
+        for ( Iterator<Long> iterator = bases.iterator(); iterator.hasNext(); ) {
+            Segment segment = Segment.open(directory, iterator.next(), segmentSize);
+            if ( iterator.hasNext() ) {
+                segment.seal();
+            }
+            segments.put(segment.getBaseSequence(), segment);
+        }
+        if ( segments.isEmpty() ) {
+            segments.put(consumerOffset, Segment.open(directory, consumerOffset, segmentSize));
+        }
+    }
+
+
+    /**
+     * Every message before the consumer offset that was not acknowledged was in progress when the queue was last
+     * consumed from, so is queued for redelivery.
+     */
+    private void queueRedeliveries()
+    {
+        inFlight.clear();
+        redeliveries.clear();
+        relocated.clear();
+        for ( Segment segment : segments.values() ) {
+            long end = Math.min(segment.getNextSequence(), consumerOffset);
+            for ( long sequence = segment.getBaseSequence(); sequence < end; sequence++ ) {
+                if ( !segment.isAcked(sequence) ) {
+                    redeliveries.add(sequence);
+                }
+            }
+        }
+        if ( !redeliveries.isEmpty() ) {
+            LOG.info("Redelivering {} messages of queue {} that were in progress when it was last consumed", redeliveries.size(), name);
+        }
+    }
+
+
+    /**
+     * A message handed to a consumer, identified by a delivery id until it is acknowledged or requeued.
+     */
+    static final class Delivery
+    {
+        private final long deliveryId;
+        private final FileQueueRecord record;
+
+
+        Delivery(long deliveryId, FileQueueRecord record)
+        {
+            this.deliveryId = deliveryId;
+            this.record = record;
+        }
+
+
+        long getDeliveryId()
+        {
+            return deliveryId;
+        }
+
+
+        FileQueueRecord getRecord()
+        {
+            return record;
+        }
+    }
+}
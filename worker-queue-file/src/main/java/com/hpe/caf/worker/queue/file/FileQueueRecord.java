@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * A message read back from a FileQueue.
+ */
+final class FileQueueRecord
+{
+    private final long sequence;
+    private final byte[] body;
+    private final Map<String, Object> headers;
+    private final boolean redelivered;
+
+
+    FileQueueRecord(long sequence, byte[] body, Map<String, Object> headers, boolean redelivered)
+    {
+        this.sequence = sequence;
+        this.body = Objects.requireNonNull(body);
+        this.headers = Collections.unmodifiableMap(headers);
+        this.redelivered = redelivered;
+    }
+
+
+    /**
+     * @return the position of the message in the queue's log
+     */
+    long getSequence()
+    {
+        return sequence;
+    }
+
+
+    byte[] getBody()
+    {
+        return body;
+    }
+
+
+    /**
+     * @return the headers of the message, whose values are always strings
+     */
+    Map<String, Object> getHeaders()
+    {
+        return headers;
+    }
+
+
+    /**
+     * @return true if the message was delivered before, and was rejected or not acknowledged before the worker stopped
+     */
+    boolean isRedelivered()
+    {
+        return redelivered;
+    }
+}
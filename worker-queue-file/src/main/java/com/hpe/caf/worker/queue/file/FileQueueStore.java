@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The FileQueues open in this JVM, so that workers sharing a data directory share its queues, and a worker publishing
+ * to a queue another worker consumes from appends straight to that worker's log. Each queue is counted every time it
+ * is got, and is closed once it has been released as many times.
+ */
+final class FileQueueStore
+{
+    private static final Map<Path, FileQueue> QUEUES = new HashMap<>();
+    private static final Map<Path, Integer> REFERENCES = new HashMap<>();
+
+
+    private FileQueueStore()
+    {
+    }
+
+
+    /**
+     * Get a queue, opening or creating it if it is not open yet. Each call must be matched by a call to releaseQueue.
+     * @param dataDir the directory holding the queues
+     * @param name the name of the queue, which is also the name of its directory
+     * @param segmentSize the size of each segment file in bytes
+     * @param forceWrites whether to flush every change to disk before returning
+     * @return the queue
+     * @throws IOException if the name is not a valid directory name, or the queue cannot be opened
+     */
+    static synchronized FileQueue getQueue(String dataDir, String name, int segmentSize, boolean forceWrites)
+        throws IOException
+    {
+        Path root = Paths.get(dataDir).toAbsolutePath().normalize();
+        Path directory = root.resolve(name).normalize();
+        if ( !root.equals(directory.getParent()) ) {
+            throw new IOException("Queue name " + name + " is not a valid directory name");
+        }
+        FileQueue queue = QUEUES.get(directory);
+        if ( queue == null ) {
+            queue = new FileQueue(name, directory, segmentSize, forceWrites);
+            QUEUES.put(directory, queue);
+        }
+        REFERENCES.merge(directory, 1, Integer::sum);
+        return queue;
+    }
+
+
+    /**
+     * Release a queue got from getQueue, closing it if nothing else in this JVM is still using it.
+     * @param queue the queue
+     * @throws IOException if the queue is closed and cannot be flushed to disk
+     */
+    static synchronized void releaseQueue(FileQueue queue)
+        throws IOException
+    {
+        Path directory = queue.getDirectory();
+        if ( QUEUES.get(directory) != queue ) {
+            return;
+        }
+        int references = REFERENCES.merge(directory, -1, Integer::sum);
+        if ( references > 0 ) {
+            return;
+        }
+        QUEUES.remove(directory);
+        REFERENCES.remove(directory);
+        queue.close();
+    }
+}
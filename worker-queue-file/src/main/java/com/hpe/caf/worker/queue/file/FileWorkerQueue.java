@@ -0,0 +1,450 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import com.hpe.caf.api.HealthResult;
+import com.hpe.caf.api.HealthStatus;
+import com.hpe.caf.api.worker.InvalidTaskException;
+import com.hpe.caf.api.worker.ManagedWorkerQueue;
+import com.hpe.caf.api.worker.QueueException;
+import com.hpe.caf.api.worker.TaskCallback;
+import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.api.worker.WorkerQueueMetricsReporter;
+import com.hpe.caf.util.rabbitmq.RabbitHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A WorkerQueue that keeps its queues on local disk, for deployments without a message broker. Each queue is a log of
+ * memory-mapped segment files in a directory of its own under the data directory, which records the messages that
+ * have been delivered and acknowledged, so that messages in progress when the worker stopped are redelivered when it
+ * starts again. See FileQueue for the details.
+ *
+ * The semantics follow RabbitWorkerQueue. The number of unacknowledged messages is limited to the number of tasks the
+ * worker runs at once plus the prefetch buffer. Rejected tasks are returned to the input queue marked as redelivered,
+ * and redelivered messages are republished to the retry queue with a retry count, or marked as rejected once the retry
+ * limit is reached. Messages the worker cannot take at the moment are appended to the input queue again after a
+ * pause, which doubles with each consecutive rejection, so that the consumer does not keep appending copies of them
+ * while the worker has no capacity. The message a result is published for is acknowledged as soon as the result has
+ * been appended to the target queue.
+ *
+ * Only the input queue is consumed from, so other processes may publish to it, and this worker only appends to the
+ * queues it publishes to, which other processes may consume from. Every queue opened is closed again on shutdown.
+ */
+public final class FileWorkerQueue implements ManagedWorkerQueue
+{
+    public static final String REJECTED_REASON_TASKMESSAGE = "TASKMESSAGE_INVALID";
+    public static final String REJECTED_REASON_RETRIES_EXCEEDED = "RETRIES_EXCEEDED";
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long MIN_REJECT_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_REJECT_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MILLIS);
+    private final FileWorkerQueueConfiguration config;
+    private final FileQueue inputQueue;
+    private final Semaphore prefetch;
+    private final FileMetricsReporter metrics = new FileMetricsReporter();
+    private final Map<String, FileQueue> openQueues = new HashMap<>();
+    private volatile boolean consuming;
+    private TaskCallback callback;
+    private Thread consumerThread;
+    private ScheduledExecutorService compactionTimer;
+    private long rejectBackoffNanos;
+    private static final Logger LOG = LoggerFactory.getLogger(FileWorkerQueue.class);
+
+
+    /**
+     * Setup a new FileWorkerQueue, opening the input queue and redelivering anything left in progress when it was
+     * last used.
+     * @throws QueueException if the input queue cannot be opened, or another process is consuming from it
+     */
+    public FileWorkerQueue(FileWorkerQueueConfiguration config, int maxTasks)
+        throws QueueException
+    {
+        this.config = Objects.requireNonNull(config);
+        this.inputQueue = getQueue(config.getInputQueue());
+        try {
+            inputQueue.startConsuming();
+        } catch (IOException e) {
+            closeQueues();
+            throw new QueueException("Cannot consume from queue " + config.getInputQueue(), e);
+        }
+        this.prefetch = new Semaphore(Math.max(1, maxTasks + config.getPrefetchBuffer()));
+        metrics.addMetric("inFlight", inputQueue::getInFlightCount);
+        metrics.addMetric("queueDepth", inputQueue::getDepth);
+        metrics.addMetric("segments", inputQueue::getSegmentCount);
+        LOG.debug("Initialised");
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * Start a thread that takes messages from the input queue and hands them to worker-core, and a timer that compacts
+     * the input queue.
+     */
+    @Override
+    public synchronized void start(TaskCallback callback)
+        throws QueueException
+    {
+        if ( consumerThread != null ) {
+            throw new IllegalStateException("Already started");
+        }
+        this.callback = Objects.requireNonNull(callback);
+        consuming = true;
+        compactionTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "file-queue-compaction-" + config.getInputQueue());
+            t.setDaemon(true);
+            return t;
+        });
+        compactionTimer.scheduleWithFixedDelay(this::compact, config.getCompactionInterval(), config.getCompactionInterval(),
+                                               TimeUnit.MILLISECONDS);
+        consumerThread = new Thread(this::consume, "file-queue-consumer-" + config.getInputQueue());
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+
+    @Override
+    public void publish(String acknowledgeId, byte[] taskMessage, String targetQueue, Map<String, Object> headers)
+        throws QueueException
+    {
+        try {
+            getQueue(targetQueue).append(taskMessage, headers, false);
+        } catch (IOException e) {
+            metrics.incrementErrors();
+            throw new QueueException("Failed to publish message to " + targetQueue, e);
+        }
+        metrics.incrementPublished();
+        acknowledgeTask(acknowledgeId);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * Return the message to the back of the input queue, marked as redelivered.
+     */
+    @Override
+    public void rejectTask(String messageId)
+    {
+        try {
+            if ( inputQueue.requeue(Long.parseLong(messageId), true) ) {
+                LOG.debug("Rejecting message {}", messageId);
+                metrics.incrementRejected();
+                prefetch.release();
+            } else {
+                LOG.warn("Message {} is not in flight, ignoring rejection", messageId);
+            }
+        } catch (IOException e) {
+            metrics.incrementErrors();
+            LOG.error("Failed to reject message {}", messageId, e);
+        }
+    }
+
+
+    @Override
+    public void discardTask(String messageId)
+    {
+        LOG.warn("Discarding message {}", messageId);
+        if ( complete(messageId) ) {
+            metrics.incrementDropped();
+        }
+    }
+
+
+    @Override
+    public void acknowledgeTask(String messageId)
+    {
+        complete(messageId);
+    }
+
+
+    @Override
+    public String getInputQueue()
+    {
+        return config.getInputQueue();
+    }
+
+
+    @Override
+    public void shutdownIncoming()
+    {
+        LOG.debug("Closing incoming queue");
+        consuming = false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * Any messages still in progress are left unacknowledged, so they will be redelivered. Every queue this worker
+     * opened is closed, unless another worker in this process is still using it.
+     */
+    @Override
+    public void shutdown()
+    {
+        LOG.debug("Shutting down");
+        shutdownIncoming();
+        Thread thread;
+        synchronized (this) {
+            thread = consumerThread;
+            if ( compactionTimer != null ) {
+                compactionTimer.shutdownNow();
+            }
+        }
+        if ( thread != null ) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        inputQueue.releaseAll();
+        try {
+            inputQueue.stopConsuming();
+        } catch (IOException e) {
+            metrics.incrementErrors();
+            LOG.warn("Failed to stop consuming from queue {}", config.getInputQueue(), e);
+        }
+        closeQueues();
+    }
+
+
+    @Override
+    public WorkerQueueMetricsReporter getMetrics()
+    {
+        return metrics;
+    }
+
+
+    @Override
+    public synchronized HealthResult healthCheck()
+    {
+        if ( consumerThread == null || !consumerThread.isAlive() ) {
+            return new HealthResult(HealthStatus.UNHEALTHY, "File queue consumer thread not running");
+        }
+        return HealthResult.RESULT_HEALTHY;
+    }
+
+
+    private void consume()
+    {
+        while ( consuming ) {
+            try {
+                if ( !prefetch.tryAcquire(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS) ) {
+                    continue;
+                }
+                FileQueue.Delivery delivery = inputQueue.take(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if ( delivery == null ) {
+                    prefetch.release();
+                } else {
+                    deliver(delivery);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                metrics.incrementErrors();
+                prefetch.release();
+                LOG.error("Failed to read from queue {}", config.getInputQueue(), e);
+            }
+        }
+        LOG.debug("Consumer thread finished");
+    }
+
+
+    /**
+     * Handle a delivery. If that fails part way, for instance because a message cannot be republished, the delivery is
+     * released to be delivered again, so that it is not left in progress once its permit has been given back. The
+     * consumer then pauses for the poll interval, so that a failure that persists does not keep it spinning.
+     */
+    private void deliver(FileQueue.Delivery delivery)
+        throws InterruptedException
+    {
+        try {
+            handleDelivery(delivery);
+        } catch (IOException e) {
+            metrics.incrementErrors();
+            LOG.error("Failed to handle message {} from queue {}, returning it to the queue", delivery.getDeliveryId(),
+                      config.getInputQueue(), e);
+            if ( inputQueue.release(delivery.getDeliveryId()) ) {
+                prefetch.release();
+            }
+            TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+
+    private void handleDelivery(FileQueue.Delivery delivery)
+        throws IOException
+    {
+        metrics.incrementReceived();
+        String messageId = String.valueOf(delivery.getDeliveryId());
+        FileQueueRecord record = delivery.getRecord();
+        if ( record.isRedelivered() ) {
+            handleRedelivery(record, messageId);
+            return;
+        }
+        try {
+            LOG.debug("Registering new message {}", messageId);
+            callback.registerNewTask(messageId, record.getBody(), record.getHeaders());
+            rejectBackoffNanos = 0;
+        } catch (InvalidTaskException e) {
+            LOG.error("Cannot register new message, rejecting {}", messageId, e);
+            publishInternal(config.getRetryQueue(), record.getBody(),
+                            Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED, REJECTED_REASON_TASKMESSAGE));
+            complete(messageId);
+        } catch (TaskRejectedException e) {
+            LOG.warn("Message {} rejected as a task at this time, returning to queue", messageId, e);
+            backOff();
+            if ( inputQueue.requeue(delivery.getDeliveryId(), false) ) {
+                prefetch.release();
+            }
+        }
+    }
+
+
+    /**
+     * Pause the consumer thread after a message is rejected as a task at this time, so that it is not immediately
+     * appended to the input queue again and taken straight back while the worker has no capacity. The pause starts
+     * short and doubles with each consecutive rejection, up to the poll interval, and is reset once a message is
+     * accepted.
+     */
+    private void backOff()
+    {
+        rejectBackoffNanos = rejectBackoffNanos == 0
+                             ? MIN_REJECT_BACKOFF_NANOS : Math.min(rejectBackoffNanos * 2, MAX_REJECT_BACKOFF_NANOS);
+        LockSupport.parkNanos(rejectBackoffNanos);
+    }
+
+
+    /**
+     * If a message has been retried as many times as the retry limit allows, republish it to the retry queue with a
+     * rejected reason stamped in the headers. Otherwise republish it to the retry queue with the retry count stamped
+     * in the headers.
+     */
+    private void handleRedelivery(FileQueueRecord record, String messageId)
+        throws IOException
+    {
+        int retries = Integer.parseInt(String.valueOf(record.getHeaders().getOrDefault(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, "0")));
+        Map<String, Object> headers = new HashMap<>();
+        if ( retries >= config.getRetryLimit() ) {
+            LOG.debug("Retry exceeded for message with id {}, republishing to rejected queue", messageId);
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, String.valueOf(retries));
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED, REJECTED_REASON_RETRIES_EXCEEDED);
+        } else {
+            LOG.debug("Received redelivered message with id {}, retry count {}, retry limit {}, republishing to retry queue",
+                      messageId, retries + 1, config.getRetryLimit());
+            metrics.incrementRetried();
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, String.valueOf(retries + 1));
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY_LIMIT, config.getRetryLimit());
+        }
+        publishInternal(config.getRetryQueue(), record.getBody(), headers);
+        complete(messageId);
+    }
+
+
+    private void publishInternal(String targetQueue, byte[] body, Map<String, Object> headers)
+        throws IOException
+    {
+        try {
+            getQueue(targetQueue).append(body, headers, false);
+        } catch (QueueException e) {
+            throw new IOException(e);
+        }
+        metrics.incrementPublished();
+    }
+
+
+    /**
+     * Acknowledge a message, which frees up space for another to be taken from the input queue.
+     * @return false if the message was not in flight
+     */
+    private boolean complete(String messageId)
+    {
+        try {
+            if ( inputQueue.ack(Long.parseLong(messageId)) ) {
+                prefetch.release();
+                return true;
+            }
+            LOG.warn("Message {} is not in flight, ignoring", messageId);
+        } catch (IOException e) {
+            metrics.incrementErrors();
+            LOG.error("Failed to acknowledge message {}", messageId, e);
+        }
+        return false;
+    }
+
+
+    private void compact()
+    {
+        try {
+            inputQueue.compact(config.getCompactionThreshold() / 100.0);
+        } catch (IOException | RuntimeException e) {
+            metrics.incrementErrors();
+            LOG.warn("Failed to compact queue {}", config.getInputQueue(), e);
+        }
+    }
+
+
+    /**
+     * Get a queue, opening it the first time this worker uses it.
+     */
+    private FileQueue getQueue(String name)
+        throws QueueException
+    {
+        synchronized (openQueues) {
+            FileQueue queue = openQueues.get(name);
+            if ( queue == null ) {
+                try {
+                    queue = FileQueueStore.getQueue(config.getDataDir(), name, config.getSegmentSize(), config.isForceWrites());
+                } catch (IOException e) {
+                    throw new QueueException("Cannot open queue " + name, e);
+                }
+                openQueues.put(name, queue);
+            }
+            return queue;
+        }
+    }
+
+
+    private void closeQueues()
+    {
+        synchronized (openQueues) {
+            for ( FileQueue queue : openQueues.values() ) {
+                try {
+                    FileQueueStore.releaseQueue(queue);
+                } catch (IOException e) {
+                    metrics.incrementErrors();
+                    LOG.warn("Failed to close queue {}", queue.getName(), e);
+                }
+            }
+            openQueues.clear();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import com.hpe.caf.api.Configuration;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+
+/**
+ * Configuration for the worker-queue-file module.
+ */
+@Configuration
+public class FileWorkerQueueConfiguration
+{
+    /**
+     * The directory holding the queues, each in a directory of its own.
+     */
+    @NotNull
+    @Size(min = 1)
+    private String dataDir;
+    /**
+     * The number of messages taken from the input queue is limited to the number of tasks the worker runs at once
+     * plus this buffer.
+     */
+    @Min(0)
+    @Max(100000)
+    private int prefetchBuffer;
+    /**
+     * The queue to retrieve messages from.
+     */
+    @NotNull
+    @Size(min = 1)
+    private String inputQueue;
+    /**
+     * The queue to put redelivered messages on. If this null, the inputQueue will be used.
+     */
+    private String retryQueue;
+    /**
+     * The maximum number of times for redelivered messages to be retried before they are marked as rejected.
+     */
+    @Min(1)
+    private int retryLimit;
+    /**
+     * The size in bytes of each segment file of a queue's log, which also limits the size of a message.
+     */
+    @Min(65536)
+    @Max(1073741824)
+    private int segmentSize = 64 * 1024 * 1024;
+    /**
+     * Whether every change to a queue is flushed to disk before it is acknowledged to the caller. Otherwise changes
+     * are written back by the operating system, which survives the worker failing but not the machine.
+     */
+    private boolean forceWrites;
+    /**
+     * How often, in milliseconds, the input queue's acknowledged segments are deleted and sparse segments compacted.
+     */
+    @Min(100)
+    @Max(3600000)
+    private long compactionInterval = 10000;
+    /**
+     * The percentage of messages still in progress in a full segment below which it is compacted.
+     */
+    @Min(0)
+    @Max(100)
+    private int compactionThreshold = 10;
+
+
+    public FileWorkerQueueConfiguration() { }
+
+
+    public String getDataDir()
+    {
+        return dataDir;
+    }
+
+
+    public void setDataDir(String dataDir)
+    {
+        this.dataDir = dataDir;
+    }
+
+
+    public int getPrefetchBuffer()
+    {
+        return prefetchBuffer;
+    }
+
+
+    public void setPrefetchBuffer(int prefetchBuffer)
+    {
+        this.prefetchBuffer = prefetchBuffer;
+    }
+
+
+    public String getInputQueue()
+    {
+        return inputQueue;
+    }
+
+
+    public void setInputQueue(String inputQueue)
+    {
+        this.inputQueue = inputQueue;
+    }
+
+
+    public String getRetryQueue()
+    {
+        return retryQueue == null ? inputQueue : retryQueue;
+    }
+
+
+    public void setRetryQueue(String retryQueue)
+    {
+        this.retryQueue = retryQueue;
+    }
+
+
+    public int getRetryLimit()
+    {
+        return retryLimit;
+    }
+
+
+    public void setRetryLimit(int retryLimit)
+    {
+        this.retryLimit = retryLimit;
+    }
+
+
+    public int getSegmentSize()
+    {
+        return segmentSize;
+    }
+
+
+    public void setSegmentSize(int segmentSize)
+    {
+        this.segmentSize = segmentSize;
+    }
+
+
+    public boolean isForceWrites()
+    {
+        return forceWrites;
+    }
+
+
+    public void setForceWrites(boolean forceWrites)
+    {
+        this.forceWrites = forceWrites;
+    }
+
+
+    public long getCompactionInterval()
+    {
+        return compactionInterval;
+    }
+
+
+    public void setCompactionInterval(long compactionInterval)
+    {
+        this.compactionInterval = compactionInterval;
+    }
+
+
+    public int getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+
+    public void setCompactionThreshold(int compactionThreshold)
+    {
+        this.compactionThreshold = compactionThreshold;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import com.hpe.caf.api.ConfigurationException;
+import com.hpe.caf.api.ConfigurationSource;
+import com.hpe.caf.api.worker.ManagedWorkerQueue;
+import com.hpe.caf.api.worker.QueueException;
+import com.hpe.caf.api.worker.WorkerQueueProvider;
+
+
+public class FileWorkerQueueProvider implements WorkerQueueProvider
+{
+    /**
+     * Return a FileWorkerQueue. Workers in the same JVM with the same data directory share their queues, so one
+     * worker can consume the results another publishes.
+     */
+    @Override
+    public ManagedWorkerQueue getWorkerQueue(final ConfigurationSource configurationSource, final int maxTasks)
+            throws QueueException
+    {
+        try {
+            return new FileWorkerQueue(configurationSource.getConfiguration(FileWorkerQueueConfiguration.class), maxTasks);
+        } catch (ConfigurationException e) {
+            throw new QueueException("Cannot create worker queue", e);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+/**
+ * One segment of a FileQueue's log: an append-only file of messages of fixed capacity, mapped into memory, with a
+ * bitmap file alongside it recording which of its messages have been acknowledged. Each record is laid out as
+ * <pre>
+ * int length | int crc32 | byte flags | int headers length | headers | body
+ * </pre>
+ * where the length and checksum cover everything after the checksum. A record is always followed by a zero length,
+ * so when a segment is reopened it is read up to the first zero length, and a record that was only partly written
+ * when the process stopped is detected by its checksum and overwritten by the next append.
+ *
+ * This class is not thread safe; the FileQueue serialises access to its segments.
+ */
+final class Segment
+{
+    static final byte FLAG_REDELIVERED = 1;
+    private static final int RECORD_HEADER_SIZE = 13;
+    private static final int MIN_RECORD_SIZE = RECORD_HEADER_SIZE + 2;
+    private final Path dataFile;
+    private final Path ackFile;
+    private final long baseSequence;
+    private final MappedByteBuffer data;
+    private final MappedByteBuffer acks;
+    private final BitSet acked = new BitSet();
+    private int[] positions = new int[64];
+    private int recordCount;
+    private int ackedCount;
+    private int writePosition;
+    private boolean sealed;
+    private static final Logger LOG = LoggerFactory.getLogger(Segment.class);
+
+
+    private Segment(Path directory, long baseSequence, int capacity)
+        throws IOException
+    {
+        this.baseSequence = baseSequence;
+        this.dataFile = directory.resolve(String.format("%020d.seg", baseSequence));
+        this.ackFile = directory.resolve(String.format("%020d.ack", baseSequence));
+        if ( Files.exists(dataFile) ) {
+            // an existing segment keeps its size, even if the configured segment size has changed since
+            capacity = (int)Files.size(dataFile);
+        }
+        this.data = map(dataFile, capacity);
+        this.acks = map(ackFile, capacity / MIN_RECORD_SIZE / 8 + 1);
+    }
+
+
+    /**
+     * Open a segment, creating its files if they do not exist, and read back any records already in it.
+     * @param directory the directory of the queue
+     * @param baseSequence the sequence number of the first record in the segment
+     * @param capacity the size of the segment file in bytes
+     * @return the segment
+     * @throws IOException if the files cannot be created or mapped
+     */
+    static Segment open(Path directory, long baseSequence, int capacity)
+        throws IOException
+    {
+        Segment segment = new Segment(directory, baseSequence, capacity);
+        segment.recover();
+        return segment;
+    }
+
+
+    /**
+     * @return true if the files of the segment starting at the given sequence number exist
+     */
+    static boolean exists(Path directory, long baseSequence)
+    {
+        return Files.exists(directory.resolve(String.format("%020d.seg", baseSequence)));
+    }
+
+
+    /**
+     * @return the maximum size of a body and serialised headers that fit in a segment of the given capacity
+     */
+    static int getMaxPayloadSize(int capacity)
+    {
+        // leave room for the zero length that terminates the records
+        return capacity - RECORD_HEADER_SIZE - 4;
+    }
+
+
+    /**
+     * Append a message to the segment.
+     * @return the sequence number of the message, or -1 if the segment does not have room for it
+     */
+    long append(byte flags, byte[] headers, byte[] body)
+    {
+        if ( sealed ) {
+            throw new IllegalStateException("Segment " + baseSequence + " is sealed");
+        }
+        int length = 1 + 4 + headers.length + body.length;
+        if ( writePosition + 8 + length + 4 > data.capacity() ) {
+            return -1;
+        }
+        ByteBuffer record = data.duplicate();
+        record.position(writePosition + 8);
+        record.put(flags);
+        record.putInt(headers.length);
+        record.put(headers);
+        record.put(body);
+        int end = record.position();
+        record.putInt(0);
+        data.putInt(writePosition + 4, checksum(writePosition + 8, length));
+        // the length is written last, so that a partly written record is never taken for a complete one
+        data.putInt(writePosition, length);
+        addPosition(writePosition);
+        writePosition = end;
+        return baseSequence + recordCount - 1;
+    }
+
+
+    /**
+     * Read a record back.
+     * @param sequence the sequence number of the record, which must be in this segment
+     */
+    FileQueueRecord read(long sequence)
+        throws IOException
+    {
+        int position = positions[index(sequence)];
+        int length = data.getInt(position);
+        ByteBuffer record = data.duplicate();
+        record.position(position + 8);
+        byte flags = record.get();
+        byte[] headers = new byte[record.getInt()];
+        record.get(headers);
+        byte[] body = new byte[length - 5 - headers.length];
+        record.get(body);
+        return new FileQueueRecord(sequence, body, deserialiseHeaders(headers), (flags & FLAG_REDELIVERED) != 0);
+    }
+
+
+    /**
+     * Record that a message has been acknowledged.
+     * @return false if it had already been acknowledged
+     */
+    boolean ack(long sequence)
+    {
+        int index = index(sequence);
+        if ( acked.get(index) ) {
+            return false;
+        }
+        acked.set(index);
+        ackedCount++;
+        acks.put(index / 8, (byte)(acks.get(index / 8) | (1 << (index % 8))));
+        return true;
+    }
+
+
+    boolean isAcked(long sequence)
+    {
+        return acked.get(index(sequence));
+    }
+
+
+    boolean contains(long sequence)
+    {
+        return sequence >= baseSequence && sequence < baseSequence + recordCount;
+    }
+
+
+    long getBaseSequence()
+    {
+        return baseSequence;
+    }
+
+
+    /**
+     * @return the sequence number the next record appended to the segment will have
+     */
+    long getNextSequence()
+    {
+        return baseSequence + recordCount;
+    }
+
+
+    int getRecordCount()
+    {
+        return recordCount;
+    }
+
+
+    /**
+     * @return the number of records that have not been acknowledged
+     */
+    int getLiveCount()
+    {
+        return recordCount - ackedCount;
+    }
+
+
+    /**
+     * Read any records appended to the segment by another process since it was opened or last refreshed. The caller
+     * must hold the queue's append lock, so that no record is being written meanwhile.
+     */
+    void refresh()
+    {
+        readRecords(writePosition);
+    }
+
+
+    /**
+     * Stop appending to this segment, as the log has moved on to the next one.
+     */
+    void seal()
+    {
+        sealed = true;
+    }
+
+
+    boolean isSealed()
+    {
+        return sealed;
+    }
+
+
+    /**
+     * Flush the segment's records and acknowledgements to disk.
+     */
+    void force()
+    {
+        data.force();
+        acks.force();
+    }
+
+
+    /**
+     * Delete the segment's files. The mapping itself is released when the buffers are garbage collected.
+     */
+    void delete()
+        throws IOException
+    {
+        Files.deleteIfExists(dataFile);
+        Files.deleteIfExists(ackFile);
+    }
+
+
+    static byte[] serialiseHeaders(Map<String, Object> headers)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(headers.size());
+            for ( Map.Entry<String, Object> header : headers.entrySet() ) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(String.valueOf(header.getValue()));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot serialise message headers", e);
+        }
+        return bytes.toByteArray();
+    }
+
+
+    private static Map<String, Object> deserialiseHeaders(byte[] headers)
+        throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(headers))) {
+            int count = in.readUnsignedShort();
+            Map<String, Object> result = new HashMap<>(count * 2);
+            for ( int i = 0; i < count; i++ ) {
+                result.put(in.readUTF(), in.readUTF());
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     * Rebuild the record index and acknowledgements from the files, stopping at the first zero length or at a
+     * record that does not match its checksum.
+     */
+    private void recover()
+    {
+        readRecords(0);
+        for ( int i = 0; i < recordCount; i++ ) {
+            if ( (acks.get(i / 8) & (1 << (i % 8))) != 0 ) {
+                acked.set(i);
+                ackedCount++;
+            }
+        }
+    }
+
+
+    private void readRecords(int start)
+    {
+        int position = start;
+        while ( position + 8 <= data.capacity() ) {
+            int length = data.getInt(position);
+            if ( length == 0 ) {
+                break;
+            }
+            if ( length < 5 || position + 8 + length > data.capacity() || data.getInt(position + 4) != checksum(position + 8, length) ) {
+                LOG.warn("Discarding incomplete record at position {} of {}", position, dataFile);
+                data.putInt(position, 0);
+                break;
+            }
+            addPosition(position);
+            position += 8 + length;
+        }
+        writePosition = position;
+    }
+
+
+    private int checksum(int position, int length)
+    {
+        ByteBuffer record = data.duplicate();
+        record.limit(position + length);
+        record.position(position);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int)crc.getValue();
+    }
+
+
+    private void addPosition(int position)
+    {
+        if ( recordCount == positions.length ) {
+            positions = Arrays.copyOf(positions, recordCount * 2);
+        }
+        positions[recordCount++] = position;
+    }
+
+
+    private int index(long sequence)
+    {
+        if ( !contains(sequence) ) {
+            throw new IllegalArgumentException("Record " + sequence + " is not in segment " + baseSequence);
+        }
+        return (int)(sequence - baseSequence);
+    }
+
+
+    private static MappedByteBuffer map(Path file, int size)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+public class FileQueueTest
+{
+    private static final int SEGMENT_SIZE = 65536;
+    private Path directory;
+
+
+    @BeforeMethod
+    public void setUp()
+        throws IOException
+    {
+        directory = Files.createTempDirectory("filequeue");
+    }
+
+
+    @AfterMethod
+    public void tearDown()
+        throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+
+    @Test
+    public void testAppendAndTake()
+        throws IOException, InterruptedException
+    {
+        FileQueue queue = openConsumer();
+        queue.append(getData(1), Collections.singletonMap("key", 5), false);
+        queue.append(getData(2), Collections.emptyMap(), false);
+        Assert.assertEquals(queue.getDepth(), 2);
+        FileQueue.Delivery first = queue.take(1, TimeUnit.SECONDS);
+        Assert.assertEquals(first.getRecord().getBody(), getData(1));
+        Assert.assertEquals(first.getRecord().getHeaders().get("key"), "5");
+        Assert.assertFalse(first.getRecord().isRedelivered());
+        FileQueue.Delivery second = queue.take(1, TimeUnit.SECONDS);
+        Assert.assertEquals(second.getRecord().getBody(), getData(2));
+        Assert.assertNull(queue.take(10, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(queue.ack(first.getDeliveryId()));
+        Assert.assertFalse(queue.ack(first.getDeliveryId()));
+        queue.close();
+    }
+
+
+    @Test
+    public void testRecoveryRedeliversUnacknowledged()
+        throws IOException, InterruptedException
+    {
+        FileQueue queue = openConsumer();
+        for ( int i = 1; i <= 4; i++ ) {
+            queue.append(getData(i), Collections.emptyMap(), false);
+        }
+        queue.ack(queue.take(1, TimeUnit.SECONDS).getDeliveryId());
+        queue.take(1, TimeUnit.SECONDS);
+        queue.close();
+
+        FileQueue reopened = openConsumer();
+        Assert.assertEquals(reopened.getDepth(), 3);
+        FileQueue.Delivery redelivered = reopened.take(1, TimeUnit.SECONDS);
+        Assert.assertEquals(redelivered.getRecord().getBody(), getData(2));
+        Assert.assertTrue(redelivered.getRecord().isRedelivered());
+        FileQueue.Delivery next = reopened.take(1, TimeUnit.SECONDS);
+        Assert.assertEquals(next.getRecord().getBody(), getData(3));
+        Assert.assertFalse(next.getRecord().isRedelivered());
+        reopened.close();
+    }
+
+
+    @Test
+    public void testRecoveryDiscardsIncompleteRecord()
+        throws IOException, InterruptedException
+    {
+        FileQueue queue = openConsumer();
+        queue.append(getData(1), Collections.emptyMap(), false);
+        queue.append(getData(2), Collections.emptyMap(), false);
+        queue.close();
+        // corrupt the body of the second record, as if the machine failed while it was being written
+        Path segment = directory.resolve(String.format("%020d.seg", 0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            length.flip();
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), 8 + length.getInt() + 8 + 6);
+        }
+
+        FileQueue reopened = openConsumer();
+        Assert.assertEquals(reopened.take(1, TimeUnit.SECONDS).getRecord().getBody(), getData(1));
+        Assert.assertNull(reopened.take(10, TimeUnit.MILLISECONDS));
+        reopened.append(getData(3), Collections.emptyMap(), false);
+        Assert.assertEquals(reopened.take(1, TimeUnit.SECONDS).getRecord().getBody(), getData(3));
+        reopened.close();
+    }
+
+
+    @Test
+    public void testSegmentsRolledAndDeleted()
+        throws IOException, InterruptedException
+    {
+        FileQueue queue = openConsumer();
+        byte[] body = new byte[10000];
+        for ( int i = 0; i < 20; i++ ) {
+            queue.append(body, Collections.emptyMap(), false);
+        }
+        Assert.assertTrue(queue.getSegmentCount() > 1);
+        for ( int i = 0; i < 20; i++ ) {
+            queue.ack(queue.take(1, TimeUnit.SECONDS).getDeliveryId());
+        }
+        queue.compact(0.1);
+        Assert.assertEquals(queue.getSegmentCount(), 1);
+        Assert.assertEquals(countFiles("*.seg"), 1);
+        queue.close();
+    }
+
+
+    @Test
+    public void testCompactionRelocatesMessagesInProgress()
+        throws IOException, InterruptedException
+    {
+        FileQueue queue = openConsumer();
+        byte[] body = new byte[1000];
+        for ( int i = 0; i < 100; i++ ) {
+            queue.append(body, Collections.emptyMap(), false);
+        }
+        queue.append(getData(1), Collections.emptyMap(), false);
+        FileQueue.Delivery pinned = queue.take(1, TimeUnit.SECONDS);
+        for ( int i = 1; i < 100; i++ ) {
+            queue.ack(queue.take(1, TimeUnit.SECONDS).getDeliveryId());
+        }
+        int segmentsBefore = queue.getSegmentCount();
+        queue.compact(0.1);
+        Assert.assertEquals(queue.getSegmentCount(), segmentsBefore - 1);
+        // the copy of the message in progress is skipped rather than delivered again
+        Assert.assertEquals(queue.take(1, TimeUnit.SECONDS).getRecord().getBody(), getData(1));
+        Assert.assertNull(queue.take(10, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(queue.ack(pinned.getDeliveryId()));
+        queue.close();
+    }
+
+
+    @Test
+    public void testRequeueMarksRedelivered()
+        throws IOException, InterruptedException
+    {
+        FileQueue queue = openConsumer();
+        queue.append(getData(1), Collections.emptyMap(), false);
+        FileQueue.Delivery delivery = queue.take(1, TimeUnit.SECONDS);
+        Assert.assertTrue(queue.requeue(delivery.getDeliveryId(), true));
+        FileQueue.Delivery redelivery = queue.take(1, TimeUnit.SECONDS);
+        Assert.assertEquals(redelivery.getRecord().getBody(), getData(1));
+        Assert.assertTrue(redelivery.getRecord().isRedelivered());
+        queue.close();
+    }
+
+
+    @Test(expectedExceptions = IOException.class)
+    public void testQueueLocked()
+        throws IOException
+    {
+        FileQueue queue = openConsumer();
+        try {
+            openConsumer();
+        } finally {
+            queue.close();
+        }
+    }
+
+
+    @Test
+    public void testAppendWhileAnotherQueueConsumes()
+        throws IOException, InterruptedException
+    {
+        FileQueue consumer = openConsumer();
+        // a queue opened only to append to, as another process would, does not take the consumer lock
+        FileQueue producer = new FileQueue("test", directory, SEGMENT_SIZE, false);
+        byte[] body = new byte[10000];
+        for ( int i = 0; i < 20; i++ ) {
+            producer.append(body, Collections.emptyMap(), false);
+            consumer.append(getData(i), Collections.emptyMap(), false);
+        }
+        Assert.assertEquals(producer.getSegmentCount(), 1);
+        // the consumer picks up the messages and segments the producer appended, in the order they were appended
+        for ( int i = 0; i < 20; i++ ) {
+            Assert.assertEquals(consumer.take(1, TimeUnit.SECONDS).getRecord().getBody(), body);
+            Assert.assertEquals(consumer.take(1, TimeUnit.SECONDS).getRecord().getBody(), getData(i));
+        }
+        Assert.assertNull(consumer.take(10, TimeUnit.MILLISECONDS));
+        producer.close();
+        consumer.close();
+    }
+
+
+    @Test
+    public void testReleaseRedelivers()
+        throws IOException, InterruptedException
+    {
+        FileQueue queue = openConsumer();
+        queue.append(getData(1), Collections.emptyMap(), false);
+        FileQueue.Delivery delivery = queue.take(1, TimeUnit.SECONDS);
+        Assert.assertTrue(queue.release(delivery.getDeliveryId()));
+        Assert.assertFalse(queue.release(delivery.getDeliveryId()));
+        Assert.assertEquals(queue.getInFlightCount(), 0);
+        FileQueue.Delivery redelivery = queue.take(1, TimeUnit.SECONDS);
+        Assert.assertEquals(redelivery.getRecord().getBody(), getData(1));
+        Assert.assertTrue(redelivery.getRecord().isRedelivered());
+        queue.close();
+    }
+
+
+    private FileQueue openConsumer()
+        throws IOException
+    {
+        FileQueue queue = new FileQueue("test", directory, SEGMENT_SIZE, false);
+        try {
+            queue.startConsuming();
+        } catch (IOException e) {
+            queue.close();
+            throw e;
+        }
+        return queue;
+    }
+
+
+    private long countFiles(String glob)
+        throws IOException
+    {
+        long count = 0;
+        try (java.nio.file.DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+            for ( Path ignored : files ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    private static byte[] getData(int i)
+    {
+        return ("message" + i).getBytes(StandardCharsets.UTF_8);
+    }
+}
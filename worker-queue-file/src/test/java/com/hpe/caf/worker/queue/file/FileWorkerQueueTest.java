@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.file;
+
+
+import com.hpe.caf.api.HealthStatus;
+import com.hpe.caf.api.worker.QueueException;
+import com.hpe.caf.api.worker.TaskCallback;
+import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.util.rabbitmq.RabbitHeaders;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+
+public class FileWorkerQueueTest
+{
+    private static final byte[] DATA = "test123".getBytes(StandardCharsets.UTF_8);
+    private Path dataDir;
+
+
+    @BeforeMethod
+    public void setUp()
+        throws IOException
+    {
+        dataDir = Files.createTempDirectory("fileworkerqueue");
+    }
+
+
+    @AfterMethod
+    public void tearDown()
+        throws IOException
+    {
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+
+    @Test
+    public void testConsumeAndPublish()
+        throws QueueException, IOException, InterruptedException
+    {
+        FileWorkerQueue queue = new FileWorkerQueue(getConfig(), 1);
+        TestCallback callback = new TestCallback();
+        queue.start(callback);
+        Assert.assertEquals(queue.healthCheck().getStatus(), HealthStatus.HEALTHY);
+        getQueue("in").append(DATA, Collections.emptyMap(), false);
+        Task task = callback.take();
+        Assert.assertEquals(task.data, DATA);
+        queue.publish(task.id, DATA, "out", Collections.singletonMap("key", "value"));
+        FileQueue out = getQueue("out");
+        out.startConsuming();
+        FileQueue.Delivery result = out.take(1, TimeUnit.SECONDS);
+        Assert.assertNotNull(result);
+        Assert.assertEquals(result.getRecord().getBody(), DATA);
+        Assert.assertEquals(result.getRecord().getHeaders().get("key"), "value");
+        Assert.assertEquals(queue.getMetrics().getMessagesPublished(), 1);
+        Assert.assertEquals(queue.getMetrics().getAdditionalMetrics().get("inFlight").get().intValue(), 0);
+        queue.shutdown();
+    }
+
+
+    @Test
+    public void testRejectRetries()
+        throws QueueException, IOException, InterruptedException
+    {
+        FileWorkerQueueConfiguration config = getConfig();
+        config.setRetryLimit(1);
+        FileWorkerQueue queue = new FileWorkerQueue(config, 1);
+        TestCallback callback = new TestCallback();
+        queue.start(callback);
+        getQueue("in").append(DATA, Collections.emptyMap(), false);
+        queue.rejectTask(callback.take().id);
+        Task retry = callback.take();
+        Assert.assertEquals(retry.headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY), "1");
+        queue.rejectTask(retry.id);
+        Task rejected = callback.take();
+        Assert.assertEquals(rejected.headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED),
+                            FileWorkerQueue.REJECTED_REASON_RETRIES_EXCEEDED);
+        queue.acknowledgeTask(rejected.id);
+        Assert.assertEquals(getQueue("in").getDepth(), 0);
+        queue.shutdown();
+    }
+
+
+    @Test
+    public void testTaskRejectedBacksOff()
+        throws QueueException, IOException, InterruptedException
+    {
+        FileWorkerQueue queue = new FileWorkerQueue(getConfig(), 1);
+        AtomicInteger attempts = new AtomicInteger(0);
+        queue.start(new TaskCallback()
+        {
+            @Override
+            public void registerNewTask(String taskId, byte[] taskData, Map<String, Object> headers)
+                throws TaskRejectedException
+            {
+                attempts.incrementAndGet();
+                throw new TaskRejectedException("busy");
+            }
+
+
+            @Override
+            public void abortTasks()
+            {
+            }
+        });
+        getQueue("in").append(DATA, Collections.emptyMap(), false);
+        Thread.sleep(500);
+        queue.shutdown();
+        // backing off from 1ms, doubling to 100ms, allows about a dozen attempts in half a second
+        Assert.assertTrue(attempts.get() > 1);
+        Assert.assertTrue(attempts.get() < 50, "Made " + attempts.get() + " attempts");
+    }
+
+
+    @Test
+    public void testRestartRedeliversTasksInProgress()
+        throws QueueException, IOException, InterruptedException
+    {
+        FileWorkerQueue queue = new FileWorkerQueue(getConfig(), 1);
+        TestCallback callback = new TestCallback();
+        queue.start(callback);
+        getQueue("in").append(DATA, Collections.emptyMap(), false);
+        callback.take();
+        queue.shutdown();
+
+        FileWorkerQueue restarted = new FileWorkerQueue(getConfig(), 1);
+        TestCallback restartedCallback = new TestCallback();
+        restarted.start(restartedCallback);
+        Task retry = restartedCallback.take();
+        Assert.assertEquals(retry.data, DATA);
+        Assert.assertEquals(retry.headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY), "1");
+        restarted.shutdown();
+    }
+
+
+    @Test
+    public void testOnlyInputQueueLockedUntilShutdown()
+        throws QueueException, IOException, InterruptedException
+    {
+        FileWorkerQueue queue = new FileWorkerQueue(getConfig(), 1);
+        TestCallback callback = new TestCallback();
+        queue.start(callback);
+        getQueue("in").append(DATA, Collections.emptyMap(), false);
+        queue.publish(callback.take().id, DATA, "out", Collections.emptyMap());
+        // queues are opened separately here, as another process would open them
+        FileQueue out = new FileQueue("out", dataDir.resolve("out"), 65536, false);
+        out.startConsuming();
+        Assert.assertEquals(out.take(1, TimeUnit.SECONDS).getRecord().getBody(), DATA);
+        out.close();
+        FileQueue in = new FileQueue("in", dataDir.resolve("in"), 65536, false);
+        try {
+            in.startConsuming();
+            Assert.fail("Input queue not locked");
+        } catch (IOException e) {
+            // expected, the worker is consuming from it
+        }
+        queue.shutdown();
+        in.startConsuming();
+        in.close();
+    }
+
+
+    private FileQueue getQueue(String name)
+        throws IOException
+    {
+        return FileQueueStore.getQueue(dataDir.toString(), name, 65536, false);
+    }
+
+
+    private FileWorkerQueueConfiguration getConfig()
+    {
+        FileWorkerQueueConfiguration config = new FileWorkerQueueConfiguration();
+        config.setDataDir(dataDir.toString());
+        config.setInputQueue("in");
+        config.setRetryLimit(3);
+        config.setSegmentSize(65536);
+        return config;
+    }
+
+
+    private static final class Task
+    {
+        private final String id;
+        private final byte[] data;
+        private final Map<String, Object> headers;
+
+
+        Task(String id, byte[] data, Map<String, Object> headers)
+        {
+            this.id = id;
+            this.data = data;
+            this.headers = headers;
+        }
+    }
+
+
+    private static final class TestCallback implements TaskCallback
+    {
+        private final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+
+
+        @Override
+        public void registerNewTask(String taskId, byte[] taskData, Map<String, Object> headers)
+        {
+            tasks.add(new Task(taskId, taskData, headers));
+        }
+
+
+        @Override
+        public void abortTasks()
+        {
+        }
+
+
+        Task take()
+            throws InterruptedException
+        {
+            Task task = tasks.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(task, "Task not registered");
+            return task;
+        }
+    }
+}
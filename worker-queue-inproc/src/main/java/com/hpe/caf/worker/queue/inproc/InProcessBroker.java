@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.inproc;
+
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A set of named InProcessQueues shared by the workers in a JVM. A worker publishing to a queue that another worker
+ * consumes from hands its results straight to the next worker, so several workers can be chained into a pipeline
+ * without a message broker. Queues are created the first time they are used.
+ */
+public final class InProcessBroker
+{
+    private static final InProcessBroker DEFAULT = new InProcessBroker();
+    private final ConcurrentMap<String, InProcessQueue> queues = new ConcurrentHashMap<>();
+
+
+    /**
+     * @return the broker shared by every InProcessWorkerQueue created by the InProcessWorkerQueueProvider
+     */
+    public static InProcessBroker getDefault()
+    {
+        return DEFAULT;
+    }
+
+
+    /**
+     * Get a queue, creating it if it does not exist yet.
+     * @param name the name of the queue
+     * @return the queue
+     */
+    public InProcessQueue getQueue(String name)
+    {
+        return queues.computeIfAbsent(Objects.requireNonNull(name), InProcessQueue::new);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.inproc;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * A message held on an InProcessQueue. Messages are immutable, and the body is never copied, so a message can be
+ * handed from one worker to the next without any overhead.
+ */
+public final class InProcessMessage
+{
+    private final byte[] body;
+    private final Map<String, Object> headers;
+    private final boolean redelivered;
+
+
+    /**
+     * Create a new message.
+     * @param body the body of the message, which must not be modified afterwards
+     * @param headers the headers of the message, which are copied
+     */
+    public InProcessMessage(byte[] body, Map<String, Object> headers)
+    {
+        this(body, headers == null || headers.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(headers)),
+             false);
+    }
+
+
+    private InProcessMessage(byte[] body, Map<String, Object> headers, boolean redelivered)
+    {
+        this.body = Objects.requireNonNull(body);
+        this.headers = headers;
+        this.redelivered = redelivered;
+    }
+
+
+    /**
+     * @return the body of the message, which must not be modified
+     */
+    public byte[] getBody()
+    {
+        return body;
+    }
+
+
+    /**
+     * @return the unmodifiable headers of the message
+     */
+    public Map<String, Object> getHeaders()
+    {
+        return headers;
+    }
+
+
+    /**
+     * @return true if the message was delivered to a consumer before, and returned to the queue without being
+     * acknowledged
+     */
+    public boolean isRedelivered()
+    {
+        return redelivered;
+    }
+
+
+    /**
+     * @return a copy of this message that is marked as redelivered
+     */
+    InProcessMessage redeliver()
+    {
+        return redelivered ? this : new InProcessMessage(body, headers, true);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.inproc;
+
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A named queue of messages, which any number of threads can publish to and consume from. Messages are held on a
+ * lock-free linked queue, so neither publishers nor consumers ever take a lock. A consumer that finds the queue empty
+ * registers itself as waiting and parks, and is unparked by the next publisher.
+ */
+public final class InProcessQueue
+{
+    private final String name;
+    private final ConcurrentLinkedQueue<InProcessMessage> messages = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger(0);
+
+
+    InProcessQueue(String name)
+    {
+        this.name = Objects.requireNonNull(name);
+    }
+
+
+    /**
+     * @return the name of this queue
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * Add a message to the back of the queue, waking a waiting consumer if there is one.
+     * @param message the message to add
+     */
+    public void publish(InProcessMessage message)
+    {
+        messages.add(Objects.requireNonNull(message));
+        depth.incrementAndGet();
+        Thread waiter = waiters.poll();
+        if ( waiter != null ) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+
+    /**
+     * Take the message at the front of the queue, if there is one.
+     * @return the message, or null if the queue is empty
+     */
+    public InProcessMessage poll()
+    {
+        InProcessMessage message = messages.poll();
+        if ( message != null ) {
+            depth.decrementAndGet();
+        }
+        return message;
+    }
+
+
+    /**
+     * Take the message at the front of the queue, waiting for one to be published if the queue is empty.
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return the message, or null if none was published before the timeout expired or the thread was interrupted
+     */
+    public InProcessMessage poll(long timeout, TimeUnit unit)
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Thread current = Thread.currentThread();
+        while ( true ) {
+            InProcessMessage message = poll();
+            if ( message != null ) {
+                return message;
+            }
+            waiters.add(current);
+            // check again, as a message published just before registering would not have woken this thread
+            message = poll();
+            if ( message != null ) {
+                waiters.remove(current);
+                return message;
+            }
+            long remaining = deadline - System.nanoTime();
+            if ( remaining <= 0 || current.isInterrupted() ) {
+                waiters.remove(current);
+                return null;
+            }
+            LockSupport.parkNanos(this, remaining);
+            waiters.remove(current);
+        }
+    }
+
+
+    /**
+     * @return the number of messages waiting on the queue
+     */
+    public int size()
+    {
+        return depth.get();
+    }
+}
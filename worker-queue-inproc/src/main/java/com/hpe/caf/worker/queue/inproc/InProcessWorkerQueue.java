@@ -0,0 +1,338 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.inproc;
+
+
+import com.hpe.caf.api.HealthResult;
+import com.hpe.caf.api.HealthStatus;
+import com.hpe.caf.api.worker.InvalidTaskException;
+import com.hpe.caf.api.worker.ManagedWorkerQueue;
+import com.hpe.caf.api.worker.QueueException;
+import com.hpe.caf.api.worker.TaskCallback;
+import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.api.worker.WorkerQueueMetricsReporter;
+import com.hpe.caf.util.rabbitmq.RabbitHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A WorkerQueue that passes messages between workers in the same JVM through the queues of an InProcessBroker, with
+ * no message broker involved. This allows light pipeline stages to be chained without network hops, and the overhead
+ * of worker-core itself to be measured in isolation.
+ *
+ * The semantics follow RabbitWorkerQueue. The number of unacknowledged messages is limited to the number of tasks the
+ * worker runs at once plus the prefetch buffer. Rejected tasks are returned to the input queue marked as redelivered,
+ * and redelivered messages are republished to the retry queue with a retry count, or marked as rejected once the retry
+ * limit is reached. Messages the worker cannot take at the moment are returned to the input queue after a pause, which
+ * doubles with each consecutive rejection, so that the consumer does not spin on them. Since publishing is synchronous,
+ * the message a result is published for is acknowledged as soon as the result is on the target queue. Messages that are
+ * still unacknowledged when the queue shuts down are returned to the input queue as redeliveries, as RabbitMQ would do
+ * when the connection closes.
+ */
+public final class InProcessWorkerQueue implements ManagedWorkerQueue
+{
+    public static final String REJECTED_REASON_TASKMESSAGE = "TASKMESSAGE_INVALID";
+    public static final String REJECTED_REASON_RETRIES_EXCEEDED = "RETRIES_EXCEEDED";
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long MIN_REJECT_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_REJECT_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MILLIS);
+    private final InProcessBroker broker;
+    private final InProcessWorkerQueueConfiguration config;
+    private final InProcessQueue inputQueue;
+    private final Semaphore prefetch;
+    private final Map<String, InProcessMessage> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextMessageId = new AtomicLong(0);
+    private final InProcessMetricsReporter metrics = new InProcessMetricsReporter();
+    private volatile boolean consuming;
+    private long rejectBackoffNanos;
+    private TaskCallback callback;
+    private Thread consumerThread;
+    private static final Logger LOG = LoggerFactory.getLogger(InProcessWorkerQueue.class);
+
+
+    /**
+     * Setup a new InProcessWorkerQueue on the default InProcessBroker.
+     */
+    public InProcessWorkerQueue(InProcessWorkerQueueConfiguration config, int maxTasks)
+    {
+        this(config, maxTasks, InProcessBroker.getDefault());
+    }
+
+
+    /**
+     * Setup a new InProcessWorkerQueue.
+     * @param config the configuration of the queue
+     * @param maxTasks the number of tasks the worker runs at once
+     * @param broker the broker holding the queues to consume from and publish to
+     */
+    public InProcessWorkerQueue(InProcessWorkerQueueConfiguration config, int maxTasks, InProcessBroker broker)
+    {
+        this.config = Objects.requireNonNull(config);
+        this.broker = Objects.requireNonNull(broker);
+        this.inputQueue = broker.getQueue(config.getInputQueue());
+        this.prefetch = new Semaphore(Math.max(1, maxTasks + config.getPrefetchBuffer()));
+        metrics.addMetric("inFlight", inFlight::size);
+        metrics.addMetric("queueDepth", inputQueue::size);
+        LOG.debug("Initialised");
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * Start a thread that takes messages from the input queue and hands them to worker-core.
+     */
+    @Override
+    public synchronized void start(TaskCallback callback)
+        throws QueueException
+    {
+        if ( consumerThread != null ) {
+            throw new IllegalStateException("Already started");
+        }
+        this.callback = Objects.requireNonNull(callback);
+        consuming = true;
+        consumerThread = new Thread(this::consume, "inproc-consumer-" + config.getInputQueue());
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+
+    @Override
+    public void publish(String acknowledgeId, byte[] taskMessage, String targetQueue, Map<String, Object> headers)
+        throws QueueException
+    {
+        broker.getQueue(targetQueue).publish(new InProcessMessage(taskMessage, headers));
+        metrics.incrementPublished();
+        complete(acknowledgeId);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * Return the message to the back of the input queue, marked as redelivered.
+     */
+    @Override
+    public void rejectTask(String messageId)
+    {
+        InProcessMessage message = complete(messageId);
+        if ( message != null ) {
+            LOG.debug("Rejecting message {}", messageId);
+            inputQueue.publish(message.redeliver());
+            metrics.incrementRejected();
+        }
+    }
+
+
+    @Override
+    public void discardTask(String messageId)
+    {
+        if ( complete(messageId) != null ) {
+            LOG.warn("Discarding message {}", messageId);
+            metrics.incrementDropped();
+        }
+    }
+
+
+    @Override
+    public void acknowledgeTask(String messageId)
+    {
+        complete(messageId);
+    }
+
+
+    @Override
+    public String getInputQueue()
+    {
+        return config.getInputQueue();
+    }
+
+
+    @Override
+    public void shutdownIncoming()
+    {
+        LOG.debug("Closing incoming queue");
+        consuming = false;
+    }
+
+
+    @Override
+    public void shutdown()
+    {
+        LOG.debug("Shutting down");
+        shutdownIncoming();
+        Thread thread;
+        synchronized (this) {
+            thread = consumerThread;
+        }
+        if ( thread != null ) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for ( String messageId : inFlight.keySet() ) {
+            InProcessMessage message = inFlight.remove(messageId);
+            if ( message != null ) {
+                inputQueue.publish(message.redeliver());
+            }
+        }
+    }
+
+
+    @Override
+    public WorkerQueueMetricsReporter getMetrics()
+    {
+        return metrics;
+    }
+
+
+    @Override
+    public synchronized HealthResult healthCheck()
+    {
+        if ( consumerThread == null || !consumerThread.isAlive() ) {
+            return new HealthResult(HealthStatus.UNHEALTHY, "In-process consumer thread not running");
+        }
+        return HealthResult.RESULT_HEALTHY;
+    }
+
+
+    private void consume()
+    {
+        while ( consuming ) {
+            try {
+                if ( !prefetch.tryAcquire(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS) ) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            InProcessMessage message = inputQueue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            if ( message == null ) {
+                prefetch.release();
+            } else {
+                handleDelivery(message);
+            }
+        }
+        LOG.debug("Consumer thread finished");
+    }
+
+
+    private void handleDelivery(InProcessMessage message)
+    {
+        metrics.incrementReceived();
+        String messageId = String.valueOf(nextMessageId.incrementAndGet());
+        if ( message.isRedelivered() ) {
+            prefetch.release();
+            handleRedelivery(message, messageId);
+            return;
+        }
+        inFlight.put(messageId, message);
+        try {
+            LOG.debug("Registering new message {}", messageId);
+            callback.registerNewTask(messageId, message.getBody(), message.getHeaders());
+            rejectBackoffNanos = 0;
+        } catch (InvalidTaskException e) {
+            LOG.error("Cannot register new message, rejecting {}", messageId, e);
+            complete(messageId);
+            publishInternal(config.getRetryQueue(), message.getBody(),
+                            Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED, REJECTED_REASON_TASKMESSAGE));
+        } catch (TaskRejectedException e) {
+            LOG.warn("Message {} rejected as a task at this time, returning to queue", messageId, e);
+            complete(messageId);
+            backOff();
+            inputQueue.publish(message);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to register message {}, returning to queue", messageId, e);
+            metrics.incrementErrors();
+            complete(messageId);
+            inputQueue.publish(message.redeliver());
+        }
+    }
+
+
+    /**
+     * Pause the consumer thread after a message is rejected as a task at this time, so that it is not immediately
+     * offered again while the worker has no capacity. The pause starts short and doubles with each consecutive
+     * rejection, up to the poll interval, and is reset once a message is accepted.
+     */
+    private void backOff()
+    {
+        rejectBackoffNanos = rejectBackoffNanos == 0
+                             ? MIN_REJECT_BACKOFF_NANOS : Math.min(rejectBackoffNanos * 2, MAX_REJECT_BACKOFF_NANOS);
+        LockSupport.parkNanos(rejectBackoffNanos);
+    }
+
+
+    /**
+     * If a message has been retried as many times as the retry limit allows, republish it to the retry queue with a
+     * rejected reason stamped in the headers. Otherwise republish it to the retry queue with the retry count stamped
+     * in the headers.
+     */
+    private void handleRedelivery(InProcessMessage message, String messageId)
+    {
+        int retries = Integer.parseInt(String.valueOf(message.getHeaders().getOrDefault(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, "0")));
+        Map<String, Object> headers = new HashMap<>();
+        if ( retries >= config.getRetryLimit() ) {
+            LOG.debug("Retry exceeded for message with id {}, republishing to rejected queue", messageId);
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, String.valueOf(retries));
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED, REJECTED_REASON_RETRIES_EXCEEDED);
+        } else {
+            LOG.debug("Received redelivered message with id {}, retry count {}, retry limit {}, republishing to retry queue",
+                      messageId, retries + 1, config.getRetryLimit());
+            metrics.incrementRetried();
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, String.valueOf(retries + 1));
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY_LIMIT, config.getRetryLimit());
+        }
+        publishInternal(config.getRetryQueue(), message.getBody(), headers);
+    }
+
+
+    private void publishInternal(String targetQueue, byte[] body, Map<String, Object> headers)
+    {
+        broker.getQueue(targetQueue).publish(new InProcessMessage(body, headers));
+        metrics.incrementPublished();
+    }
+
+
+    /**
+     * Stop tracking a message, which frees up space for another to be taken from the input queue.
+     * @return the message, or null if it was not in flight
+     */
+    private InProcessMessage complete(String messageId)
+    {
+        InProcessMessage message = inFlight.remove(messageId);
+        if ( message == null ) {
+            LOG.warn("Message {} is not in flight, ignoring", messageId);
+        } else {
+            prefetch.release();
+        }
+        return message;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.inproc;
+
+
+import com.hpe.caf.api.Configuration;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+
+/**
+ * Configuration for the worker-queue-inproc module.
+ */
+@Configuration
+public class InProcessWorkerQueueConfiguration
+{
+    /**
+     * The number of messages taken from the input queue is limited to the number of tasks the worker runs at once
+     * plus this buffer.
+     */
+    @Min(0)
+    @Max(100000)
+    private int prefetchBuffer;
+    /**
+     * The queue to retrieve messages from.
+     */
+    @NotNull
+    @Size(min = 1)
+    private String inputQueue;
+    /**
+     * The queue to put redelivered messages on. If this null, the inputQueue will be used.
+     */
+    private String retryQueue;
+    /**
+     * The maximum number of times for redelivered messages to be retried before they are marked as rejected.
+     */
+    @Min(1)
+    private int retryLimit;
+
+
+    public InProcessWorkerQueueConfiguration() { }
+
+
+    public int getPrefetchBuffer()
+    {
+        return prefetchBuffer;
+    }
+
+
+    public void setPrefetchBuffer(int prefetchBuffer)
+    {
+        this.prefetchBuffer = prefetchBuffer;
+    }
+
+
+    public String getInputQueue()
+    {
+        return inputQueue;
+    }
+
+
+    public void setInputQueue(String inputQueue)
+    {
+        this.inputQueue = inputQueue;
+    }
+
+
+    public String getRetryQueue()
+    {
+        return retryQueue == null ? inputQueue : retryQueue;
+    }
+
+
+    public void setRetryQueue(String retryQueue)
+    {
+        this.retryQueue = retryQueue;
+    }
+
+
+    public int getRetryLimit()
+    {
+        return retryLimit;
+    }
+
+
+    public void setRetryLimit(int retryLimit)
+    {
+        this.retryLimit = retryLimit;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.inproc;
+
+
+import com.hpe.caf.api.HealthStatus;
+import com.hpe.caf.api.worker.InvalidTaskException;
+import com.hpe.caf.api.worker.QueueException;
+import com.hpe.caf.api.worker.TaskCallback;
+import com.hpe.caf.api.worker.TaskRejectedException;
+import com.hpe.caf.util.rabbitmq.RabbitHeaders;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class InProcessWorkerQueueTest
+{
+    private static final byte[] DATA = "test123".getBytes(StandardCharsets.UTF_8);
+
+
+    @Test
+    public void testConsumeAndPublish()
+        throws QueueException, InterruptedException
+    {
+        InProcessBroker broker = new InProcessBroker();
+        InProcessWorkerQueue queue = new InProcessWorkerQueue(getConfig("in"), 1, broker);
+        TestCallback callback = new TestCallback();
+        queue.start(callback);
+        Assert.assertEquals(queue.healthCheck().getStatus(), HealthStatus.HEALTHY);
+        broker.getQueue("in").publish(new InProcessMessage(DATA, Collections.emptyMap()));
+        Task task = callback.take();
+        Assert.assertEquals(task.data, DATA);
+        queue.publish(task.id, DATA, "out", Collections.singletonMap("key", "value"));
+        InProcessMessage result = broker.getQueue("out").poll();
+        Assert.assertNotNull(result);
+        Assert.assertEquals(result.getBody(), DATA);
+        Assert.assertEquals(result.getHeaders().get("key"), "value");
+        Assert.assertFalse(result.isRedelivered());
+        Assert.assertEquals(queue.getMetrics().getMessagesReceived(), 1);
+        Assert.assertEquals(queue.getMetrics().getMessagesPublished(), 1);
+        Assert.assertEquals(queue.getMetrics().getAdditionalMetrics().get("inFlight").get().intValue(), 0);
+        queue.shutdown();
+    }
+
+
+    @Test
+    public void testPrefetchLimit()
+        throws QueueException, InterruptedException
+    {
+        InProcessBroker broker = new InProcessBroker();
+        InProcessWorkerQueue queue = new InProcessWorkerQueue(getConfig("in"), 1, broker);
+        TestCallback callback = new TestCallback();
+        queue.start(callback);
+        for ( int i = 0; i < 3; i++ ) {
+            broker.getQueue("in").publish(new InProcessMessage(DATA, null));
+        }
+        Task task = callback.take();
+        Assert.assertNull(callback.tasks.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(broker.getQueue("in").size(), 2);
+        queue.acknowledgeTask(task.id);
+        callback.take();
+        queue.shutdown();
+    }
+
+
+    @Test
+    public void testRejectRetries()
+        throws QueueException, InterruptedException
+    {
+        InProcessBroker broker = new InProcessBroker();
+        InProcessWorkerQueueConfiguration config = getConfig("in");
+        config.setRetryLimit(1);
+        InProcessWorkerQueue queue = new InProcessWorkerQueue(config, 1, broker);
+        TestCallback callback = new TestCallback();
+        queue.start(callback);
+        broker.getQueue("in").publish(new InProcessMessage(DATA, null));
+        queue.rejectTask(callback.take().id);
+        Task retry = callback.take();
+        Assert.assertEquals(retry.headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY), "1");
+        Assert.assertEquals(retry.headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY_LIMIT), 1);
+        queue.rejectTask(retry.id);
+        Task rejected = callback.take();
+        Assert.assertEquals(rejected.headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED),
+                            InProcessWorkerQueue.REJECTED_REASON_RETRIES_EXCEEDED);
+        Assert.assertEquals(queue.getMetrics().getMessagesRejected(), 2);
+        queue.discardTask(rejected.id);
+        Assert.assertEquals(queue.getMetrics().getMessagesDropped(), 1);
+        queue.shutdown();
+    }
+
+
+    @Test
+    public void testTaskRejectedReturnsToQueue()
+        throws QueueException, InterruptedException
+    {
+        InProcessBroker broker = new InProcessBroker();
+        InProcessWorkerQueue queue = new InProcessWorkerQueue(getConfig("in"), 1, broker);
+        AtomicBoolean rejected = new AtomicBoolean(false);
+        TestCallback callback = new TestCallback()
+        {
+            @Override
+            public void registerNewTask(String taskId, byte[] taskData, Map<String, Object> headers)
+                throws TaskRejectedException
+            {
+                if ( rejected.compareAndSet(false, true) ) {
+                    throw new TaskRejectedException("busy");
+                }
+                tasks.add(new Task(taskId, taskData, headers));
+            }
+        };
+        queue.start(callback);
+        broker.getQueue("in").publish(new InProcessMessage(DATA, null));
+        Task task = callback.take();
+        Assert.assertTrue(rejected.get());
+        Assert.assertFalse(task.headers.containsKey(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY));
+        queue.shutdown();
+    }
+
+
+    @Test
+    public void testTaskRejectedBacksOff()
+        throws QueueException, InterruptedException
+    {
+        InProcessBroker broker = new InProcessBroker();
+        InProcessWorkerQueue queue = new InProcessWorkerQueue(getConfig("in"), 1, broker);
+        AtomicInteger attempts = new AtomicInteger(0);
+        queue.start(new TestCallback()
+        {
+            @Override
+            public void registerNewTask(String taskId, byte[] taskData, Map<String, Object> headers)
+                throws TaskRejectedException
+            {
+                attempts.incrementAndGet();
+                throw new TaskRejectedException("busy");
+            }
+        });
+        broker.getQueue("in").publish(new InProcessMessage(DATA, null));
+        Thread.sleep(500);
+        queue.shutdown();
+        // backing off from 1ms, doubling to 100ms, allows about a dozen attempts in half a second
+        Assert.assertTrue(attempts.get() > 1);
+        Assert.assertTrue(attempts.get() < 50, "Made " + attempts.get() + " attempts");
+    }
+
+
+    @Test
+    public void testInvalidTaskSentToRetryQueue()
+        throws QueueException, InterruptedException
+    {
+        InProcessBroker broker = new InProcessBroker();
+        InProcessWorkerQueueConfiguration config = getConfig("in");
+        config.setRetryQueue("retry");
+        InProcessWorkerQueue queue = new InProcessWorkerQueue(config, 1, broker);
+        queue.start(new TestCallback()
+        {
+            @Override
+            public void registerNewTask(String taskId, byte[] taskData, Map<String, Object> headers)
+                throws InvalidTaskException
+            {
+                throw new InvalidTaskException("invalid");
+            }
+        });
+        broker.getQueue("in").publish(new InProcessMessage(DATA, null));
+        InProcessMessage message = broker.getQueue("retry").poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(message);
+        Assert.assertEquals(message.getHeaders().get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED),
+                            InProcessWorkerQueue.REJECTED_REASON_TASKMESSAGE);
+        queue.shutdown();
+    }
+
+
+    @Test
+    public void testChainedWorkers()
+        throws QueueException, InterruptedException
+    {
+        InProcessBroker broker = new InProcessBroker();
+        InProcessWorkerQueue first = new InProcessWorkerQueue(getConfig("first"), 2, broker);
+        InProcessWorkerQueue second = new InProcessWorkerQueue(getConfig("second"), 2, broker);
+        first.start(new TestCallback()
+        {
+            @Override
+            public void registerNewTask(String taskId, byte[] taskData, Map<String, Object> headers)
+            {
+                try {
+                    first.publish(taskId, taskData, "second", headers);
+                } catch (QueueException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        TestCallback callback = new TestCallback();
+        second.start(callback);
+        broker.getQueue("first").publish(new InProcessMessage(DATA, null));
+        Task task = callback.take();
+        Assert.assertEquals(task.data, DATA);
+        second.acknowledgeTask(task.id);
+        first.shutdown();
+        second.shutdown();
+    }
+
+
+    @Test
+    public void testShutdownRequeuesInFlight()
+        throws QueueException, InterruptedException
+    {
+        InProcessBroker broker = new InProcessBroker();
+        InProcessWorkerQueue queue = new InProcessWorkerQueue(getConfig("in"), 1, broker);
+        TestCallback callback = new TestCallback();
+        queue.start(callback);
+        broker.getQueue("in").publish(new InProcessMessage(DATA, null));
+        callback.take();
+        queue.shutdown();
+        Assert.assertEquals(queue.healthCheck().getStatus(), HealthStatus.UNHEALTHY);
+        InProcessMessage message = broker.getQueue("in").poll();
+        Assert.assertNotNull(message);
+        Assert.assertTrue(message.isRedelivered());
+    }
+
+
+    private static InProcessWorkerQueueConfiguration getConfig(String inputQueue)
+    {
+        InProcessWorkerQueueConfiguration config = new InProcessWorkerQueueConfiguration();
+        config.setInputQueue(inputQueue);
+        config.setRetryLimit(3);
+        return config;
+    }
+
+
+    private static final class Task
+    {
+        private final String id;
+        private final byte[] data;
+        private final Map<String, Object> headers;
+
+
+        Task(String id, byte[] data, Map<String, Object> headers)
+        {
+            this.id = id;
+            this.data = data;
+            this.headers = headers;
+        }
+    }
+
+
+    private static class TestCallback implements TaskCallback
+    {
+        final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+
+
+        @Override
+        public void registerNewTask(String taskId, byte[] taskData, Map<String, Object> headers)
+            throws TaskRejectedException, InvalidTaskException
+        {
+            tasks.add(new Task(taskId, taskData, headers));
+        }
+
+
+        @Override
+        public void abortTasks()
+        {
+        }
+
+
+        Task take()
+            throws InterruptedException
+        {
+            Task task = tasks.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(task, "Task not registered");
+            return task;
+        }
+    }
+}
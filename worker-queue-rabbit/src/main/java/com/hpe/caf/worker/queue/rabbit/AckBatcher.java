@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Objects;
+
+
+/**
+ * Coalesces the acknowledgement, rejection and dropping of consumed messages into AMQP frames that cover multiple
+ * delivery tags at once. RabbitMQ allocates delivery tags sequentially per channel, so the outcome of each message
+ * is tracked in a ring indexed by its offset from the oldest unsettled tag (the low-water mark). Only the contiguous
+ * run of completed messages starting at the low-water mark can be settled with multiple=true, so completions beyond
+ * a message that is still in progress are held until the gap closes. If they are held for longer than the timeout
+ * they are settled individually, so a single long running task cannot pin the rest of the prefetch window.
+ *
+ * This class is not thread safe and must only be used from the consumer thread.
+ */
+final class AckBatcher
+{
+    private enum Outcome
+    {
+        IN_PROGRESS, ACK, REJECT, DROP, SETTLED
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private final Channel channel;
+    private final RabbitMetricsReporter metrics;
+    private final int batchSize;
+    private final long timeoutNanos;
+    private Outcome[] outcomes = new Outcome[INITIAL_CAPACITY];
+    private long[] completionTimes = new long[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+    private long headTag;
+    private int held;
+    private long oldestHeld;
+    private static final Logger LOG = LoggerFactory.getLogger(AckBatcher.class);
+
+
+    /**
+     * Create a new AckBatcher.
+     * @param channel the channel the messages were consumed from
+     * @param metrics the metrics to record batch sizes and latency in
+     * @param batchSize the number of held completions that triggers a flush
+     * @param timeoutMillis the maximum time, in milliseconds, a completion should be held before it is settled
+     */
+    AckBatcher(Channel channel, RabbitMetricsReporter metrics, int batchSize, long timeoutMillis)
+    {
+        this.channel = Objects.requireNonNull(channel);
+        this.metrics = Objects.requireNonNull(metrics);
+        if ( batchSize < 1 ) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        this.timeoutNanos = timeoutMillis * 1_000_000L;
+    }
+
+
+    /**
+     * Start tracking a newly delivered message. Delivery tags must arrive in sequence; a discontinuity means the
+     * channel has been recovered, and since the broker will already have requeued everything delivered on the old
+     * channel, any state held for it is discarded.
+     * @param tag the delivery tag of the new message
+     */
+    void registerDelivery(long tag)
+    {
+        if ( size == 0 ) {
+            headTag = tag;
+        } else if ( tag != headTag + size ) {
+            LOG.warn("Delivery tag {} out of sequence (expected {}), discarding {} tracked messages", tag, headTag + size, size);
+            reset();
+            headTag = tag;
+        }
+        if ( size == outcomes.length ) {
+            grow();
+        }
+        int index = index(size);
+        outcomes[index] = Outcome.IN_PROGRESS;
+        completionTimes[index] = 0;
+        size++;
+    }
+
+
+    /**
+     * Record that a message should be acknowledged.
+     * @param tag the delivery tag of the message
+     * @return true if the message is tracked by this batcher, false if the caller should settle it itself
+     */
+    boolean ack(long tag)
+    {
+        return complete(tag, Outcome.ACK);
+    }
+
+
+    /**
+     * Record that a message should be rejected and requeued.
+     * @param tag the delivery tag of the message
+     * @return true if the message is tracked by this batcher, false if the caller should settle it itself
+     */
+    boolean reject(long tag)
+    {
+        return complete(tag, Outcome.REJECT);
+    }
+
+
+    /**
+     * Record that a message should be rejected without being requeued.
+     * @param tag the delivery tag of the message
+     * @return true if the message is tracked by this batcher, false if the caller should settle it itself
+     */
+    boolean drop(long tag)
+    {
+        return complete(tag, Outcome.DROP);
+    }
+
+
+    /**
+     * Send acknowledgements if either the batch size or the timeout has been reached. If sending fails, the
+     * completions remain held and will be sent again on the next flush.
+     * @param now the current value of System.nanoTime()
+     * @throws IOException if the acknowledgements could not be sent
+     */
+    void flush(long now)
+        throws IOException
+    {
+        boolean timedOut = held > 0 && now - oldestHeld >= timeoutNanos;
+        if ( held >= batchSize || timedOut ) {
+            settleLowWaterRun(now);
+            if ( timedOut ) {
+                settleExpired(now);
+            }
+        }
+    }
+
+
+    /**
+     * @return the number of completed messages waiting to be settled
+     */
+    int getHeldCount()
+    {
+        return held;
+    }
+
+
+    private boolean complete(long tag, Outcome outcome)
+    {
+        long offset = tag - headTag;
+        if ( offset < 0 || offset >= size ) {
+            return false;
+        }
+        int index = index((int)offset);
+        if ( outcomes[index] != Outcome.IN_PROGRESS ) {
+            LOG.warn("Message {} has already been completed, ignoring {}", tag, outcome);
+            return true;
+        }
+        long now = System.nanoTime();
+        outcomes[index] = outcome;
+        completionTimes[index] = now;
+        if ( held++ == 0 ) {
+            oldestHeld = now;
+        }
+        return true;
+    }
+
+
+    /**
+     * Settle the contiguous run of completed messages at the low-water mark, emitting one frame per run of identical
+     * outcomes. Messages already settled individually can sit inside a run because a multiple acknowledgement only
+     * covers tags that are still outstanding, but they are never used as the tag of the frame itself.
+     */
+    private void settleLowWaterRun(long now)
+        throws IOException
+    {
+        int run = 0;
+        while ( run < size && outcomes[index(run)] != Outcome.IN_PROGRESS ) {
+            run++;
+        }
+        int start = 0;
+        while ( start < run ) {
+            Outcome type = null;
+            int last = -1;
+            int count = 0;
+            long latency = 0;
+            int i = start;
+            for ( ; i < run; i++ ) {
+                Outcome o = outcomes[index(i)];
+                if ( o == Outcome.SETTLED ) {
+                    continue;
+                }
+                if ( type != null && o != type ) {
+                    break;
+                }
+                type = o;
+                last = i;
+                count++;
+                latency += now - completionTimes[index(i)];
+            }
+            if ( type != null ) {
+                send(type, headTag + last, count > 1, count, latency);
+                for ( int j = start; j <= last; j++ ) {
+                    outcomes[index(j)] = Outcome.SETTLED;
+                }
+                held -= count;
+            }
+            start = i;
+        }
+        head = index(run);
+        size -= run;
+        headTag += run;
+        refreshOldestHeld();
+    }
+
+
+    /**
+     * Individually settle held completions that are stuck behind a message that is still in progress.
+     */
+    private void settleExpired(long now)
+        throws IOException
+    {
+        boolean settledAny = false;
+        for ( int i = 0; i < size && held > 0; i++ ) {
+            int index = index(i);
+            Outcome o = outcomes[index];
+            if ( o != Outcome.IN_PROGRESS && o != Outcome.SETTLED && now - completionTimes[index] >= timeoutNanos ) {
+                send(o, headTag + i, false, 1, now - completionTimes[index]);
+                outcomes[index] = Outcome.SETTLED;
+                held--;
+                settledAny = true;
+            }
+        }
+        if ( settledAny ) {
+            refreshOldestHeld();
+        }
+    }
+
+
+    private void send(Outcome outcome, long tag, boolean multiple, int count, long latencyNanos)
+        throws IOException
+    {
+        switch (outcome) {
+            case ACK:
+                LOG.debug("Acknowledging {} message(s) up to {}", count, tag);
+                channel.basicAck(tag, multiple);
+                break;
+            case REJECT:
+                LOG.debug("Rejecting {} message(s) up to {}", count, tag);
+                sendReject(tag, multiple, true);
+                metrics.incrementRejected(count);
+                break;
+            case DROP:
+                LOG.warn("Dropping {} message(s) up to {}", count, tag);
+                sendReject(tag, multiple, false);
+                metrics.incrementDropped(count);
+                break;
+            default:
+                throw new IllegalStateException("Cannot settle message with outcome " + outcome);
+        }
+        metrics.recordAckBatch(count, latencyNanos);
+    }
+
+
+    private void sendReject(long tag, boolean multiple, boolean requeue)
+        throws IOException
+    {
+        if ( multiple ) {
+            channel.basicNack(tag, true, requeue);
+        } else {
+            channel.basicReject(tag, requeue);
+        }
+    }
+
+
+    private void refreshOldestHeld()
+    {
+        if ( held == 0 ) {
+            return;
+        }
+        boolean found = false;
+        for ( int i = 0; i < size; i++ ) {
+            int index = index(i);
+            Outcome o = outcomes[index];
+            if ( o != Outcome.IN_PROGRESS && o != Outcome.SETTLED && (!found || completionTimes[index] - oldestHeld < 0) ) {
+                oldestHeld = completionTimes[index];
+                found = true;
+            }
+        }
+    }
+
+
+    private void reset()
+    {
+        head = 0;
+        size = 0;
+        held = 0;
+    }
+
+
+    private void grow()
+    {
+        int capacity = outcomes.length;
+        Outcome[] newOutcomes = new Outcome[capacity * 2];
+        long[] newTimes = new long[capacity * 2];
+        for ( int i = 0; i < size; i++ ) {
+            newOutcomes[i] = outcomes[index(i)];
+            newTimes[i] = completionTimes[index(i)];
+        }
+        outcomes = newOutcomes;
+        completionTimes = newTimes;
+        head = 0;
+    }
+
+
+    private int index(int offset)
+    {
+        return (head + offset) & (outcomes.length - 1);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import com.rabbitmq.client.BlockedListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Tracks the connection.blocked and connection.unblocked notifications RabbitMQ sends when it is short of memory or
+ * disk space and stops accepting published messages. Each change of state is passed on to a handler, which is run
+ * on the given executor. The notifications arrive on the connection's own thread, so a handler run on it must not
+ * make any call to the server, which would not return while the connection is blocked.
+ */
+final class ConnectionBlockedListener implements BlockedListener
+{
+    private final Executor executor;
+    private final Runnable handler;
+    private volatile String reason;
+    private long blockedSince;
+    private long blockedNanos;
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionBlockedListener.class);
+
+
+    /**
+     * @param executor the executor to run the handler on
+     * @param handler called whenever the connection becomes blocked or unblocked
+     */
+    ConnectionBlockedListener(Executor executor, Runnable handler)
+    {
+        this.executor = Objects.requireNonNull(executor);
+        this.handler = Objects.requireNonNull(handler);
+    }
+
+
+    @Override
+    public void handleBlocked(String reason)
+    {
+        LOG.warn("RabbitMQ connection blocked ({}), pausing consumption", reason);
+        synchronized (this) {
+            if ( this.reason == null ) {
+                blockedSince = System.nanoTime();
+            }
+            this.reason = reason == null ? "unknown" : reason;
+        }
+        runHandler();
+    }
+
+
+    @Override
+    public void handleUnblocked()
+    {
+        if ( unblock() ) {
+            LOG.info("RabbitMQ connection unblocked, resuming consumption");
+            runHandler();
+        }
+    }
+
+
+    /**
+     * Clear the blocked state when the connection is recovered, since a new connection starts out unblocked and
+     * the server will notify it again if the alarm is still in effect.
+     */
+    void reset()
+    {
+        if ( unblock() ) {
+            LOG.info("RabbitMQ connection recovered, resuming consumption");
+            runHandler();
+        }
+    }
+
+
+    /**
+     * @return true if the server has blocked the connection
+     */
+    boolean isBlocked()
+    {
+        return reason != null;
+    }
+
+
+    /**
+     * @return the reason the server gave for blocking the connection, or null if it is not blocked
+     */
+    String getReason()
+    {
+        return reason;
+    }
+
+
+    /**
+     * @return the time in milliseconds the connection has been blocked for, or 0 if it is not blocked
+     */
+    synchronized long getCurrentBlockedTime()
+    {
+        return reason == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - blockedSince);
+    }
+
+
+    /**
+     * @return the total time in milliseconds the connection has been blocked for, including any current block
+     */
+    synchronized long getBlockedTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos) + getCurrentBlockedTime();
+    }
+
+
+    private void runHandler()
+    {
+        try {
+            executor.execute(handler);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Not handling change of blocked state, the queue is shutting down");
+        }
+    }
+
+
+    private synchronized boolean unblock()
+    {
+        if ( reason == null ) {
+            return false;
+        }
+        blockedNanos += System.nanoTime() - blockedSince;
+        reason = null;
+        return true;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import com.hpe.caf.util.rabbitmq.ConsumerAckEvent;
+import com.hpe.caf.util.rabbitmq.ConsumerDropEvent;
+import com.hpe.caf.util.rabbitmq.ConsumerRejectEvent;
+import com.hpe.caf.util.rabbitmq.Event;
+import com.hpe.caf.util.rabbitmq.QueueConsumer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.LongFunction;
+
+
+/**
+ * Routes events for consumed messages back to the event queue of the consumer channel that received them.
+ * RabbitMQ delivery tags are only unique within a channel, so when there are several consumer channels the id
+ * given to worker-core for a message encodes both the channel and the delivery tag. With a single channel the
+ * message id is the delivery tag itself.
+ */
+final class ConsumerEventRouter
+{
+    private final List<BlockingQueue<Event<QueueConsumer>>> queues;
+
+
+    /**
+     * Create a router for a single consumer channel.
+     * @param queue the event queue of the consumer
+     */
+    ConsumerEventRouter(BlockingQueue<Event<QueueConsumer>> queue)
+    {
+        this(Collections.singletonList(queue));
+    }
+
+
+    /**
+     * Create a router for several consumer channels.
+     * @param queues the event queues of each consumer channel, indexed by channel number
+     */
+    ConsumerEventRouter(List<BlockingQueue<Event<QueueConsumer>>> queues)
+    {
+        if ( queues.isEmpty() ) {
+            throw new IllegalArgumentException("At least one consumer event queue is required");
+        }
+        this.queues = Collections.unmodifiableList(new ArrayList<>(queues));
+        this.queues.forEach(Objects::requireNonNull);
+    }
+
+
+    /**
+     * @return the number of consumer channels events are routed to
+     */
+    int getChannelCount()
+    {
+        return queues.size();
+    }
+
+
+    /**
+     * @param channel the consumer channel number
+     * @return the event queue of the specified consumer channel
+     */
+    BlockingQueue<Event<QueueConsumer>> getQueue(int channel)
+    {
+        return queues.get(channel);
+    }
+
+
+    /**
+     * @param channel the consumer channel number the message was received on
+     * @param deliveryTag the delivery tag of the message on that channel
+     * @return the id to identify the message by outside of the consumer
+     */
+    long getMessageId(int channel, long deliveryTag)
+    {
+        return deliveryTag * queues.size() + channel;
+    }
+
+
+    void ack(long messageId)
+    {
+        route(messageId, ConsumerAckEvent::new);
+    }
+
+
+    void reject(long messageId)
+    {
+        route(messageId, ConsumerRejectEvent::new);
+    }
+
+
+    void drop(long messageId)
+    {
+        route(messageId, ConsumerDropEvent::new);
+    }
+
+
+    /**
+     * Create an event for the delivery tag the message id refers to and add it to the owning channel's event queue.
+     * @param messageId the message id, as returned by getMessageId
+     * @param eventSource creates the event from the delivery tag of the message
+     */
+    void route(long messageId, LongFunction<Event<QueueConsumer>> eventSource)
+    {
+        int channels = queues.size();
+        queues.get((int)(messageId % channels)).add(eventSource.apply(messageId / channels));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+
+/**
+ * Configuration for an additional queue to consume tasks from, alongside the main input queue.
+ */
+public class InputQueueConfiguration
+{
+    /**
+     * The name of the queue.
+     */
+    @NotNull
+    @Size(min = 1)
+    private String name;
+    /**
+     * The share of the worker's threads tasks from this queue get, relative to the other input queues.
+     */
+    @Min(1)
+    @Max(1000)
+    private int weight = 1;
+    /**
+     * The number of messages to prefetch from this queue, or 0 to use the same prefetch as the main input queue.
+     */
+    @Min(0)
+    @Max(100000)
+    private int prefetch;
+
+
+    public InputQueueConfiguration() { }
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+
+    public int getWeight()
+    {
+        return weight;
+    }
+
+
+    public void setWeight(int weight)
+    {
+        this.weight = weight;
+    }
+
+
+    public int getPrefetch()
+    {
+        return prefetch;
+    }
+
+
+    public void setPrefetch(int prefetch)
+    {
+        this.prefetch = prefetch;
+    }
+}
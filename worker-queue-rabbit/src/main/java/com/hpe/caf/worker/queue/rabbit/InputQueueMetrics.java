@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Throughput and latency of the messages consumed from a single input queue.
+ */
+final class InputQueueMetrics
+{
+    private final AtomicLong received = new AtomicLong(0);
+    private final AtomicLong acknowledged = new AtomicLong(0);
+    private final AtomicLong latencyNanos = new AtomicLong(0);
+
+
+    /**
+     * Record that a message has been delivered from the queue.
+     */
+    void recordDelivery()
+    {
+        received.incrementAndGet();
+    }
+
+
+    /**
+     * Record that a message from the queue has been acknowledged.
+     * @param nanos the time between the message being delivered and acknowledged
+     */
+    void recordAcknowledgement(long nanos)
+    {
+        acknowledged.incrementAndGet();
+        latencyNanos.addAndGet(nanos);
+    }
+
+
+    /**
+     * @return the number of messages delivered from the queue
+     */
+    long getReceived()
+    {
+        return received.get();
+    }
+
+
+    /**
+     * @return the number of messages from the queue that have been acknowledged
+     */
+    long getAcknowledged()
+    {
+        return acknowledged.get();
+    }
+
+
+    /**
+     * @return the average time, in milliseconds, between a message being delivered and acknowledged
+     */
+    double getAverageLatency()
+    {
+        long count = acknowledged.get();
+        return count == 0 ? 0 : latencyNanos.get() / 1_000_000.0 / count;
+    }
+}
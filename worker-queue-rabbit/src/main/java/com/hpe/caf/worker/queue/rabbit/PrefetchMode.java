@@ -0,0 +1,33 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+/**
+ * How the RabbitWorkerQueue decides how many unacknowledged messages the RabbitMQ server may deliver to it.
+ */
+public enum PrefetchMode
+{
+    /**
+     * Use a prefetch of the number of worker threads plus the configured prefetchBuffer.
+     */
+    FIXED,
+    /**
+     * Periodically adjust the prefetch from the observed message rate, acknowledgement latency and worker backlog,
+     * within the configured bounds.
+     */
+    ADAPTIVE;
+}
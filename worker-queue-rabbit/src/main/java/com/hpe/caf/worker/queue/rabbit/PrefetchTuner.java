@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+/**
+ * Calculates the prefetch for a worker whose task service time is not known in advance. The prefetch needs to cover
+ * the messages being worked on, the completed messages whose acknowledgements have not yet reached the server, and
+ * a spare buffer so that worker threads are not left idle while the server sends a replacement for a finished task.
+ * With a constant number of busy threads the arrival rate is the number of threads divided by the service time, so
+ * sizing the buffer to hold the messages that arrive within the target wait gives short tasks a large buffer and
+ * long tasks a small one, where a buffered message would otherwise sit unprocessed while another worker is idle.
+ *
+ * If the worker's backlog is empty while messages are arriving, the buffer is not keeping up, so the prefetch is
+ * raised regardless of the estimate. Each update only moves half way towards the new target to damp oscillation.
+ *
+ * This class is not thread safe.
+ */
+final class PrefetchTuner
+{
+    private final int maxTasks;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final long targetWaitMillis;
+    private int prefetch;
+
+
+    /**
+     * Create a new PrefetchTuner.
+     * @param maxTasks the number of tasks the worker can run at once
+     * @param minPrefetch the lowest prefetch to use
+     * @param maxPrefetch the highest prefetch to use
+     * @param targetWaitMillis how long, in milliseconds, a message should typically wait in the worker before it starts
+     * @param initialPrefetch the prefetch to start with, which is brought into the bounds if necessary
+     */
+    PrefetchTuner(int maxTasks, int minPrefetch, int maxPrefetch, long targetWaitMillis, int initialPrefetch)
+    {
+        if ( minPrefetch < 1 || maxPrefetch < minPrefetch ) {
+            throw new IllegalArgumentException("Prefetch bounds must satisfy 1 <= minimum <= maximum");
+        }
+        this.maxTasks = maxTasks;
+        this.minPrefetch = minPrefetch;
+        this.maxPrefetch = maxPrefetch;
+        this.targetWaitMillis = targetWaitMillis;
+        this.prefetch = clamp(initialPrefetch);
+    }
+
+
+    /**
+     * Update the prefetch from the latest observations.
+     * @param messageRate the rate messages were delivered over the last interval, in messages per second
+     * @param backlog the number of tasks accepted by the worker but not yet started, or -1 if this is not known
+     * @param ackLatencyMillis the average time a completed message waits for its acknowledgement to be sent
+     * @return the new prefetch
+     */
+    int update(double messageRate, int backlog, double ackLatencyMillis)
+    {
+        if ( messageRate <= 0 ) {
+            // nothing arrived, so there is no evidence either way
+            return prefetch;
+        }
+        long target = maxTasks + (long)Math.ceil(messageRate * (ackLatencyMillis + targetWaitMillis) / 1000);
+        if ( backlog == 0 ) {
+            target = Math.max(target, prefetch + Math.max(1, prefetch / 4));
+        }
+        long step = (target - prefetch) / 2;
+        if ( step == 0 ) {
+            step = Long.signum(target - prefetch);
+        }
+        prefetch = clamp(prefetch + step);
+        return prefetch;
+    }
+
+
+    /**
+     * @return the current prefetch
+     */
+    int getPrefetch()
+    {
+        return prefetch;
+    }
+
+
+    private int clamp(long value)
+    {
+        return (int)Math.max(minPrefetch, Math.min(maxPrefetch, value));
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+/**
+ * How the RabbitWorkerQueue should make sure a queue exists before it consumes from or publishes to it.
+ * Each queue is only declared the first time it is used, and again after the connection is recovered.
+ */
+public enum QueueDeclareMode
+{
+    /**
+     * Declare the queue as a durable worker queue, creating it if it does not exist.
+     */
+    ACTIVE,
+    /**
+     * Passively declare the queue, which only checks that it exists. If it does not, RabbitMQ will close the channel.
+     */
+    PASSIVE,
+    /**
+     * Do not declare queues at all; they are assumed to have been created in advance.
+     */
+    NONE;
+}
@@ -18,16 +18,71 @@ package com.hpe.caf.worker.queue.rabbit;
 
 import com.hpe.caf.api.worker.WorkerQueueMetricsReporter;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
 
 
 public class RabbitMetricsReporter implements WorkerQueueMetricsReporter
 {
+    /**
+     * Publish batch sizes are counted in buckets of powers of two, the last of which holds everything larger.
+     */
+    private static final String[] PUBLISH_BATCH_BUCKETS = { "1", "2to3", "4to7", "8to15", "16to31", "32to63", "64plus" };
     private final AtomicInteger queueErrors = new AtomicInteger(0);
     private final AtomicInteger msgRx = new AtomicInteger(0);
     private final AtomicInteger msgTx = new AtomicInteger(0);
     private final AtomicInteger msgRejected = new AtomicInteger(0);
     private final AtomicInteger msgDropped = new AtomicInteger(0);
+    private final AtomicLong msgDelayed = new AtomicLong(0);
+    private final AtomicLong ackFrames = new AtomicLong(0);
+    private final AtomicLong ackedMessages = new AtomicLong(0);
+    private final AtomicLong ackLatencyNanos = new AtomicLong(0);
+    private final AtomicLongArray publishBatches = new AtomicLongArray(PUBLISH_BATCH_BUCKETS.length);
+    private final AtomicLong publishBatchMessages = new AtomicLong(0);
+    private final AtomicLong envelopesPublished = new AtomicLong(0);
+    private final AtomicLong envelopeMessagesPublished = new AtomicLong(0);
+    private final AtomicLong envelopesReceived = new AtomicLong(0);
+    private final AtomicLong compressedMessages = new AtomicLong(0);
+    private final AtomicLong compressionInputBytes = new AtomicLong(0);
+    private final AtomicLong compressionOutputBytes = new AtomicLong(0);
+    private final AtomicLong compressionCpuNanos = new AtomicLong(0);
+    private final AtomicLong decompressedMessages = new AtomicLong(0);
+    private final AtomicLong decompressionCpuNanos = new AtomicLong(0);
+    private final Map<RetryStrategy, AtomicLong> retries = new EnumMap<>(RetryStrategy.class);
+    private final Map<String, Supplier<? extends Number>> additionalMetrics = new LinkedHashMap<>();
+
+
+    public RabbitMetricsReporter()
+    {
+        additionalMetrics.put("delayed", this::getMessagesDelayed);
+        additionalMetrics.put("acks.batchSize", this::getAverageAckBatchSize);
+        additionalMetrics.put("acks.latency", this::getAverageAckLatency);
+        additionalMetrics.put("publish.batchSize", this::getAveragePublishBatchSize);
+        for ( int i = 0; i < PUBLISH_BATCH_BUCKETS.length; i++ ) {
+            int bucket = i;
+            additionalMetrics.put("publish.batchSizes." + PUBLISH_BATCH_BUCKETS[i], () -> publishBatches.get(bucket));
+        }
+        additionalMetrics.put("envelopes.published", envelopesPublished::get);
+        additionalMetrics.put("envelopes.size", this::getAverageEnvelopeSize);
+        additionalMetrics.put("envelopes.received", envelopesReceived::get);
+        additionalMetrics.put("compression.messages", compressedMessages::get);
+        additionalMetrics.put("compression.ratio", this::getCompressionRatio);
+        additionalMetrics.put("compression.cpuTime", () -> getAverageMillis(compressionCpuNanos, compressedMessages));
+        additionalMetrics.put("decompression.messages", decompressedMessages::get);
+        additionalMetrics.put("decompression.cpuTime", () -> getAverageMillis(decompressionCpuNanos, decompressedMessages));
+        for ( RetryStrategy strategy : RetryStrategy.values() ) {
+            AtomicLong count = new AtomicLong(0);
+            retries.put(strategy, count);
+            additionalMetrics.put("retries." + strategy.name().toLowerCase(Locale.ENGLISH), count::get);
+        }
+    }
 
 
     public void incremementErrors()
@@ -69,12 +124,24 @@ public class RabbitMetricsReporter implements WorkerQueueMetricsReporter
     }
 
 
+    public void incrementPublished(int count)
+    {
+        msgTx.addAndGet(count);
+    }
+
+
     public void incrementRejected()
     {
         msgRejected.incrementAndGet();
     }
 
 
+    public void incrementRejected(int count)
+    {
+        msgRejected.addAndGet(count);
+    }
+
+
     @Override
     public int getMessagesRejected()
     {
@@ -88,9 +155,277 @@ public class RabbitMetricsReporter implements WorkerQueueMetricsReporter
     }
 
 
+    public void incrementDropped(int count)
+    {
+        msgDropped.addAndGet(count);
+    }
+
+
     @Override
     public int getMessagesDropped()
     {
         return msgDropped.get();
     }
+
+
+    /**
+     * Record that a rejected task has been sent to a delay queue.
+     */
+    public void incrementDelayed()
+    {
+        msgDelayed.incrementAndGet();
+    }
+
+
+    /**
+     * @return the number of rejected tasks that have been sent to a delay queue
+     */
+    public long getMessagesDelayed()
+    {
+        return msgDelayed.get();
+    }
+
+
+    /**
+     * Add a metric to those returned by getAdditionalMetrics(). This must be done before the metrics are registered
+     * by the worker, so it is typically only called while the WorkerQueue is being constructed.
+     * @param name the name of the metric
+     * @param supplier samples the current value of the metric
+     */
+    void addMetric(String name, Supplier<? extends Number> supplier)
+    {
+        additionalMetrics.put(name, supplier);
+    }
+
+
+    /**
+     * Record a single acknowledgement frame sent to RabbitMQ, whether it settles a batch or a single message.
+     * @param messages the number of messages settled by the frame
+     * @param totalLatencyNanos the sum of the time each of those messages spent waiting to be settled
+     */
+    public void recordAckBatch(int messages, long totalLatencyNanos)
+    {
+        ackFrames.incrementAndGet();
+        ackedMessages.addAndGet(messages);
+        ackLatencyNanos.addAndGet(totalLatencyNanos);
+    }
+
+
+    /**
+     * @return the average number of messages settled per acknowledgement frame
+     */
+    public double getAverageAckBatchSize()
+    {
+        long frames = ackFrames.get();
+        return frames == 0 ? 0 : (double)ackedMessages.get() / frames;
+    }
+
+
+    /**
+     * @return the average time, in milliseconds, a completed message was held before its acknowledgement was sent
+     */
+    public double getAverageAckLatency()
+    {
+        long messages = ackedMessages.get();
+        return messages == 0 ? 0 : ackLatencyNanos.get() / 1_000_000.0 / messages;
+    }
+
+
+    /**
+     * @return the number of messages settled by acknowledgement frames so far
+     */
+    public long getAcknowledgedMessages()
+    {
+        return ackedMessages.get();
+    }
+
+
+    /**
+     * @return the sum of the time, in nanoseconds, every message settled so far waited to be settled
+     */
+    public long getTotalAckLatencyNanos()
+    {
+        return ackLatencyNanos.get();
+    }
+
+
+    /**
+     * Record a batch of messages published together by a publisher thread.
+     * @param messages the number of messages in the batch
+     */
+    public void recordPublishBatch(int messages)
+    {
+        publishBatches.incrementAndGet(getPublishBatchBucket(messages));
+        publishBatchMessages.addAndGet(messages);
+    }
+
+
+    /**
+     * @return the average number of messages published per batch
+     */
+    public double getAveragePublishBatchSize()
+    {
+        long batches = 0;
+        for ( int i = 0; i < publishBatches.length(); i++ ) {
+            batches += publishBatches.get(i);
+        }
+        return batches == 0 ? 0 : (double)publishBatchMessages.get() / batches;
+    }
+
+
+    /**
+     * @param messages a batch size
+     * @return the number of publish batches recorded with a size in the same power of two bucket as the one given
+     */
+    public long getPublishBatchCount(int messages)
+    {
+        return publishBatches.get(getPublishBatchBucket(messages));
+    }
+
+
+    /**
+     * Record an envelope published to RabbitMQ.
+     * @param messages the number of messages packed into the envelope
+     */
+    public void recordEnvelopePublished(int messages)
+    {
+        envelopesPublished.incrementAndGet();
+        envelopeMessagesPublished.addAndGet(messages);
+    }
+
+
+    /**
+     * @return the number of envelopes published
+     */
+    public long getEnvelopesPublished()
+    {
+        return envelopesPublished.get();
+    }
+
+
+    /**
+     * @return the average number of messages packed into each envelope published
+     */
+    public double getAverageEnvelopeSize()
+    {
+        long envelopes = envelopesPublished.get();
+        return envelopes == 0 ? 0 : (double)envelopeMessagesPublished.get() / envelopes;
+    }
+
+
+    /**
+     * Record that an envelope has been received and unpacked.
+     */
+    public void incrementEnvelopesReceived()
+    {
+        envelopesReceived.incrementAndGet();
+    }
+
+
+    /**
+     * @return the number of envelopes received
+     */
+    public long getEnvelopesReceived()
+    {
+        return envelopesReceived.get();
+    }
+
+
+    /**
+     * Record a message body that was large enough to be compressed before it was published.
+     * @param size the size of the message body
+     * @param publishedSize the size of the body that was published, which is the original size if compressing it did
+     * not make it any smaller
+     * @param cpuNanos the CPU time taken to compress the body, in nanoseconds
+     */
+    public void recordCompression(int size, int publishedSize, long cpuNanos)
+    {
+        compressedMessages.incrementAndGet();
+        compressionInputBytes.addAndGet(size);
+        compressionOutputBytes.addAndGet(publishedSize);
+        compressionCpuNanos.addAndGet(cpuNanos);
+    }
+
+
+    /**
+     * @return the number of message bodies large enough to be compressed before they were published
+     */
+    public long getMessagesCompressed()
+    {
+        return compressedMessages.get();
+    }
+
+
+    /**
+     * @return the total size of the message bodies large enough to be compressed divided by the total size that was
+     * published for them
+     */
+    public double getCompressionRatio()
+    {
+        long published = compressionOutputBytes.get();
+        return published == 0 ? 0 : (double)compressionInputBytes.get() / published;
+    }
+
+
+    /**
+     * Record a compressed message body that was decompressed when it was delivered.
+     * @param cpuNanos the CPU time taken to decompress the body, in nanoseconds
+     */
+    public void recordDecompression(long cpuNanos)
+    {
+        decompressedMessages.incrementAndGet();
+        decompressionCpuNanos.addAndGet(cpuNanos);
+    }
+
+
+    /**
+     * @return the number of compressed message bodies that were decompressed when they were delivered
+     */
+    public long getMessagesDecompressed()
+    {
+        return decompressedMessages.get();
+    }
+
+
+    /**
+     * Record that a redelivered message has been retried.
+     * @param strategy the way the message was retried
+     */
+    public void incrementRetried(RetryStrategy strategy)
+    {
+        retries.get(strategy).incrementAndGet();
+    }
+
+
+    /**
+     * @param strategy a retry strategy
+     * @return the number of redelivered messages that have been retried using the strategy
+     */
+    public long getMessagesRetried(RetryStrategy strategy)
+    {
+        return retries.get(strategy).get();
+    }
+
+
+    @Override
+    public Map<String, Supplier<? extends Number>> getAdditionalMetrics()
+    {
+        return Collections.unmodifiableMap(additionalMetrics);
+    }
+
+
+    /**
+     * @return the average of a total time in nanoseconds over a number of messages, in milliseconds
+     */
+    private static double getAverageMillis(AtomicLong totalNanos, AtomicLong messages)
+    {
+        long count = messages.get();
+        return count == 0 ? 0 : totalNanos.get() / 1_000_000.0 / count;
+    }
+
+
+    private static int getPublishBatchBucket(int messages)
+    {
+        return Math.min(PUBLISH_BATCH_BUCKETS.length - 1, 31 - Integer.numberOfLeadingZeros(Math.max(1, messages)));
+    }
 }
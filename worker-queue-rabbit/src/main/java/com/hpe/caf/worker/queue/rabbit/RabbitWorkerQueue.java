@@ -34,12 +34,21 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
- * This implementation uses a separate thread for a consumer and producer, each with their own Channel.
+ * This implementation uses a separate thread for each consumer and the producer, each with their own Channel.
  * These threads handle operations via a BlockingQueue of Event objects. In all scenarios where the
  * tasks triggered by the message take significantly longer than the handling of the messages themselves
  * (which should hopefully be true of all microservices), this implementation should work.
@@ -48,24 +57,48 @@ import java.util.concurrent.TimeoutException;
  * queue names). There is the input queue to receive messages from, the retry queue (which may be the input
  * queue) where redelivered messages get republished to, and the rejected queue which is where messages that
  * could not be handled are put. There are an unlimited number of possible output queues as defined by the
- * Worker's response. All published messages use RabbitMQ confirmations.
+ * Worker's response. All published messages use RabbitMQ confirmations. Optionally, messages the worker cannot
+ * accept at the moment are parked on delay queues, which dead-letter them back to the input queue once they expire.
+ *
+ * There may be several consumer channels, each with its own prefetch, consumer and event thread, so that handling
+ * deliveries and acknowledgements is not serialised on a single thread. Events for a message are routed back to the
+ * channel that received it by a ConsumerEventRouter. Similarly there may be several publisher channels, each with its
+ * own publishing thread and confirm listener, with messages assigned to them by target queue or in turn.
+ *
+ * Tasks may also be consumed from additional input queues, each on a channel of its own with its own prefetch. The
+ * weight of each input queue is passed on to worker-core, which shares its threads between the queues accordingly.
+ *
+ * If the server blocks the connection because it is short of memory or disk space, consumption is paused until it is
+ * unblocked, so that tasks whose results cannot be published do not pile up in memory.
  */
 public final class RabbitWorkerQueue implements ManagedWorkerQueue
 {
-    private DefaultRabbitConsumer consumer;
-    private EventPoller<WorkerPublisher> publisher;
     private Connection conn;
-    private Channel incomingChannel;
-    private Channel outgoingChannel;
-    private Thread publisherThread;
-    private Thread consumerThread;
-    private final List<String> consumerTags = new LinkedList<>();
-    private final Set<String> declaredQueues = new HashSet<>();
-    private final BlockingQueue<Event<QueueConsumer>> consumerQueue = new LinkedBlockingQueue<>();
-    private final BlockingQueue<Event<WorkerPublisher>> publisherQueue = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService timer;
+    private ExecutorService decodePool;
+    private final Object timerLock = new Object();
+    private final List<ConsumerChannel> consumerChannels = new ArrayList<>();
+    private final List<PublisherChannel> publisherChannels = new ArrayList<>();
+    private final List<WorkerConfirmListener> confirmListeners = new ArrayList<>();
+    private final List<BlockingQueue<Event<WorkerPublisher>>> publisherQueues = new ArrayList<>();
+    private final AtomicInteger pausedPublishers = new AtomicInteger(0);
+    private final AtomicInteger nextPublisher = new AtomicInteger(0);
+    private final Set<String> declaredQueues = ConcurrentHashMap.newKeySet();
+    private final ConsumerEventRouter consumerEvents;
     private final RabbitMetricsReporter metrics = new RabbitMetricsReporter();
     private final RabbitWorkerQueueConfiguration config;
     private final int maxTasks;
+    private final Map<String, Integer> inputQueueWeights = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, InputQueueMetrics> inputMetrics = new LinkedHashMap<>();
+    private final Map<String, Map<String, Integer>> delayQueues = new HashMap<>();
+    private final PrefetchTuner prefetchTuner;
+    private final ConnectionBlockedListener blockedListener;
+    private volatile int prefetch;
+    private long lastReceived;
+    private long lastAcknowledged;
+    private long lastAckLatencyNanos;
+    private double ackLatencyMillis;
+    private long lastTuneTime;
     private static final Logger LOG = LoggerFactory.getLogger(RabbitWorkerQueue.class);
 
 
@@ -76,6 +109,38 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     {
         this.config = Objects.requireNonNull(config);
         this.maxTasks = maxTasks;
+        List<BlockingQueue<Event<QueueConsumer>>> consumerQueues = new ArrayList<>();
+        int channelCount = config.getConsumerChannels() + config.getAdditionalInputQueues().size();
+        for ( int i = 0; i < channelCount; i++ ) {
+            BlockingQueue<Event<QueueConsumer>> consumerQueue = new LinkedBlockingQueue<>();
+            consumerQueues.add(consumerQueue);
+            metrics.addMetric("consumer." + i + ".queueDepth", consumerQueue::size);
+        }
+        this.consumerEvents = new ConsumerEventRouter(consumerQueues);
+        for ( int i = 0; i < config.getPublisherChannels(); i++ ) {
+            publisherQueues.add(createPublisherQueue(i));
+            WorkerConfirmListener confirmListener = new WorkerConfirmListener(consumerEvents);
+            confirmListeners.add(confirmListener);
+            metrics.addMetric("publisher." + i + ".inFlight", confirmListener::getInFlightCount);
+            metrics.addMetric("publisher." + i + ".confirmLatency", confirmListener::getAverageConfirmLatency);
+        }
+        addInputQueue(config.getInputQueue(), config.getInputQueueWeight());
+        for ( InputQueueConfiguration inputQueue : config.getAdditionalInputQueues() ) {
+            addInputQueue(inputQueue.getName(), inputQueue.getWeight());
+        }
+        int initialPrefetch = Math.max(1, maxTasks + config.getPrefetchBuffer());
+        if ( config.getPrefetchMode() == PrefetchMode.ADAPTIVE ) {
+            this.prefetchTuner = new PrefetchTuner(maxTasks, config.getPrefetchMin(), config.getPrefetchMax(),
+                                                   config.getPrefetchTargetWait(), initialPrefetch);
+            this.prefetch = prefetchTuner.getPrefetch();
+        } else {
+            this.prefetchTuner = null;
+            this.prefetch = initialPrefetch;
+        }
+        metrics.addMetric("prefetch", () -> prefetch);
+        this.blockedListener = new ConnectionBlockedListener(Runnable::run, this::handleBlockedChange);
+        metrics.addMetric("connection.blocked", () -> blockedListener.isBlocked() ? 1 : 0);
+        metrics.addMetric("connection.blockedTime", blockedListener::getBlockedTime);
         LOG.debug("Initialised");
     }
 
@@ -83,11 +148,14 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     /**
      * {@inheritDoc}
      *
-     * Create a RabbitMQ connection, and separate incoming and outgoing channels. The connection and channels are managed by Lyra, so
-     * will attempt to re-establish should they drop. Declare the queues on the appropriate channels and kick off the publisher and
-     * consumer threads to handle messages. Since this code uses publisher confirms, it is important currently to declare the publisher
-     * channel before the consumer channel, otherwise during a connection drop scenario, Lyra can report the publish sequence number
-     * for the "old" channel before recovering it.
+     * Create a RabbitMQ connection, and separate incoming and outgoing channels. The prefetch is divided between the incoming channels,
+     * with each getting at least one message. With the ADAPTIVE prefetch mode the per-consumer prefetch is set to the maximum, and the
+     * tuned prefetch is applied as a channel wide limit which, unlike the per-consumer prefetch, takes effect on existing consumers when
+     * it is changed. Acknowledgements are then batched in sizes that suit the lowest prefetch the tuner may choose. The connection and
+     * channels are managed by Lyra, so will attempt to re-establish should they drop. Declare the queues on the appropriate channels and
+     * kick off the publisher and consumer threads to handle messages. Since this code uses publisher confirms, it is important currently
+     * to declare the publisher channel before the consumer channel, otherwise during a connection drop scenario, Lyra can report the
+     * publish sequence number for the "old" channel before recovering it.
      */
     @Override
     public void start(TaskCallback callback)
@@ -97,45 +165,92 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
             throw new IllegalStateException("Already started");
         }
         try {
-            WorkerConfirmListener confirmListener = new WorkerConfirmListener(consumerQueue);
-            createConnection(callback, confirmListener);
-            outgoingChannel = conn.createChannel();
-            incomingChannel = conn.createChannel();
-            int prefetch = Math.max(1, maxTasks + config.getPrefetchBuffer());
-            incomingChannel.basicQos(prefetch);
-            WorkerQueueConsumerImpl consumerImpl = new WorkerQueueConsumerImpl(callback, metrics, consumerQueue, incomingChannel,
-                    publisherQueue, config.getRetryQueue(), config.getRetryLimit());            
-            consumer = new DefaultRabbitConsumer(consumerQueue, consumerImpl);
-            WorkerPublisherImpl publisherImpl = new WorkerPublisherImpl(outgoingChannel, metrics, consumerQueue, confirmListener);
-            publisher = new EventPoller<>(2, publisherQueue, publisherImpl);
-            declareWorkerQueue(incomingChannel, config.getInputQueue());
-            declareWorkerQueue(outgoingChannel, config.getRetryQueue());
-            consumerTags.add(incomingChannel.basicConsume(config.getInputQueue(), consumer));
+            createConnection(callback);
+            for ( int i = 0; i < confirmListeners.size(); i++ ) {
+                Channel outgoingChannel = conn.createChannel();
+                WorkerPublisherImpl publisherImpl = new WorkerPublisherImpl(outgoingChannel, metrics, consumerEvents, confirmListeners.get(i),
+                                                                            config.getPublishEnvelopeSize(), config.getPublishEnvelopeBytes(),
+                                                                            config.getCompressionThreshold(), config.getCompressionLevel());
+                publisherChannels.add(new PublisherChannel(outgoingChannel, publisherQueues.get(i), publisherImpl, config));
+            }
+            int channelPrefetch = getChannelPrefetch(prefetch);
+            // the tuner may lower the prefetch as far as the minimum, and the batch size is fixed, so size it for that
+            int ackBatchSize = getAckBatchSize(prefetchTuner != null ? getChannelPrefetch(config.getPrefetchMin()) : channelPrefetch);
+            boolean batchingAcks = ackBatchSize > 1;
+            for ( int i = 0; i < config.getConsumerChannels(); i++ ) {
+                Channel incomingChannel = conn.createChannel();
+                if ( prefetchTuner != null ) {
+                    incomingChannel.basicQos(getChannelPrefetch(config.getPrefetchMax()));
+                    incomingChannel.basicQos(channelPrefetch, true);
+                } else {
+                    incomingChannel.basicQos(channelPrefetch);
+                }
+                consumerChannels.add(createConsumerChannel(callback, i, incomingChannel, config.getInputQueue(), config.getRetryQueue(),
+                                                           ackBatchSize, false));
+            }
+            int index = config.getConsumerChannels();
+            for ( InputQueueConfiguration inputQueue : config.getAdditionalInputQueues() ) {
+                int queuePrefetch = inputQueue.getPrefetch() > 0 ? inputQueue.getPrefetch() : Math.max(1, maxTasks + config.getPrefetchBuffer());
+                int queueAckBatchSize = getAckBatchSize(queuePrefetch);
+                batchingAcks |= queueAckBatchSize > 1;
+                // unless there is a separate retry queue, messages are retried on the queue they came from
+                String retryQueue = config.getRetryQueue().equals(config.getInputQueue()) ? inputQueue.getName() : config.getRetryQueue();
+                Channel incomingChannel = conn.createChannel();
+                incomingChannel.basicQos(queuePrefetch);
+                consumerChannels.add(createConsumerChannel(callback, index++, incomingChannel, inputQueue.getName(), retryQueue,
+                                                           queueAckBatchSize, true));
+            }
+            if ( batchingAcks ) {
+                startAckFlushTimer();
+            }
+            if ( prefetchTuner != null ) {
+                startPrefetchTuning(callback);
+            }
+            for ( String inputQueue : inputMetrics.keySet() ) {
+                declareWorkerQueue(consumerChannels.get(0).channel, inputQueue);
+            }
+            declareWorkerQueue(publisherChannels.get(0).channel, config.getRetryQueue());
+            for ( Map.Entry<String, Map<String, Integer>> queueDelays : delayQueues.entrySet() ) {
+                for ( Map.Entry<String, Integer> delayQueue : queueDelays.getValue().entrySet() ) {
+                    declareDelayQueue(publisherChannels.get(0).channel, delayQueue.getKey(), queueDelays.getKey(), delayQueue.getValue());
+                }
+            }
+            for ( ConsumerChannel consumerChannel : consumerChannels ) {
+                consumerChannel.consumerTags.add(consumerChannel.channel.basicConsume(consumerChannel.inputQueue, consumerChannel.consumer));
+            }
+            conn.addBlockedListener(blockedListener);
         } catch (IOException | TimeoutException e) {
             throw new QueueException("Failed to establish queues", e);
         }
-        publisherThread = new Thread(publisher);
-        consumerThread = new Thread(consumer);
-        publisherThread.start();
-        consumerThread.start();
+        for ( PublisherChannel publisherChannel : publisherChannels ) {
+            publisherChannel.thread.start();
+        }
+        for ( ConsumerChannel consumerChannel : consumerChannels ) {
+            consumerChannel.thread.start();
+        }
     }
 
 
     /**
      * {@inheritDoc}
      *
-     * Add a PUBLISH event that the publisher thread will handle.
+     * Add a PUBLISH event that the selected publisher thread will handle.
      */
     @Override
     public void publish(String acknowledgeId, byte[] taskMessage, String targetQueue, Map<String, Object> headers)
         throws QueueException
     {
+        PublisherChannel publisherChannel = selectPublisher(targetQueue);
         try {
-            declareWorkerQueue(outgoingChannel, targetQueue);
+            declareWorkerQueue(publisherChannel.channel, targetQueue);
         } catch (IOException e) {
             throw new QueueException("Failed to submit task", e);
         }
-        publisherQueue.add(new WorkerPublishQueueEvent(taskMessage, targetQueue, Long.parseLong(acknowledgeId), headers));
+        try {
+            publisherChannel.queue.add(new WorkerPublishQueueEvent(taskMessage, targetQueue, Long.parseLong(acknowledgeId), headers));
+        } catch (IllegalStateException e) {
+            throw new QueueException("Failed to submit task", e);
+        }
     }
 
 
@@ -149,7 +264,7 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     {
         Objects.requireNonNull(messageId);
         LOG.debug("Generating reject event for task {}", messageId);
-        consumerQueue.add(new ConsumerRejectEvent(Long.parseLong(messageId)));
+        consumerEvents.reject(Long.parseLong(messageId));
     }
 
 
@@ -162,7 +277,7 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     public void discardTask(String messageId) {
         Objects.requireNonNull(messageId);
         LOG.debug("Generating drop event for task {}", messageId);
-        consumerQueue.add(new ConsumerDropEvent(Long.parseLong(messageId)));
+        consumerEvents.drop(Long.parseLong(messageId));
     }
 
 
@@ -177,7 +292,7 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     {
         Objects.requireNonNull(messageId);
         LOG.debug("Generating acknowledge event for task {}", messageId);
-        consumerQueue.add(new ConsumerAckEvent(Long.parseLong(messageId)));
+        consumerEvents.ack(Long.parseLong(messageId));
     }
     
     
@@ -192,6 +307,25 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     }
 
 
+    /**
+     * {@inheritDoc}
+     *
+     * Return the main input queue followed by any additional input queues.
+     */
+    @Override
+    public Collection<String> getInputQueues()
+    {
+        return Collections.unmodifiableCollection(inputMetrics.keySet());
+    }
+
+
+    @Override
+    public int getInputQueueWeight(String inputQueue)
+    {
+        return inputQueueWeights.getOrDefault(inputQueue, 1);
+    }
+
+
     /**
      * {@inheritDoc}
      *
@@ -201,12 +335,14 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     public void shutdownIncoming()
     {
         LOG.debug("Closing incoming queues");
-        for ( String consumerTag : consumerTags ) {
-            try {
-                incomingChannel.basicCancel(consumerTag);
-            } catch (IOException e) {
-                metrics.incremementErrors();
-                LOG.warn("Failed to cancel consumer {}", consumerTag, e);
+        for ( ConsumerChannel consumerChannel : consumerChannels ) {
+            for ( String consumerTag : consumerChannel.consumerTags ) {
+                try {
+                    consumerChannel.channel.basicCancel(consumerTag);
+                } catch (IOException e) {
+                    metrics.incremementErrors();
+                    LOG.warn("Failed to cancel consumer {}", consumerTag, e);
+                }
             }
         }
     }
@@ -216,16 +352,26 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     public void shutdown()
     {
         LOG.debug("Shutting down");
+        if ( timer != null ) {
+            timer.shutdownNow();
+        }
+        if ( decodePool != null ) {
+            decodePool.shutdownNow();
+        }
         try {
-            if ( consumer != null ) {
-                consumer.shutdown();
+            for ( ConsumerChannel consumerChannel : consumerChannels ) {
+                consumerChannel.consumer.shutdown();
             }
-            if ( publisher != null ) {
-                publisher.shutdown();
+            for ( PublisherChannel publisherChannel : publisherChannels ) {
+                publisherChannel.publisher.shutdown();
             }
             if ( conn != null ) {
-                incomingChannel.close();
-                outgoingChannel.close();
+                for ( ConsumerChannel consumerChannel : consumerChannels ) {
+                    consumerChannel.channel.close();
+                }
+                for ( PublisherChannel publisherChannel : publisherChannels ) {
+                    publisherChannel.channel.close();
+                }
                 conn.close();
             }
         } catch (IOException | TimeoutException e) {
@@ -247,37 +393,442 @@ public final class RabbitWorkerQueue implements ManagedWorkerQueue
     {
         if ( !conn.isOpen() ) {
             return new HealthResult(HealthStatus.UNHEALTHY, "Rabbit connection failed");
-        } else if ( !incomingChannel.isOpen() ) {
-            return new HealthResult(HealthStatus.UNHEALTHY, "Incoming channel failed");
-        } else if ( !outgoingChannel.isOpen() ) {
-            return new HealthResult(HealthStatus.UNHEALTHY, "Outgoing channel failed");
-        } else if ( consumerThread == null || !consumerThread.isAlive() ) {
+        }
+        for ( ConsumerChannel consumerChannel : consumerChannels ) {
+            if ( !consumerChannel.channel.isOpen() ) {
+                return new HealthResult(HealthStatus.UNHEALTHY, "Incoming channel failed");
+            } else if ( !consumerChannel.thread.isAlive() ) {
+                return new HealthResult(HealthStatus.UNHEALTHY, "RabbitMQ listening thread not running");
+            }
+        }
+        for ( PublisherChannel publisherChannel : publisherChannels ) {
+            if ( !publisherChannel.channel.isOpen() ) {
+                return new HealthResult(HealthStatus.UNHEALTHY, "Outgoing channel failed");
+            } else if ( !publisherChannel.thread.isAlive() ) {
+                return new HealthResult(HealthStatus.UNHEALTHY, "RabbitMQ publishing thread not running");
+            }
+        }
+        if ( consumerChannels.isEmpty() ) {
             return new HealthResult(HealthStatus.UNHEALTHY, "RabbitMQ listening thread not running");
-        } else if ( publisherThread == null || !publisherThread.isAlive() ) {
+        } else if ( publisherChannels.isEmpty() ) {
             return new HealthResult(HealthStatus.UNHEALTHY, "RabbitMQ publishing thread not running");
+        } else if ( blockedListener.isBlocked() ) {
+            return new HealthResult(HealthStatus.UNHEALTHY, "RabbitMQ connection blocked for " + blockedListener.getCurrentBlockedTime() +
+                                                            "ms: " + blockedListener.getReason());
         } else {
             return HealthResult.RESULT_HEALTHY;
         }
     }
 
 
-    private void createConnection(TaskCallback callback, WorkerConfirmListener listener)
+    private void createConnection(TaskCallback callback)
         throws IOException, TimeoutException
     {
         RabbitConfiguration rc = config.getRabbitConfiguration();
         ConnectionOptions lyraOpts = RabbitUtil.createLyraConnectionOptions(rc.getRabbitHost(), rc.getRabbitPort(), rc.getRabbitUser(), rc.getRabbitPassword());
         Config lyraConfig = RabbitUtil.createLyraConfig(rc.getBackoffInterval(), rc.getMaxBackoffInterval(), -1);
-        lyraConfig.withConnectionListeners(new WorkerConnectionListener(callback, listener));
+        lyraConfig.withConnectionListeners(new WorkerConnectionListener(callback, confirmListeners, declaredQueues)
+        {
+            @Override
+            public void onRecoveryStarted(final Connection connection)
+            {
+                consumerChannels.forEach(c -> c.queue.add(c.discardHeldEvent));
+                super.onRecoveryStarted(connection);
+            }
+
+
+            @Override
+            public void onRecoveryCompleted(final Connection connection)
+            {
+                blockedListener.reset();
+                super.onRecoveryCompleted(connection);
+            }
+        });
         conn = RabbitUtil.createRabbitConnection(lyraOpts, lyraConfig);
     }
 
 
+    /**
+     * Publishing can stall, for instance when the RabbitMQ server applies flow control, so if configured the publisher
+     * queues are bounded to stop results piling up in memory. With the PAUSE policy a full publisher queue stops the
+     * consumer channels taking on new messages until it has drained.
+     */
+    private BlockingQueue<Event<WorkerPublisher>> createPublisherQueue(int index)
+    {
+        metrics.addMetric("publisher." + index + ".queueDepth", () -> publisherQueues.get(index).size());
+        if ( config.getPublisherQueueCapacity() == 0 ) {
+            return new LinkedBlockingQueue<>();
+        }
+        BoundedEventQueue<WorkerPublisher> queue = new BoundedEventQueue<>(config.getPublisherQueueCapacity(), config.getPublisherOverflowPolicy());
+        queue.setPauseListener(new BoundedEventQueue.PauseListener()
+        {
+            @Override
+            public void pause()
+            {
+                if ( pausedPublishers.getAndIncrement() == 0 ) {
+                    LOG.warn("Publisher queue full, pausing consumption");
+                    scheduleConsumerPrefetch();
+                }
+            }
+
+
+            @Override
+            public void resume()
+            {
+                if ( pausedPublishers.decrementAndGet() == 0 ) {
+                    LOG.info("Publisher queue drained, resuming consumption");
+                    scheduleConsumerPrefetch();
+                }
+            }
+        });
+        metrics.addMetric("publisher." + index + ".blockedTime", queue::getBlockedTime);
+        return queue;
+    }
+
+
+    /**
+     * Pause or resume the consumers when the server blocks or unblocks the connection. This is called on the
+     * connection's thread, and while the connection is blocked any call to the server over it would hang, so the
+     * consumers are paused by posting an event that makes them hold new deliveries back from worker-core rather than
+     * by changing the prefetch. They are bounded by the prefetch in the meantime, as none of them can be acknowledged.
+     * Once the connection is unblocked, any prefetch change skipped while it was blocked is applied on the timer.
+     */
+    private void handleBlockedChange()
+    {
+        synchronized (blockedListener) {
+            boolean blocked = blockedListener.isBlocked();
+            for ( ConsumerChannel consumerChannel : consumerChannels ) {
+                consumerChannel.queue.add(blocked ? consumerChannel.pauseEvent : consumerChannel.resumeEvent);
+            }
+            if ( !blocked ) {
+                scheduleConsumerPrefetch();
+            }
+        }
+    }
+
+
+    /**
+     * Apply the consumer prefetch on the timer thread, so that the caller does not wait for the server.
+     */
+    private void scheduleConsumerPrefetch()
+    {
+        try {
+            getTimer().execute(this::applyConsumerPrefetch);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Not applying consumer prefetch, the queue is shutting down");
+        }
+    }
+
+
+    /**
+     * Set the channel wide prefetch limit on every consumer channel, on top of the per-consumer prefetch. While any
+     * publisher is paused this is 1, which stops deliveries until everything outstanding is acknowledged. Otherwise
+     * it is the tuned prefetch for the channels of the main input queue, or no limit at all if the prefetch is fixed
+     * or the channel consumes an additional input queue. This only runs on the timer thread, so pausing, resuming and
+     * tuning always leave the channels with the limit for the latest state. Nothing is changed while the server has
+     * blocked the connection, as the call would not return until it was unblocked, at which point this is run again.
+     */
+    private void applyConsumerPrefetch()
+    {
+        if ( blockedListener.isBlocked() ) {
+            return;
+        }
+        boolean paused = pausedPublishers.get() > 0;
+        for ( ConsumerChannel consumerChannel : consumerChannels ) {
+            int limit = paused ? 1 : prefetchTuner != null && !consumerChannel.additional ? getChannelPrefetch(prefetch) : 0;
+            try {
+                consumerChannel.channel.basicQos(limit, true);
+            } catch (IOException e) {
+                metrics.incremementErrors();
+                LOG.warn("Failed to set prefetch on consumer channel", e);
+            }
+        }
+    }
+
+
+    /**
+     * Choose the publisher channel for a message. Selecting by target queue keeps the messages for each queue in order,
+     * while selecting in turn spreads the load evenly when most messages go to the same queue.
+     */
+    private PublisherChannel selectPublisher(String targetQueue)
+    {
+        int count = publisherChannels.size();
+        if ( count == 1 ) {
+            return publisherChannels.get(0);
+        }
+        int index = config.getPublisherSelection() == PublisherSelection.ROUND_ROBIN
+                    ? nextPublisher.getAndIncrement() : targetQueue.hashCode();
+        return publisherChannels.get(Math.floorMod(index, count));
+    }
+
+
+    /**
+     * @return the share of a total prefetch given to each consumer channel of the main input queue, which is at least 1
+     */
+    private int getChannelPrefetch(int totalPrefetch)
+    {
+        int channelCount = config.getConsumerChannels();
+        return Math.max(1, (totalPrefetch + channelCount - 1) / channelCount);
+    }
+
+
+    /**
+     * Held acknowledgements count against the prefetch, so never wait for more than half of it.
+     */
+    private int getAckBatchSize(int channelPrefetch)
+    {
+        return Math.min(config.getAckBatchSize(), Math.max(1, channelPrefetch / 2));
+    }
+
+
+    /**
+     * Register an input queue, with its weight, metrics and delay queues.
+     */
+    private void addInputQueue(String inputQueue, int weight)
+    {
+        if ( inputQueueWeights.containsKey(inputQueue) ) {
+            throw new IllegalArgumentException("Input queue " + inputQueue + " is configured more than once");
+        }
+        inputQueueWeights.put(inputQueue, weight);
+        InputQueueMetrics queueMetrics = new InputQueueMetrics();
+        inputMetrics.put(inputQueue, queueMetrics);
+        metrics.addMetric("input." + inputQueue + ".received", queueMetrics::getReceived);
+        metrics.addMetric("input." + inputQueue + ".acknowledged", queueMetrics::getAcknowledged);
+        metrics.addMetric("input." + inputQueue + ".latency", queueMetrics::getAverageLatency);
+        Map<String, Integer> queueDelays = new LinkedHashMap<>();
+        for ( Integer delay : config.getRejectedTaskDelays() ) {
+            if ( delay == null || delay < 1 ) {
+                throw new IllegalArgumentException("Rejected task delays must be at least 1 millisecond");
+            }
+            queueDelays.put(RabbitUtil.getDelayQueueName(inputQueue, delay), delay);
+        }
+        delayQueues.put(inputQueue, queueDelays);
+    }
+
+
+    private ConsumerChannel createConsumerChannel(TaskCallback callback, int index, Channel incomingChannel, String inputQueue,
+                                                  String retryQueue, int ackBatchSize, boolean additional)
+    {
+        WorkerQueueConsumerImpl consumerImpl = new WorkerQueueConsumerImpl(callback, metrics, consumerEvents, index, incomingChannel,
+                publisherChannels.get(0).queue, retryQueue, config.getRetryLimit(), config.getRetryStrategy(),
+                new ArrayList<>(delayQueues.get(inputQueue).keySet()), ackBatchSize, config.getAckBatchTimeout(), inputMetrics.get(inputQueue),
+                inputQueue, getDecodeExecutor());
+        return new ConsumerChannel(incomingChannel, consumerImpl, consumerEvents.getQueue(index), inputQueue, additional, config, metrics);
+    }
+
+
+    /**
+     * The decode pool is shared by all of the consumer channels. Its queue is unbounded, but it is limited by the
+     * prefetch: it can never hold more deliveries than the consumers have been allowed to prefetch, though as each of
+     * those may be an envelope it can hold up to that many times the number of messages in an envelope.
+     */
+    private Executor getDecodeExecutor()
+    {
+        if ( config.getDecodeThreads() == 0 ) {
+            return Runnable::run;
+        }
+        if ( decodePool == null ) {
+            AtomicInteger threadCount = new AtomicInteger(0);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(config.getDecodeThreads(), config.getDecodeThreads(), 0, TimeUnit.MILLISECONDS,
+                                                             new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "rabbit-decode-" + threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+            metrics.addMetric("decode.queueDepth", () -> pool.getQueue().size());
+            decodePool = pool;
+        }
+        return decodePool;
+    }
+
+
+    /**
+     * Batched acknowledgements are only checked against their timeout when the consumer handles an event, so
+     * periodically post an event to make sure a quiet queue does not leave completed messages unacknowledged.
+     */
+    private void startAckFlushTimer()
+    {
+        long period = Math.max(1, config.getAckBatchTimeout() / 2);
+        schedule(() -> consumerChannels.forEach(c -> c.queue.add(c.flushEvent)), period);
+    }
+
+
+    private void startPrefetchTuning(TaskCallback callback)
+    {
+        lastReceived = inputMetrics.get(config.getInputQueue()).getReceived();
+        lastAcknowledged = metrics.getAcknowledgedMessages();
+        lastAckLatencyNanos = metrics.getTotalAckLatencyNanos();
+        lastTuneTime = System.nanoTime();
+        schedule(() -> tunePrefetch(callback), config.getPrefetchTuningInterval());
+    }
+
+
+    /**
+     * Feed the message rate and the average acknowledgement latency since the last run, and the worker's backlog, to
+     * the tuner, and apply the resulting prefetch. If nothing was acknowledged since the last run, the latency from
+     * the run before is used again. The prefetch is applied even if it has not changed, in case the channels have been
+     * recovered since it was last set.
+     */
+    private void tunePrefetch(TaskCallback callback)
+    {
+        long now = System.nanoTime();
+        long received = inputMetrics.get(config.getInputQueue()).getReceived();
+        double rate = (received - lastReceived) * 1_000_000_000.0 / Math.max(1, now - lastTuneTime);
+        lastReceived = received;
+        lastTuneTime = now;
+        long acknowledged = metrics.getAcknowledgedMessages();
+        long ackLatencyNanos = metrics.getTotalAckLatencyNanos();
+        if ( acknowledged > lastAcknowledged ) {
+            ackLatencyMillis = (ackLatencyNanos - lastAckLatencyNanos) / 1_000_000.0 / (acknowledged - lastAcknowledged);
+        }
+        lastAcknowledged = acknowledged;
+        lastAckLatencyNanos = ackLatencyNanos;
+        int newPrefetch = prefetchTuner.update(rate, callback.getBacklogSize(), ackLatencyMillis);
+        if ( newPrefetch != prefetch ) {
+            LOG.debug("Adjusting prefetch from {} to {} ({} messages/s)", prefetch, newPrefetch, rate);
+            prefetch = newPrefetch;
+        }
+        applyConsumerPrefetch();
+    }
+
+
+    private void schedule(Runnable task, long periodMillis)
+    {
+        getTimer().scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * The timer is guarded by its own lock rather than this object's, as the connection thread uses it to hand off
+     * prefetch changes when the connection is unblocked, and must not wait on anything else.
+     */
+    private ScheduledExecutorService getTimer()
+    {
+        synchronized (timerLock) {
+            if ( timer == null ) {
+                timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "rabbit-queue-timer");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            return timer;
+        }
+    }
+
+
+    /**
+     * Make sure a queue exists according to the configured QueueDeclareMode. Successful declarations are cached so
+     * that publishing to a queue only costs a round trip to the server the first time. The cache is cleared by the
+     * WorkerConnectionListener when the connection is recovered.
+     */
     private void declareWorkerQueue(Channel channel, String queueName)
         throws IOException
     {
-        if ( !declaredQueues.contains(queueName) ) {
-            RabbitUtil.declareWorkerQueue(channel, queueName);
+        if ( declaredQueues.contains(queueName) ) {
+            return;
+        }
+        switch (config.getDeclareMode()) {
+            case ACTIVE:
+                RabbitUtil.declareWorkerQueue(channel, queueName, config.getMaxPriority());
+                break;
+            case PASSIVE:
+                channel.queueDeclarePassive(queueName);
+                break;
+            case NONE:
+                break;
         }
+        declaredQueues.add(queueName);
     }
 
+
+    /**
+     * Make sure a delay queue for an input queue exists according to the configured QueueDeclareMode.
+     */
+    private void declareDelayQueue(Channel channel, String queueName, String inputQueue, int delayMillis)
+        throws IOException
+    {
+        switch (config.getDeclareMode()) {
+            case ACTIVE:
+                RabbitUtil.declareDelayQueue(channel, queueName, inputQueue, delayMillis);
+                break;
+            case PASSIVE:
+                channel.queueDeclarePassive(queueName);
+                break;
+            case NONE:
+                break;
+        }
+        declaredQueues.add(queueName);
+    }
+
+
+    /**
+     * The channel, publisher and event thread for one of the outgoing channels.
+     */
+    private static final class PublisherChannel
+    {
+        private final Channel channel;
+        private final BlockingQueue<Event<WorkerPublisher>> queue;
+        private final EventPoller<WorkerPublisher> publisher;
+        private final Thread thread;
+
+
+        PublisherChannel(Channel channel, BlockingQueue<Event<WorkerPublisher>> queue, WorkerPublisher publisherImpl,
+                         RabbitWorkerQueueConfiguration config)
+        {
+            this.channel = Objects.requireNonNull(channel);
+            this.queue = Objects.requireNonNull(queue);
+            this.publisher = new EventPoller<>(2, queue, publisherImpl, config.getPollStrategy(), config.getPollBatchSize());
+            this.thread = new Thread(publisher);
+        }
+    }
+
+
+    /**
+     * The channel, consumer and event thread for one of the incoming channels.
+     */
+    private static final class ConsumerChannel
+    {
+        private final Channel channel;
+        private final BlockingQueue<Event<QueueConsumer>> queue;
+        private final DefaultRabbitConsumer consumer;
+        private final Event<QueueConsumer> flushEvent;
+        private final Event<QueueConsumer> pauseEvent;
+        private final Event<QueueConsumer> resumeEvent;
+        private final Event<QueueConsumer> discardHeldEvent;
+        private final Thread thread;
+        private final String inputQueue;
+        private final boolean additional;
+        private final List<String> consumerTags = new LinkedList<>();
+
+
+        ConsumerChannel(Channel channel, WorkerQueueConsumerImpl consumerImpl, BlockingQueue<Event<QueueConsumer>> queue, String inputQueue,
+                        boolean additional, RabbitWorkerQueueConfiguration config, RabbitMetricsReporter metrics)
+        {
+            this.channel = Objects.requireNonNull(channel);
+            this.queue = Objects.requireNonNull(queue);
+            this.inputQueue = Objects.requireNonNull(inputQueue);
+            this.additional = additional;
+            this.consumer = new DefaultRabbitConsumer(queue, consumerImpl, config.getPollStrategy(), config.getPollBatchSize())
+            {
+                @Override
+                protected void messageDecompressed(int compressedSize, int size, long cpuNanos)
+                {
+                    metrics.recordDecompression(cpuNanos);
+                }
+
+
+                @Override
+                protected int getMaxDecompressedSize()
+                {
+                    return config.getMaxDecompressedSize();
+                }
+            };
+            this.flushEvent = target -> consumerImpl.flushAcknowledgements();
+            this.pauseEvent = target -> consumerImpl.pause();
+            this.resumeEvent = target -> consumerImpl.resume();
+            this.discardHeldEvent = target -> consumerImpl.discardHeldDeliveries();
+            this.thread = new Thread(consumer);
+        }
+    }
 }
@@ -18,6 +18,12 @@ package com.hpe.caf.worker.queue.rabbit;
 
 import com.hpe.caf.api.Configuration;
 import com.hpe.caf.configs.RabbitConfiguration;
+import com.hpe.caf.util.rabbitmq.MessageCompression;
+import com.hpe.caf.util.rabbitmq.OverflowPolicy;
+import com.hpe.caf.util.rabbitmq.WaitStrategy;
+
+import java.util.Collections;
+import java.util.List;
 
 import javax.validation.Valid;
 import javax.validation.constraints.Max;
@@ -70,6 +76,160 @@ public class RabbitWorkerQueueConfiguration
      */
     @Min(1)
     private int retryLimit;
+    /**
+     * The maximum number of completed messages to settle with a single multiple acknowledgement. A value of 1
+     * disables batching, so every message is acknowledged individually as soon as it completes.
+     */
+    @Min(1)
+    @Max(100000)
+    private int ackBatchSize = 1;
+    /**
+     * The maximum time in milliseconds that a completed message is held waiting for its acknowledgement batch to fill.
+     */
+    @Min(1)
+    @Max(60000)
+    private int ackBatchTimeout = 100;
+    /**
+     * The maximum number of results to pack into a single envelope when publishing. A value of 1 disables envelopes,
+     * so every result is published as a message of its own.
+     */
+    @Min(1)
+    @Max(10000)
+    private int publishEnvelopeSize = 1;
+    /**
+     * The maximum size in bytes of the body of an envelope.
+     */
+    @Min(1024)
+    @Max(16777216)
+    private int publishEnvelopeBytes = 65536;
+    /**
+     * The size in bytes from which published message bodies are compressed, or 0 to disable compression.
+     */
+    @Min(0)
+    @Max(1073741824)
+    private int compressionThreshold;
+    /**
+     * The deflate compression level, from 1 (fastest) to 9 (smallest).
+     */
+    @Min(1)
+    @Max(9)
+    private int compressionLevel = 6;
+    /**
+     * The maximum size in bytes a compressed message body delivered to the worker may decompress to.
+     */
+    @Min(1024)
+    @Max(1073741824)
+    private int maxDecompressedSize = MessageCompression.DEFAULT_MAX_INFLATED_SIZE;
+    /**
+     * How queues should be declared before they are first used.
+     */
+    @NotNull
+    private QueueDeclareMode declareMode = QueueDeclareMode.ACTIVE;
+    /**
+     * The number of channels to consume the input queue on, each handled by its own thread.
+     */
+    @Min(1)
+    @Max(256)
+    private int consumerChannels = 1;
+    /**
+     * The number of threads to decode incoming messages and hand them to the worker on, shared by all of the consumer
+     * channels, or 0 to do so on the consumer threads themselves.
+     */
+    @Min(0)
+    @Max(256)
+    private int decodeThreads;
+    /**
+     * The number of channels to publish messages on, each handled by its own thread.
+     */
+    @Min(1)
+    @Max(256)
+    private int publisherChannels = 1;
+    /**
+     * How messages are assigned to publisher channels when there is more than one.
+     */
+    @NotNull
+    private PublisherSelection publisherSelection = PublisherSelection.TARGET_QUEUE;
+    /**
+     * The maximum number of messages waiting to be published on each publisher channel, or 0 for no limit.
+     */
+    @Min(0)
+    @Max(1000000)
+    private int publisherQueueCapacity;
+    /**
+     * What to do when a message is published while its publisher channel's queue is full.
+     */
+    @NotNull
+    private OverflowPolicy publisherOverflowPolicy = OverflowPolicy.BLOCK;
+    /**
+     * How the consumer and publisher threads wait for events while their queues are empty.
+     */
+    @NotNull
+    private WaitStrategy pollStrategy = WaitStrategy.BLOCKING;
+    /**
+     * The maximum number of events a consumer or publisher thread takes from its queue at once.
+     */
+    @Min(1)
+    @Max(10000)
+    private int pollBatchSize = 64;
+    /**
+     * Whether the prefetch is fixed, or adjusted to the observed workload.
+     */
+    @NotNull
+    private PrefetchMode prefetchMode = PrefetchMode.FIXED;
+    /**
+     * How redelivered messages are retried.
+     */
+    @NotNull
+    private RetryStrategy retryStrategy = RetryStrategy.REPUBLISH;
+    /**
+     * How long, in milliseconds, each successive delay queue holds tasks that are rejected by the worker at this time.
+     * If this is empty, rejected tasks are returned to the input queue straight away.
+     */
+    @NotNull
+    private List<Integer> rejectedTaskDelays = Collections.emptyList();
+    /**
+     * The highest message priority the queues support, or 0 if messages should not be prioritised.
+     */
+    @Min(0)
+    @Max(255)
+    private int maxPriority;
+    /**
+     * The share of the worker's threads tasks from the inputQueue get, relative to any additional input queues.
+     */
+    @Min(1)
+    @Max(1000)
+    private int inputQueueWeight = 1;
+    /**
+     * Further queues to consume tasks from, each on its own channel.
+     */
+    @NotNull
+    @Valid
+    private List<InputQueueConfiguration> additionalInputQueues = Collections.emptyList();
+    /**
+     * The lowest prefetch the ADAPTIVE prefetch mode will use.
+     */
+    @Min(1)
+    @Max(100000)
+    private int prefetchMin = 1;
+    /**
+     * The highest prefetch the ADAPTIVE prefetch mode will use.
+     */
+    @Min(1)
+    @Max(100000)
+    private int prefetchMax = 1000;
+    /**
+     * How often, in milliseconds, the ADAPTIVE prefetch mode adjusts the prefetch.
+     */
+    @Min(100)
+    @Max(3600000)
+    private int prefetchTuningInterval = 5000;
+    /**
+     * How long, in milliseconds, the ADAPTIVE prefetch mode aims for a prefetched message to wait before a worker
+     * thread starts on it.
+     */
+    @Min(0)
+    @Max(3600000)
+    private int prefetchTargetWait = 1000;
 
 
     public RabbitWorkerQueueConfiguration() { }
@@ -146,4 +306,316 @@ public class RabbitWorkerQueueConfiguration
     {
         this.retryLimit = retryLimit;
     }
+
+
+    public int getAckBatchSize()
+    {
+        return ackBatchSize;
+    }
+
+
+    public void setAckBatchSize(int ackBatchSize)
+    {
+        this.ackBatchSize = ackBatchSize;
+    }
+
+
+    public int getAckBatchTimeout()
+    {
+        return ackBatchTimeout;
+    }
+
+
+    public void setAckBatchTimeout(int ackBatchTimeout)
+    {
+        this.ackBatchTimeout = ackBatchTimeout;
+    }
+
+
+    public int getPublishEnvelopeSize()
+    {
+        return publishEnvelopeSize;
+    }
+
+
+    public void setPublishEnvelopeSize(int publishEnvelopeSize)
+    {
+        this.publishEnvelopeSize = publishEnvelopeSize;
+    }
+
+
+    public int getPublishEnvelopeBytes()
+    {
+        return publishEnvelopeBytes;
+    }
+
+
+    public void setPublishEnvelopeBytes(int publishEnvelopeBytes)
+    {
+        this.publishEnvelopeBytes = publishEnvelopeBytes;
+    }
+
+
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+
+    public void setCompressionThreshold(int compressionThreshold)
+    {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+
+    public void setCompressionLevel(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+    }
+
+
+    public int getMaxDecompressedSize()
+    {
+        return maxDecompressedSize;
+    }
+
+
+    public void setMaxDecompressedSize(int maxDecompressedSize)
+    {
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+
+    public QueueDeclareMode getDeclareMode()
+    {
+        return declareMode;
+    }
+
+
+    public void setDeclareMode(QueueDeclareMode declareMode)
+    {
+        this.declareMode = declareMode;
+    }
+
+
+    public int getConsumerChannels()
+    {
+        return consumerChannels;
+    }
+
+
+    public void setConsumerChannels(int consumerChannels)
+    {
+        this.consumerChannels = consumerChannels;
+    }
+
+
+    public int getDecodeThreads()
+    {
+        return decodeThreads;
+    }
+
+
+    public void setDecodeThreads(int decodeThreads)
+    {
+        this.decodeThreads = decodeThreads;
+    }
+
+
+    public int getPublisherChannels()
+    {
+        return publisherChannels;
+    }
+
+
+    public void setPublisherChannels(int publisherChannels)
+    {
+        this.publisherChannels = publisherChannels;
+    }
+
+
+    public PublisherSelection getPublisherSelection()
+    {
+        return publisherSelection;
+    }
+
+
+    public void setPublisherSelection(PublisherSelection publisherSelection)
+    {
+        this.publisherSelection = publisherSelection;
+    }
+
+
+    public int getPublisherQueueCapacity()
+    {
+        return publisherQueueCapacity;
+    }
+
+
+    public void setPublisherQueueCapacity(int publisherQueueCapacity)
+    {
+        this.publisherQueueCapacity = publisherQueueCapacity;
+    }
+
+
+    public OverflowPolicy getPublisherOverflowPolicy()
+    {
+        return publisherOverflowPolicy;
+    }
+
+
+    public void setPublisherOverflowPolicy(OverflowPolicy publisherOverflowPolicy)
+    {
+        this.publisherOverflowPolicy = publisherOverflowPolicy;
+    }
+
+
+    public WaitStrategy getPollStrategy()
+    {
+        return pollStrategy;
+    }
+
+
+    public void setPollStrategy(WaitStrategy pollStrategy)
+    {
+        this.pollStrategy = pollStrategy;
+    }
+
+
+    public int getPollBatchSize()
+    {
+        return pollBatchSize;
+    }
+
+
+    public void setPollBatchSize(int pollBatchSize)
+    {
+        this.pollBatchSize = pollBatchSize;
+    }
+
+
+    public PrefetchMode getPrefetchMode()
+    {
+        return prefetchMode;
+    }
+
+
+    public void setPrefetchMode(PrefetchMode prefetchMode)
+    {
+        this.prefetchMode = prefetchMode;
+    }
+
+
+    public int getPrefetchMin()
+    {
+        return prefetchMin;
+    }
+
+
+    public void setPrefetchMin(int prefetchMin)
+    {
+        this.prefetchMin = prefetchMin;
+    }
+
+
+    public int getPrefetchMax()
+    {
+        return prefetchMax;
+    }
+
+
+    public void setPrefetchMax(int prefetchMax)
+    {
+        this.prefetchMax = prefetchMax;
+    }
+
+
+    public int getPrefetchTuningInterval()
+    {
+        return prefetchTuningInterval;
+    }
+
+
+    public void setPrefetchTuningInterval(int prefetchTuningInterval)
+    {
+        this.prefetchTuningInterval = prefetchTuningInterval;
+    }
+
+
+    public int getPrefetchTargetWait()
+    {
+        return prefetchTargetWait;
+    }
+
+
+    public void setPrefetchTargetWait(int prefetchTargetWait)
+    {
+        this.prefetchTargetWait = prefetchTargetWait;
+    }
+
+
+    public RetryStrategy getRetryStrategy()
+    {
+        return retryStrategy;
+    }
+
+
+    public void setRetryStrategy(RetryStrategy retryStrategy)
+    {
+        this.retryStrategy = retryStrategy;
+    }
+
+
+    public List<Integer> getRejectedTaskDelays()
+    {
+        return rejectedTaskDelays;
+    }
+
+
+    public void setRejectedTaskDelays(List<Integer> rejectedTaskDelays)
+    {
+        this.rejectedTaskDelays = rejectedTaskDelays;
+    }
+
+
+    public int getMaxPriority()
+    {
+        return maxPriority;
+    }
+
+
+    public void setMaxPriority(int maxPriority)
+    {
+        this.maxPriority = maxPriority;
+    }
+
+
+    public int getInputQueueWeight()
+    {
+        return inputQueueWeight;
+    }
+
+
+    public void setInputQueueWeight(int inputQueueWeight)
+    {
+        this.inputQueueWeight = inputQueueWeight;
+    }
+
+
+    public List<InputQueueConfiguration> getAdditionalInputQueues()
+    {
+        return additionalInputQueues;
+    }
+
+
+    public void setAdditionalInputQueues(List<InputQueueConfiguration> additionalInputQueues)
+    {
+        this.additionalInputQueues = additionalInputQueues;
+    }
 }
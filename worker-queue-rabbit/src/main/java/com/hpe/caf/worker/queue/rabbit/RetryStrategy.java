@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+/**
+ * How a redelivered message, which may have caused a worker to crash, is retried.
+ */
+public enum RetryStrategy
+{
+    /**
+     * Republish the message to the retry queue with an incremented retry count header.
+     */
+    REPUBLISH,
+    /**
+     * Take the retry count from the x-delivery-count header that quorum queues add to redelivered messages, and hand
+     * the message straight to the worker without republishing it. Messages without the header are republished.
+     */
+    DELIVERY_COUNT,
+    /**
+     * Reject the message without requeueing it, so that the server dead-letters it to the retry queue, and take the
+     * retry count from the x-death header the server adds. The input queue must have a dead letter exchange that
+     * routes to the retry queue, otherwise the rejected messages are lost.
+     */
+    DEAD_LETTER;
+}
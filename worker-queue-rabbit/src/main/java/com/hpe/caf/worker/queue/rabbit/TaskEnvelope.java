@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import com.hpe.caf.api.worker.InvalidTaskException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Packs several task messages into the body of a single AMQP message, and unpacks them again. The body is simply
+ * the messages one after another, each preceded by its length as a 4 byte big-endian integer. The number of messages
+ * is carried in the RABBIT_HEADER_CAF_WORKER_ENVELOPE header, which is what marks a message as an envelope.
+ */
+final class TaskEnvelope
+{
+    private static final int FRAME_HEADER_SIZE = 4;
+
+
+    private TaskEnvelope()
+    {
+    }
+
+
+    /**
+     * @param frames the messages to pack
+     * @return the body of an envelope holding the messages
+     */
+    static byte[] pack(List<byte[]> frames)
+    {
+        int size = 0;
+        for ( byte[] frame : frames ) {
+            size += getFrameSize(frame);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for ( byte[] frame : frames ) {
+            buffer.putInt(frame.length);
+            buffer.put(frame);
+        }
+        return buffer.array();
+    }
+
+
+    /**
+     * @param data the body of an envelope
+     * @param count the number of messages the envelope claims to hold
+     * @return the messages held in the envelope
+     * @throws InvalidTaskException if the body does not hold exactly the number of messages claimed
+     */
+    static List<byte[]> unpack(byte[] data, int count)
+        throws InvalidTaskException
+    {
+        if ( count < 1 ) {
+            throw new InvalidTaskException("Envelope claims to hold " + count + " messages");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        List<byte[]> frames = new ArrayList<>(count);
+        try {
+            for ( int i = 0; i < count; i++ ) {
+                int length = buffer.getInt();
+                if ( length < 0 || length > buffer.remaining() ) {
+                    throw new InvalidTaskException("Envelope message " + i + " has invalid length " + length);
+                }
+                byte[] frame = new byte[length];
+                buffer.get(frame);
+                frames.add(frame);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new InvalidTaskException("Envelope holds fewer than " + count + " messages", e);
+        }
+        if ( buffer.hasRemaining() ) {
+            throw new InvalidTaskException("Envelope holds " + buffer.remaining() + " bytes after its last message");
+        }
+        return frames;
+    }
+
+
+    /**
+     * @param frame a message
+     * @return the number of bytes the message takes up in an envelope
+     */
+    static int getFrameSize(byte[] frame)
+    {
+        return FRAME_HEADER_SIZE + frame.length;
+    }
+}
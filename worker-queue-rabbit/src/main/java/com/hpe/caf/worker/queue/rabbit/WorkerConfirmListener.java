@@ -25,29 +25,50 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.LongFunction;
 
 
 /**
  * Ack incoming task messages when the outgoing response has been confirmed by the RabbitMQ broker.
+ *
+ * Publish sequence numbers increase monotonically on a channel, so pending confirmations are kept in primitive arrays
+ * used as a ring indexed by sequence number, rather than in a sorted map of boxed values. Registering or confirming a
+ * single sequence number is constant time and allocation free, and a multiple confirm is resolved by sweeping the range
+ * from the lowest outstanding sequence number up to the confirmed one. The ring only grows if the span between the
+ * lowest and highest outstanding sequence numbers exceeds its capacity, which is bounded in practice by the number of
+ * unacknowledged input messages. Access is guarded by this object's monitor, but it is only ever held for these short
+ * constant time operations and is normally contended by just the publisher and the connection thread. A response
+ * that is an envelope holding several messages is confirmed for every input message it was published for.
  */
 class WorkerConfirmListener implements ConfirmListener
 {
-    private final SortedMap<Long, Long> confirmMap = Collections.synchronizedSortedMap(new TreeMap<>());
-    private final BlockingQueue<Event<QueueConsumer>> consumerEvents;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long EMPTY = Long.MIN_VALUE;
+    private long[] sequences = newSequences(INITIAL_CAPACITY);
+    private long[] ackIds = new long[INITIAL_CAPACITY];
+    private long[][] envelopeAckIds = new long[INITIAL_CAPACITY][];
+    private long[] publishTimes = new long[INITIAL_CAPACITY];
+    private long lowest;
+    private long highest;
+    private volatile int count;
+    private long confirmed;
+    private long confirmLatencyNanos;
+    private final ConsumerEventRouter consumerEvents;
     private static final Logger LOG = LoggerFactory.getLogger(WorkerConfirmListener.class);
 
 
     WorkerConfirmListener(BlockingQueue<Event<QueueConsumer>> events)
     {
-        this.consumerEvents = Objects.requireNonNull(events);
+        this(new ConsumerEventRouter(events));
+    }
+
+
+    WorkerConfirmListener(ConsumerEventRouter router)
+    {
+        this.consumerEvents = Objects.requireNonNull(router);
     }
 
 
@@ -59,21 +80,80 @@ class WorkerConfirmListener implements ConfirmListener
      */
     public void registerResponseSequence(long publishSequence, long ackId)
     {
-        if ( confirmMap.putIfAbsent(publishSequence, ackId) != null ) {
-            throw new IllegalStateException("Sequence id " + publishSequence + " already present in confirmations map");
-        }
+        register(publishSequence, ackId, null);
         LOG.debug("Listening for confirmation of publish sequence {} (ack message: {})", publishSequence, ackId);
-        confirmMap.put(publishSequence, ackId);
+    }
+
+
+    /**
+     * Tell the listener to keep track of a published envelope and the input task messages it holds the responses to.
+     * @param publishSequence the published sequence ID of the envelope
+     * @param ackIds the incoming task message IDs to ack when the published envelope is confirmed, which must not be
+     * modified afterwards
+     */
+    public void registerResponseSequence(long publishSequence, long[] ackIds)
+    {
+        register(publishSequence, ackIds[0], ackIds);
+        LOG.debug("Listening for confirmation of publish sequence {} (ack messages: {})", publishSequence, Arrays.toString(ackIds));
+    }
+
+
+    private void register(long publishSequence, long ackId, long[] envelope)
+    {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if ( count == 0 ) {
+                lowest = publishSequence;
+                highest = publishSequence;
+            } else {
+                long newLowest = Math.min(lowest, publishSequence);
+                long newHighest = Math.max(highest, publishSequence);
+                if ( newHighest - newLowest >= sequences.length ) {
+                    grow(newHighest - newLowest + 1);
+                }
+                lowest = newLowest;
+                highest = newHighest;
+            }
+            int index = index(publishSequence);
+            if ( sequences[index] == publishSequence ) {
+                throw new IllegalStateException("Sequence id " + publishSequence + " already present in confirmations map");
+            }
+            sequences[index] = publishSequence;
+            ackIds[index] = ackId;
+            envelopeAckIds[index] = envelope;
+            publishTimes[index] = now;
+            count++;
+        }
     }
 
 
     /**
      * Forget all currently monitored sequence numbers, for use when the RabbitMQ connection drops.
      */
-    public void clearConfirmations()
+    public synchronized void clearConfirmations()
     {
         LOG.info("Clearing confirmations map");
-        confirmMap.clear();
+        Arrays.fill(sequences, EMPTY);
+        Arrays.fill(envelopeAckIds, null);
+        count = 0;
+    }
+
+
+    /**
+     * @return the number of published messages still waiting for a confirm from the broker
+     */
+    public int getInFlightCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return the average time, in milliseconds, between publishing a message and the broker confirming it
+     */
+    public synchronized double getAverageConfirmLatency()
+    {
+        return confirmed == 0 ? 0 : confirmLatencyNanos / 1_000_000.0 / confirmed;
     }
 
 
@@ -95,22 +175,105 @@ class WorkerConfirmListener implements ConfirmListener
     }
 
 
-    private void handle(long sequenceNo, boolean multiple, Function<Long, Event<QueueConsumer>> eventSource)
+    private synchronized void handle(long sequenceNo, boolean multiple, LongFunction<Event<QueueConsumer>> eventSource)
     {
+        long now = System.nanoTime();
         if (multiple) {
-            Map<Long, Long> ackMap = confirmMap.headMap(sequenceNo + 1);
-            synchronized (confirmMap) {
-                consumerEvents.addAll(ackMap.values().stream().map(eventSource::apply).collect(Collectors.toList()));
+            if ( count == 0 ) {
+                return;
+            }
+            long end = Math.min(sequenceNo, highest);
+            for ( long seq = lowest; seq <= end; seq++ ) {
+                int index = index(seq);
+                if ( sequences[index] == seq ) {
+                    confirm(index, now, eventSource);
+                }
+            }
+            if ( count > 0 && sequenceNo >= lowest ) {
+                advanceLowest(sequenceNo + 1);
             }
-            ackMap.clear(); // clear all entries up to this (n)acked sequence number
         } else {
-            Long ackId = confirmMap.remove(sequenceNo);
-            if ( ackId == null ) {
+            int index = index(sequenceNo);
+            if ( count == 0 || sequences[index] != sequenceNo ) {
                 LOG.error("RabbitMQ broker sent confirm for sequence number {}, which is not registered", sequenceNo);
                 throw new IllegalStateException("Sequence number " + sequenceNo + " not found in WorkerConfirmListener");
-            } else {
-                consumerEvents.add(eventSource.apply(ackId));
+            }
+            confirm(index, now, eventSource);
+            if ( count > 0 && sequenceNo == lowest ) {
+                advanceLowest(sequenceNo + 1);
+            }
+        }
+    }
+
+
+    private void confirm(int index, long now, LongFunction<Event<QueueConsumer>> eventSource)
+    {
+        sequences[index] = EMPTY;
+        count--;
+        confirmed++;
+        confirmLatencyNanos += now - publishTimes[index];
+        long[] envelope = envelopeAckIds[index];
+        if ( envelope == null ) {
+            consumerEvents.route(ackIds[index], eventSource);
+        } else {
+            envelopeAckIds[index] = null;
+            for ( long ackId : envelope ) {
+                consumerEvents.route(ackId, eventSource);
+            }
+        }
+    }
+
+
+    /**
+     * Move the lowest outstanding sequence number forward to the next one still registered, starting from the given
+     * sequence number. Must only be called while there is at least one registered sequence number.
+     */
+    private void advanceLowest(long from)
+    {
+        long seq = from;
+        while ( sequences[index(seq)] != seq ) {
+            seq++;
+        }
+        lowest = seq;
+    }
+
+
+    private void grow(long span)
+    {
+        int capacity = sequences.length;
+        while ( capacity < span ) {
+            capacity *= 2;
+        }
+        long[] newSequences = newSequences(capacity);
+        long[] newAckIds = new long[capacity];
+        long[][] newEnvelopeAckIds = new long[capacity][];
+        long[] newPublishTimes = new long[capacity];
+        for ( int i = 0; i < sequences.length; i++ ) {
+            if ( sequences[i] != EMPTY ) {
+                int index = (int)(sequences[i] & (capacity - 1));
+                newSequences[index] = sequences[i];
+                newAckIds[index] = ackIds[i];
+                newEnvelopeAckIds[index] = envelopeAckIds[i];
+                newPublishTimes[index] = publishTimes[i];
             }
         }
+        sequences = newSequences;
+        ackIds = newAckIds;
+        envelopeAckIds = newEnvelopeAckIds;
+        publishTimes = newPublishTimes;
+    }
+
+
+    private int index(long sequence)
+    {
+        return (int)(sequence & (sequences.length - 1));
+    }
+
+
+    private static long[] newSequences(int capacity)
+    {
+        long[] sequences = new long[capacity];
+        Arrays.fill(sequences, EMPTY);
+        return sequences;
     }
 }
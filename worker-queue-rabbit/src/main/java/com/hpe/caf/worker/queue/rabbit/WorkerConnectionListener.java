@@ -22,7 +22,13 @@ import net.jodah.lyra.event.ConnectionListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 
 /**
@@ -30,19 +36,44 @@ import java.util.Objects;
  * the RabbitMQ connection is recovered - this is because RabbitMQ will automatically
  * re-queue the message when it detected our client dropped, and we don't want to
  * produce a result for these tasks running when the connection dropped to try and
- * avoid duplicate results. This will also log all other events.
+ * avoid duplicate results. Any cache of declared queues is also invalidated, as the
+ * recovered connection may not be to the same node. This will also log all other events.
  */
 public class WorkerConnectionListener implements ConnectionListener
 {
     private final TaskCallback callback;
-    private final WorkerConfirmListener confirmListener;
+    private final List<WorkerConfirmListener> confirmListeners;
+    private final Set<String> declaredQueues;
     private static final Logger LOG = LoggerFactory.getLogger(WorkerConnectionListener.class);
 
 
     public WorkerConnectionListener(TaskCallback taskCallback, WorkerConfirmListener listener)
+    {
+        this(taskCallback, listener, new HashSet<>());
+    }
+
+
+    /**
+     * @param taskCallback the callback to abort tasks with when the connection is recovered
+     * @param listener the publisher confirm listener, which is cleared when recovery starts
+     * @param declaredQueues the names of queues that have been declared, which is cleared when recovery starts
+     */
+    public WorkerConnectionListener(TaskCallback taskCallback, WorkerConfirmListener listener, Set<String> declaredQueues)
+    {
+        this(taskCallback, Collections.singletonList(Objects.requireNonNull(listener)), declaredQueues);
+    }
+
+
+    /**
+     * @param taskCallback the callback to abort tasks with when the connection is recovered
+     * @param listeners the confirm listeners of every publisher channel, which are cleared when recovery starts
+     * @param declaredQueues the names of queues that have been declared, which is cleared when recovery starts
+     */
+    public WorkerConnectionListener(TaskCallback taskCallback, Collection<WorkerConfirmListener> listeners, Set<String> declaredQueues)
     {
         this.callback = Objects.requireNonNull(taskCallback);
-        this.confirmListener = Objects.requireNonNull(listener);
+        this.confirmListeners = new ArrayList<>(listeners);
+        this.declaredQueues = Objects.requireNonNull(declaredQueues);
     }
 
 
@@ -64,7 +95,8 @@ public class WorkerConnectionListener implements ConnectionListener
     public void onRecoveryStarted(final Connection connection)
     {
         LOG.info("Connection recovery starting");
-        confirmListener.clearConfirmations();
+        confirmListeners.forEach(WorkerConfirmListener::clearConfirmations);
+        declaredQueues.clear();
     }
 
 
@@ -16,32 +16,63 @@
 package com.hpe.caf.worker.queue.rabbit;
 
 
-import com.hpe.caf.util.rabbitmq.ConsumerRejectEvent;
+import com.hpe.caf.util.rabbitmq.BatchListener;
 import com.hpe.caf.util.rabbitmq.Event;
+import com.hpe.caf.util.rabbitmq.MessageCompression;
 import com.hpe.caf.util.rabbitmq.QueueConsumer;
+import com.hpe.caf.util.rabbitmq.RabbitHeaders;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
-import java.util.stream.Collectors;
 
 
 /**
  * A RabbitMQ publisher that uses a ConfirmListener, sending data as plain text with headers.
  * Messages that cannot be published at all cause a rejection of the input message (task) that
- * triggered this published response.
+ * triggered this published response. The publisher thread hands over messages in batches, whose sizes are recorded
+ * in the metrics. Messages are published with the priority worker-core stamps in their headers.
+ *
+ * If envelopes are enabled, responses without headers other than the priority are not published straight away, but
+ * packed into an envelope with the other responses to the same queue with the same priority, and the envelope is
+ * published once it is full or the publisher thread reaches the end of its current batch. The envelope is a single
+ * AMQP message, so its confirmation acknowledges every input message it holds a response for.
+ *
+ * If compression is enabled, message bodies (including envelopes) of at least the compression threshold are
+ * compressed with deflate, and published with the "deflate" content encoding if that makes them smaller.
  */
-public class WorkerPublisherImpl implements WorkerPublisher
+public class WorkerPublisherImpl implements WorkerPublisher, BatchListener
 {
+    /**
+     * The properties of a message without headers, which is most of them, so they are only built once.
+     */
+    private static final AMQP.BasicProperties PROPERTIES_WITHOUT_HEADERS = createProperties(Collections.emptyMap());
+    private static final AMQP.BasicProperties COMPRESSED_PROPERTIES_WITHOUT_HEADERS
+        = createProperties(Collections.emptyMap(), "text/plain", MessageCompression.DEFLATE);
     private final Channel channel;
     private final RabbitMetricsReporter metrics;
-    private final BlockingQueue<Event<QueueConsumer>> consumerEvents;
+    private final ConsumerEventRouter consumerEvents;
     private final WorkerConfirmListener confirmListener;
+    private final int maxEnvelopeSize;
+    private final int maxEnvelopeBytes;
+    private final int compressionThreshold;
+    private final int compressionLevel;
+    private final Map<String, PendingEnvelope> envelopes = new LinkedHashMap<>();
+    /**
+     * The number of publish events handled in the current batch, which may also hold other events.
+     */
+    private int batchPublishes;
     private static final Logger LOG = LoggerFactory.getLogger(WorkerPublisherImpl.class);
 
 
@@ -57,9 +88,69 @@ public class WorkerPublisherImpl implements WorkerPublisher
     public WorkerPublisherImpl(Channel ch, RabbitMetricsReporter metrics, BlockingQueue<Event<QueueConsumer>> events, WorkerConfirmListener listener)
         throws IOException
     {
+        this(ch, metrics, new ConsumerEventRouter(events), listener);
+    }
+
+
+    /**
+     * Create a WorkerPublisher implementation that acks/rejects messages received on several consumer channels.
+     * @param ch the channel to use, will have confirmations enabled
+     * @param metrics the metrics to report to
+     * @param router routes ack/reject events to the consumer channel that received the message
+     * @param listener the listener callback that accepts ack/nack publisher confirms from the broker
+     * @throws IOException if the channel cannot have confirmations enabled
+     */
+    WorkerPublisherImpl(Channel ch, RabbitMetricsReporter metrics, ConsumerEventRouter router, WorkerConfirmListener listener)
+        throws IOException
+    {
+        this(ch, metrics, router, listener, 1, 0);
+    }
+
+
+    /**
+     * Create a WorkerPublisher implementation that packs responses into envelopes.
+     * @param ch the channel to use, will have confirmations enabled
+     * @param metrics the metrics to report to
+     * @param router routes ack/reject events to the consumer channel that received the message
+     * @param listener the listener callback that accepts ack/nack publisher confirms from the broker
+     * @param maxEnvelopeSize the maximum number of responses to pack into one envelope, or 1 to publish each on its own
+     * @param maxEnvelopeBytes the maximum size in bytes of the body of an envelope
+     * @throws IOException if the channel cannot have confirmations enabled
+     */
+    WorkerPublisherImpl(Channel ch, RabbitMetricsReporter metrics, ConsumerEventRouter router, WorkerConfirmListener listener,
+                        int maxEnvelopeSize, int maxEnvelopeBytes)
+        throws IOException
+    {
+        this(ch, metrics, router, listener, maxEnvelopeSize, maxEnvelopeBytes, 0, 0);
+    }
+
+
+    /**
+     * Create a WorkerPublisher implementation that packs responses into envelopes and compresses large messages.
+     * @param ch the channel to use, will have confirmations enabled
+     * @param metrics the metrics to report to
+     * @param router routes ack/reject events to the consumer channel that received the message
+     * @param listener the listener callback that accepts ack/nack publisher confirms from the broker
+     * @param maxEnvelopeSize the maximum number of responses to pack into one envelope, or 1 to publish each on its own
+     * @param maxEnvelopeBytes the maximum size in bytes of the body of an envelope
+     * @param compressionThreshold the size in bytes from which message bodies are compressed, or 0 for no compression
+     * @param compressionLevel the deflate compression level, from 1 (fastest) to 9 (smallest)
+     * @throws IOException if the channel cannot have confirmations enabled
+     */
+    WorkerPublisherImpl(Channel ch, RabbitMetricsReporter metrics, ConsumerEventRouter router, WorkerConfirmListener listener,
+                        int maxEnvelopeSize, int maxEnvelopeBytes, int compressionThreshold, int compressionLevel)
+        throws IOException
+    {
+        if ( maxEnvelopeSize < 1 ) {
+            throw new IllegalArgumentException("Envelope size must be at least 1");
+        }
+        this.maxEnvelopeSize = maxEnvelopeSize;
+        this.maxEnvelopeBytes = maxEnvelopeBytes;
+        this.compressionThreshold = compressionThreshold;
+        this.compressionLevel = compressionLevel;
         this.channel = Objects.requireNonNull(ch);
         this.metrics = Objects.requireNonNull(metrics);
-        this.consumerEvents = Objects.requireNonNull(events);
+        this.consumerEvents = Objects.requireNonNull(router);
         this.confirmListener = Objects.requireNonNull(listener);
         channel.confirmSelect();
         channel.addConfirmListener(confirmListener);
@@ -68,21 +159,203 @@ public class WorkerPublisherImpl implements WorkerPublisher
 
     @Override
     public void handlePublish(byte[] data, String routingKey, long ackId, Map<String, Object> headers)
+    {
+        batchPublishes++;
+        if ( maxEnvelopeSize > 1 && canEnvelope(headers) && TaskEnvelope.getFrameSize(data) <= maxEnvelopeBytes ) {
+            addToEnvelope(data, routingKey, ackId, headers);
+        } else {
+            publish(data, routingKey, ackId, headers);
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * Publish any envelopes that have not yet been filled. Only the publish events in the batch are counted towards
+     * the publish batch size, as the batch may also hold other events, such as the one that shuts the publisher down.
+     */
+    @Override
+    public void batchComplete(int size)
+    {
+        for ( PendingEnvelope envelope : envelopes.values() ) {
+            publishEnvelope(envelope);
+        }
+        envelopes.clear();
+        if ( batchPublishes > 0 ) {
+            metrics.recordPublishBatch(batchPublishes);
+            batchPublishes = 0;
+        }
+    }
+
+
+    private void publish(byte[] data, String routingKey, long ackId, Map<String, Object> headers)
     {
         try {
             LOG.debug("Publishing message with ack id {}", ackId);
-            AMQP.BasicProperties.Builder builder = new AMQP.BasicProperties().builder();
-            builder.headers(headers);
-            builder.contentType("text/plain");
-            builder.deliveryMode(2);
-            builder.priority(0);
             confirmListener.registerResponseSequence(channel.getNextPublishSeqNo(), ackId);
-            channel.basicPublish("", routingKey, builder.build(), data);
+            basicPublish(routingKey, headers, "text/plain", data);
             metrics.incrementPublished();
         } catch (IOException e) {
             LOG.error("Failed to publish result of message {} to queue {}, rejecting", ackId, routingKey, e);
             metrics.incremementErrors();
-            consumerEvents.add(new ConsumerRejectEvent(ackId));
+            consumerEvents.reject(ackId);
+        }
+    }
+
+
+    /**
+     * Add a response to the envelope for its queue, publishing the envelope first if the response cannot join it,
+     * and afterwards if the response has filled it.
+     */
+    private void addToEnvelope(byte[] data, String routingKey, long ackId, Map<String, Object> headers)
+    {
+        int priority = headers == null ? 0 : getPriority(headers);
+        PendingEnvelope envelope = envelopes.get(routingKey);
+        if ( envelope != null && (envelope.priority != priority || envelope.bytes + TaskEnvelope.getFrameSize(data) > maxEnvelopeBytes) ) {
+            publishEnvelope(envelopes.remove(routingKey));
+            envelope = null;
+        }
+        if ( envelope == null ) {
+            envelope = new PendingEnvelope(routingKey, priority, headers);
+            envelopes.put(routingKey, envelope);
+        }
+        envelope.add(data, ackId);
+        if ( envelope.frames.size() >= maxEnvelopeSize ) {
+            publishEnvelope(envelopes.remove(routingKey));
+        }
+    }
+
+
+    private void publishEnvelope(PendingEnvelope envelope)
+    {
+        int size = envelope.frames.size();
+        if ( size == 1 ) {
+            publish(envelope.frames.get(0), envelope.routingKey, envelope.ackIds[0], envelope.headers);
+            return;
+        }
+        long[] ackIds = envelope.getAckIds();
+        try {
+            LOG.debug("Publishing envelope of {} messages to queue {}", size, envelope.routingKey);
+            Map<String, Object> headers = new HashMap<>();
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_ENVELOPE, size);
+            if ( envelope.priority != 0 ) {
+                headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_PRIORITY, envelope.priority);
+            }
+            confirmListener.registerResponseSequence(channel.getNextPublishSeqNo(), ackIds);
+            basicPublish(envelope.routingKey, headers, "application/octet-stream", TaskEnvelope.pack(envelope.frames));
+            metrics.incrementPublished(size);
+            metrics.recordEnvelopePublished(size);
+        } catch (IOException e) {
+            LOG.error("Failed to publish envelope of {} results to queue {}, rejecting", size, envelope.routingKey, e);
+            metrics.incremementErrors();
+            for ( long ackId : ackIds ) {
+                consumerEvents.reject(ackId);
+            }
+        }
+    }
+
+
+    /**
+     * Publish a message body, compressing it first if it is large enough.
+     */
+    private void basicPublish(String routingKey, Map<String, Object> headers, String contentType, byte[] data)
+        throws IOException
+    {
+        byte[] body = data;
+        String contentEncoding = null;
+        if ( compressionThreshold > 0 && data.length >= compressionThreshold ) {
+            long start = MessageCompression.getCpuTime();
+            byte[] compressed = MessageCompression.deflate(data, compressionLevel);
+            if ( compressed.length < data.length ) {
+                body = compressed;
+                contentEncoding = MessageCompression.DEFLATE;
+            }
+            metrics.recordCompression(data.length, body.length, MessageCompression.getCpuTime() - start);
+        }
+        AMQP.BasicProperties properties;
+        if ( (headers == null || headers.isEmpty()) && "text/plain".equals(contentType) ) {
+            properties = contentEncoding == null ? PROPERTIES_WITHOUT_HEADERS : COMPRESSED_PROPERTIES_WITHOUT_HEADERS;
+        } else {
+            properties = createProperties(headers, contentType, contentEncoding);
+        }
+        channel.basicPublish("", routingKey, properties, body);
+    }
+
+
+    /**
+     * @return true if the headers are ones that an envelope can carry for all of the messages it holds
+     */
+    private static boolean canEnvelope(Map<String, Object> headers)
+    {
+        return headers == null || headers.isEmpty()
+            || (headers.size() == 1 && headers.containsKey(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_PRIORITY));
+    }
+
+
+    private static AMQP.BasicProperties createProperties(Map<String, Object> headers)
+    {
+        return createProperties(headers, "text/plain", null);
+    }
+
+
+    private static AMQP.BasicProperties createProperties(Map<String, Object> headers, String contentType, String contentEncoding)
+    {
+        AMQP.BasicProperties.Builder builder = new AMQP.BasicProperties().builder();
+        builder.headers(headers);
+        builder.contentType(contentType);
+        builder.contentEncoding(contentEncoding);
+        builder.deliveryMode(2);
+        builder.priority(getPriority(headers));
+        return builder.build();
+    }
+
+
+    /**
+     * @return the priority stamped in the headers by worker-core, or 0 if there is none
+     */
+    private static int getPriority(Map<String, Object> headers)
+    {
+        Object priority = headers.get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_PRIORITY);
+        return priority == null ? 0 : Integer.parseInt(String.valueOf(priority));
+    }
+
+
+    /**
+     * Responses waiting to be published together in an envelope.
+     */
+    private static final class PendingEnvelope
+    {
+        private final String routingKey;
+        private final int priority;
+        private final Map<String, Object> headers;
+        private final List<byte[]> frames = new ArrayList<>();
+        private long[] ackIds = new long[8];
+        private int bytes;
+
+
+        PendingEnvelope(String routingKey, int priority, Map<String, Object> headers)
+        {
+            this.routingKey = routingKey;
+            this.priority = priority;
+            this.headers = headers;
+        }
+
+
+        void add(byte[] data, long ackId)
+        {
+            if ( frames.size() == ackIds.length ) {
+                ackIds = Arrays.copyOf(ackIds, ackIds.length * 2);
+            }
+            ackIds[frames.size()] = ackId;
+            frames.add(data);
+            bytes += TaskEnvelope.getFrameSize(data);
+        }
+
+
+        long[] getAckIds()
+        {
+            return Arrays.copyOf(ackIds, frames.size());
         }
     }
 }
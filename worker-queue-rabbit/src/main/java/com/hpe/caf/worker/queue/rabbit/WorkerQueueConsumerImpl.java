@@ -31,43 +31,133 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 
 /**
  * QueueConsumer implementation for a WorkerQueue.
  * This QueueConsumer hands off messages to worker-core upon delivery assuming the message is not marked 'redelivered'.
- * Redelivered messages are republished to the retry queue with an incremented retry count.
- * Redelivered messages that have exceeded the retry count are republished to the rejected queue.
+ * The message body is handed over as a read-only buffer over the delivered data, and the same data is republished
+ * as it is if the message has to be returned to a queue, so the body is never copied.
+ * Redelivered messages are retried according to the RetryStrategy, which by default republishes them to the retry
+ * queue with an incremented retry count. Redelivered messages that have exceeded the retry count are republished to
+ * the rejected queue. Messages that worker-core rejects as tasks at this time are either returned to the queue they
+ * came from, or parked on one of a series of delay queues, each holding them for longer than the last, before the
+ * server dead-letters them back to the input queue.
+ * A message that is an envelope is unpacked, and each of the messages it holds is handled as above as if it had been
+ * delivered on its own, with a delivery tag of its own that refers back to the envelope. The envelope itself is only
+ * settled once all of them have been: it is acknowledged if they all were, and otherwise rejected or dropped, in
+ * which case the messages that were acknowledged are delivered again along with the rest.
+ * Messages are normally handed to worker-core on the consumer thread, but they can instead be handed off to a decode
+ * Executor so that decoding them does not limit how fast messages are taken from the queue. Whichever thread hands a
+ * message over, its outcome is still posted back to this consumer as an event, so it is always settled here.
+ * While the consumer is paused, deliveries are held here rather than handed over, and are handled in the order they
+ * arrived once it is resumed. They are bounded by the prefetch, as none of them can be acknowledged in the meantime.
  */
 public class WorkerQueueConsumerImpl implements QueueConsumer
 {
     public static final String REJECTED_REASON_TASKMESSAGE = "TASKMESSAGE_INVALID";
     public static final String REJECTED_REASON_RETRIES_EXCEEDED = "RETRIES_EXCEEDED";
+    /**
+     * The delivery tags given to messages unpacked from envelopes start here, above any tag RabbitMQ will allocate,
+     * and are made up of a sequence number for the envelope and the index of the message within it.
+     */
+    private static final long ENVELOPE_TAG = 1L << 50;
+    private static final int ENVELOPE_INDEX_BITS = 16;
+    private static final long ENVELOPE_SEQUENCE_MASK = (ENVELOPE_TAG >>> ENVELOPE_INDEX_BITS) - 1;
     private final TaskCallback callback;
     private final RabbitMetricsReporter metrics;
     private final BlockingQueue<Event<QueueConsumer>> consumerEventQueue;
+    private final ConsumerEventRouter router;
+    private final int channelIndex;
     private final BlockingQueue<Event<WorkerPublisher>> publisherEventQueue;
     private final Channel channel;
     private final String retryRoutingKey;
     private final int retryLimit;
+    private final RetryStrategy retryStrategy;
+    private final List<String> delayQueues;
+    private final AckBatcher ackBatcher;
+    private final InputQueueMetrics inputMetrics;
+    private final String inputQueue;
+    private final Executor decodeExecutor;
+    private final Map<Long, Long> deliveryTimes = new HashMap<>();
+    private final Map<Long, UnpackedEnvelope> envelopes = new HashMap<>();
+    private final List<Delivery> heldDeliveries = new ArrayList<>();
+    private boolean paused;
+    private long envelopeSequence;
+    private long lastTag;
     private static final Logger LOG = LoggerFactory.getLogger(WorkerQueueConsumerImpl.class);
 
 
     public WorkerQueueConsumerImpl(TaskCallback callback, RabbitMetricsReporter metrics, BlockingQueue<Event<QueueConsumer>> queue, Channel ch,
             BlockingQueue<Event<WorkerPublisher>> pubQueue, String retryKey, int retryLimit)
+    {
+        this(callback, metrics, queue, ch, pubQueue, retryKey, retryLimit, 1, 0);
+    }
+
+
+    /**
+     * Create a consumer that coalesces acknowledgements. If ackBatchSize is greater than 1, completed messages are held
+     * and settled with a single multiple acknowledgement once ackBatchSize of them are waiting or the oldest has been
+     * waiting for ackBatchTimeout milliseconds. Note that the timeout is only checked when this consumer handles an
+     * event, so the caller should arrange for flushAcknowledgements() to be triggered periodically.
+     */
+    public WorkerQueueConsumerImpl(TaskCallback callback, RabbitMetricsReporter metrics, BlockingQueue<Event<QueueConsumer>> queue, Channel ch,
+            BlockingQueue<Event<WorkerPublisher>> pubQueue, String retryKey, int retryLimit, int ackBatchSize, long ackBatchTimeout)
+    {
+        this(callback, metrics, new ConsumerEventRouter(queue), 0, ch, pubQueue, retryKey, retryLimit, RetryStrategy.REPUBLISH,
+             Collections.emptyList(), ackBatchSize, ackBatchTimeout, new InputQueueMetrics());
+    }
+
+
+    /**
+     * Create a consumer for one of several consumer channels. The ids of the messages handed to worker-core, and
+     * used when republishing them, are generated by the router so that their events find their way back here.
+     */
+    WorkerQueueConsumerImpl(TaskCallback callback, RabbitMetricsReporter metrics, ConsumerEventRouter router, int channelIndex, Channel ch,
+            BlockingQueue<Event<WorkerPublisher>> pubQueue, String retryKey, int retryLimit, RetryStrategy retryStrategy,
+            List<String> delayQueues, int ackBatchSize, long ackBatchTimeout, InputQueueMetrics inputMetrics)
+    {
+        this(callback, metrics, router, channelIndex, ch, pubQueue, retryKey, retryLimit, retryStrategy, delayQueues, ackBatchSize,
+             ackBatchTimeout, inputMetrics, null, Runnable::run);
+    }
+
+
+    /**
+     * Create a consumer that hands messages to worker-core on the decodeExecutor rather than on the consumer thread.
+     * The executor must not reject tasks, and may run them on any number of threads. If inputQueue is not null, it is
+     * passed to worker-core in the headers of each message as the queue the message was consumed from.
+     */
+    WorkerQueueConsumerImpl(TaskCallback callback, RabbitMetricsReporter metrics, ConsumerEventRouter router, int channelIndex, Channel ch,
+            BlockingQueue<Event<WorkerPublisher>> pubQueue, String retryKey, int retryLimit, RetryStrategy retryStrategy,
+            List<String> delayQueues, int ackBatchSize, long ackBatchTimeout, InputQueueMetrics inputMetrics, String inputQueue,
+            Executor decodeExecutor)
     {
         this.callback = Objects.requireNonNull(callback);
         this.metrics = Objects.requireNonNull(metrics);
-        this.consumerEventQueue = Objects.requireNonNull(queue);
+        this.router = Objects.requireNonNull(router);
+        this.channelIndex = channelIndex;
+        this.consumerEventQueue = router.getQueue(channelIndex);
         this.channel = Objects.requireNonNull(ch);
         this.publisherEventQueue = Objects.requireNonNull(pubQueue);
         this.retryRoutingKey = Objects.requireNonNull(retryKey);
         this.retryLimit = retryLimit;
+        this.retryStrategy = Objects.requireNonNull(retryStrategy);
+        this.delayQueues = Objects.requireNonNull(delayQueues);
+        this.ackBatcher = ackBatchSize > 1 ? new AckBatcher(channel, metrics, ackBatchSize, ackBatchTimeout) : null;
+        this.inputMetrics = Objects.requireNonNull(inputMetrics);
+        this.inputQueue = inputQueue;
+        this.decodeExecutor = Objects.requireNonNull(decodeExecutor);
     }
 
 
@@ -80,33 +170,224 @@ public class WorkerQueueConsumerImpl implements QueueConsumer
     @Override
     public void processDelivery(Delivery delivery)
     {
+        if ( paused ) {
+            heldDeliveries.add(delivery);
+            return;
+        }
         long tag = delivery.getEnvelope().getDeliveryTag();
+        inputMetrics.recordDelivery();
+        if ( tag <= lastTag ) {
+            // delivery tags restart when the channel is recovered, and the old messages will never be settled
+            deliveryTimes.clear();
+            envelopes.clear();
+        }
+        lastTag = tag;
+        deliveryTimes.put(tag, System.nanoTime());
+        if ( ackBatcher != null ) {
+            ackBatcher.registerDelivery(tag);
+        }
+        long messageId = router.getMessageId(channelIndex, tag);
+        Object envelopeSize = delivery.getHeaders().get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_ENVELOPE);
+        if ( envelopeSize == null ) {
+            processMessage(delivery, tag, messageId);
+        } else {
+            processEnvelope(delivery, tag, messageId, envelopeSize);
+        }
+    }
+
+
+    private void processMessage(Delivery delivery, long tag, long messageId)
+    {
         metrics.incrementReceived();
         if (delivery.getEnvelope().isRedeliver()) {
-            handleRedelivery(delivery);
+            handleRedelivery(delivery, tag, messageId);
+        } else if ( retryStrategy == RetryStrategy.DEAD_LETTER && delivery.getHeaders().containsKey(RabbitHeaders.RABBIT_HEADER_DEATH) ) {
+            registerTask(delivery, messageId, () -> getRetryHeaders(delivery.getHeaders(), getDeadLetterCount(delivery.getHeaders())));
         } else {
-            try {
-                LOG.debug("Registering new message {}", tag);
-                callback.registerNewTask(String.valueOf(tag), delivery.getMessageData(), delivery.getHeaders());
-            } catch (InvalidTaskException e) {
-                LOG.error("Cannot register new message, rejecting {}", tag, e);
-                publisherEventQueue.add(new WorkerPublishQueueEvent(delivery.getMessageData(), retryRoutingKey, delivery.getEnvelope().getDeliveryTag(),
-                                                                    Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED, REJECTED_REASON_TASKMESSAGE)));
-            } catch (TaskRejectedException e) {
-                LOG.warn("Message {} rejected as a task at this time, returning to queue", tag, e);
-                publisherEventQueue.add(new WorkerPublishQueueEvent(delivery.getMessageData(), delivery.getEnvelope().getRoutingKey(),
-                                                                    delivery.getEnvelope().getDeliveryTag()));
+            registerTask(delivery, messageId, delivery::getHeaders);
+        }
+    }
+
+
+    /**
+     * Unpack the messages held in an envelope and process each of them. If the envelope cannot be unpacked it is
+     * republished to the retry queue as an invalid task message.
+     */
+    private void processEnvelope(Delivery delivery, long tag, long messageId, Object envelopeSize)
+    {
+        List<byte[]> frames;
+        try {
+            frames = TaskEnvelope.unpack(delivery.getMessageData(), getEnvelopeSize(envelopeSize));
+        } catch (InvalidTaskException e) {
+            LOG.error("Cannot unpack envelope, rejecting {}", messageId, e);
+            metrics.incrementReceived();
+            republish(new WorkerPublishQueueEvent(delivery.getMessageData(), retryRoutingKey, messageId,
+                                                  Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED, REJECTED_REASON_TASKMESSAGE)), messageId);
+            return;
+        }
+        LOG.debug("Unpacking {} messages from envelope {}", frames.size(), messageId);
+        metrics.incrementEnvelopesReceived();
+        long sequence = envelopeSequence++ & ENVELOPE_SEQUENCE_MASK;
+        envelopes.put(sequence, new UnpackedEnvelope(tag, frames.size()));
+        Map<String, Object> headers = new HashMap<>(delivery.getHeaders());
+        headers.remove(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_ENVELOPE);
+        headers = Collections.unmodifiableMap(headers);
+        for ( int i = 0; i < frames.size(); i++ ) {
+            long frameTag = ENVELOPE_TAG | sequence << ENVELOPE_INDEX_BITS | i;
+            processMessage(new Delivery(delivery.getEnvelope(), frames.get(i), headers, delivery.getPriority()), frameTag,
+                           router.getMessageId(channelIndex, frameTag));
+        }
+    }
+
+
+    private static int getEnvelopeSize(Object envelopeSize)
+        throws InvalidTaskException
+    {
+        int size;
+        try {
+            size = Integer.parseInt(String.valueOf(envelopeSize));
+        } catch (NumberFormatException e) {
+            throw new InvalidTaskException("Invalid envelope size " + envelopeSize, e);
+        }
+        if ( size > 1 << ENVELOPE_INDEX_BITS ) {
+            throw new InvalidTaskException("Envelope size " + size + " is too large");
+        }
+        return size;
+    }
+
+
+    /**
+     * Record the outcome of a message unpacked from an envelope, and settle the envelope once all of the messages it
+     * holds have an outcome.
+     */
+    private void settleEnvelopeMessage(long tag, Settlement settlement)
+    {
+        long sequence = (tag >>> ENVELOPE_INDEX_BITS) & ENVELOPE_SEQUENCE_MASK;
+        UnpackedEnvelope envelope = envelopes.get(sequence);
+        if ( envelope == null || !envelope.settle((int)(tag & ((1 << ENVELOPE_INDEX_BITS) - 1)), settlement) ) {
+            LOG.debug("Ignoring {} of message {}, its envelope is not awaiting it", settlement, tag);
+            return;
+        }
+        if ( envelope.remaining > 0 ) {
+            return;
+        }
+        envelopes.remove(sequence);
+        LOG.debug("All messages in envelope {} settled, settling it with {}", envelope.deliveryTag, envelope.outcome);
+        switch (envelope.outcome) {
+            case ACK:
+                processAck(envelope.deliveryTag);
+                break;
+            case DROP:
+                processReject(envelope.deliveryTag, false);
+                break;
+            default:
+                processReject(envelope.deliveryTag, true);
+                break;
+        }
+    }
+
+
+    /**
+     * Hand a message off to worker-core on the decode executor, and republish it if it is rejected. This may run on
+     * another thread, so it only touches state that is safe to share: the publisher event queue and the metrics. If
+     * the executor refuses the message, for instance because it has been shut down, or handing it off fails
+     * unexpectedly, the message is rejected back to its queue through the consumer event queue, so that the delivery
+     * is still settled.
+     */
+    private void registerTask(Delivery delivery, long messageId, Supplier<Map<String, Object>> headers)
+    {
+        try {
+            decodeExecutor.execute(() -> {
+                try {
+                    registerTaskImpl(delivery, messageId, headers);
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to register message {}, returning it to the queue", messageId, e);
+                    metrics.incremementErrors();
+                    router.reject(messageId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Cannot hand off message {}, returning it to the queue", messageId, e);
+            metrics.incremementErrors();
+            router.reject(messageId);
+        }
+    }
+
+
+    private void registerTaskImpl(Delivery delivery, long messageId, Supplier<Map<String, Object>> headers)
+    {
+        try {
+            LOG.debug("Registering new message {}", messageId);
+            callback.registerNewTask(String.valueOf(messageId), delivery.getMessageBuffer(), () -> getTaskHeaders(delivery, headers.get()));
+        } catch (InvalidTaskException e) {
+            LOG.error("Cannot register new message, rejecting {}", messageId, e);
+            republish(new WorkerPublishQueueEvent(delivery.getMessageData(), retryRoutingKey, messageId,
+                                                  Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED, REJECTED_REASON_TASKMESSAGE)), messageId);
+        } catch (TaskRejectedException e) {
+            if ( delayQueues.isEmpty() ) {
+                LOG.warn("Message {} rejected as a task at this time, returning to queue", messageId, e);
+                republish(new WorkerPublishQueueEvent(delivery.getMessageData(), delivery.getEnvelope().getRoutingKey(), messageId), messageId);
+            } else {
+                delay(delivery, messageId, e);
             }
         }
     }
 
 
+    /**
+     * Park a rejected message on a delay queue. Each time the same message is rejected it is sent to the next delay
+     * queue, which holds it for longer, until the last one is reached. The number of times it has been delayed is
+     * stamped in the headers.
+     */
+    private void delay(Delivery delivery, long messageId, TaskRejectedException e)
+    {
+        Map<String, Object> headers = new HashMap<>(delivery.getHeaders());
+        int delays = Integer.parseInt(String.valueOf(headers.getOrDefault(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_DELAYED, "0")));
+        String delayQueue = delayQueues.get(Math.min(delays, delayQueues.size() - 1));
+        LOG.warn("Message {} rejected as a task at this time, delaying on {}", messageId, delayQueue, e);
+        headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_DELAYED, String.valueOf(delays + 1));
+        metrics.incrementDelayed();
+        republish(new WorkerPublishQueueEvent(delivery.getMessageData(), delayQueue, messageId, headers), messageId);
+    }
+
+
+    /**
+     * Hand a message to the publisher to be republished. If the publisher event queue refuses it because it is full,
+     * the message is rejected back to its queue instead, so that the delivery is always settled. The reject is routed
+     * through the consumer event queue, as this may be called on a decode thread.
+     */
+    private void republish(WorkerPublishQueueEvent event, long messageId)
+    {
+        try {
+            publisherEventQueue.add(event);
+        } catch (IllegalStateException e) {
+            LOG.warn("Cannot republish message {}, returning it to the queue", messageId, e);
+            metrics.incremementErrors();
+            router.reject(messageId);
+        }
+    }
+
+
     @Override
     public void processAck(long tag)
     {
+        if ( tag >= ENVELOPE_TAG ) {
+            settleEnvelopeMessage(tag, Settlement.ACK);
+            return;
+        }
+        Long deliveryTime = deliveryTimes.remove(tag);
+        if ( deliveryTime != null ) {
+            inputMetrics.recordAcknowledgement(System.nanoTime() - deliveryTime);
+        }
+        if ( ackBatcher != null && ackBatcher.ack(tag) ) {
+            flushAcknowledgements();
+            return;
+        }
         try {
             LOG.debug("Acknowledging message {}", tag);
+            long start = System.nanoTime();
             channel.basicAck(tag, false);
+            metrics.recordAckBatch(1, System.nanoTime() - start);
         } catch (IOException e) {
             LOG.warn("Couldn't ack message {}, will retry", tag, e);
             metrics.incremementErrors();
@@ -138,8 +419,19 @@ public class WorkerQueueConsumerImpl implements QueueConsumer
      */
     private void processReject(long id, boolean requeue)
     {
+        if ( id >= ENVELOPE_TAG ) {
+            settleEnvelopeMessage(id, requeue ? Settlement.REJECT : Settlement.DROP);
+            return;
+        }
+        deliveryTimes.remove(id);
+        if ( ackBatcher != null && (requeue ? ackBatcher.reject(id) : ackBatcher.drop(id)) ) {
+            flushAcknowledgements();
+            return;
+        }
         try {
+            long start = System.nanoTime();
             channel.basicReject(id, requeue);
+            metrics.recordAckBatch(1, System.nanoTime() - start);
             if ( requeue ) {
                 LOG.debug("Rejecting message {}", id);
                 metrics.incrementRejected();
@@ -155,27 +447,214 @@ public class WorkerQueueConsumerImpl implements QueueConsumer
     }
 
 
+    /**
+     * Stop handing deliveries to worker-core, and hold them until the consumer is resumed. This does not call the
+     * server, so it is safe while the connection is blocked.
+     */
+    public void pause()
+    {
+        paused = true;
+    }
+
+
+    /**
+     * Start handing deliveries to worker-core again, beginning with any that were held while the consumer was paused.
+     */
+    public void resume()
+    {
+        paused = false;
+        if ( heldDeliveries.isEmpty() ) {
+            return;
+        }
+        LOG.debug("Resuming with {} held deliveries", heldDeliveries.size());
+        List<Delivery> deliveries = new ArrayList<>(heldDeliveries);
+        heldDeliveries.clear();
+        deliveries.forEach(this::processDelivery);
+    }
+
+
+    /**
+     * Forget the deliveries held while the consumer is paused. This must be triggered when the connection is
+     * recovered, before any new deliveries arrive, as the server will redeliver them and their delivery tags no longer
+     * refer to anything.
+     */
+    public void discardHeldDeliveries()
+    {
+        if ( !heldDeliveries.isEmpty() ) {
+            LOG.debug("Discarding {} held deliveries from before recovery", heldDeliveries.size());
+            heldDeliveries.clear();
+        }
+    }
+
+
+    /**
+     * Send any batched acknowledgements that have reached the batch size or timeout. This does nothing if
+     * acknowledgements are not being batched. If the acknowledgements cannot be sent they will be retried on the
+     * next flush.
+     */
+    public void flushAcknowledgements()
+    {
+        if ( ackBatcher != null ) {
+            try {
+                ackBatcher.flush(System.nanoTime());
+            } catch (IOException e) {
+                LOG.warn("Couldn't send batched acknowledgements, will retry", e);
+                metrics.incremementErrors();
+            }
+        }
+    }
+
+
     /**
      * Find the number of retries for this delivery (default to 0). If the current retries exceeds the limit,
-     * republish it to the rejected queue with a rejected reason stamped in the headers. Otherwise, republish to
-     * the retry queue with the retry count stamped in the headers.
+     * republish it to the rejected queue with a rejected reason stamped in the headers. Otherwise, retry it according
+     * to the retry strategy. The DELIVERY_COUNT strategy hands the message straight back to worker-core with the retry
+     * count stamped in the headers, the DEAD_LETTER strategy rejects it so the server dead-letters it to the retry
+     * queue, and the REPUBLISH strategy, or the DELIVERY_COUNT strategy when the server did not supply a delivery
+     * count, republishes it to the retry queue with the retry count stamped in the headers.
      * @param delivery the redelivered message
+     * @param tag the delivery tag of the message
+     * @param messageId the id the message is acknowledged by once it has been republished
      */
-    private void handleRedelivery(Delivery delivery)
+    private void handleRedelivery(Delivery delivery, long tag, long messageId)
     {
-        int retries = Integer.parseInt(String.valueOf(delivery.getHeaders().getOrDefault(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, "0")));
+        Map<String, Object> deliveryHeaders = delivery.getHeaders();
+        Object deliveryCount = deliveryHeaders.get(RabbitHeaders.RABBIT_HEADER_DELIVERY_COUNT);
+        boolean useDeliveryCount = retryStrategy == RetryStrategy.DELIVERY_COUNT && deliveryCount != null;
+        int retries;
+        if ( useDeliveryCount ) {
+            // the first redelivery has a count of 1, which corresponds to a message that has not yet been retried
+            retries = Integer.parseInt(String.valueOf(deliveryCount)) - 1;
+        } else if ( retryStrategy == RetryStrategy.DEAD_LETTER ) {
+            retries = getDeadLetterCount(deliveryHeaders);
+        } else {
+            retries = Integer.parseInt(String.valueOf(deliveryHeaders.getOrDefault(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, "0")));
+        }
         if ( retries >= retryLimit ) {
-            LOG.debug("Retry exceeded for message with id {}, republishing to rejected queue", delivery.getEnvelope().getDeliveryTag());
+            LOG.debug("Retry exceeded for message with id {}, republishing to rejected queue", messageId);
             Map<String, Object> headers = new HashMap<>();
             headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, String.valueOf(retries));
             headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED, REJECTED_REASON_RETRIES_EXCEEDED);
-            publisherEventQueue.add(new WorkerPublishQueueEvent(delivery.getMessageData(), retryRoutingKey, delivery.getEnvelope().getDeliveryTag(), headers));
+            republish(new WorkerPublishQueueEvent(delivery.getMessageData(), retryRoutingKey, messageId, headers), messageId);
+        } else if ( useDeliveryCount ) {
+            LOG.debug("Received redelivered message with id {}, delivery count {}, retry limit {}, handing back to worker", messageId, deliveryCount, retryLimit);
+            metrics.incrementRetried(RetryStrategy.DELIVERY_COUNT);
+            registerTask(delivery, messageId, () -> getRetryHeaders(deliveryHeaders, retries + 1));
+        } else if ( retryStrategy == RetryStrategy.DEAD_LETTER ) {
+            LOG.debug("Received redelivered message with id {}, retry count {}, retry limit {}, dead-lettering to retry queue", messageId, retries + 1, retryLimit);
+            metrics.incrementRetried(RetryStrategy.DEAD_LETTER);
+            processDrop(tag);
         } else {
-            LOG.debug("Received redelivered message with id {}, retry count {}, retry limit {}, republishing to retry queue", delivery.getEnvelope().getDeliveryTag(), retryLimit, retries + 1);
+            metrics.incrementRetried(RetryStrategy.REPUBLISH);
+            LOG.debug("Received redelivered message with id {}, retry count {}, retry limit {}, republishing to retry queue", messageId, retryLimit, retries + 1);
             Map<String, Object> headers = new HashMap<>();
             headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, String.valueOf(retries + 1));
             headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY_LIMIT, new Integer(retryLimit));
-            publisherEventQueue.add(new WorkerPublishQueueEvent(delivery.getMessageData(), retryRoutingKey, delivery.getEnvelope().getDeliveryTag(), headers));
+            republish(new WorkerPublishQueueEvent(delivery.getMessageData(), retryRoutingKey, messageId, headers), messageId);
+        }
+    }
+
+
+    /**
+     * @return the headers to hand to worker-core with a message, which include the priority of the message if it has one
+     * and the queue it was consumed from if that is known
+     */
+    private Map<String, Object> getTaskHeaders(Delivery delivery, Map<String, Object> deliveryHeaders)
+    {
+        Integer priority = delivery.getPriority();
+        boolean hasPriority = priority != null && priority != 0;
+        if ( !hasPriority && inputQueue == null ) {
+            return deliveryHeaders;
+        }
+        Map<String, Object> headers = new HashMap<>(deliveryHeaders);
+        if ( hasPriority ) {
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_PRIORITY, priority);
+        }
+        if ( inputQueue != null ) {
+            headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_INPUT_QUEUE, inputQueue);
+        }
+        return headers;
+    }
+
+
+    /**
+     * @return a copy of the headers with the retry count and limit stamped in them, as if the message had been
+     * republished by the REPUBLISH strategy
+     */
+    private Map<String, Object> getRetryHeaders(Map<String, Object> deliveryHeaders, int retries)
+    {
+        Map<String, Object> headers = new HashMap<>(deliveryHeaders);
+        headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY, String.valueOf(retries));
+        headers.put(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_RETRY_LIMIT, retryLimit);
+        return headers;
+    }
+
+
+    /**
+     * @return the number of times the message has been dead-lettered by being rejected, according to its x-death header
+     */
+    private static int getDeadLetterCount(Map<String, Object> headers)
+    {
+        Object deaths = headers.get(RabbitHeaders.RABBIT_HEADER_DEATH);
+        if ( !(deaths instanceof List) ) {
+            return 0;
+        }
+        int count = 0;
+        for ( Object death : (List<?>)deaths ) {
+            if ( death instanceof Map && "rejected".equals(String.valueOf(((Map<?, ?>)death).get("reason"))) ) {
+                Object deathCount = ((Map<?, ?>)death).get("count");
+                count += deathCount == null ? 1 : Integer.parseInt(String.valueOf(deathCount));
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * The ways a message can be settled, in increasing order of precedence when combining the outcomes of the messages
+     * in an envelope.
+     */
+    private enum Settlement
+    {
+        ACK, DROP, REJECT
+    }
+
+
+    /**
+     * Tracks which of the messages unpacked from an envelope have been settled.
+     */
+    private static final class UnpackedEnvelope
+    {
+        private final long deliveryTag;
+        private final int size;
+        private final BitSet settled;
+        private int remaining;
+        private Settlement outcome = Settlement.ACK;
+
+
+        UnpackedEnvelope(long deliveryTag, int size)
+        {
+            this.deliveryTag = deliveryTag;
+            this.size = size;
+            this.settled = new BitSet(size);
+            this.remaining = size;
+        }
+
+
+        /**
+         * @return false if the message is not in the envelope or has already been settled
+         */
+        boolean settle(int index, Settlement settlement)
+        {
+            if ( index >= size || settled.get(index) ) {
+                return false;
+            }
+            settled.set(index);
+            remaining--;
+            if ( settlement.compareTo(outcome) > 0 ) {
+                outcome = settlement;
+            }
+            return true;
         }
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import com.rabbitmq.client.Channel;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+public class AckBatcherTest
+{
+    @Test
+    public void testContiguousBatch()
+        throws IOException
+    {
+        Channel channel = Mockito.mock(Channel.class);
+        RabbitMetricsReporter metrics = new RabbitMetricsReporter();
+        AckBatcher batcher = new AckBatcher(channel, metrics, 3, 10000);
+        for ( long tag = 1; tag <= 3; tag++ ) {
+            batcher.registerDelivery(tag);
+        }
+        Assert.assertTrue(batcher.ack(1));
+        Assert.assertTrue(batcher.ack(2));
+        batcher.flush(System.nanoTime());
+        Mockito.verify(channel, Mockito.never()).basicAck(Mockito.anyLong(), Mockito.anyBoolean());
+        Assert.assertTrue(batcher.ack(3));
+        batcher.flush(System.nanoTime());
+        Mockito.verify(channel, Mockito.times(1)).basicAck(3, true);
+        Assert.assertEquals(batcher.getHeldCount(), 0);
+        Assert.assertEquals(metrics.getAverageAckBatchSize(), 3.0);
+    }
+
+
+    @Test
+    public void testOutOfOrderHeldUntilGapCloses()
+        throws IOException
+    {
+        Channel channel = Mockito.mock(Channel.class);
+        AckBatcher batcher = new AckBatcher(channel, new RabbitMetricsReporter(), 2, 10000);
+        for ( long tag = 1; tag <= 3; tag++ ) {
+            batcher.registerDelivery(tag);
+        }
+        batcher.ack(2);
+        batcher.ack(3);
+        batcher.flush(System.nanoTime());
+        Mockito.verify(channel, Mockito.never()).basicAck(Mockito.anyLong(), Mockito.anyBoolean());
+        batcher.ack(1);
+        batcher.flush(System.nanoTime());
+        Mockito.verify(channel, Mockito.times(1)).basicAck(3, true);
+        Mockito.verifyNoMoreInteractions(channel);
+    }
+
+
+    @Test
+    public void testMixedOutcomes()
+        throws IOException
+    {
+        Channel channel = Mockito.mock(Channel.class);
+        RabbitMetricsReporter metrics = new RabbitMetricsReporter();
+        AckBatcher batcher = new AckBatcher(channel, metrics, 5, 10000);
+        for ( long tag = 1; tag <= 5; tag++ ) {
+            batcher.registerDelivery(tag);
+        }
+        batcher.ack(1);
+        batcher.ack(2);
+        batcher.reject(3);
+        batcher.reject(4);
+        batcher.drop(5);
+        batcher.flush(System.nanoTime());
+        Mockito.verify(channel).basicAck(2, true);
+        Mockito.verify(channel).basicNack(4, true, true);
+        Mockito.verify(channel).basicReject(5, false);
+        Assert.assertEquals(metrics.getMessagesRejected(), 2);
+        Assert.assertEquals(metrics.getMessagesDropped(), 1);
+    }
+
+
+    @Test
+    public void testTimeoutSettlesBehindGap()
+        throws IOException
+    {
+        Channel channel = Mockito.mock(Channel.class);
+        AckBatcher batcher = new AckBatcher(channel, new RabbitMetricsReporter(), 10, 100);
+        for ( long tag = 1; tag <= 3; tag++ ) {
+            batcher.registerDelivery(tag);
+        }
+        batcher.ack(2);
+        batcher.ack(3);
+        batcher.flush(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+        Mockito.verify(channel).basicAck(2, false);
+        Mockito.verify(channel).basicAck(3, false);
+        Assert.assertEquals(batcher.getHeldCount(), 0);
+        // the individually settled messages must not be used as the tag of a later multiple ack
+        batcher.ack(1);
+        batcher.flush(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+        Mockito.verify(channel).basicAck(1, false);
+        Mockito.verifyNoMoreInteractions(channel);
+    }
+
+
+    @Test
+    public void testUnknownTag()
+        throws IOException
+    {
+        Channel channel = Mockito.mock(Channel.class);
+        AckBatcher batcher = new AckBatcher(channel, new RabbitMetricsReporter(), 2, 10000);
+        batcher.registerDelivery(5);
+        Assert.assertFalse(batcher.ack(4));
+        Assert.assertFalse(batcher.ack(6));
+        Assert.assertTrue(batcher.ack(5));
+    }
+
+
+    @Test
+    public void testRecoveryDiscardsState()
+        throws IOException
+    {
+        Channel channel = Mockito.mock(Channel.class);
+        AckBatcher batcher = new AckBatcher(channel, new RabbitMetricsReporter(), 2, 10000);
+        batcher.registerDelivery(10);
+        batcher.registerDelivery(11);
+        batcher.ack(11);
+        batcher.registerDelivery(1);
+        Assert.assertEquals(batcher.getHeldCount(), 0);
+        Assert.assertFalse(batcher.ack(10));
+        batcher.registerDelivery(2);
+        batcher.ack(1);
+        batcher.ack(2);
+        batcher.flush(System.nanoTime());
+        Mockito.verify(channel).basicAck(2, true);
+        Mockito.verifyNoMoreInteractions(channel);
+    }
+
+
+    @Test
+    public void testRingGrowth()
+        throws IOException
+    {
+        Channel channel = Mockito.mock(Channel.class);
+        AckBatcher batcher = new AckBatcher(channel, new RabbitMetricsReporter(), 1000, 10000);
+        for ( long tag = 1; tag <= 200; tag++ ) {
+            batcher.registerDelivery(tag);
+        }
+        for ( long tag = 200; tag >= 1; tag-- ) {
+            Assert.assertTrue(batcher.ack(tag));
+        }
+        batcher.flush(System.nanoTime() + TimeUnit.SECONDS.toNanos(20));
+        Mockito.verify(channel).basicAck(200, true);
+        Mockito.verifyNoMoreInteractions(channel);
+    }
+}
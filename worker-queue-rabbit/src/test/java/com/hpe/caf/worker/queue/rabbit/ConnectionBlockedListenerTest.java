@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class ConnectionBlockedListenerTest
+{
+    @Test
+    public void testBlockedAndUnblocked()
+        throws InterruptedException
+    {
+        AtomicInteger changes = new AtomicInteger(0);
+        ConnectionBlockedListener listener = new ConnectionBlockedListener(Runnable::run, changes::incrementAndGet);
+        Assert.assertFalse(listener.isBlocked());
+        listener.handleBlocked("low on memory");
+        Assert.assertTrue(listener.isBlocked());
+        Assert.assertEquals(listener.getReason(), "low on memory");
+        Assert.assertEquals(changes.get(), 1);
+        Thread.sleep(20);
+        Assert.assertTrue(listener.getCurrentBlockedTime() >= 20);
+        listener.handleUnblocked();
+        Assert.assertFalse(listener.isBlocked());
+        Assert.assertNull(listener.getReason());
+        Assert.assertEquals(changes.get(), 2);
+        Assert.assertEquals(listener.getCurrentBlockedTime(), 0);
+        long blockedTime = listener.getBlockedTime();
+        Assert.assertTrue(blockedTime >= 20);
+        // a second unblocked notification changes nothing
+        listener.handleUnblocked();
+        Assert.assertEquals(changes.get(), 2);
+        Assert.assertEquals(listener.getBlockedTime(), blockedTime);
+    }
+
+
+    @Test
+    public void testResetOnRecovery()
+    {
+        AtomicInteger changes = new AtomicInteger(0);
+        ConnectionBlockedListener listener = new ConnectionBlockedListener(Runnable::run, changes::incrementAndGet);
+        listener.reset();
+        Assert.assertEquals(changes.get(), 0);
+        listener.handleBlocked(null);
+        Assert.assertEquals(listener.getReason(), "unknown");
+        listener.reset();
+        Assert.assertFalse(listener.isBlocked());
+        Assert.assertEquals(changes.get(), 2);
+    }
+
+
+    @Test
+    public void testExecutorShutDown()
+    {
+        ConnectionBlockedListener listener = new ConnectionBlockedListener(task -> {
+            throw new RejectedExecutionException();
+        }, () -> { });
+        listener.handleBlocked("low on disk");
+        Assert.assertTrue(listener.isBlocked());
+    }
+}
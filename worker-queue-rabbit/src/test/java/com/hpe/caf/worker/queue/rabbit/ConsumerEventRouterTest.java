@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import com.hpe.caf.util.rabbitmq.ConsumerAckEvent;
+import com.hpe.caf.util.rabbitmq.ConsumerDropEvent;
+import com.hpe.caf.util.rabbitmq.ConsumerRejectEvent;
+import com.hpe.caf.util.rabbitmq.Event;
+import com.hpe.caf.util.rabbitmq.QueueConsumer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+public class ConsumerEventRouterTest
+{
+    @Test
+    public void testSingleChannelUsesDeliveryTag()
+    {
+        BlockingQueue<Event<QueueConsumer>> q = new LinkedBlockingQueue<>();
+        ConsumerEventRouter router = new ConsumerEventRouter(q);
+        Assert.assertEquals(router.getMessageId(0, 101), 101);
+        router.ack(101);
+        Event<QueueConsumer> e = q.poll();
+        Assert.assertTrue(e instanceof ConsumerAckEvent);
+        Assert.assertEquals(((ConsumerAckEvent) e).getTag(), 101);
+    }
+
+
+    @Test
+    public void testRouteToOwningChannel()
+    {
+        List<BlockingQueue<Event<QueueConsumer>>> queues = new ArrayList<>();
+        for ( int i = 0; i < 3; i++ ) {
+            queues.add(new LinkedBlockingQueue<>());
+        }
+        ConsumerEventRouter router = new ConsumerEventRouter(queues);
+        long first = router.getMessageId(0, 7);
+        long second = router.getMessageId(1, 7);
+        long third = router.getMessageId(2, 7);
+        Assert.assertNotEquals(first, second);
+        Assert.assertNotEquals(second, third);
+        router.ack(first);
+        router.reject(second);
+        router.drop(third);
+        Event<QueueConsumer> e = queues.get(0).poll();
+        Assert.assertTrue(e instanceof ConsumerAckEvent);
+        Assert.assertEquals(((ConsumerAckEvent) e).getTag(), 7);
+        e = queues.get(1).poll();
+        Assert.assertTrue(e instanceof ConsumerRejectEvent);
+        Assert.assertEquals(((ConsumerRejectEvent) e).getTag(), 7);
+        e = queues.get(2).poll();
+        Assert.assertTrue(e instanceof ConsumerDropEvent);
+        Assert.assertEquals(((ConsumerDropEvent) e).getTag(), 7);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class PrefetchTunerTest
+{
+    @Test
+    public void testInitialPrefetchClamped()
+    {
+        Assert.assertEquals(new PrefetchTuner(4, 10, 100, 1000, 5).getPrefetch(), 10);
+        Assert.assertEquals(new PrefetchTuner(4, 1, 100, 1000, 500).getPrefetch(), 100);
+    }
+
+
+    @Test
+    public void testShortTasksRaisePrefetch()
+    {
+        PrefetchTuner tuner = new PrefetchTuner(4, 1, 1000, 1000, 5);
+        // 200 messages a second with a one second target wait wants 4 + 200 messages
+        int last = tuner.getPrefetch();
+        for ( int i = 0; i < 20; i++ ) {
+            int next = tuner.update(200, 10, 0);
+            Assert.assertTrue(next >= last);
+            last = next;
+        }
+        Assert.assertEquals(last, 204);
+    }
+
+
+    @Test
+    public void testLongTasksLowerPrefetch()
+    {
+        PrefetchTuner tuner = new PrefetchTuner(4, 1, 1000, 1000, 100);
+        // four threads taking a minute per task, with a backlog, should converge on the thread count plus one
+        for ( int i = 0; i < 20; i++ ) {
+            tuner.update(4.0 / 60, 3, 0);
+        }
+        Assert.assertEquals(tuner.getPrefetch(), 5);
+    }
+
+
+    @Test
+    public void testAckLatencyCounted()
+    {
+        PrefetchTuner tuner = new PrefetchTuner(4, 1, 1000, 0, 4);
+        for ( int i = 0; i < 20; i++ ) {
+            tuner.update(100, 10, 500);
+        }
+        Assert.assertEquals(tuner.getPrefetch(), 54);
+    }
+
+
+    @Test
+    public void testEmptyBacklogRaisesPrefetch()
+    {
+        PrefetchTuner tuner = new PrefetchTuner(4, 1, 1000, 0, 20);
+        Assert.assertEquals(tuner.update(1, 0, 0), 22);
+        Assert.assertEquals(tuner.update(1, -1, 0), 13);
+    }
+
+
+    @Test
+    public void testNoMessagesKeepsPrefetch()
+    {
+        PrefetchTuner tuner = new PrefetchTuner(4, 1, 1000, 1000, 50);
+        Assert.assertEquals(tuner.update(0, 0, 0), 50);
+    }
+
+
+    @Test
+    public void testBounds()
+    {
+        PrefetchTuner tuner = new PrefetchTuner(4, 8, 16, 1000, 10);
+        for ( int i = 0; i < 20; i++ ) {
+            tuner.update(1000, 0, 0);
+        }
+        Assert.assertEquals(tuner.getPrefetch(), 16);
+        for ( int i = 0; i < 20; i++ ) {
+            tuner.update(0.001, 5, 0);
+        }
+        Assert.assertEquals(tuner.getPrefetch(), 8);
+    }
+
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidBounds()
+    {
+        new PrefetchTuner(4, 10, 5, 1000, 5);
+    }
+}
@@ -32,14 +32,21 @@ import org.mockito.Mockito;
 import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 
 public class RabbitWorkerQueueConsumerTest
@@ -70,7 +77,7 @@ public class RabbitWorkerQueueConsumerTest
             latch.countDown();
             return null;
         };
-        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(), Mockito.anyMap());
+        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
         WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, consumerEvents, channel, publisherEvents, retryKey, 1);
         DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
         Thread t = new Thread(consumer);
@@ -98,7 +105,7 @@ public class RabbitWorkerQueueConsumerTest
         Answer<Void> a = invocationOnMock -> {
             throw new InvalidTaskException("blah");
         };
-        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(), Mockito.anyMap());
+        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
         WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, consumerEvents, channel, publisherEvents, retryKey, 1);
         DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
         Thread t = new Thread(consumer);
@@ -134,7 +141,7 @@ public class RabbitWorkerQueueConsumerTest
         Answer<Void> a = invocationOnMock -> {
             throw new TaskRejectedException("blah");
         };
-        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(), Mockito.anyMap());
+        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
         WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, consumerEvents, channel, publisherEvents, retryKey, 1);
         DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
         Thread t = new Thread(consumer);
@@ -153,6 +160,201 @@ public class RabbitWorkerQueueConsumerTest
     }
 
 
+    /**
+     * Send in a new message and verify that if it cannot be republished because the publisher event queue is full and
+     * refuses it, the message is rejected back to its queue instead.
+     */
+    @Test
+    public void testHandleDeliveryRejectedPublisherQueueFull()
+        throws IOException, InterruptedException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BoundedEventQueue<WorkerPublisher> publisherEvents = new BoundedEventQueue<>(1, OverflowPolicy.REJECT);
+        publisherEvents.add(Mockito.mock(WorkerPublishQueueEvent.class));
+        Channel channel = Mockito.mock(Channel.class);
+        CountDownLatch latch = new CountDownLatch(1);
+        Mockito.doAnswer(invocationOnMock -> {
+            latch.countDown();
+            return null;
+        }).when(channel).basicReject(Mockito.anyLong(), Mockito.anyBoolean());
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        Answer<Void> a = invocationOnMock -> {
+            throw new TaskRejectedException("blah");
+        };
+        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, consumerEvents, channel, publisherEvents, retryKey, 1);
+        DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
+        Thread t = new Thread(consumer);
+        t.start();
+        AMQP.BasicProperties prop = Mockito.mock(AMQP.BasicProperties.class);
+        Mockito.when(prop.getHeaders()).thenReturn(Collections.emptyMap());
+        consumer.handleDelivery("consumer", newEnv, prop, data);
+        Assert.assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        Mockito.verify(channel, Mockito.times(1)).basicReject(id, true);
+        Assert.assertEquals(publisherEvents.size(), 1);
+        consumer.shutdown();
+    }
+
+
+    /**
+     * Send in a new message with a decode executor and verify that the task registration happens on the executor, and
+     * that an InvalidTaskException thrown there still results in a publish request to the reject queue. The headers
+     * handed to worker-core name the queue the message was consumed from.
+     */
+    @Test
+    public void testHandleDeliveryOnDecodeExecutor()
+        throws IOException, InterruptedException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        AtomicReference<Thread> decodeThread = new AtomicReference<>();
+        AtomicReference<Map<String, Object>> taskHeaders = new AtomicReference<>();
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        Answer<Void> a = invocationOnMock -> {
+            decodeThread.set(Thread.currentThread());
+            taskHeaders.set(((Supplier<Map<String, Object>>)invocationOnMock.getArguments()[2]).get());
+            throw new InvalidTaskException("blah");
+        };
+        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, new ConsumerEventRouter(consumerEvents), 0, channel,
+                                                                   publisherEvents, retryKey, 1, RetryStrategy.REPUBLISH,
+                                                                   Collections.emptyList(), 1, 0, new InputQueueMetrics(), testQueue, decodeExecutor);
+        DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
+        Thread t = new Thread(consumer);
+        t.start();
+        AMQP.BasicProperties prop = Mockito.mock(AMQP.BasicProperties.class);
+        Mockito.when(prop.getHeaders()).thenReturn(Collections.emptyMap());
+        consumer.handleDelivery("consumer", newEnv, prop, data);
+        Event<WorkerPublisher> pubEvent = publisherEvents.poll(1, TimeUnit.SECONDS);
+        Assert.assertNotNull(pubEvent);
+        Assert.assertNotNull(decodeThread.get());
+        Assert.assertNotSame(decodeThread.get(), t);
+        Assert.assertEquals(taskHeaders.get().get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_INPUT_QUEUE), testQueue);
+        WorkerPublisher publisher = Mockito.mock(WorkerPublisher.class);
+        ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+        pubEvent.handleEvent(publisher);
+        Mockito.verify(publisher, Mockito.times(1)).handlePublish(Mockito.eq(data), Mockito.eq(retryKey), Mockito.eq(id), captor.capture());
+        Assert.assertEquals(WorkerQueueConsumerImpl.REJECTED_REASON_TASKMESSAGE,
+                            captor.getValue().get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED));
+        consumer.shutdown();
+        decodeExecutor.shutdownNow();
+    }
+
+
+    /**
+     * Send in a new message with a decode executor and verify that if the task registration fails unexpectedly there,
+     * the message is still rejected back to its queue by the consumer.
+     */
+    @Test
+    public void testHandleDeliveryOnDecodeExecutorFailed()
+        throws IOException, InterruptedException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        CountDownLatch latch = new CountDownLatch(1);
+        Mockito.doAnswer(invocationOnMock -> {
+            latch.countDown();
+            return null;
+        }).when(channel).basicReject(Mockito.anyLong(), Mockito.anyBoolean());
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        Answer<Void> a = invocationOnMock -> {
+            throw new IllegalStateException("blah");
+        };
+        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, new ConsumerEventRouter(consumerEvents), 0, channel,
+                                                                   publisherEvents, retryKey, 1, RetryStrategy.REPUBLISH,
+                                                                   Collections.emptyList(), 1, 0, new InputQueueMetrics(), testQueue, decodeExecutor);
+        DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
+        Thread t = new Thread(consumer);
+        t.start();
+        AMQP.BasicProperties prop = Mockito.mock(AMQP.BasicProperties.class);
+        Mockito.when(prop.getHeaders()).thenReturn(Collections.emptyMap());
+        consumer.handleDelivery("consumer", newEnv, prop, data);
+        Assert.assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        Mockito.verify(channel, Mockito.times(1)).basicReject(id, true);
+        Assert.assertTrue(publisherEvents.isEmpty());
+        consumer.shutdown();
+        decodeExecutor.shutdownNow();
+    }
+
+
+    /**
+     * Send in a new message with a decode executor that has been shut down and verify that the message is rejected
+     * back to its queue rather than left unsettled.
+     */
+    @Test
+    public void testHandleDeliveryOnDecodeExecutorShutDown()
+        throws IOException, InterruptedException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        CountDownLatch latch = new CountDownLatch(1);
+        Mockito.doAnswer(invocationOnMock -> {
+            latch.countDown();
+            return null;
+        }).when(channel).basicReject(Mockito.anyLong(), Mockito.anyBoolean());
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+        decodeExecutor.shutdownNow();
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, new ConsumerEventRouter(consumerEvents), 0, channel,
+                                                                   publisherEvents, retryKey, 1, RetryStrategy.REPUBLISH,
+                                                                   Collections.emptyList(), 1, 0, new InputQueueMetrics(), testQueue, decodeExecutor);
+        DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
+        Thread t = new Thread(consumer);
+        t.start();
+        AMQP.BasicProperties prop = Mockito.mock(AMQP.BasicProperties.class);
+        Mockito.when(prop.getHeaders()).thenReturn(Collections.emptyMap());
+        consumer.handleDelivery("consumer", newEnv, prop, data);
+        Assert.assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        Mockito.verify(channel, Mockito.times(1)).basicReject(id, true);
+        Mockito.verify(callback, Mockito.never()).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        Assert.assertTrue(publisherEvents.isEmpty());
+        consumer.shutdown();
+    }
+
+
+    /**
+     * Send in a message that has already been delayed once and verify that if the task registration throws a
+     * TaskRejectedException it is sent to the second delay queue with the delay count incremented.
+     */
+    @Test
+    public void testHandleDeliveryRejectedDelayed()
+        throws IOException, InterruptedException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        Answer<Void> a = invocationOnMock -> {
+            throw new TaskRejectedException("blah");
+        };
+        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        List<String> delayQueues = Arrays.asList(RabbitUtil.getDelayQueueName(testQueue, 1000), RabbitUtil.getDelayQueueName(testQueue, 10000));
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, new ConsumerEventRouter(consumerEvents), 0, channel,
+                                                                   publisherEvents, retryKey, 1, RetryStrategy.REPUBLISH, delayQueues, 1, 0,
+                                                                   new InputQueueMetrics());
+        DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
+        Thread t = new Thread(consumer);
+        t.start();
+        AMQP.BasicProperties prop = Mockito.mock(AMQP.BasicProperties.class);
+        Mockito.when(prop.getHeaders()).thenReturn(Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_DELAYED, "1"));
+        consumer.handleDelivery("consumer", newEnv, prop, data);
+        Event<WorkerPublisher> pubEvent = publisherEvents.poll(1, TimeUnit.SECONDS);
+        Assert.assertNotNull(pubEvent);
+        WorkerPublisher publisher = Mockito.mock(WorkerPublisher.class);
+        ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+        pubEvent.handleEvent(publisher);
+        Mockito.verify(publisher, Mockito.times(1)).handlePublish(Mockito.eq(data), Mockito.eq(delayQueues.get(1)), Mockito.eq(id), captor.capture());
+        Assert.assertEquals("2", captor.getValue().get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_DELAYED));
+        consumer.shutdown();
+    }
+
+
     /**
      * Send in a message marked as redelivered and verify that a new publish request is sent to the retry queue
      * with the appropriate headers stamped.
@@ -220,6 +422,104 @@ public class RabbitWorkerQueueConsumerTest
     }
 
 
+    /**
+     * Send in a redelivered message with a delivery count header and verify that, with the DELIVERY_COUNT strategy,
+     * it is handed straight back to the worker with the retry count stamped in its headers rather than republished.
+     */
+    @Test
+    public void testHandleRedeliveryDeliveryCount()
+        throws IOException, InterruptedException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        CountDownLatch latch = new CountDownLatch(1);
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        Answer<Void> a = invocationOnMock -> {
+            latch.countDown();
+            return null;
+        };
+        Mockito.doAnswer(a).when(callback).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        RabbitMetricsReporter retryMetrics = new RabbitMetricsReporter();
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, retryMetrics, new ConsumerEventRouter(consumerEvents), 0, channel,
+                                                                   publisherEvents, retryKey, 2, RetryStrategy.DELIVERY_COUNT,
+                                                                   Collections.emptyList(), 1, 0, new InputQueueMetrics());
+        DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
+        Thread t = new Thread(consumer);
+        t.start();
+        AMQP.BasicProperties prop = Mockito.mock(AMQP.BasicProperties.class);
+        Mockito.when(prop.getHeaders()).thenReturn(Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_DELIVERY_COUNT, 1L));
+        consumer.handleDelivery("consumer", redeliveredEnv, prop, data);
+        Assert.assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        Assert.assertNull(publisherEvents.poll());
+        Assert.assertEquals(retryMetrics.getMessagesRetried(RetryStrategy.DELIVERY_COUNT), 1);
+        consumer.shutdown();
+    }
+
+
+    /**
+     * Send in a redelivered message and verify that, with the DEAD_LETTER strategy, it is rejected without being
+     * requeued rather than republished.
+     */
+    @Test
+    public void testHandleRedeliveryDeadLetter()
+        throws IOException, InterruptedException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        CountDownLatch channelLatch = new CountDownLatch(1);
+        Channel channel = Mockito.mock(Channel.class);
+        Answer<Void> a = invocationOnMock -> {
+            channelLatch.countDown();
+            return null;
+        };
+        Mockito.doAnswer(a).when(channel).basicReject(id, false);
+        RabbitMetricsReporter retryMetrics = new RabbitMetricsReporter();
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(mockCallback, retryMetrics, new ConsumerEventRouter(consumerEvents), 0, channel,
+                                                                   publisherEvents, retryKey, 2, RetryStrategy.DEAD_LETTER,
+                                                                   Collections.emptyList(), 1, 0, new InputQueueMetrics());
+        DefaultRabbitConsumer consumer = new DefaultRabbitConsumer(consumerEvents, impl);
+        Thread t = new Thread(consumer);
+        t.start();
+        AMQP.BasicProperties prop = Mockito.mock(AMQP.BasicProperties.class);
+        Map<String, Object> death = new HashMap<>();
+        death.put("reason", "rejected");
+        death.put("count", 1L);
+        Mockito.when(prop.getHeaders()).thenReturn(Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_DEATH, Collections.singletonList(death)));
+        consumer.handleDelivery("consumer", redeliveredEnv, prop, data);
+        Assert.assertTrue(channelLatch.await(1000, TimeUnit.MILLISECONDS));
+        Assert.assertNull(publisherEvents.poll());
+        Assert.assertEquals(retryMetrics.getMessagesRetried(RetryStrategy.DEAD_LETTER), 1);
+        consumer.shutdown();
+    }
+
+
+    /**
+     * Pause the consumer and verify that deliveries are held until it is resumed, and that deliveries held when the
+     * connection is recovered are never handed over.
+     */
+    @Test
+    public void testHandleDeliveryPaused()
+        throws WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, consumerEvents, channel, publisherEvents, retryKey, 1);
+        impl.pause();
+        impl.processDelivery(new Delivery(newEnv, data, Collections.emptyMap()));
+        Mockito.verify(callback, Mockito.never()).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        impl.resume();
+        Mockito.verify(callback, Mockito.times(1)).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        impl.pause();
+        impl.processDelivery(new Delivery(new Envelope(id + 1, false, "", testQueue), data, Collections.emptyMap()));
+        impl.discardHeldDeliveries();
+        impl.resume();
+        Mockito.verify(callback, Mockito.times(1)).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+    }
+
+
     /**
      * Verify an ack request sends the appropriate signal to RabbitMQ.
      */
@@ -297,4 +597,89 @@ public class RabbitWorkerQueueConsumerTest
         consumer.shutdown();
     }
 
+
+    /**
+     * Send in an envelope and verify that each message it holds is registered as a task, and the envelope is only
+     * acknowledged once all of them have been.
+     */
+    @Test
+    public void testHandleEnvelope()
+        throws IOException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        RabbitMetricsReporter envelopeMetrics = new RabbitMetricsReporter();
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, envelopeMetrics, consumerEvents, channel, publisherEvents, retryKey, 1);
+        byte[] other = "other".getBytes(StandardCharsets.UTF_8);
+        impl.processDelivery(new Delivery(newEnv, TaskEnvelope.pack(Arrays.asList(data, other)),
+                                          Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_ENVELOPE, 2)));
+        ArgumentCaptor<String> ids = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<ByteBuffer> bodies = ArgumentCaptor.forClass(ByteBuffer.class);
+        Mockito.verify(callback, Mockito.times(2)).registerNewTask(ids.capture(), bodies.capture(), Mockito.any());
+        Assert.assertEquals(bodies.getAllValues().get(0), ByteBuffer.wrap(data));
+        Assert.assertEquals(bodies.getAllValues().get(1), ByteBuffer.wrap(other));
+        Assert.assertNotEquals(ids.getAllValues().get(0), ids.getAllValues().get(1));
+        Assert.assertEquals(envelopeMetrics.getMessagesReceived(), 2);
+        Assert.assertEquals(envelopeMetrics.getEnvelopesReceived(), 1);
+        impl.processAck(Long.parseLong(ids.getAllValues().get(1)));
+        Mockito.verify(channel, Mockito.never()).basicAck(Mockito.anyLong(), Mockito.anyBoolean());
+        impl.processAck(Long.parseLong(ids.getAllValues().get(0)));
+        Mockito.verify(channel, Mockito.times(1)).basicAck(id, false);
+    }
+
+
+    /**
+     * Send in an envelope and verify that it is rejected once all of its messages have completed if any of them was
+     * rejected.
+     */
+    @Test
+    public void testHandleEnvelopeRejected()
+        throws IOException, WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, consumerEvents, channel, publisherEvents, retryKey, 1);
+        impl.processDelivery(new Delivery(newEnv, TaskEnvelope.pack(Arrays.asList(data, data, data)),
+                                          Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_ENVELOPE, 3)));
+        ArgumentCaptor<String> ids = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(callback, Mockito.times(3)).registerNewTask(ids.capture(), Mockito.any(ByteBuffer.class), Mockito.any());
+        impl.processReject(Long.parseLong(ids.getAllValues().get(0)));
+        impl.processAck(Long.parseLong(ids.getAllValues().get(1)));
+        // settling the same message twice must not complete the envelope
+        impl.processAck(Long.parseLong(ids.getAllValues().get(1)));
+        Mockito.verifyNoMoreInteractions(channel);
+        impl.processAck(Long.parseLong(ids.getAllValues().get(2)));
+        Mockito.verify(channel, Mockito.times(1)).basicReject(id, true);
+        Mockito.verifyNoMoreInteractions(channel);
+    }
+
+
+    /**
+     * Send in an envelope that does not hold the number of messages it claims to, and verify it is published to the
+     * retry queue as an invalid task message.
+     */
+    @Test
+    public void testHandleEnvelopeInvalid()
+        throws WorkerException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        WorkerQueueConsumerImpl impl = new WorkerQueueConsumerImpl(callback, metrics, consumerEvents, channel, publisherEvents, retryKey, 1);
+        byte[] envelope = TaskEnvelope.pack(Collections.singletonList(data));
+        impl.processDelivery(new Delivery(newEnv, envelope, Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_ENVELOPE, 2)));
+        Mockito.verify(callback, Mockito.never()).registerNewTask(Mockito.any(), Mockito.any(ByteBuffer.class), Mockito.any());
+        Event<WorkerPublisher> pubEvent = publisherEvents.poll();
+        Assert.assertNotNull(pubEvent);
+        WorkerPublisher publisher = Mockito.mock(WorkerPublisher.class);
+        pubEvent.handleEvent(publisher);
+        Mockito.verify(publisher).handlePublish(envelope, retryKey, id,
+                                                Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_REJECTED,
+                                                                         WorkerQueueConsumerImpl.REJECTED_REASON_TASKMESSAGE));
+    }
 }
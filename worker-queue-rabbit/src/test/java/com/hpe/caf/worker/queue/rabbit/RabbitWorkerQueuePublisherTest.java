@@ -19,15 +19,23 @@ package com.hpe.caf.worker.queue.rabbit;
 import com.hpe.caf.util.rabbitmq.ConsumerRejectEvent;
 import com.hpe.caf.util.rabbitmq.Event;
 import com.hpe.caf.util.rabbitmq.EventPoller;
+import com.hpe.caf.util.rabbitmq.MessageCompression;
 import com.hpe.caf.util.rabbitmq.QueueConsumer;
+import com.hpe.caf.util.rabbitmq.RabbitHeaders;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import org.mockito.AdditionalMatchers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -81,6 +89,21 @@ public class RabbitWorkerQueuePublisherTest
     }
 
 
+    @Test
+    public void testHandlePublishPriority()
+            throws IOException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        WorkerConfirmListener listener = Mockito.mock(WorkerConfirmListener.class);
+        WorkerPublisher impl = new WorkerPublisherImpl(channel, metrics, consumerEvents, listener);
+        impl.handlePublish(data, testQueue, id, Collections.singletonMap(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_PRIORITY, 7));
+        ArgumentCaptor<AMQP.BasicProperties> captor = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        Mockito.verify(channel).basicPublish(Mockito.any(), Mockito.eq(testQueue), captor.capture(), Mockito.eq(data));
+        Assert.assertEquals(captor.getValue().getPriority(), Integer.valueOf(7));
+    }
+
+
     @Test
     public void testHandlePublishFail()
             throws IOException, InterruptedException
@@ -104,4 +127,87 @@ public class RabbitWorkerQueuePublisherTest
         Assert.assertEquals(0, publisherEvents.size());
         Assert.assertEquals(0, consumerEvents.size());
     }
+
+
+    @Test
+    public void testHandlePublishBatch()
+        throws IOException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        BlockingQueue<Event<WorkerPublisher>> publisherEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        WorkerConfirmListener listener = Mockito.mock(WorkerConfirmListener.class);
+        RabbitMetricsReporter batchMetrics = new RabbitMetricsReporter();
+        WorkerPublisher impl = new WorkerPublisherImpl(channel, batchMetrics, consumerEvents, listener);
+        EventPoller<WorkerPublisher> publisher = new EventPoller<>(2, publisherEvents, impl);
+        publisherEvents.add(new WorkerPublishQueueEvent(data, testQueue, id));
+        publisherEvents.add(new WorkerPublishQueueEvent(data, testQueue, id + 1));
+        publisherEvents.add(new WorkerPublishQueueEvent(data, testQueue, id + 2, Collections.singletonMap("key", "value")));
+        publisherEvents.add(target -> publisher.shutdown());
+        publisher.run();
+        ArgumentCaptor<AMQP.BasicProperties> captor = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        Mockito.verify(channel, Mockito.times(3)).basicPublish(Mockito.any(), Mockito.eq(testQueue), captor.capture(), Mockito.eq(data));
+        List<AMQP.BasicProperties> properties = captor.getAllValues();
+        Assert.assertSame(properties.get(0), properties.get(1));
+        Assert.assertEquals(properties.get(2).getHeaders().get("key"), "value");
+        Assert.assertEquals(properties.get(2).getDeliveryMode(), properties.get(0).getDeliveryMode());
+        // the shutdown event is part of the batch but is not a publish
+        Assert.assertEquals(batchMetrics.getPublishBatchCount(3), 1);
+        Assert.assertEquals(batchMetrics.getAveragePublishBatchSize(), 3.0);
+        Assert.assertEquals(batchMetrics.getMessagesPublished(), 3);
+    }
+
+
+    @Test
+    public void testHandlePublishEnvelope()
+        throws IOException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        Mockito.when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L, 3L);
+        WorkerConfirmListener listener = Mockito.mock(WorkerConfirmListener.class);
+        RabbitMetricsReporter envelopeMetrics = new RabbitMetricsReporter();
+        WorkerPublisherImpl impl = new WorkerPublisherImpl(channel, envelopeMetrics, new ConsumerEventRouter(consumerEvents), listener, 2, 65536);
+        impl.handlePublish(data, testQueue, id, Collections.emptyMap());
+        impl.handlePublish(data, testQueue, id + 1, null);
+        impl.handlePublish(data, testQueue, id + 2, Collections.emptyMap());
+        impl.handlePublish(data, testQueue, id + 3, Collections.singletonMap("key", "value"));
+        ArgumentCaptor<AMQP.BasicProperties> captor = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        Mockito.verify(channel).basicPublish(Mockito.any(), Mockito.eq(testQueue), captor.capture(),
+                                             AdditionalMatchers.aryEq(TaskEnvelope.pack(Arrays.asList(data, data))));
+        Assert.assertEquals(captor.getValue().getHeaders().get(RabbitHeaders.RABBIT_HEADER_CAF_WORKER_ENVELOPE), 2);
+        Mockito.verify(listener).registerResponseSequence(Mockito.eq(1L), AdditionalMatchers.aryEq(new long[]{ id, id + 1 }));
+        Mockito.verify(listener).registerResponseSequence(2L, id + 3);
+        // the last result on its own is published as a plain message at the end of the batch
+        impl.batchComplete(4);
+        Mockito.verify(listener).registerResponseSequence(3L, id + 2);
+        Mockito.verify(channel, Mockito.times(2)).basicPublish(Mockito.any(), Mockito.eq(testQueue), Mockito.any(), Mockito.eq(data));
+        Assert.assertEquals(envelopeMetrics.getEnvelopesPublished(), 1);
+        Assert.assertEquals(envelopeMetrics.getMessagesPublished(), 4);
+    }
+
+
+    @Test
+    public void testHandlePublishCompressed()
+        throws IOException
+    {
+        BlockingQueue<Event<QueueConsumer>> consumerEvents = new LinkedBlockingQueue<>();
+        Channel channel = Mockito.mock(Channel.class);
+        WorkerConfirmListener listener = Mockito.mock(WorkerConfirmListener.class);
+        RabbitMetricsReporter compressionMetrics = new RabbitMetricsReporter();
+        WorkerPublisherImpl impl = new WorkerPublisherImpl(channel, compressionMetrics, new ConsumerEventRouter(consumerEvents), listener,
+                                                           1, 65536, 64, 6);
+        byte[] large = new byte[1024];
+        impl.handlePublish(data, testQueue, id, Collections.emptyMap());
+        impl.handlePublish(large, testQueue, id + 1, Collections.emptyMap());
+        Mockito.verify(channel).basicPublish(Mockito.any(), Mockito.eq(testQueue), Mockito.any(), Mockito.eq(data));
+        ArgumentCaptor<AMQP.BasicProperties> properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        ArgumentCaptor<byte[]> body = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(channel, Mockito.times(2)).basicPublish(Mockito.any(), Mockito.eq(testQueue), properties.capture(), body.capture());
+        Assert.assertNull(properties.getAllValues().get(0).getContentEncoding());
+        Assert.assertEquals(properties.getAllValues().get(1).getContentEncoding(), MessageCompression.DEFLATE);
+        Assert.assertEquals(MessageCompression.inflate(body.getAllValues().get(1)), large);
+        Assert.assertEquals(compressionMetrics.getMessagesCompressed(), 1);
+        Assert.assertTrue(compressionMetrics.getCompressionRatio() > 1);
+    }
 }
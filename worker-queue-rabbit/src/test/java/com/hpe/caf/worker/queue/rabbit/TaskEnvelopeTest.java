@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import com.hpe.caf.api.worker.InvalidTaskException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+
+public class TaskEnvelopeTest
+{
+    @Test
+    public void testPackAndUnpack()
+        throws InvalidTaskException
+    {
+        byte[] first = "first".getBytes(StandardCharsets.UTF_8);
+        byte[] empty = new byte[0];
+        byte[] last = "last".getBytes(StandardCharsets.UTF_8);
+        byte[] envelope = TaskEnvelope.pack(Arrays.asList(first, empty, last));
+        Assert.assertEquals(envelope.length, TaskEnvelope.getFrameSize(first) + TaskEnvelope.getFrameSize(empty) + TaskEnvelope.getFrameSize(last));
+        List<byte[]> frames = TaskEnvelope.unpack(envelope, 3);
+        Assert.assertEquals(frames.size(), 3);
+        Assert.assertEquals(frames.get(0), first);
+        Assert.assertEquals(frames.get(1), empty);
+        Assert.assertEquals(frames.get(2), last);
+    }
+
+
+    @Test(expectedExceptions = InvalidTaskException.class)
+    public void testUnpackTooFew()
+        throws InvalidTaskException
+    {
+        TaskEnvelope.unpack(TaskEnvelope.pack(Arrays.asList(new byte[3], new byte[4])), 3);
+    }
+
+
+    @Test(expectedExceptions = InvalidTaskException.class)
+    public void testUnpackTrailingData()
+        throws InvalidTaskException
+    {
+        TaskEnvelope.unpack(TaskEnvelope.pack(Arrays.asList(new byte[3], new byte[4])), 1);
+    }
+
+
+    @Test(expectedExceptions = InvalidTaskException.class)
+    public void testUnpackTruncated()
+        throws InvalidTaskException
+    {
+        byte[] envelope = TaskEnvelope.pack(Arrays.asList(new byte[3], new byte[4]));
+        TaskEnvelope.unpack(Arrays.copyOf(envelope, envelope.length - 1), 2);
+    }
+}
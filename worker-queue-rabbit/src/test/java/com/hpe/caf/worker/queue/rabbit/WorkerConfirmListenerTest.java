@@ -240,4 +240,49 @@ public class WorkerConfirmListenerTest
         conf.registerResponseSequence(1, 100);
         conf.registerResponseSequence(1, 100);
     }
+
+
+    @Test
+    public void testInFlightCount()
+        throws IOException
+    {
+        BlockingQueue<Event<QueueConsumer>> q = new LinkedBlockingQueue<>();
+        WorkerConfirmListener conf = new WorkerConfirmListener(q);
+        conf.registerResponseSequence(1, 100);
+        conf.registerResponseSequence(2, 200);
+        conf.registerResponseSequence(3, 300);
+        Assert.assertEquals(conf.getInFlightCount(), 3);
+        conf.handleAck(2, true);
+        Assert.assertEquals(conf.getInFlightCount(), 1);
+        Assert.assertEquals(q.size(), 2);
+        Assert.assertTrue(conf.getAverageConfirmLatency() >= 0);
+    }
+
+
+    @Test
+    public void testAckMultipleBeyondInitialCapacity()
+        throws IOException
+    {
+        BlockingQueue<Event<QueueConsumer>> q = new LinkedBlockingQueue<>();
+        WorkerConfirmListener conf = new WorkerConfirmListener(q);
+        for ( long seq = 1000; seq > 0; seq-- ) {
+            conf.registerResponseSequence(seq, seq * 10);
+        }
+        conf.handleAck(300, false);
+        conf.handleAck(500, true);
+        Assert.assertEquals(q.size(), 500);
+        long previous = 0;
+        for ( Event<QueueConsumer> e : q ) {
+            Assert.assertTrue(e instanceof ConsumerAckEvent);
+            long tag = ((ConsumerAckEvent) e).getTag();
+            if ( tag != 3000 ) {
+                Assert.assertTrue(tag > previous);
+                previous = tag;
+            }
+        }
+        Assert.assertEquals(conf.getInFlightCount(), 500);
+        conf.handleAck(1000, true);
+        Assert.assertEquals(conf.getInFlightCount(), 0);
+        Assert.assertEquals(q.size(), 1000);
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015-2017 Hewlett Packard Enterprise Development LP.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hpe.caf.worker.queue.rabbit;
+
+
+import com.hpe.caf.api.worker.TaskCallback;
+import com.hpe.caf.util.rabbitmq.Event;
+import com.hpe.caf.util.rabbitmq.QueueConsumer;
+import com.rabbitmq.client.Connection;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+public class WorkerConnectionListenerTest
+{
+    @Test
+    public void testRecoveryClearsDeclaredQueues()
+    {
+        BlockingQueue<Event<QueueConsumer>> q = new LinkedBlockingQueue<>();
+        WorkerConfirmListener conf = new WorkerConfirmListener(q);
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        Set<String> declaredQueues = ConcurrentHashMap.newKeySet();
+        declaredQueues.add("output");
+        WorkerConnectionListener listener = new WorkerConnectionListener(callback, conf, declaredQueues);
+        listener.onRecoveryStarted(Mockito.mock(Connection.class));
+        Assert.assertTrue(declaredQueues.isEmpty());
+    }
+
+
+    @Test
+    public void testRecoveryCompletedAbortsTasks()
+    {
+        BlockingQueue<Event<QueueConsumer>> q = new LinkedBlockingQueue<>();
+        TaskCallback callback = Mockito.mock(TaskCallback.class);
+        WorkerConnectionListener listener = new WorkerConnectionListener(callback, new WorkerConfirmListener(q));
+        listener.onRecoveryCompleted(Mockito.mock(Connection.class));
+        Mockito.verify(callback).abortTasks();
+    }
+}